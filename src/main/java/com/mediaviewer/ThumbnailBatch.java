@@ -0,0 +1,127 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ThumbnailPipeline;
+import com.mediaviewer.utils.ThumbnailPyramid;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Command-line batch generation of thumbnails into the shared cache, using
+ * all cores and no JavaFX.
+ *
+ * Usage: ThumbnailBatch [--threads N] [--size N] directory...
+ */
+public class ThumbnailBatch {
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of(
+        "jpg", "jpeg", "png", "gif", "bmp", "tif", "tiff",
+        "dng", "cr2", "nef", "arw", "orf", "rw2", "pef");
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int size = ThumbnailPyramid.largestLevel();
+        List<Path> roots = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--size":
+                    size = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    roots.add(Paths.get(args[i]));
+            }
+        }
+        if (roots.isEmpty()) {
+            System.err.println("Usage: ThumbnailBatch [--threads N] [--size N] directory...");
+            System.exit(2);
+        }
+
+        List<Path> files = new ArrayList<>();
+        for (Path root : roots) {
+            files.addAll(findImages(root));
+        }
+        System.out.println("Found " + files.size() + " images, generating with " + threads + " threads");
+
+        Result result = run(ThumbnailPipeline.getDefault(), files, size, threads);
+        ThumbnailPipeline.getDefault().getDiskCache().flush();
+        System.out.printf(Locale.ROOT, "Generated %d, already cached %d, failed %d in %.1fs (%.1f files/s)%n",
+                          result.generated, result.skipped, result.failed, result.seconds,
+                          result.seconds > 0 ? files.size() / result.seconds : 0);
+        System.exit(result.failed > 0 ? 1 : 0);
+    }
+
+    /**
+     * Image files under the given directory, by extension.
+     */
+    static List<Path> findImages(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                        .filter(path -> IMAGE_EXTENSIONS.contains(extension(path)))
+                        .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Generate thumbnails for the given files on a pool of worker threads.
+     */
+    static Result run(ThumbnailPipeline pipeline, List<Path> files, int size, int threads) throws InterruptedException {
+        AtomicInteger generated = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        for (Path file : files) {
+            executor.execute(() -> {
+                if (pipeline.getCached(file.toFile(), size) != null) {
+                    skipped.incrementAndGet();
+                } else if (pipeline.generate(file.toFile(), size) != null) {
+                    generated.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                    System.err.println("Failed: " + file);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new Result(generated.get(), skipped.get(), failed.get(), seconds);
+    }
+
+    private static String extension(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    static final class Result {
+        final int generated;
+        final int skipped;
+        final int failed;
+        final double seconds;
+
+        Result(int generated, int skipped, int failed, double seconds) {
+            this.generated = generated;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.seconds = seconds;
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package com.mediaviewer.controller;
 
 import com.mediaviewer.model.MediaFile;
+import com.mediaviewer.utils.BulkOrganizer;
+import com.mediaviewer.utils.FacetIndex;
+import com.mediaviewer.utils.FileOrganizer;
 import com.mediaviewer.utils.FileScanner;
+import com.mediaviewer.utils.FuzzyMatcher;
+import com.mediaviewer.utils.OrganizeJournal;
+import com.mediaviewer.utils.MediaCatalog;
 import com.mediaviewer.utils.ProjectExport;
 import com.mediaviewer.utils.ProjectTemplateManager;
 import com.mediaviewer.utils.ThumbnailGenerator;
+import com.mediaviewer.utils.ThumbnailPregenerator;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.VBox;
 import javafx.scene.layout.FlowPane;
 import javafx.stage.DirectoryChooser;
@@ -16,22 +26,32 @@ import javafx.stage.Stage;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.HashSet;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.time.format.DateTimeFormatter;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class DashboardController {
     
+    private static final Logger LOGGER = Logger.getLogger(DashboardController.class.getName());
+    
+    // Search keeps only the best matches, which keeps it interactive on huge catalogs
+    private static final int MAX_SEARCH_RESULTS = 2000;
+    
     @FXML
     private Button selectFolderButton;
     
@@ -86,6 +106,12 @@ public class DashboardController {
     @FXML
     private Label progressLabel;
     
+    @FXML
+    private CheckBox pregenerateThumbnails;
+    
+    @FXML
+    private Label pregenerationLabel;
+    
     @FXML
     private TabPane tabPane;
     
@@ -95,9 +121,21 @@ public class DashboardController {
     @FXML
     private ComboBox<String> dateRangeFilter;
     
+    @FXML
+    private ComboBox<String> sortOrderFilter;
+    
     @FXML
     private Slider sizeFilter;
     
+    @FXML
+    private Label sizeFilterLabel;
+    
+    @FXML
+    private ComboBox<String> resolutionFilter;
+    
+    @FXML
+    private CheckBox favoritesFilter;
+    
     @FXML
     private FlowPane tagPanel;
     
@@ -122,6 +160,15 @@ public class DashboardController {
     // Executor for background tasks
     private ExecutorService backgroundExecutor = Executors.newFixedThreadPool(2);
     
+    // Incremented on every filter change so stale results are dropped
+    private final AtomicLong filterGeneration = new AtomicLong();
+    
+    // Optional job that fills the thumbnail cache after each scan
+    private final ThumbnailPregenerator pregenerator = ThumbnailPregenerator.getDefault();
+    
+    private String activeTag;
+    private volatile Map<String, Integer> dateRangeCounts = new HashMap<>();
+    
     @FXML
     public void initialize() {
         fileScanner = new FileScanner();
@@ -131,19 +178,102 @@ public class DashboardController {
         selectFolderButton.setOnAction(event -> selectFolder());
         searchField.textProperty().addListener((observable, oldValue, newValue) -> handleSearch());
         
+        // Let the tabs report favorite and tag edits back to the facet index
+        if (imageTabController != null) {
+            imageTabController.setDashboardController(this);
+        }
+        if (videoTabController != null) {
+            videoTabController.setDashboardController(this);
+        }
+        if (projectTabController != null) {
+            projectTabController.setDashboardController(this);
+        }
+        
         // Initialize filter components
         setupFilters();
         
         // Initialize with zero counts
-        updateCounts();
+        updateCounts(fileScanner.getCatalog().getFacets().evaluate(new FacetIndex.Query()));
+        
+        setupPregeneration();
+        checkInterruptedOrganize();
+    }
+    
+    private void setupPregeneration() {
+        pregenerator.setProgressListener(progress ->
+            javafx.application.Platform.runLater(() -> showPregenerationProgress(progress)));
+        
+        pregenerateThumbnails.setSelected(ThumbnailPregenerator.isEnabled());
+        pregenerateThumbnails.setOnAction(e -> {
+            boolean enabled = pregenerateThumbnails.isSelected();
+            ThumbnailPregenerator.setEnabled(enabled);
+            if (!enabled) {
+                pregenerator.cancel();
+                pregenerationLabel.setText("");
+            } else if (currentFolder != null) {
+                startPregeneration();
+            }
+        });
+        
+        // Any scrolling, clicking or typing pauses the job until the user is idle again
+        tabPane.sceneProperty().addListener((obs, oldScene, scene) -> {
+            if (scene != null) {
+                scene.addEventFilter(ScrollEvent.ANY, e -> pregenerator.noteUserActivity());
+                scene.addEventFilter(MouseEvent.MOUSE_PRESSED, e -> pregenerator.noteUserActivity());
+                scene.addEventFilter(MouseEvent.MOUSE_DRAGGED, e -> pregenerator.noteUserActivity());
+                scene.addEventFilter(KeyEvent.KEY_PRESSED, e -> pregenerator.noteUserActivity());
+            }
+        });
+        
+        // Pick up a job left unfinished by the previous session
+        if (ThumbnailPregenerator.isEnabled()) {
+            pregenerator.resume();
+        }
+    }
+    
+    private void startPregeneration() {
+        List<Path> paths = new ArrayList<>();
+        for (MediaFile image : fileScanner.getImageFiles()) {
+            paths.add(image.getFilePath());
+        }
+        pregenerator.start(paths);
+    }
+    
+    private void showPregenerationProgress(ThumbnailPregenerator.Progress progress) {
+        if (progress.isFinished()) {
+            pregenerationLabel.setText("Thumbnails ready (" + progress.getGenerated() + " generated)");
+        } else {
+            pregenerationLabel.setText(String.format("Thumbnails: %d / %d (%.1f/s)%s",
+                progress.getCompleted(), progress.getTotal(), progress.getFilesPerSecond(),
+                progress.isPaused() ? " - paused" : ""));
+        }
     }
     
     private void setupFilters() {
         fileTypeFilter.getItems().addAll("All", "Images", "Videos", "Documents", "Projects", "Folders");
         dateRangeFilter.getItems().addAll("All Time", "Today", "This Week", "This Month");
+        sortOrderFilter.getItems().addAll("Default", "Largest", "Most Recent", "Highest Resolution");
+        resolutionFilter.getItems().addAll("Any Resolution", "Under 1024px", "1 - 12 MP", "12 - 40 MP", "Over 40 MP");
         
         fileTypeFilter.setOnAction(e -> applyFilters());
         dateRangeFilter.setOnAction(e -> applyFilters());
+        sortOrderFilter.setOnAction(e -> applyFilters());
+        resolutionFilter.setOnAction(e -> applyFilters());
+        favoritesFilter.setOnAction(e -> applyFilters());
+        
+        // Show how many results each date range would give under the current query
+        dateRangeFilter.setCellFactory(listView -> new ListCell<String>() {
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                if (empty || item == null) {
+                    setText(null);
+                } else {
+                    Integer count = dateRangeCounts.get(item);
+                    setText(count != null ? item + " (" + count + ")" : item);
+                }
+            }
+        });
         
         if (sizeFilter != null) {
             sizeFilter.valueProperty().addListener((obs, oldVal, newVal) -> applyFilters());
@@ -201,10 +331,13 @@ public class DashboardController {
         scanProgressBar.setVisible(false);
         progressLabel.setVisible(false);
         
+        activeTag = null;
         updateFolderInfo();
-        updateCounts();
-        updateTabs();
-        updateTagPanel();
+        applyFilters();
+        
+        if (ThumbnailPregenerator.isEnabled()) {
+            startPregeneration();
+        }
     }
     
     private void updateFolderInfo() {
@@ -221,210 +354,236 @@ public class DashboardController {
         }
     }
     
-    private void updateCounts() {
-        imageCountLabel.setText(String.valueOf(fileScanner.getImageFilesCount()));
-        videoCountLabel.setText(String.valueOf(fileScanner.getVideoFilesCount()));
-        documentCountLabel.setText(String.valueOf(fileScanner.getDocumentFilesCount()));
-        projectCountLabel.setText(String.valueOf(fileScanner.getProjectFilesCount()));
-        folderCountLabel.setText(String.valueOf(fileScanner.getNormalFoldersCount())); // Set folder count
+    // Counts reflect the active filters; each type is counted as if the type filter were not set
+    private void updateCounts(FacetIndex.Result result) {
+        imageCountLabel.setText(String.valueOf(result.getSectionCount(MediaCatalog.Section.IMAGES)));
+        videoCountLabel.setText(String.valueOf(result.getSectionCount(MediaCatalog.Section.VIDEOS)));
+        documentCountLabel.setText(String.valueOf(result.getSectionCount(MediaCatalog.Section.DOCUMENTS)));
+        projectCountLabel.setText(String.valueOf(result.getSectionCount(MediaCatalog.Section.PROJECTS)));
+        folderCountLabel.setText(String.valueOf(result.getSectionCount(MediaCatalog.Section.FOLDERS))); // Set folder count
         
         // Update size labels
-        imageSizeLabel.setText(formatFileSize(fileScanner.getImageFilesSize()));
-        videoSizeLabel.setText(formatFileSize(fileScanner.getVideoFilesSize()));
-        documentSizeLabel.setText(formatFileSize(fileScanner.getDocumentFilesSize()));
-        projectSizeLabel.setText(formatFileSize(fileScanner.getProjectFilesSize()));
-        folderSizeLabelUI.setText(formatFileSize(fileScanner.getNormalFoldersSize())); // Set folder size
-    }
-    
-    private void updateTabs() {
-        // Update each tab with the scanned data using background processing
-        CompletableFuture.runAsync(() -> {
-            List<MediaFile> images = fileScanner.getImageFiles();
-            List<MediaFile> videos = fileScanner.getVideoFiles();
-            List<MediaFile> documents = fileScanner.getDocumentFiles();
-            List<MediaFile> projects = fileScanner.getProjectFiles();
-            
-            // Update UI on JavaFX thread
-            javafx.application.Platform.runLater(() -> {
-                if (imageTabController != null) {
-                    imageTabController.updateImages(images);
-                }
-                if (videoTabController != null) {
-                    videoTabController.updateVideos(videos);
-                }
-                if (documentTabController != null) {
-                    documentTabController.updateDocuments(documents);
-                }
-                if (projectTabController != null) {
-                    projectTabController.updateProjects(projects);
-                    
-                    // Set the dashboard controller for the project tab
-                    projectTabController.setDashboardController(this);
-                }
-            });
-        }, backgroundExecutor);
+        imageSizeLabel.setText(formatFileSize(result.getSectionSize(MediaCatalog.Section.IMAGES)));
+        videoSizeLabel.setText(formatFileSize(result.getSectionSize(MediaCatalog.Section.VIDEOS)));
+        documentSizeLabel.setText(formatFileSize(result.getSectionSize(MediaCatalog.Section.DOCUMENTS)));
+        projectSizeLabel.setText(formatFileSize(result.getSectionSize(MediaCatalog.Section.PROJECTS)));
+        folderSizeLabelUI.setText(formatFileSize(result.getSectionSize(MediaCatalog.Section.FOLDERS))); // Set folder size
+        
+        if (favoritesFilter != null) {
+            favoritesFilter.setText("Favorites (" + result.getFavoriteCount() + ")");
+        }
     }
     
     @FXML
     private void handleSearch() {
         String query = searchField.getText().toLowerCase();
         
-        if (query.isEmpty()) {
-            // If search is empty, show all files
-            updateTabs();
+        if (query.trim().isEmpty()) {
+            // If search is empty, go back to the filtered view
+            applyFilters();
             return;
         }
         
-        // Filter files based on multiple criteria in background
+        // Searches share the filter generation so a late result never overwrites a newer one
+        long generation = filterGeneration.incrementAndGet();
+        
+        // Rank matches in background
         CompletableFuture.runAsync(() -> {
-            // Filter files based on multiple criteria
-            List<MediaFile> filteredImages = fileScanner.getImageFiles().stream()
-                .filter(file -> file.getFileName().toLowerCase().contains(query) || 
-                               file.getExtension().toLowerCase().contains(query) ||
-                               formatFileSize(file.getFileSize()).contains(query))
-                .collect(Collectors.toList());
+            MediaCatalog catalog = fileScanner.getCatalog();
             
-            List<MediaFile> filteredVideos = fileScanner.getVideoFiles().stream()
-                .filter(file -> file.getFileName().toLowerCase().contains(query) || 
-                               file.getExtension().toLowerCase().contains(query) ||
-                               formatFileSize(file.getFileSize()).contains(query))
-                .collect(Collectors.toList());
-            
-            List<MediaFile> filteredDocuments = fileScanner.getDocumentFiles().stream()
-                .filter(file -> file.getFileName().toLowerCase().contains(query) || 
-                               file.getExtension().toLowerCase().contains(query) ||
-                               formatFileSize(file.getFileSize()).contains(query))
-                .collect(Collectors.toList());
-            
-            List<MediaFile> filteredProjects = fileScanner.getProjectFiles().stream()
-                .filter(file -> file.getFileName().toLowerCase().contains(query) || 
-                               file.getFileType().toLowerCase().contains(query) ||
-                               formatFileSize(file.getFileSize()).contains(query))
-                .collect(Collectors.toList());
+            // Fuzzy, ranked top-K; results keep their rank order inside each tab
+            int[] ranked = FuzzyMatcher.search(catalog, query, MAX_SEARCH_RESULTS);
+            Map<MediaCatalog.Section, List<MediaFile>> results = new EnumMap<>(MediaCatalog.Section.class);
+            for (MediaCatalog.Section section : MediaCatalog.Section.values()) {
+                results.put(section, new ArrayList<>());
+            }
+            for (int id : ranked) {
+                results.get(catalog.getSection(id)).add(catalog.getFile(id));
+            }
             
             // Update UI on JavaFX thread
             javafx.application.Platform.runLater(() -> {
+                if (generation != filterGeneration.get()) {
+                    return;
+                }
+                
                 // Update tabs with filtered results
                 if (imageTabController != null) {
-                    imageTabController.updateImages(filteredImages);
+                    imageTabController.updateImages(results.get(MediaCatalog.Section.IMAGES));
                 }
                 if (videoTabController != null) {
-                    videoTabController.updateVideos(filteredVideos);
+                    videoTabController.updateVideos(results.get(MediaCatalog.Section.VIDEOS));
                 }
                 if (documentTabController != null) {
-                    documentTabController.updateDocuments(filteredDocuments);
+                    documentTabController.updateDocuments(results.get(MediaCatalog.Section.DOCUMENTS));
                 }
                 if (projectTabController != null) {
-                    projectTabController.updateProjects(filteredProjects);
+                    projectTabController.updateProjects(results.get(MediaCatalog.Section.PROJECTS));
                 }
             });
         }, backgroundExecutor);
     }
     
     private void applyFilters() {
+        runQuery(true);
+    }
+    
+    /**
+     * Evaluate the current filters against the catalog's bitmap indexes.
+     * @param refreshTabs false to only refresh the facet counts
+     */
+    private void runQuery(boolean refreshTabs) {
         String fileType = fileTypeFilter.getValue();
         String dateRange = dateRangeFilter.getValue();
+        String sortOrder = sortOrderFilter.getValue();
+        double sizeValue = sizeFilter != null ? sizeFilter.getValue() : 0;
+        boolean favoritesOnly = favoritesFilter.isSelected();
+        String resolution = resolutionFilter.getValue();
+        String tag = activeTag;
+        List<String> dateOptions = new ArrayList<>(dateRangeFilter.getItems());
+        
+        // Only the latest request may update the tabs, so results stay live while the slider is dragged
+        long generation = filterGeneration.incrementAndGet();
         
         // Apply filters in background
         CompletableFuture.runAsync(() -> {
-            List<MediaFile> initialImages = new ArrayList<>(fileScanner.getImageFiles());
-            List<MediaFile> initialVideos = new ArrayList<>(fileScanner.getVideoFiles());
-            List<MediaFile> initialDocuments = new ArrayList<>(fileScanner.getDocumentFiles());
-            List<MediaFile> initialProjects = new ArrayList<>(fileScanner.getProjectFiles());
-            List<MediaFile> initialFolders = new ArrayList<>(fileScanner.getNormalFolders()); // Get normal folders
+            MediaCatalog catalog = fileScanner.getCatalog();
+            long minSize = calculateMinSize(catalog, sizeValue);
             
-            List<MediaFile> filteredImages = initialImages;
-            List<MediaFile> filteredVideos = initialVideos;
-            List<MediaFile> filteredDocuments = initialDocuments;
-            List<MediaFile> filteredProjects = initialProjects;
-            List<MediaFile> filteredFolders = initialFolders;
-            
-            // Apply file type filter
+            FacetIndex.Query query = new FacetIndex.Query();
             if (fileType != null && !fileType.equals("All")) {
-                switch (fileType) {
-                    case "Images":
-                        filteredVideos = new ArrayList<>();
-                        filteredDocuments = new ArrayList<>();
-                        filteredProjects = new ArrayList<>();
-                        filteredFolders = new ArrayList<>();
-                        break;
-                    case "Videos":
-                        filteredImages = new ArrayList<>();
-                        filteredDocuments = new ArrayList<>();
-                        filteredProjects = new ArrayList<>();
-                        filteredFolders = new ArrayList<>();
-                        break;
-                    case "Documents":
-                        filteredImages = new ArrayList<>();
-                        filteredVideos = new ArrayList<>();
-                        filteredProjects = new ArrayList<>();
-                        filteredFolders = new ArrayList<>();
-                        break;
-                    case "Projects":
-                        filteredImages = new ArrayList<>();
-                        filteredVideos = new ArrayList<>();
-                        filteredDocuments = new ArrayList<>();
-                        filteredFolders = new ArrayList<>();
-                        break;
-                    case "Folders":
-                        filteredImages = new ArrayList<>();
-                        filteredVideos = new ArrayList<>();
-                        filteredDocuments = new ArrayList<>();
-                        filteredProjects = new ArrayList<>();
-                        break;
-                }
+                query.setSection(toSection(fileType));
             }
-            
-            // Apply date range filter
             if (dateRange != null && !dateRange.equals("All Time")) {
-                LocalDateTime filterDate = calculateFilterDate(dateRange);
-                
-                filteredImages = filteredImages.stream()
-                    .filter(file -> file.getLastModified().isAfter(filterDate))
-                    .collect(Collectors.toList());
-                    
-                filteredVideos = filteredVideos.stream()
-                    .filter(file -> file.getLastModified().isAfter(filterDate))
-                    .collect(Collectors.toList());
-                    
-                filteredDocuments = filteredDocuments.stream()
-                    .filter(file -> file.getLastModified().isAfter(filterDate))
-                    .collect(Collectors.toList());
-                    
-                filteredProjects = filteredProjects.stream()
-                    .filter(file -> file.getLastModified().isAfter(filterDate))
-                    .collect(Collectors.toList());
-                    
-                filteredFolders = filteredFolders.stream()
-                    .filter(file -> file.getLastModified().isAfter(filterDate))
-                    .collect(Collectors.toList());
+                query.setDateAfter(toEpochMillis(calculateFilterDate(dateRange)));
+            }
+            query.setMinSize(minSize);
+            query.setTag(tag);
+            query.setFavoritesOnly(favoritesOnly);
+            applyResolution(query, resolution);
+            
+            FacetIndex.Result result = catalog.getFacets().evaluate(query);
+            
+            Map<String, Integer> dateCounts = new HashMap<>();
+            for (String option : dateOptions) {
+                dateCounts.put(option, result.countDateAfter(toEpochMillis(calculateFilterDate(option))));
             }
             
-            // Store final results in final variables for lambda
-            final List<MediaFile> finalImages = filteredImages;
-            final List<MediaFile> finalVideos = filteredVideos;
-            final List<MediaFile> finalDocuments = filteredDocuments;
-            final List<MediaFile> finalProjects = filteredProjects;
+            Map<MediaCatalog.Section, List<MediaFile>> filtered = refreshTabs
+                ? catalog.resolve(result.getMatches(), toSortOrder(sortOrder))
+                : null;
+            
+            if (generation != filterGeneration.get()) {
+                return; // A newer filter request has superseded this one
+            }
             
             // Update UI on JavaFX thread
             javafx.application.Platform.runLater(() -> {
+                if (generation != filterGeneration.get()) {
+                    return;
+                }
+                if (sizeFilterLabel != null) {
+                    sizeFilterLabel.setText(minSize > 0 ? "≥ " + formatFileSize(minSize) : "Any size");
+                }
+                dateRangeCounts = dateCounts;
+                updateCounts(result);
+                updateTagPanel(result.getTagCounts());
+                
+                if (filtered == null) {
+                    return;
+                }
+                
                 // Update tabs with filtered results
                 if (imageTabController != null) {
-                    imageTabController.updateImages(finalImages);
+                    imageTabController.updateImages(filtered.get(MediaCatalog.Section.IMAGES));
                 }
                 if (videoTabController != null) {
-                    videoTabController.updateVideos(finalVideos);
+                    videoTabController.updateVideos(filtered.get(MediaCatalog.Section.VIDEOS));
                 }
                 if (documentTabController != null) {
-                    documentTabController.updateDocuments(finalDocuments);
+                    documentTabController.updateDocuments(filtered.get(MediaCatalog.Section.DOCUMENTS));
                 }
                 if (projectTabController != null) {
-                    projectTabController.updateProjects(finalProjects);
+                    projectTabController.updateProjects(filtered.get(MediaCatalog.Section.PROJECTS));
                 }
             });
         }, backgroundExecutor);
     }
     
+    /**
+     * Called by the tabs after a file's favorite flag or tags were edited.
+     */
+    public void onFileChanged(MediaFile mediaFile) {
+        fileScanner.getCatalog().getFacets().update(mediaFile);
+        runQuery(false);
+    }
+    
+    private long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    // The size slider is logarithmic: 0 means no limit and 100 means the largest file in the catalog
+    private long calculateMinSize(MediaCatalog catalog, double sliderValue) {
+        long maxSize = catalog.getSizeIndex().max();
+        if (sliderValue <= 0 || maxSize <= 1) {
+            return 0;
+        }
+        return Math.round(Math.pow(maxSize, sliderValue / 100.0));
+    }
+    
+    private void applyResolution(FacetIndex.Query query, String resolution) {
+        if (resolution == null) {
+            return;
+        }
+        switch (resolution) {
+            case "Under 1024px":
+                query.setMaxLongSide(1023);
+                break;
+            case "1 - 12 MP":
+                query.setPixelRange(1_000_000, 12_000_000 - 1);
+                break;
+            case "12 - 40 MP":
+                query.setPixelRange(12_000_000, 40_000_000 - 1);
+                break;
+            case "Over 40 MP":
+                query.setPixelRange(40_000_000, 0);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private MediaCatalog.Section toSection(String fileType) {
+        switch (fileType) {
+            case "Videos":
+                return MediaCatalog.Section.VIDEOS;
+            case "Documents":
+                return MediaCatalog.Section.DOCUMENTS;
+            case "Projects":
+                return MediaCatalog.Section.PROJECTS;
+            case "Folders":
+                return MediaCatalog.Section.FOLDERS;
+            default:
+                return MediaCatalog.Section.IMAGES;
+        }
+    }
+    
+    private MediaCatalog.SortOrder toSortOrder(String sortOrder) {
+        if (sortOrder == null) {
+            return MediaCatalog.SortOrder.SCAN_ORDER;
+        }
+        switch (sortOrder) {
+            case "Largest":
+                return MediaCatalog.SortOrder.LARGEST;
+            case "Most Recent":
+                return MediaCatalog.SortOrder.MOST_RECENT;
+            case "Highest Resolution":
+                return MediaCatalog.SortOrder.HIGHEST_RESOLUTION;
+            default:
+                return MediaCatalog.SortOrder.SCAN_ORDER;
+        }
+    }
+    
     private LocalDateTime calculateFilterDate(String dateRange) {
         LocalDateTime now = LocalDateTime.now();
         
@@ -440,69 +599,25 @@ public class DashboardController {
         }
     }
     
-    private void updateTagPanel() {
+    private void updateTagPanel(Map<String, Integer> tagCounts) {
         if (tagPanel == null) return;
         
         tagPanel.getChildren().clear();
-        
-        // Collect all tags from all files in background
-        CompletableFuture.runAsync(() -> {
-            Set<String> allTags = Stream.of(
-                fileScanner.getImageFiles().stream(),
-                fileScanner.getVideoFiles().stream(),
-                fileScanner.getDocumentFiles().stream(),
-                fileScanner.getProjectFiles().stream(),
-                fileScanner.getNormalFolders().stream()
-            )
-            .flatMap(s -> s)
-            .flatMap(file -> file.getTags().stream())
-            .collect(Collectors.toSet());
-            
-            // Update UI on JavaFX thread
-            javafx.application.Platform.runLater(() -> {
-                for (String tag : allTags) {
-                    Button tagButton = new Button(tag);
-                    tagButton.setOnAction(e -> filterByTag(tag));
-                    tagPanel.getChildren().add(tagButton);
-                }
-            });
-        }, backgroundExecutor);
+        for (Map.Entry<String, Integer> entry : tagCounts.entrySet()) {
+            String tag = entry.getKey();
+            Button tagButton = new Button(tag + " (" + entry.getValue() + ")");
+            if (tag.equals(activeTag)) {
+                tagButton.setStyle("-fx-font-weight: bold; -fx-border-color: #3498db;");
+            }
+            tagButton.setOnAction(e -> filterByTag(tag));
+            tagPanel.getChildren().add(tagButton);
+        }
     }
     
     private void filterByTag(String tag) {
-        List<MediaFile> filteredImages = fileScanner.getImageFiles().stream()
-            .filter(file -> file.getTags().contains(tag))
-            .collect(Collectors.toList());
-            
-        List<MediaFile> filteredVideos = fileScanner.getVideoFiles().stream()
-            .filter(file -> file.getTags().contains(tag))
-            .collect(Collectors.toList());
-            
-        List<MediaFile> filteredDocuments = fileScanner.getDocumentFiles().stream()
-            .filter(file -> file.getTags().contains(tag))
-            .collect(Collectors.toList());
-            
-        List<MediaFile> filteredProjects = fileScanner.getProjectFiles().stream()
-            .filter(file -> file.getTags().contains(tag))
-            .collect(Collectors.toList());
-            
-        List<MediaFile> filteredFolders = fileScanner.getNormalFolders().stream()
-            .filter(file -> file.getTags().contains(tag))
-            .collect(Collectors.toList());
-        
-        // Update tabs with filtered results
-        if (imageTabController != null) {
-            imageTabController.updateImages(filteredImages);
-        }
-        if (videoTabController != null) {
-            videoTabController.updateVideos(filteredVideos);
-        }
-        if (documentTabController != null) {
-            documentTabController.updateDocuments(filteredDocuments);
-        }
-        if (projectTabController != null) {
-            projectTabController.updateProjects(filteredProjects);
-        }
+        // Clicking the active tag again clears the tag filter
+        activeTag = tag.equals(activeTag) ? null : tag;
+        applyFilters();
     }
     
     public List<MediaFile> getNormalFolders() {
@@ -546,6 +661,198 @@ public class DashboardController {
         }
     }
     
+    @FXML
+    private void organizeByType() {
+        organizeFolder(FileOrganizer.Layout.BY_TYPE);
+    }
+    
+    @FXML
+    private void organizeByDate() {
+        organizeFolder(FileOrganizer.Layout.BY_DATE);
+    }
+    
+    @FXML
+    private void organizeBySize() {
+        organizeFolder(FileOrganizer.Layout.BY_SIZE);
+    }
+    
+    private void organizeFolder(FileOrganizer.Layout layout) {
+        if (currentFolder == null) {
+            return;
+        }
+        List<MediaFile> files = new ArrayList<>();
+        files.addAll(fileScanner.getImageFiles());
+        files.addAll(fileScanner.getVideoFiles());
+        files.addAll(fileScanner.getDocumentFiles());
+        files.addAll(fileScanner.getProjectFiles());
+        
+        BulkOrganizer organizer = new BulkOrganizer();
+        File folder = currentFolder;
+        progressLabel.setVisible(true);
+        progressLabel.setText("Planning...");
+        CompletableFuture.supplyAsync(() -> organizer.plan(folder.toPath(), files, layout), backgroundExecutor)
+            .whenComplete((plan, error) -> javafx.application.Platform.runLater(() -> {
+                if (error != null) {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    LOGGER.log(Level.WARNING, "Failed to plan organizing " + folder, cause);
+                    progressLabel.setText("Planning failed: " + cause.getMessage());
+                    return;
+                }
+                confirmOrganize(organizer, plan, folder);
+            }));
+    }
+    
+    private void confirmOrganize(BulkOrganizer organizer, BulkOrganizer.Plan plan, File folder) {
+        if (plan.getMoves().isEmpty()) {
+            progressLabel.setText("Nothing to organize");
+            return;
+        }
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+            String.format("Move %d files (%s) into %d folders? %d will be renamed to avoid name clashes.",
+                plan.getMoves().size(), formatFileSize(plan.getTotalBytes()),
+                plan.getDirectories().size(), plan.getCollisionCount()),
+            ButtonType.OK, ButtonType.CANCEL);
+        confirm.setHeaderText("Organize " + folder.getName());
+        if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+            progressLabel.setVisible(false);
+            return;
+        }
+        
+        // The journal is on disk before the first file moves
+        runOrganizeJob("Organizing", folder, listener -> {
+            try (OrganizeJournal journal = OrganizeJournal.create(OrganizeJournal.getDefaultDirectory(), plan)) {
+                return organizer.execute(plan, listener, journal);
+            }
+        });
+    }
+    
+    @FXML
+    private void undoLastOrganize() {
+        progressLabel.setVisible(true);
+        CompletableFuture.supplyAsync(() -> OrganizeJournal.findLastCommitted(OrganizeJournal.getDefaultDirectory()),
+                                      backgroundExecutor)
+            .whenComplete((journalFile, error) -> javafx.application.Platform.runLater(() -> {
+                if (error != null) {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    LOGGER.log(Level.WARNING, "Failed to find the last organize", cause);
+                    progressLabel.setText("Undo failed: " + cause.getMessage());
+                    return;
+                }
+                if (journalFile == null) {
+                    progressLabel.setText("Nothing to undo");
+                    return;
+                }
+                Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+                    "Move the files of the last organize back where they were?",
+                    ButtonType.OK, ButtonType.CANCEL);
+                confirm.setHeaderText("Undo Organize");
+                if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+                    progressLabel.setVisible(false);
+                    return;
+                }
+                runOrganizeJob("Undoing", currentFolder, listener -> {
+                    try (OrganizeJournal journal = OrganizeJournal.open(journalFile)) {
+                        return new BulkOrganizer().undo(journal, listener);
+                    }
+                });
+            }));
+    }
+    
+    // Offers to finish or roll back an organize the previous session did not complete
+    private void checkInterruptedOrganize() {
+        CompletableFuture.runAsync(() -> {
+            List<Path> interrupted = OrganizeJournal.findInterrupted(OrganizeJournal.getDefaultDirectory());
+            if (interrupted.isEmpty()) {
+                return;
+            }
+            // One at a time, oldest first; the rest are offered next start
+            Path journalFile = interrupted.get(0);
+            try (OrganizeJournal journal = OrganizeJournal.open(journalFile)) {
+                OrganizeJournal.State state = journal.getState();
+                int count = journal.getMoves().size();
+                javafx.application.Platform.runLater(() -> offerRecovery(journalFile, state, count));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read organize journal " + journalFile, e);
+                javafx.application.Platform.runLater(() -> {
+                    Alert alert = new Alert(Alert.AlertType.WARNING,
+                        "An organize was interrupted, but its journal could not be read: " + e.getMessage()
+                            + "\nSome files may still be in their new folders. The journal is " + journalFile + ".");
+                    alert.setHeaderText("Interrupted Organize");
+                    alert.showAndWait();
+                });
+            }
+        }, backgroundExecutor);
+    }
+    
+    private void offerRecovery(Path journalFile, OrganizeJournal.State state, int count) {
+        ButtonType finish = new ButtonType(state == OrganizeJournal.State.UNDOING ? "Finish Undo" : "Finish");
+        ButtonType rollBack = new ButtonType("Roll Back");
+        ButtonType later = new ButtonType("Later", ButtonBar.ButtonData.CANCEL_CLOSE);
+        Alert alert = new Alert(Alert.AlertType.WARNING,
+            state == OrganizeJournal.State.UNDOING
+                ? "Undoing an organize of " + count + " files was interrupted."
+                : "Organizing " + count + " files was interrupted. Finish moving them, or put them back?",
+            state == OrganizeJournal.State.UNDOING
+                ? new ButtonType[] {finish, later}
+                : new ButtonType[] {finish, rollBack, later});
+        alert.setHeaderText("Interrupted Organize");
+        ButtonType choice = alert.showAndWait().orElse(later);
+        if (choice == later) {
+            return;
+        }
+        boolean forward = choice == finish && state == OrganizeJournal.State.IN_PROGRESS;
+        runOrganizeJob(forward ? "Organizing" : "Undoing", currentFolder, listener -> {
+            try (OrganizeJournal journal = OrganizeJournal.open(journalFile)) {
+                BulkOrganizer organizer = new BulkOrganizer();
+                return forward ? organizer.rollForward(journal, listener) : organizer.undo(journal, listener);
+            }
+        });
+    }
+    
+    private void runOrganizeJob(String verb, File folder, OrganizeJob job) {
+        scanProgressBar.setVisible(true);
+        progressLabel.setVisible(true);
+        progressLabel.setText(verb + "...");
+        BulkOrganizer.ProgressListener listener = progress -> javafx.application.Platform.runLater(() -> {
+            scanProgressBar.setProgress((double) progress.getCompleted() / Math.max(1, progress.getTotal()));
+            progressLabel.setText(String.format("%s %d / %d (%.0f files/s)", verb,
+                progress.getCompleted(), progress.getTotal(), progress.getFilesPerSecond()));
+        });
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return job.run(listener);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, backgroundExecutor).whenComplete((result, error) -> javafx.application.Platform.runLater(() -> {
+            scanProgressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+            if (folder != null) {
+                // Paths changed, so the catalog is rebuilt from the new layout, also when the
+                // job failed after some files had moved
+                scanFolder(folder);
+            }
+            progressLabel.setVisible(true);
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                LOGGER.log(Level.WARNING, verb + " failed", cause);
+                progressLabel.setText(verb + " failed: " + cause.getMessage() + (folder != null ? " Rescanning..." : ""));
+                if (folder == null) {
+                    scanProgressBar.setVisible(false);
+                }
+                return;
+            }
+            progressLabel.setText(String.format("Moved %d files, %d failed.%s",
+                result.getMovedCount(), result.getFailedCount(), folder != null ? " Rescanning..." : ""));
+            if (folder == null) {
+                scanProgressBar.setVisible(false);
+            }
+        }));
+    }
+    
+    private interface OrganizeJob {
+        BulkOrganizer.Result run(BulkOrganizer.ProgressListener listener) throws IOException;
+    }
+    
     private void exportToCSV(File file) {
         try (PrintWriter writer = new PrintWriter(file)) {
             // Write CSV header
@@ -602,6 +909,8 @@ public class DashboardController {
     // Cleanup method
     public void cleanup() {
         backgroundExecutor.shutdown();
+        // Keeps the queue on disk so the job resumes next time
+        pregenerator.stop();
         if (imageTabController != null) imageTabController.cleanup();
         if (videoTabController != null) videoTabController.cleanup();
         ThumbnailGenerator.shutdown();
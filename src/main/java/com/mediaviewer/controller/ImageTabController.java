@@ -1,18 +1,18 @@
 package com.mediaviewer.controller;
 
 import com.mediaviewer.model.MediaFile;
-import com.mediaviewer.utils.ThumbnailGenerator;
+import com.mediaviewer.utils.ImageMemoryCache;
 import com.mediaviewer.utils.LargeImageLoader;
+import com.mediaviewer.utils.ThumbnailGenerator;
+import com.mediaviewer.utils.ThumbnailPyramid;
+import com.mediaviewer.utils.ThumbnailScheduler;
+import com.mediaviewer.utils.WeightedLruCache;
 import javafx.fxml.FXML;
-import javafx.scene.control.Label;
 import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
-import javafx.scene.layout.FlowPane;
-import javafx.scene.layout.Priority;
-import javafx.scene.layout.VBox;
 import javafx.application.Platform;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.Slider;
 import javafx.scene.control.TextInputDialog;
 import javafx.stage.Stage;
 import javafx.fxml.FXMLLoader;
@@ -20,45 +20,69 @@ import javafx.fxml.FXMLLoader;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.WeakHashMap;
 import java.util.Optional;
 
 public class ImageTabController {
     
     private static final Logger LOGGER = Logger.getLogger(ImageTabController.class.getName());
     
+    private static final String PLACEHOLDER_STYLE = "-fx-background-color: linear-gradient(to bottom, #bdc3c7, #95a5a6); -fx-border-color: #7f8c8d; -fx-border-width: 1px; -fx-border-radius: 4px;";
+    
+    @FXML
+    private MediaGridView imageGrid;
+    
     @FXML
-    private FlowPane imageFlowPane;
+    private Slider zoomSlider;
     
     private DashboardController dashboardController;
-    private ExecutorService thumbnailExecutor = Executors.newFixedThreadPool(
-        Math.max(2, Runtime.getRuntime().availableProcessors() / 2) // Use fewer threads for large images
-    );
     
-    // Cache for thumbnail futures to avoid duplicate work
-    private Map<String, Future<?>> thumbnailCache = new HashMap<>();
+    // Thumbnail loads go through the shared scheduler, nearest to the visible cards first
+    private final ThumbnailScheduler.Client thumbnailRequests = ThumbnailScheduler.getShared().newClient();
     
-    // Weak cache for loaded images to allow garbage collection
-    private Map<String, Image> imageCache = new WeakHashMap<>();
+    // Shared byte-bounded cache of decoded thumbnails
+    private final WeightedLruCache<ImageMemoryCache.Key, Image> imageCache = ImageMemoryCache.getShared();
+    
+    // The filtered list on screen, which the viewer navigates through
+    private List<MediaFile> currentImages = Collections.emptyList();
     
     @FXML
     public void initialize() {
-        // Ensure the FlowPane grows to fill available space
-        if (imageFlowPane != null) {
-            imageFlowPane.setPrefWrapLength(200); // Wrap at 200 pixels
-            imageFlowPane.setHgap(10);
-            imageFlowPane.setVgap(10);
-            // Enable virtualized scrolling for better performance with large datasets
-            imageFlowPane.setPrefHeight(600);
+        if (imageGrid != null) {
+            imageGrid.setPlaceholderStyle(PLACEHOLDER_STYLE);
+            imageGrid.setOnOpen(this::openFile);
+            imageGrid.setContextMenuFactory(this::createContextMenu);
+            imageGrid.setThumbnailLoader(new MediaGridView.ThumbnailLoader() {
+                @Override
+                public Image getCachedThumbnail(MediaFile mediaFile) {
+                    return imageCache.get(thumbnailKey(mediaFile));
+                }
+                
+                @Override
+                public void requestThumbnail(MediaFile mediaFile, int index) {
+                    loadThumbnail(mediaFile, index);
+                }
+                
+                @Override
+                public void viewportChanged(int firstIndex, int lastIndex) {
+                    thumbnailRequests.updateViewport(firstIndex, lastIndex);
+                }
+            });
+        }
+        
+        if (zoomSlider != null && imageGrid != null) {
+            zoomSlider.valueProperty().addListener((obs, oldValue, newValue) -> {
+                int oldLevel = thumbnailLevel();
+                imageGrid.setThumbnailSize(Math.round(newValue.doubleValue()));
+                if (thumbnailLevel() != oldLevel) {
+                    // Queued loads are for the old level; the rebound cards request the new one
+                    thumbnailRequests.cancelAll();
+                }
+            });
         }
     }
     
@@ -67,199 +91,85 @@ public class ImageTabController {
     }
     
     public void updateImages(List<MediaFile> imageFiles) {
-        if (imageFlowPane != null) {
-            imageFlowPane.getChildren().clear();
-            // Clear thumbnail cache for new update
-            thumbnailCache.clear();
+        if (imageGrid != null) {
+            // Drop loads for the previous result that have not started yet
+            thumbnailRequests.cancelAll();
+            currentImages = imageFiles;
+            // Only the visible cards are created; they request their thumbnails as they are bound
+            imageGrid.setFiles(imageFiles);
+        }
+    }
+    
+    // Pyramid level matching the current zoom, switching levels never touches the source files
+    private int thumbnailLevel() {
+        return ThumbnailPyramid.levelFor((int) imageGrid.getThumbnailSize());
+    }
+    
+    private ImageMemoryCache.Key thumbnailKey(MediaFile mediaFile) {
+        int level = thumbnailLevel();
+        return new ImageMemoryCache.Key(mediaFile.getFilePath(), level, level);
+    }
+    
+    private void loadThumbnail(MediaFile mediaFile, int index) {
+        int level = thumbnailLevel();
+        ImageMemoryCache.Key cacheKey = thumbnailKey(mediaFile);
+        // Duplicate requests for the same key share one load
+        thumbnailRequests.request(cacheKey, index, () -> {
+            Image thumbnail = ThumbnailGenerator.generateThumbnail(
+                mediaFile.getFilePath().toFile(), level, level);
             
-            for (MediaFile mediaFile : imageFiles) {
-                // Add placeholder immediately
-                VBox card = createPlaceholderCard(mediaFile);
-                imageFlowPane.getChildren().add(card);
-                
-                // Check if we already have this image in cache
-                String filePath = mediaFile.getFilePath().toString();
-                if (imageCache.containsKey(filePath)) {
-                    Image cachedImage = imageCache.get(filePath);
-                    Platform.runLater(() -> updateCardWithThumbnail(card, cachedImage, mediaFile));
-                } else {
-                    // For very large files, use a more conservative approach
-                    long fileSize = mediaFile.getFileSize();
-                    if (fileSize > 500 * 1024 * 1024) { // Files larger than 500MB
-                        // Show a simple placeholder immediately and load thumbnail in background
-                        Platform.runLater(() -> updateCardWithThumbnail(card, null, mediaFile));
-                    } else {
-                        // Load thumbnail in background
-                        Future<?> future = thumbnailExecutor.submit(() -> {
-                            Image thumbnail = ThumbnailGenerator.generateThumbnail(
-                                mediaFile.getFilePath().toFile(), 150, 150);
-                            
-                            // Cache the image
-                            if (thumbnail != null) {
-                                imageCache.put(filePath, thumbnail);
-                            }
-                            
-                            // Update UI on JavaFX thread
-                            Platform.runLater(() -> updateCardWithThumbnail(card, thumbnail, mediaFile));
-                        });
-                        
-                        // Store future in cache
-                        thumbnailCache.put(filePath, future);
-                    }
-                }
+            if (thumbnail == null) {
+                // Thumbnail generation failed, let JavaFX decode it. Synchronously, so the decode
+                // budget covers it and only a fully loaded image is cached.
+                thumbnail = LargeImageLoader.loadLargeImage(mediaFile.getFilePath().toFile(), level, level);
             }
-        }
+            
+            if (thumbnail != null) {
+                // Cache the image
+                imageCache.put(cacheKey, thumbnail);
+            } else {
+                LOGGER.log(Level.WARNING, "Failed to load image: " + mediaFile.getFileName());
+            }
+            return thumbnail;
+        }).thenAccept(thumbnail -> {
+            if (thumbnail != null) {
+                // Update UI on JavaFX thread
+                Platform.runLater(() -> imageGrid.thumbnailReady(mediaFile, thumbnail));
+            }
+        });
     }
     
-    private VBox createPlaceholderCard(MediaFile mediaFile) {
-        VBox card = new VBox();
-        card.getStyleClass().add("media-card");
-        card.setSpacing(5);
-        card.setAlignment(javafx.geometry.Pos.CENTER);
-        card.setMinWidth(170);
-        card.setMinHeight(200);
-        card.setPrefWidth(170);
-        card.setPrefHeight(200);
-        
-        ImageView imageView = new ImageView();
-        imageView.setFitWidth(150);
-        imageView.setFitHeight(150);
-        imageView.setPreserveRatio(true);
-        imageView.setSmooth(true);
-        
-        // Set a placeholder with better styling
-        setPlaceholderImage(imageView);
-        
-        Label nameLabel = new Label(mediaFile.getFileName());
-        nameLabel.setWrapText(true);
-        nameLabel.setMaxWidth(150);
-        nameLabel.setAlignment(javafx.geometry.Pos.CENTER);
-        
-        // Add file size info for large files
-        long fileSize = mediaFile.getFileSize();
-        if (fileSize > 100 * 1024 * 1024) { // Files larger than 100MB
-            Label sizeLabel = new Label(formatFileSize(fileSize));
-            sizeLabel.setStyle("-fx-font-size: 10px; -fx-text-fill: #7f8c8d;");
-            card.getChildren().addAll(imageView, nameLabel, sizeLabel);
-        } else {
-            card.getChildren().addAll(imageView, nameLabel);
-        }
-        
-        // Add context menu
+    private ContextMenu createContextMenu(MediaFile mediaFile) {
         ContextMenu contextMenu = new ContextMenu();
         
         MenuItem favoriteItem = new MenuItem("Toggle Favorite");
         favoriteItem.setOnAction(event -> {
             mediaFile.setFavorite(!mediaFile.isFavorite());
-            // Update UI to reflect favorite status
-            if (mediaFile.isFavorite()) {
-                card.setStyle("-fx-border-color: gold; -fx-border-width: 2px;");
-            } else {
-                card.setStyle("");
-            }
+            // Rebind the visible cards to reflect favorite status
+            imageGrid.refresh();
+            notifyFileChanged(mediaFile);
         });
         
         MenuItem tagItem = new MenuItem("Add Tag");
         tagItem.setOnAction(event -> showTagDialog(mediaFile));
         
-        contextMenu.getItems().addAll(favoriteItem, tagItem);
+        MenuItem systemViewerItem = new MenuItem("Open in System Viewer");
+        systemViewerItem.setOnAction(event -> openInSystemViewer(mediaFile));
         
-        // Make right-click show context menu
-        imageView.setOnMouseClicked(event -> {
-            if (event.getButton() == javafx.scene.input.MouseButton.SECONDARY) {
-                contextMenu.show(imageView, event.getScreenX(), event.getScreenY());
-            }
-        });
-        
-        return card;
+        contextMenu.getItems().addAll(favoriteItem, tagItem, systemViewerItem);
+        return contextMenu;
     }
     
-    private void setPlaceholderImage(ImageView imageView) {
-        // Set a colored background as a placeholder with better styling
-        imageView.setStyle("-fx-background-color: linear-gradient(to bottom, #bdc3c7, #95a5a6); -fx-border-color: #7f8c8d; -fx-border-width: 1px; -fx-border-radius: 4px;");
+    private void openFile(MediaFile mediaFile) {
+        // Images open in the built-in viewer, which can step through the whole filtered list
+        showInLargeImageViewer(mediaFile);
     }
     
-    private void updateCardWithThumbnail(VBox card, Image thumbnail, MediaFile mediaFile) {
-        if (card.getChildren().size() > 0 && card.getChildren().get(0) instanceof ImageView) {
-            ImageView imageView = (ImageView) card.getChildren().get(0);
-            
-            if (thumbnail != null) {
-                imageView.setImage(thumbnail);
-                imageView.setStyle("-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.2), 4, 0, 1, 1);"); // Add subtle shadow
-            } else {
-                // For large files or when thumbnail generation failed, load directly with background loading
-                long fileSize = mediaFile.getFileSize();
-                if (fileSize > 500 * 1024 * 1024) { // Very large files
-                    // Show loading indicator
-                    imageView.setStyle("-fx-background-color: linear-gradient(to bottom, #bdc3c7, #95a5a6); -fx-border-color: #7f8c8d; -fx-border-width: 1px; -fx-border-radius: 4px;");
-                    
-                    // Load the image when clicked, not during thumbnail generation
-                    // The click handler will handle loading the full image
-                } else {
-                    // Try loading directly with background loading
-                    try {
-                        // Use the new method for scaled image loading
-                        Image directImage = ThumbnailGenerator.loadScaledImage(
-                            mediaFile.getFilePath().toFile(), 150, 150);
-                        
-                        if (directImage != null && !directImage.isError()) {
-                            imageView.setImage(directImage);
-                            imageView.setStyle("-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.2), 4, 0, 1, 1);");
-                            // Cache the image
-                            imageCache.put(mediaFile.getFilePath().toString(), directImage);
-                        } else {
-                            // Keep placeholder if loading failed
-                            LOGGER.log(Level.WARNING, "Failed to load image: " + mediaFile.getFileName());
-                        }
-                    } catch (Exception e) {
-                        LOGGER.log(Level.WARNING, "Failed to load image: " + mediaFile.getFileName(), e);
-                    }
-                }
-            }
-            
-            // Make the image clickable to open the file
-            imageView.setOnMouseClicked(event -> {
-                if (event.getButton() == javafx.scene.input.MouseButton.PRIMARY) {
-                    openFile(mediaFile, imageView);
-                } else if (event.getButton() == javafx.scene.input.MouseButton.SECONDARY) {
-                    // Show context menu
-                    ContextMenu contextMenu = new ContextMenu();
-                    
-                    MenuItem favoriteItem = new MenuItem("Toggle Favorite");
-                    favoriteItem.setOnAction(e -> {
-                        mediaFile.setFavorite(!mediaFile.isFavorite());
-                        // Update UI to reflect favorite status
-                        if (mediaFile.isFavorite()) {
-                            card.setStyle("-fx-border-color: gold; -fx-border-width: 2px;");
-                        } else {
-                            card.setStyle("");
-                        }
-                    });
-                    
-                    MenuItem tagItem = new MenuItem("Add Tag");
-                    tagItem.setOnAction(e -> showTagDialog(mediaFile));
-                    
-                    contextMenu.getItems().addAll(favoriteItem, tagItem);
-                    contextMenu.show(imageView, event.getScreenX(), event.getScreenY());
-                }
-            });
-        }
-    }
-    
-    private void openFile(MediaFile mediaFile, ImageView imageView) {
+    private void openInSystemViewer(MediaFile mediaFile) {
         try {
-            // For large images, use our custom viewer
-            long fileSize = mediaFile.getFileSize();
-            if (fileSize > 100 * 1024 * 1024) { // Files larger than 100MB
-                // Show in custom large image viewer
-                showInLargeImageViewer(mediaFile);
-            } else {
-                // For smaller files, open directly
-                Desktop.getDesktop().open(mediaFile.getFilePath().toFile());
-            }
+            Desktop.getDesktop().open(mediaFile.getFilePath().toFile());
         } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Error opening file: " + mediaFile.getFileName(), e);
-            // In a real application, you might want to show an error dialog
+            LOGGER.log(Level.SEVERE, "Error opening file in system viewer: " + mediaFile.getFileName(), e);
         }
     }
     
@@ -269,25 +179,31 @@ public class ImageTabController {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/largeImageViewer.fxml"));
             javafx.scene.Parent root = loader.load();
             
+            // Navigate through the current result, starting at the opened file
+            List<File> files = new ArrayList<>(currentImages.size());
+            for (MediaFile image : currentImages) {
+                files.add(image.getFilePath().toFile());
+            }
+            int index = currentImages.indexOf(mediaFile);
+            if (index < 0) {
+                files = Collections.singletonList(mediaFile.getFilePath().toFile());
+                index = 0;
+            }
+            
             // Get the controller and set up the viewer
             LargeImageViewerController controller = loader.getController();
             Stage viewerStage = new Stage();
             controller.setStage(viewerStage);
-            controller.setImageFile(mediaFile.getFilePath().toFile());
+            controller.setImageFiles(files, index);
             
             // Set up the stage
             javafx.scene.Scene scene = new javafx.scene.Scene(root, 1200, 800);
-            viewerStage.setTitle("Large Image Viewer - " + mediaFile.getFileName());
             viewerStage.setScene(scene);
             viewerStage.show();
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error opening large image viewer: " + mediaFile.getFileName(), e);
             // Fallback to system viewer
-            try {
-                Desktop.getDesktop().open(mediaFile.getFilePath().toFile());
-            } catch (IOException ioException) {
-                LOGGER.log(Level.SEVERE, "Error opening file in system viewer: " + mediaFile.getFileName(), ioException);
-            }
+            openInSystemViewer(mediaFile);
         }
     }
     
@@ -300,21 +216,19 @@ public class ImageTabController {
         Optional<String> result = dialog.showAndWait();
         result.ifPresent(tag -> {
             mediaFile.addTag(tag);
-            // In a real application, you might want to refresh the tag panel
+            notifyFileChanged(mediaFile);
         });
     }
     
-    // Cleanup method
-    public void cleanup() {
-        thumbnailExecutor.shutdown();
-        thumbnailCache.clear();
-        imageCache.clear();
+    // Keep the dashboard's facet counts and tag panel in sync with edits
+    private void notifyFileChanged(MediaFile mediaFile) {
+        if (dashboardController != null) {
+            dashboardController.onFileChanged(mediaFile);
+        }
     }
     
-    private String formatFileSize(long size) {
-        if (size < 1024) return size + " B";
-        if (size < 1024 * 1024) return String.format("%.1f KB", size / 1024.0);
-        if (size < 1024 * 1024 * 1024) return String.format("%.1f MB", size / (1024.0 * 1024));
-        return String.format("%.1f GB", size / (1024.0 * 1024 * 1024));
+    // Cleanup method
+    public void cleanup() {
+        thumbnailRequests.cancelAll();
     }
 }
\ No newline at end of file
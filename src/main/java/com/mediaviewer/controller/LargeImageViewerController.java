@@ -1,188 +1,637 @@
 package com.mediaviewer.controller;
 
+import com.mediaviewer.utils.ExifThumbnailExtractor;
+import com.mediaviewer.utils.ImageMemoryCache;
+import com.mediaviewer.utils.ImagePrefetcher;
 import com.mediaviewer.utils.LargeImageLoader;
+import com.mediaviewer.utils.OffHeapImage;
+import com.mediaviewer.utils.PixelBufferPool;
+import com.mediaviewer.utils.ThumbnailGenerator;
+import com.mediaviewer.utils.ThumbnailPregenerator;
+import com.mediaviewer.utils.ThumbnailPyramid;
+import com.mediaviewer.utils.ThumbnailScheduler;
+import com.mediaviewer.utils.TiledImageSource;
+import com.mediaviewer.utils.WeightedLruCache;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
+import javafx.scene.shape.Rectangle;
 import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
 import javafx.scene.input.ScrollEvent;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
-import javafx.geometry.Point2D;
-import javafx.beans.property.DoubleProperty;
-import javafx.beans.property.SimpleDoubleProperty;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+/**
+ * Viewer for large images with deep zoom.
+ *
+ * The grid thumbnail is shown at once, upscaled, then the passes of a
+ * progressive image as they decode, then a screen-resolution copy of the
+ * image. Once zoomed in past its resolution, the visible part is drawn from
+ * 512px tiles decoded at the pyramid level matching the zoom, so real detail
+ * appears while memory stays flat whatever the source size. Tiles are
+ * decoded in parallel, nearest to the centre of the view first, and kept in
+ * a bounded LRU cache. Panning moves the tiles already on screen; only tiles
+ * that scroll into view are requested, and only those that leave it are
+ * cancelled.
+ *
+ * The arrow keys step through the list the viewer was opened with, and the
+ * neighbouring images are decoded in the background so the next one is
+ * usually already in memory.
+ */
 public class LargeImageViewerController {
     private static final Logger LOGGER = Logger.getLogger(LargeImageViewerController.class.getName());
-    
+
+    // The overview image is decoded at most at screen resolution
+    private static final int MAX_WIDTH = 1920;
+    private static final int MAX_HEIGHT = 1080;
+
+    // Screen pixels per source pixel at full zoom
+    private static final double MAX_ZOOM = 8.0;
+    private static final long DEFAULT_TILE_CACHE_BYTES = 128L * 1024 * 1024;
+
+    private static final WeightedLruCache<TiledImageSource.Tile, Image> TILE_CACHE = new WeightedLruCache<>(
+        Long.getLong("mediaviewer.tileCache.maxBytes", DEFAULT_TILE_CACHE_BYTES),
+        ImageMemoryCache::weigh
+    );
+
+    // Neighbouring images decoded ahead of navigation, within their own memory budget
+    private static final long DEFAULT_PREFETCH_BYTES = 256L * 1024 * 1024;
+    private static final ImagePrefetcher<OffHeapImage> PREFETCHER = new ImagePrefetcher<>(
+        Integer.getInteger("mediaviewer.prefetch.radius", 3),
+        Long.getLong("mediaviewer.prefetch.maxBytes", DEFAULT_PREFETCH_BYTES),
+        (long) MAX_WIDTH * MAX_HEIGHT * 4,
+        (file, progress, passes) -> LargeImageLoader.loadOffHeapAsync(file, MAX_WIDTH, MAX_HEIGHT, progress, passes),
+        OffHeapImage::getByteCount,
+        OffHeapImage::retain,
+        OffHeapImage::close
+    );
+
     @FXML
     private ImageView imageView;
-    
+
     @FXML
     private StackPane imageContainer;
-    
+
+    @FXML
+    private Pane viewport;
+
+    @FXML
+    private Pane tileLayer;
+
     @FXML
     private ProgressBar loadingProgressBar;
-    
+
     @FXML
     private Label statusLabel;
-    
+
     private Stage stage;
+    private List<File> imageFiles = Collections.emptyList();
+    private int imageIndex;
     private File imageFile;
     private Image loadedImage;
-    
-    // Zoom properties
-    private DoubleProperty zoomFactor = new SimpleDoubleProperty(1.0);
+    // Reference held on the overview while it is shown
+    private OffHeapImage displayedImage;
+    // False while a thumbnail placeholder or a progressive pass stands in for the overview
+    private boolean overviewFinal;
+    private TiledImageSource tileSource;
+    private ThumbnailScheduler.Client tileRequests;
+    private ThumbnailScheduler.Client placeholderRequests;
+    // Tiles of the current level in view, the ones shown and the ones still decoding
+    private final Set<TiledImageSource.Tile> visibleTiles = new HashSet<>();
+    private final Map<TiledImageSource.Tile, ImageView> tileViews = new HashMap<>();
+    private final Map<TiledImageSource.Tile, CompletableFuture<Image>> pendingTiles = new HashMap<>();
+
+    // View state: screen pixels per source pixel, and the source point at the top-left corner
+    private double zoom = 1.0;
+    private double offsetX;
+    private double offsetY;
+    private boolean fitted = true;
     private double mouseX;
     private double mouseY;
-    
+
+    @FXML
+    private void initialize() {
+        // The shared pool, so tile decodes count as busy for background pre-generation
+        tileRequests = ThumbnailScheduler.getShared().newClient();
+        placeholderRequests = ThumbnailScheduler.getShared().newClient();
+
+        // Tiles are positioned by hand, the pane only clips them
+        Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(viewport.widthProperty());
+        clip.heightProperty().bind(viewport.heightProperty());
+        viewport.setClip(clip);
+        viewport.widthProperty().addListener((obs, oldValue, newValue) -> viewportResized());
+        viewport.heightProperty().addListener((obs, oldValue, newValue) -> viewportResized());
+
+        setupZoomFunctionality();
+    }
+
     public void setStage(Stage stage) {
         this.stage = stage;
+        stage.addEventHandler(WindowEvent.WINDOW_HIDDEN, event -> dispose());
+        // A filter, so buttons holding the focus do not swallow the arrow keys
+        stage.addEventFilter(KeyEvent.KEY_PRESSED, this::handleKey);
+
+        // Browsing here pauses background pre-generation just like the dashboard does
+        ThumbnailPregenerator pregenerator = ThumbnailPregenerator.getDefault();
+        stage.addEventFilter(ScrollEvent.ANY, e -> pregenerator.noteUserActivity());
+        stage.addEventFilter(MouseEvent.MOUSE_PRESSED, e -> pregenerator.noteUserActivity());
+        stage.addEventFilter(MouseEvent.MOUSE_DRAGGED, e -> pregenerator.noteUserActivity());
+        stage.addEventFilter(KeyEvent.KEY_PRESSED, e -> pregenerator.noteUserActivity());
     }
-    
+
     public void setImageFile(File imageFile) {
-        this.imageFile = imageFile;
+        setImageFiles(Collections.singletonList(imageFile), 0);
+    }
+
+    /**
+     * Show files[index] and allow keyboard navigation through the rest of the list.
+     */
+    public void setImageFiles(List<File> files, int index) {
+        this.imageFiles = new ArrayList<>(files);
+        showImage(index);
+    }
+
+    private void handleKey(KeyEvent event) {
+        switch (event.getCode()) {
+            case RIGHT:
+            case PAGE_DOWN:
+            case SPACE:
+                showImage(imageIndex + 1);
+                break;
+            case LEFT:
+            case PAGE_UP:
+            case BACK_SPACE:
+                showImage(imageIndex - 1);
+                break;
+            case HOME:
+                showImage(0);
+                break;
+            case END:
+                showImage(imageFiles.size() - 1);
+                break;
+            case ESCAPE:
+                handleClose();
+                break;
+            default:
+                return;
+        }
+        event.consume();
+    }
+
+    private void showImage(int index) {
+        if (index < 0 || index >= imageFiles.size() || imageFiles.get(index).equals(imageFile)) {
+            return;
+        }
+        imageIndex = index;
+        imageFile = imageFiles.get(index);
+
+        // Forget the previous image; late results for it are dropped by the file checks
+        clearTiles();
+        placeholderRequests.cancelAll();
+        tileSource = null;
+        loadedImage = null;
+        overviewFinal = false;
+        imageView.setImage(null);
+        releaseDisplayedImage();
+        if (stage != null) {
+            stage.setTitle("Image Viewer - " + imageFile.getName());
+        }
+
+        PREFETCHER.prefetch(imageFiles, index);
         loadAndDisplayImage();
     }
-    
+
     private void loadAndDisplayImage() {
         if (imageFile == null) return;
-        
-        // Show loading indicator
+        File file = imageFile;
+
+        // Only the header is read here; tiles are decoded on demand
+        ThumbnailScheduler.getShared().submit("header:" + file.getAbsolutePath(), () -> TiledImageSource.open(file))
+            .thenAccept(source -> Platform.runLater(() -> {
+                if (source != null && file.equals(imageFile)) {
+                    tileSource = source;
+                    updateStatus();
+                    refit();
+                }
+            }));
+
+        // Joins the prefetch of this file if one is running; progress and passes arrive on the FX thread
+        CompletableFuture<OffHeapImage> load = PREFETCHER.load(file, progress -> {
+            if (file.equals(imageFile)) {
+                loadingProgressBar.setProgress(progress);
+            }
+        }, pass -> {
+            if (file.equals(imageFile) && !overviewFinal) {
+                showOverview(pass.getImage(), pass, false);
+            } else {
+                pass.close();
+            }
+        });
+
+        // Prefetched images are shown straight away
+        if (load.isDone() && !load.isCompletedExceptionally()) {
+            loadingProgressBar.setVisible(false);
+            displayImage(load.join());
+            return;
+        }
+
+        // Show loading indicator, and a thumbnail until the decode has something better
+        loadingProgressBar.setProgress(0);
         loadingProgressBar.setVisible(true);
-        statusLabel.setText("Loading " + imageFile.getName() + "...");
-        
-        // Load image asynchronously
-        CompletableFuture<Image> imageFuture = LargeImageLoader.loadLargeImageAsync(
-            imageFile, 
-            1920, // Max width
-            1080  // Max height
-        );
-        
-        imageFuture.thenAccept(image -> {
+        statusLabel.setText("Loading " + file.getName() + "...");
+        showPlaceholder(file);
+
+        load.thenAccept(image -> {
             javafx.application.Platform.runLater(() -> {
-                loadingProgressBar.setVisible(false);
-                
-                if (image != null) {
-                    this.loadedImage = image;
-                    imageView.setImage(image);
-                    statusLabel.setText(imageFile.getName() + " (" + 
-                                      (int)image.getWidth() + "x" + (int)image.getHeight() + ")");
-                    
-                    // Set up zoom functionality
-                    setupZoomFunctionality();
+                if (file.equals(imageFile)) {
+                    loadingProgressBar.setVisible(false);
+                    displayImage(image);
                 } else {
-                    statusLabel.setText("Failed to load image: " + imageFile.getName());
+                    image.close();
                 }
             });
         }).exceptionally(throwable -> {
+            if (load.isCancelled()) {
+                return null;
+            }
             javafx.application.Platform.runLater(() -> {
-                loadingProgressBar.setVisible(false);
-                statusLabel.setText("Error loading image: " + imageFile.getName());
-                LOGGER.log(Level.SEVERE, "Error loading image", throwable);
+                if (file.equals(imageFile)) {
+                    loadingProgressBar.setVisible(false);
+                    statusLabel.setText("Error loading image: " + file.getName());
+                }
+                LOGGER.log(Level.WARNING, "Error loading image", throwable);
             });
             return null;
         });
     }
-    
+
+    // Takes over the caller's reference to the image
+    private void displayImage(OffHeapImage image) {
+        showOverview(image.getImage(), image, true);
+    }
+
+    /**
+     * Upscale the largest grid thumbnail in place of the overview. It comes from
+     * memory or the thumbnail cache, so it usually shows within milliseconds.
+     */
+    private void showPlaceholder(File file) {
+        placeholderRequests.<Image>request("placeholder:" + file.getAbsolutePath(), 0, () -> {
+            // Thumbnails are stored upright but the overview as stored, so rotated images go without
+            if (ExifThumbnailExtractor.readOrientation(file) > 1) {
+                return null;
+            }
+            int level = ThumbnailPyramid.largestLevel();
+            Image thumbnail = ImageMemoryCache.getShared().get(new ImageMemoryCache.Key(file.toPath(), level, level));
+            return thumbnail != null ? thumbnail : ThumbnailGenerator.generateThumbnail(file, level, level);
+        }).thenAccept(thumbnail -> Platform.runLater(() -> {
+            if (thumbnail != null && file.equals(imageFile) && loadedImage == null) {
+                showOverview(thumbnail, null, false);
+            }
+        }));
+    }
+
+    /**
+     * Replace the overview. Placeholders and passes are upscaled to the image size like the final render.
+     * @param owner reference to take over, null for images not backed by an OffHeapImage
+     */
+    private void showOverview(Image image, OffHeapImage owner, boolean isFinal) {
+        OffHeapImage previous = displayedImage;
+        displayedImage = owner;
+        loadedImage = image;
+        overviewFinal = isFinal;
+        imageView.setImage(image);
+        if (previous != null) {
+            previous.close();
+        }
+        updateStatus();
+        if (fitted) {
+            refit();
+        } else {
+            render();
+        }
+    }
+
+    private void releaseDisplayedImage() {
+        if (displayedImage != null) {
+            displayedImage.close();
+            displayedImage = null;
+        }
+    }
+
+    private void updateStatus() {
+        if (imageFile == null) {
+            return;
+        }
+        // A placeholder's size says nothing about the image
+        double width = tileSource != null || overviewFinal ? sourceWidth() : 0;
+        double height = sourceHeight();
+        String position = imageFiles.size() > 1 ? "  " + (imageIndex + 1) + " / " + imageFiles.size() : "";
+        statusLabel.setText(imageFile.getName() + (width > 0 ? " (" + (int) width + "x" + (int) height + ")" : "")
+                            + position);
+    }
+
+    // Full-resolution dimensions, from the header when available
+    private double sourceWidth() {
+        if (tileSource != null) {
+            return tileSource.getWidth();
+        }
+        return loadedImage != null ? loadedImage.getWidth() : 0;
+    }
+
+    private double sourceHeight() {
+        if (tileSource != null) {
+            return tileSource.getHeight();
+        }
+        return loadedImage != null ? loadedImage.getHeight() : 0;
+    }
+
     private void setupZoomFunctionality() {
         // Handle scroll for zoom
-        imageView.addEventFilter(ScrollEvent.SCROLL, this::handleScroll);
-        
+        viewport.addEventFilter(ScrollEvent.SCROLL, this::handleScroll);
+
         // Handle drag for panning
-        imageView.setOnMousePressed(this::handleMousePressed);
-        imageView.setOnMouseDragged(this::handleMouseDragged);
-        
+        viewport.setOnMousePressed(this::handleMousePressed);
+        viewport.setOnMouseDragged(this::handleMouseDragged);
+
         // Reset zoom on double click
-        imageView.setOnMouseClicked(event -> {
+        viewport.setOnMouseClicked(event -> {
             if (event.getClickCount() == 2) {
                 resetZoom();
             }
         });
     }
-    
+
     private void handleScroll(ScrollEvent event) {
-        double delta = event.getDeltaY();
-        double scale = delta > 0 ? 1.1 : 0.9;
-        
-        // Calculate new zoom factor
-        double newZoomFactor = zoomFactor.get() * scale;
-        
-        // Limit zoom range
-        if (newZoomFactor < 0.1) newZoomFactor = 0.1;
-        if (newZoomFactor > 10.0) newZoomFactor = 10.0;
-        
-        zoomFactor.set(newZoomFactor);
-        
-        // Apply zoom
-        imageView.setScaleX(zoomFactor.get());
-        imageView.setScaleY(zoomFactor.get());
-        
+        double scale = event.getDeltaY() > 0 ? 1.1 : 0.9;
+        zoomAround(zoom * scale, event.getX(), event.getY());
         event.consume();
     }
-    
+
     private void handleMousePressed(MouseEvent event) {
         mouseX = event.getSceneX();
         mouseY = event.getSceneY();
     }
-    
+
     private void handleMouseDragged(MouseEvent event) {
-        if (zoomFactor.get() > 1.0) {
-            // Only pan when zoomed in
-            double deltaX = event.getSceneX() - mouseX;
-            double deltaY = event.getSceneY() - mouseY;
-            
-            // Apply panning
-            imageView.setTranslateX(imageView.getTranslateX() + deltaX);
-            imageView.setTranslateY(imageView.getTranslateY() + deltaY);
-            
-            mouseX = event.getSceneX();
-            mouseY = event.getSceneY();
-        }
-    }
-    
+        offsetX -= (event.getSceneX() - mouseX) / zoom;
+        offsetY -= (event.getSceneY() - mouseY) / zoom;
+        mouseX = event.getSceneX();
+        mouseY = event.getSceneY();
+        fitted = false;
+        render();
+    }
+
+    // Change the zoom keeping the source point under (x, y) in place
+    private void zoomAround(double newZoom, double x, double y) {
+        double clamped = Math.max(minZoom(), Math.min(MAX_ZOOM, newZoom));
+        double sourceX = offsetX + x / zoom;
+        double sourceY = offsetY + y / zoom;
+        zoom = clamped;
+        offsetX = sourceX - x / zoom;
+        offsetY = sourceY - y / zoom;
+        fitted = false;
+        render();
+    }
+
+    private double fitZoom() {
+        double width = sourceWidth();
+        double height = sourceHeight();
+        if (width <= 0 || height <= 0 || viewport.getWidth() <= 0 || viewport.getHeight() <= 0) {
+            return 1.0;
+        }
+        return Math.min(viewport.getWidth() / width, viewport.getHeight() / height);
+    }
+
+    private double minZoom() {
+        return Math.min(1.0, fitZoom()) / 2;
+    }
+
+    private void viewportResized() {
+        if (fitted) {
+            refit();
+        } else {
+            render();
+        }
+    }
+
+    // Fit the whole image into the view, centred
+    private void refit() {
+        zoom = fitZoom();
+        offsetX = (sourceWidth() - viewport.getWidth() / zoom) / 2;
+        offsetY = (sourceHeight() - viewport.getHeight() / zoom) / 2;
+        fitted = true;
+        render();
+    }
+
+    private void render() {
+        double width = sourceWidth();
+        double height = sourceHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        // The overview image underlays everything and covers tiles still being decoded
+        imageView.setPreserveRatio(false);
+        imageView.setLayoutX(-offsetX * zoom);
+        imageView.setLayoutY(-offsetY * zoom);
+        imageView.setFitWidth(width * zoom);
+        imageView.setFitHeight(height * zoom);
+
+        renderTiles();
+    }
+
+    private void renderTiles() {
+        TiledImageSource source = tileSource;
+        // Tiles only add something once the final overview is magnified
+        double overviewScale = source != null && loadedImage != null ? loadedImage.getWidth() / source.getWidth() : 0;
+        if (source == null || !overviewFinal || zoom <= overviewScale) {
+            clearTiles();
+            return;
+        }
+
+        int level = source.levelFor(zoom);
+        int span = source.tileSpan(level);
+        double viewWidth = viewport.getWidth() / zoom;
+        double viewHeight = viewport.getHeight() / zoom;
+        int firstColumn = Math.max(0, (int) Math.floor(offsetX / span));
+        int lastColumn = Math.min(source.getColumns(level) - 1, (int) Math.floor((offsetX + viewWidth) / span));
+        int firstRow = Math.max(0, (int) Math.floor(offsetY / span));
+        int lastRow = Math.min(source.getRows(level) - 1, (int) Math.floor((offsetY + viewHeight) / span));
+
+        visibleTiles.clear();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                visibleTiles.add(source.tile(level, column, row));
+            }
+        }
+
+        // Drop what left the view, including every tile of a previous level
+        Iterator<Map.Entry<TiledImageSource.Tile, ImageView>> views = tileViews.entrySet().iterator();
+        while (views.hasNext()) {
+            Map.Entry<TiledImageSource.Tile, ImageView> view = views.next();
+            if (!visibleTiles.contains(view.getKey())) {
+                tileLayer.getChildren().remove(view.getValue());
+                views.remove();
+            }
+        }
+        Iterator<TiledImageSource.Tile> pending = pendingTiles.keySet().iterator();
+        while (pending.hasNext()) {
+            TiledImageSource.Tile tile = pending.next();
+            if (!visibleTiles.contains(tile)) {
+                tileRequests.cancel(tile);
+                pending.remove();
+            }
+        }
+
+        // Tiles already shown are only moved; decodes still pending keep their place in the queue
+        List<TiledImageSource.Tile> missing = new ArrayList<>();
+        for (TiledImageSource.Tile tile : visibleTiles) {
+            ImageView view = tileViews.get(tile);
+            if (view != null) {
+                positionTile(source, tile, view);
+            } else if (!pendingTiles.containsKey(tile)) {
+                Image image = TILE_CACHE.get(tile);
+                if (image != null) {
+                    placeTile(source, tile, image);
+                } else {
+                    missing.add(tile);
+                }
+            }
+        }
+
+        // Decode from the centre of the view outwards
+        double centreX = offsetX + viewWidth / 2;
+        double centreY = offsetY + viewHeight / 2;
+        missing.sort(Comparator.comparingDouble(tile -> {
+            java.awt.Rectangle region = source.tileRegion(tile.getLevel(), tile.getColumn(), tile.getRow());
+            return Math.hypot(region.getCenterX() - centreX, region.getCenterY() - centreY);
+        }));
+        for (int i = 0; i < missing.size(); i++) {
+            requestTile(source, missing.get(i), i);
+        }
+    }
+
+    private void clearTiles() {
+        if (!pendingTiles.isEmpty()) {
+            tileRequests.cancelAll();
+            pendingTiles.clear();
+        }
+        visibleTiles.clear();
+        tileViews.clear();
+        tileLayer.getChildren().clear();
+    }
+
+    private void requestTile(TiledImageSource source, TiledImageSource.Tile tile, int priority) {
+        CompletableFuture<Image> request = tileRequests.<Image>request(tile, priority, () -> {
+            try {
+                BufferedImage decoded = source.decodeTile(tile.getLevel(), tile.getColumn(), tile.getRow());
+                if (decoded == null) {
+                    return null;
+                }
+                Image image = OffHeapImage.copyOf(decoded, null).getImage();
+                TILE_CACHE.put(tile, image);
+                return image;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        pendingTiles.put(tile, request);
+        request.whenComplete((image, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof CancellationException) {
+                return; // Already forgotten by the render that cancelled it
+            }
+            if (cause != null) {
+                LOGGER.log(Level.FINE, "Failed to decode tile " + tile, cause);
+            }
+            Platform.runLater(() -> {
+                // A failed tile is requested again the next time the view moves
+                if (!pendingTiles.remove(tile, request) || image == null) {
+                    return;
+                }
+                if (source == tileSource && visibleTiles.contains(tile)) {
+                    placeTile(source, tile, image);
+                }
+            });
+        });
+    }
+
+    private void placeTile(TiledImageSource source, TiledImageSource.Tile tile, Image image) {
+        ImageView view = new ImageView(image);
+        view.setSmooth(true);
+        positionTile(source, tile, view);
+        tileViews.put(tile, view);
+        tileLayer.getChildren().add(view);
+    }
+
+    private void positionTile(TiledImageSource source, TiledImageSource.Tile tile, ImageView view) {
+        java.awt.Rectangle region = source.tileRegion(tile.getLevel(), tile.getColumn(), tile.getRow());
+        view.setLayoutX((region.x - offsetX) * zoom);
+        view.setLayoutY((region.y - offsetY) * zoom);
+        view.setFitWidth(region.width * zoom);
+        view.setFitHeight(region.height * zoom);
+    }
+
     private void resetZoom() {
-        zoomFactor.set(1.0);
-        imageView.setScaleX(1.0);
-        imageView.setScaleY(1.0);
-        imageView.setTranslateX(0);
-        imageView.setTranslateY(0);
+        refit();
+    }
+
+    // Stop loads and drop pending tile work once the window is closed
+    private void dispose() {
+        PREFETCHER.cancelAll();
+        placeholderRequests.cancelAll();
+        imageView.setImage(null);
+        releaseDisplayedImage();
+        PixelBufferPool.getShared().trim();
+        clearTiles();
+        tileSource = null;
     }
-    
+
     @FXML
     private void handleClose() {
         if (stage != null) {
             stage.close();
         }
     }
-    
+
     @FXML
     private void handleZoomIn() {
-        double newZoomFactor = zoomFactor.get() * 1.5;
-        if (newZoomFactor > 10.0) newZoomFactor = 10.0;
-        zoomFactor.set(newZoomFactor);
-        imageView.setScaleX(zoomFactor.get());
-        imageView.setScaleY(zoomFactor.get());
+        zoomAround(zoom * 1.5, viewport.getWidth() / 2, viewport.getHeight() / 2);
     }
-    
+
     @FXML
     private void handleZoomOut() {
-        double newZoomFactor = zoomFactor.get() * 0.75;
-        if (newZoomFactor < 0.1) newZoomFactor = 0.1;
-        zoomFactor.set(newZoomFactor);
-        imageView.setScaleX(zoomFactor.get());
-        imageView.setScaleY(zoomFactor.get());
+        zoomAround(zoom * 0.75, viewport.getWidth() / 2, viewport.getHeight() / 2);
     }
-    
+
     @FXML
     private void handleResetView() {
         resetZoom();
     }
-}
\ No newline at end of file
+}
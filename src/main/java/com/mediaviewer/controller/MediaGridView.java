@@ -0,0 +1,409 @@
+package com.mediaviewer.controller;
+
+import com.mediaviewer.model.MediaFile;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Virtualized thumbnail grid.
+ *
+ * The grid is a ListView whose rows each hold one line of cards, so only the
+ * rows on screen (plus one or two spare) exist in the scene graph no matter
+ * how many files are shown. Rows and their cards are recycled while
+ * scrolling and rebound to whichever files scroll into view, and thumbnails
+ * are only requested for cards that are actually bound. The visible index
+ * range is reported to the loader so it can prioritize what is on screen.
+ *
+ * The grid keeps no list of its rows: refreshing and delivering thumbnails
+ * walk the rows the list currently lays out, so rows the list discards can
+ * be collected along with their cards and images.
+ */
+public class MediaGridView extends StackPane {
+
+    /**
+     * Supplies thumbnails to the grid. Loaded thumbnails are delivered back
+     * through {@link MediaGridView#thumbnailReady(MediaFile, Image)}.
+     */
+    public interface ThumbnailLoader {
+        /**
+         * @return the thumbnail if it is already in memory, otherwise null
+         */
+        Image getCachedThumbnail(MediaFile mediaFile);
+
+        /**
+         * Start loading a thumbnail for a card that just became visible.
+         * @param index Position of the file in the grid
+         */
+        void requestThumbnail(MediaFile mediaFile, int index);
+
+        /**
+         * The range of file indexes on screen changed (both inclusive).
+         */
+        default void viewportChanged(int firstIndex, int lastIndex) {
+        }
+    }
+
+    public static final double DEFAULT_THUMBNAIL_SIZE = 150;
+    // Room around the thumbnail for the card's padding and labels
+    private static final double CARD_EXTRA_WIDTH = 20;
+    private static final double CARD_EXTRA_HEIGHT = 50;
+    private static final double GAP = 10;
+    private static final long LARGE_FILE_SIZE = 100L * 1024 * 1024;
+
+    private final ListView<Integer> rowList = new ListView<>();
+    private List<MediaFile> files = Collections.emptyList();
+    private int columns = 1;
+    private double thumbnailSize = DEFAULT_THUMBNAIL_SIZE;
+
+    private ThumbnailLoader thumbnailLoader;
+    private Consumer<MediaFile> onOpen;
+    private Function<MediaFile, ContextMenu> contextMenuFactory;
+    private String placeholderStyle = "";
+    private boolean viewportUpdatePending;
+    // Bumped whenever bound cards may be stale, so spare rows rebind when reused
+    private int bindGeneration;
+
+    public MediaGridView() {
+        getStyleClass().add("media-grid");
+        rowList.setFixedCellSize(cardHeight() + GAP);
+        rowList.setFocusTraversable(false);
+        rowList.setCellFactory(listView -> new GridRow());
+        getChildren().add(rowList);
+
+        // Re-flow when the width changes the number of cards per row
+        rowList.widthProperty().addListener((obs, oldWidth, newWidth) -> updateColumns());
+        rowList.heightProperty().addListener((obs, oldHeight, newHeight) -> scheduleViewportUpdate());
+    }
+
+    public void setThumbnailLoader(ThumbnailLoader thumbnailLoader) {
+        this.thumbnailLoader = thumbnailLoader;
+    }
+
+    public void setOnOpen(Consumer<MediaFile> onOpen) {
+        this.onOpen = onOpen;
+    }
+
+    public void setContextMenuFactory(Function<MediaFile, ContextMenu> contextMenuFactory) {
+        this.contextMenuFactory = contextMenuFactory;
+    }
+
+    /**
+     * Style shown on a card's image area until its thumbnail arrives.
+     */
+    public void setPlaceholderStyle(String placeholderStyle) {
+        this.placeholderStyle = placeholderStyle;
+    }
+
+    public void setFiles(List<MediaFile> files) {
+        this.files = new ArrayList<>(files);
+        rebuildRows();
+        rowList.scrollTo(0);
+    }
+
+    /**
+     * Resize the cards, e.g. from a zoom slider. Visible cards are rebound
+     * so they can request thumbnails suited to the new size.
+     */
+    public void setThumbnailSize(double thumbnailSize) {
+        if (thumbnailSize == this.thumbnailSize) {
+            return;
+        }
+        this.thumbnailSize = thumbnailSize;
+        rowList.setFixedCellSize(cardHeight() + GAP);
+        columns = -1; // Force a re-flow
+        updateColumns();
+    }
+
+    public double getThumbnailSize() {
+        return thumbnailSize;
+    }
+
+    public List<MediaFile> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Rebind the visible cards, e.g. after a file's favorite flag changed.
+     * The rows are reused, unlike ListView.refresh() which recreates them all.
+     */
+    public void refresh() {
+        bindGeneration++;
+        forEachVisibleRow(GridRow::bindCards);
+    }
+
+    /**
+     * Show a loaded thumbnail on every visible card bound to the file.
+     * Must be called on the JavaFX thread.
+     */
+    public void thumbnailReady(MediaFile mediaFile, Image thumbnail) {
+        forEachVisibleRow(row -> {
+            for (MediaCard card : row.cards) {
+                if (card.mediaFile == mediaFile) {
+                    card.showThumbnail(thumbnail);
+                }
+            }
+        });
+    }
+
+    // Spare rows are skipped, they are rebound when the list reuses them
+    private void forEachVisibleRow(Consumer<GridRow> action) {
+        VirtualFlow<?> flow = getFlow();
+        IndexedCell<?> firstRow = flow != null ? flow.getFirstVisibleCell() : null;
+        IndexedCell<?> lastRow = flow != null ? flow.getLastVisibleCell() : null;
+        if (firstRow == null || lastRow == null) {
+            return;
+        }
+        for (int i = firstRow.getIndex(); i <= lastRow.getIndex(); i++) {
+            IndexedCell<?> row = flow.getVisibleCell(i);
+            if (row instanceof GridRow) {
+                action.accept((GridRow) row);
+            }
+        }
+    }
+
+    private VirtualFlow<?> getFlow() {
+        Object flow = rowList.lookup(".virtual-flow");
+        return flow instanceof VirtualFlow ? (VirtualFlow<?>) flow : null;
+    }
+
+    private void updateColumns() {
+        double width = rowList.getWidth() - 2 * GAP - 20; // Leave room for the scroll bar
+        int newColumns = Math.max(1, (int) ((width + GAP) / (cardWidth() + GAP)));
+        if (newColumns != columns) {
+            columns = newColumns;
+            rebuildRows();
+        }
+    }
+
+    // Rows are rebound during layout, so the visible range is read once the pulse is done
+    private void scheduleViewportUpdate() {
+        if (viewportUpdatePending) {
+            return;
+        }
+        viewportUpdatePending = true;
+        Platform.runLater(() -> {
+            viewportUpdatePending = false;
+            updateViewport();
+        });
+    }
+
+    private void updateViewport() {
+        VirtualFlow<?> flow = getFlow();
+        if (thumbnailLoader == null || flow == null) {
+            return;
+        }
+        IndexedCell<?> firstRow = flow.getFirstVisibleCell();
+        IndexedCell<?> lastRow = flow.getLastVisibleCell();
+        if (firstRow == null || lastRow == null || firstRow.getIndex() < 0) {
+            return;
+        }
+        int firstIndex = firstRow.getIndex() * columns;
+        int lastIndex = Math.min(files.size() - 1, (lastRow.getIndex() + 1) * columns - 1);
+        thumbnailLoader.viewportChanged(firstIndex, lastIndex);
+    }
+
+    private double cardWidth() {
+        return thumbnailSize + CARD_EXTRA_WIDTH;
+    }
+
+    private double cardHeight() {
+        return thumbnailSize + CARD_EXTRA_HEIGHT;
+    }
+
+    private void rebuildRows() {
+        int rowCount = (files.size() + columns - 1) / columns;
+        List<Integer> rowIndexes = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            rowIndexes.add(i);
+        }
+        rowList.getItems().setAll(rowIndexes);
+        // Rows that keep their index are not rebound by the list, but their cards may have moved
+        refresh();
+    }
+
+    private class GridRow extends ListCell<Integer> {
+        private final HBox box = new HBox(GAP);
+        private final List<MediaCard> cards = new ArrayList<>();
+        private int boundGeneration = -1;
+
+        GridRow() {
+            box.setPadding(new Insets(0, GAP, 0, GAP));
+            setGraphic(box);
+            setText(null);
+        }
+
+        // Row indexes are reused for other files after a re-flow, so equal indexes are not enough
+        @Override
+        protected boolean isItemChanged(Integer oldRowIndex, Integer newRowIndex) {
+            return boundGeneration != bindGeneration || super.isItemChanged(oldRowIndex, newRowIndex);
+        }
+
+        @Override
+        protected void updateItem(Integer rowIndex, boolean empty) {
+            super.updateItem(rowIndex, empty);
+            if (empty || rowIndex == null) {
+                for (MediaCard card : cards) {
+                    card.unbind();
+                }
+                setGraphic(null);
+                return;
+            }
+            setGraphic(box);
+            bindCards();
+        }
+
+        void bindCards() {
+            Integer rowIndex = getItem();
+            if (isEmpty() || rowIndex == null) {
+                return;
+            }
+            boundGeneration = bindGeneration;
+
+            // Grow or shrink the recycled card pool to the current column count
+            while (cards.size() < columns) {
+                MediaCard card = new MediaCard();
+                cards.add(card);
+                box.getChildren().add(card);
+            }
+            while (cards.size() > columns) {
+                box.getChildren().remove(cards.remove(cards.size() - 1));
+            }
+
+            scheduleViewportUpdate();
+
+            int first = rowIndex * columns;
+            for (int i = 0; i < cards.size(); i++) {
+                int index = first + i;
+                if (index < files.size()) {
+                    cards.get(i).bind(files.get(index), index);
+                } else {
+                    cards.get(i).unbind();
+                }
+            }
+        }
+    }
+
+    private class MediaCard extends VBox {
+        private final ImageView imageView = new ImageView();
+        private final Label nameLabel = new Label();
+        private final Label sizeLabel = new Label();
+        private MediaFile mediaFile;
+        private double size;
+
+        MediaCard() {
+            getStyleClass().add("media-card");
+            setSpacing(5);
+            setAlignment(Pos.CENTER);
+
+            imageView.setPreserveRatio(true);
+            imageView.setSmooth(true);
+
+            nameLabel.setWrapText(true);
+            nameLabel.setAlignment(Pos.CENTER);
+
+            sizeLabel.setStyle("-fx-font-size: 10px; -fx-text-fill: #7f8c8d;");
+            sizeLabel.setManaged(false);
+            sizeLabel.setVisible(false);
+
+            getChildren().addAll(imageView, nameLabel, sizeLabel);
+
+            imageView.setOnMouseClicked(event -> {
+                if (mediaFile == null) {
+                    return;
+                }
+                if (event.getButton() == MouseButton.PRIMARY && onOpen != null) {
+                    onOpen.accept(mediaFile);
+                } else if (event.getButton() == MouseButton.SECONDARY && contextMenuFactory != null) {
+                    ContextMenu contextMenu = contextMenuFactory.apply(mediaFile);
+                    if (contextMenu != null) {
+                        contextMenu.show(imageView, event.getScreenX(), event.getScreenY());
+                    }
+                }
+            });
+        }
+
+        // Cards follow the grid zoom, so they are sized in code rather than in the stylesheet
+        private void applySize() {
+            size = thumbnailSize;
+            setMinSize(cardWidth(), cardHeight());
+            setPrefSize(cardWidth(), cardHeight());
+            setMaxSize(cardWidth(), cardHeight());
+            imageView.setFitWidth(size);
+            imageView.setFitHeight(size);
+            nameLabel.setMaxWidth(size);
+        }
+
+        void bind(MediaFile file, int index) {
+            boolean rebinding = file != mediaFile;
+            if (size != thumbnailSize) {
+                applySize();
+                rebinding = true; // A different size may need a different thumbnail
+            }
+            mediaFile = file;
+            setVisible(true);
+            nameLabel.setText(file.getFileName());
+
+            // Show the size for very large files
+            boolean large = file.getFileSize() > LARGE_FILE_SIZE;
+            sizeLabel.setText(large ? formatFileSize(file.getFileSize()) : "");
+            sizeLabel.setManaged(large);
+            sizeLabel.setVisible(large);
+
+            setStyle(file.isFavorite() ? "-fx-border-color: gold; -fx-border-width: 2px;" : "");
+
+            Image cached = thumbnailLoader != null ? thumbnailLoader.getCachedThumbnail(file) : null;
+            if (cached != null) {
+                showThumbnail(cached);
+            } else if (rebinding || imageView.getImage() == null) {
+                imageView.setImage(null);
+                imageView.setStyle(placeholderStyle);
+                if (thumbnailLoader != null) {
+                    thumbnailLoader.requestThumbnail(file, index);
+                }
+            }
+        }
+
+        void unbind() {
+            mediaFile = null;
+            imageView.setImage(null);
+            setVisible(false);
+        }
+
+        void showThumbnail(Image thumbnail) {
+            if (thumbnail != null) {
+                imageView.setImage(thumbnail);
+                imageView.setStyle("-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.2), 4, 0, 1, 1);"); // Add subtle shadow
+            }
+        }
+    }
+
+    private static String formatFileSize(long size) {
+        if (size < 1024) return size + " B";
+        if (size < 1024 * 1024) return String.format("%.1f KB", size / 1024.0);
+        if (size < 1024 * 1024 * 1024) return String.format("%.1f MB", size / (1024.0 * 1024));
+        return String.format("%.1f GB", size / (1024.0 * 1024 * 1024));
+    }
+}
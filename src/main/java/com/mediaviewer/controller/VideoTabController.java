@@ -1,14 +1,12 @@
 package com.mediaviewer.controller;
 
 import com.mediaviewer.model.MediaFile;
+import com.mediaviewer.utils.ImageMemoryCache;
 import com.mediaviewer.utils.ThumbnailGenerator;
+import com.mediaviewer.utils.ThumbnailScheduler;
+import com.mediaviewer.utils.WeightedLruCache;
 import javafx.fxml.FXML;
-import javafx.scene.control.Label;
 import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
-import javafx.scene.layout.FlowPane;
-import javafx.scene.layout.Priority;
-import javafx.scene.layout.VBox;
 import javafx.application.Platform;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
@@ -19,39 +17,49 @@ import java.io.IOException;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.WeakHashMap;
 
 public class VideoTabController {
     
     private static final Logger LOGGER = Logger.getLogger(VideoTabController.class.getName());
     
+    private static final String PLACEHOLDER_STYLE = "-fx-background-color: linear-gradient(to bottom, #e74c3c, #c0392b); -fx-border-color: #a5281b; -fx-border-width: 2px; -fx-border-radius: 4px;";
+    
     @FXML
-    private FlowPane videoFlowPane;
+    private MediaGridView videoGrid;
     
     private DashboardController dashboardController;
-    private ExecutorService thumbnailExecutor = Executors.newFixedThreadPool(
-        Runtime.getRuntime().availableProcessors()
-    );
     
-    // Cache for thumbnail futures to avoid duplicate work
-    private Map<String, Object> thumbnailCache = new HashMap<>();
+    // Icon loads go through the shared scheduler, which coalesces the identical requests of all visible cards
+    private final ThumbnailScheduler.Client thumbnailRequests = ThumbnailScheduler.getShared().newClient();
+    
+    // Shared byte-bounded cache of decoded thumbnails
+    private final WeightedLruCache<ImageMemoryCache.Key, Image> imageCache = ImageMemoryCache.getShared();
     
-    // Weak cache for loaded images to allow garbage collection
-    private Map<String, Image> imageCache = new WeakHashMap<>();
+    // Every video currently shares the same placeholder icon, so it is cached once
+    private static final ImageMemoryCache.Key VIDEO_ICON_KEY = new ImageMemoryCache.Key("video-icon", 150, 150);
     
     @FXML
     public void initialize() {
-        // Ensure the FlowPane grows to fill available space
-        if (videoFlowPane != null) {
-            videoFlowPane.setPrefWrapLength(200); // Wrap at 200 pixels
-            videoFlowPane.setHgap(10);
-            videoFlowPane.setVgap(10);
-            // Enable virtualized scrolling for better performance with large datasets
-            videoFlowPane.setPrefHeight(600);
+        if (videoGrid != null) {
+            videoGrid.setPlaceholderStyle(PLACEHOLDER_STYLE);
+            videoGrid.setOnOpen(this::openFile);
+            videoGrid.setContextMenuFactory(this::createContextMenu);
+            videoGrid.setThumbnailLoader(new MediaGridView.ThumbnailLoader() {
+                @Override
+                public Image getCachedThumbnail(MediaFile mediaFile) {
+                    return imageCache.get(VIDEO_ICON_KEY);
+                }
+                
+                @Override
+                public void requestThumbnail(MediaFile mediaFile, int index) {
+                    loadVideoIcon(index);
+                }
+                
+                @Override
+                public void viewportChanged(int firstIndex, int lastIndex) {
+                    thumbnailRequests.updateViewport(firstIndex, lastIndex);
+                }
+            });
         }
     }
     
@@ -60,121 +68,48 @@ public class VideoTabController {
     }
     
     public void updateVideos(List<MediaFile> videoFiles) {
-        if (videoFlowPane != null) {
-            videoFlowPane.getChildren().clear();
-            // Clear thumbnail cache for new update
-            thumbnailCache.clear();
-            
-            for (MediaFile mediaFile : videoFiles) {
-                // Add placeholder immediately
-                VBox card = createPlaceholderCard(mediaFile);
-                videoFlowPane.getChildren().add(card);
-                
-                // Check if we already have this image in cache
-                String filePath = mediaFile.getFilePath().toString();
-                if (imageCache.containsKey(filePath)) {
-                    Image cachedImage = imageCache.get(filePath);
-                    Platform.runLater(() -> updateCardWithThumbnail(card, cachedImage, mediaFile));
-                } else {
-                    // Load thumbnail in background
-                    thumbnailExecutor.submit(() -> {
-                        // For now, we'll use the default video thumbnail
-                        // In a more advanced implementation, we could extract actual video frames
-                        Image thumbnail = ThumbnailGenerator.generateVideoThumbnail(150, 150);
-                        
-                        // Cache the image
-                        if (thumbnail != null) {
-                            imageCache.put(filePath, thumbnail);
-                        }
-                        
-                        // Update UI on JavaFX thread
-                        Platform.runLater(() -> updateCardWithThumbnail(card, thumbnail, mediaFile));
-                    });
-                }
-            }
+        if (videoGrid != null) {
+            thumbnailRequests.cancelAll();
+            // Only the visible cards are created; they request their thumbnails as they are bound
+            videoGrid.setFiles(videoFiles);
         }
     }
     
-    private VBox createPlaceholderCard(MediaFile mediaFile) {
-        VBox card = new VBox();
-        card.getStyleClass().add("media-card");
-        card.setSpacing(5);
-        card.setAlignment(javafx.geometry.Pos.CENTER);
-        card.setMinWidth(170);
-        card.setMinHeight(200);
-        card.setPrefWidth(170);
-        card.setPrefHeight(200);
-        
-        ImageView imageView = new ImageView();
-        imageView.setFitWidth(150);
-        imageView.setFitHeight(150);
-        imageView.setPreserveRatio(true);
-        imageView.setSmooth(true);
-        
-        // Set a default video placeholder with better styling
-        setVideoPlaceholder(imageView);
-        
-        Label nameLabel = new Label(mediaFile.getFileName());
-        nameLabel.setWrapText(true);
-        nameLabel.setMaxWidth(150);
-        nameLabel.setAlignment(javafx.geometry.Pos.CENTER);
-        
-        card.getChildren().addAll(imageView, nameLabel);
-        
-        // Make right-click show context menu
-        imageView.setOnMouseClicked(event -> {
-            if (event.getButton() == javafx.scene.input.MouseButton.SECONDARY) {
-                showContextMenu(imageView, mediaFile, card);
-            }
-        });
-        
-        return card;
-    }
-    
-    private void setVideoPlaceholder(ImageView imageView) {
-        // Set a colored background as a video placeholder with better styling
-        imageView.setStyle("-fx-background-color: linear-gradient(to bottom, #e74c3c, #c0392b); -fx-border-color: #a5281b; -fx-border-width: 2px; -fx-border-radius: 4px;");
-    }
-    
-    private void updateCardWithThumbnail(VBox card, Image thumbnail, MediaFile mediaFile) {
-        if (card.getChildren().size() > 0 && card.getChildren().get(0) instanceof ImageView) {
-            ImageView imageView = (ImageView) card.getChildren().get(0);
+    private void loadVideoIcon(int index) {
+        thumbnailRequests.request(VIDEO_ICON_KEY, index, () -> {
+            // For now, we'll use the default video thumbnail
+            // In a more advanced implementation, we could extract actual video frames
+            Image thumbnail = ThumbnailGenerator.generateVideoThumbnail(150, 150);
             
+            // Cache the image
             if (thumbnail != null) {
-                imageView.setImage(thumbnail);
-                imageView.setStyle("-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.2), 4, 0, 1, 1);"); // Add subtle shadow
+                imageCache.put(VIDEO_ICON_KEY, thumbnail);
             }
-            
-            // Make the image clickable to open the file
-            imageView.setOnMouseClicked(event -> {
-                if (event.getButton() == javafx.scene.input.MouseButton.PRIMARY) {
-                    openFile(mediaFile);
-                } else if (event.getButton() == javafx.scene.input.MouseButton.SECONDARY) {
-                    showContextMenu(imageView, mediaFile, card);
-                }
-            });
-        }
+            return thumbnail;
+        }).thenAccept(thumbnail -> {
+            if (thumbnail != null) {
+                // Rebind the visible cards on the JavaFX thread so they pick up the icon
+                Platform.runLater(() -> videoGrid.refresh());
+            }
+        });
     }
     
-    private void showContextMenu(ImageView imageView, MediaFile mediaFile, VBox card) {
+    private ContextMenu createContextMenu(MediaFile mediaFile) {
         ContextMenu contextMenu = new ContextMenu();
         
         MenuItem favoriteItem = new MenuItem("Toggle Favorite");
         favoriteItem.setOnAction(event -> {
             mediaFile.setFavorite(!mediaFile.isFavorite());
-            // Update UI to reflect favorite status
-            if (mediaFile.isFavorite()) {
-                card.setStyle("-fx-border-color: gold; -fx-border-width: 2px;");
-            } else {
-                card.setStyle("");
-            }
+            // Rebind the visible cards to reflect favorite status
+            videoGrid.refresh();
+            notifyFileChanged(mediaFile);
         });
         
         MenuItem tagItem = new MenuItem("Add Tag");
         tagItem.setOnAction(event -> showTagDialog(mediaFile));
         
         contextMenu.getItems().addAll(favoriteItem, tagItem);
-        contextMenu.show(imageView, javafx.geometry.Side.BOTTOM, 0, 0);
+        return contextMenu;
     }
     
     private void openFile(MediaFile mediaFile) {
@@ -195,14 +130,19 @@ public class VideoTabController {
         java.util.Optional<String> result = dialog.showAndWait();
         result.ifPresent(tag -> {
             mediaFile.addTag(tag);
-            // In a real application, you might want to refresh the tag panel
+            notifyFileChanged(mediaFile);
         });
     }
     
+    // Keep the dashboard's facet counts and tag panel in sync with edits
+    private void notifyFileChanged(MediaFile mediaFile) {
+        if (dashboardController != null) {
+            dashboardController.onFileChanged(mediaFile);
+        }
+    }
+    
     // Cleanup method
     public void cleanup() {
-        thumbnailExecutor.shutdown();
-        thumbnailCache.clear();
-        imageCache.clear();
+        thumbnailRequests.cancelAll();
     }
 }
\ No newline at end of file
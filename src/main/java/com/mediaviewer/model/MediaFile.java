@@ -17,16 +17,29 @@ public class MediaFile {
     private String extension;
     private long fileSize;
     private LocalDateTime lastModified;
+    private long lastModifiedMillis;
     private boolean isFavorite;
     private List<String> tags;
     private Map<String, String> metadata;
+    // Filled in from the image header by the scanner's enrichment stage, 0 and null when unknown
+    private int imageWidth;
+    private int imageHeight;
+    private int bitDepth;
+    private String imageFormat;
+    // From EXIF/XMP, 0, null and NaN when unknown
+    private long captureTimeMillis;
+    private String cameraModel;
+    private int orientation;
+    private double latitude = Double.NaN;
+    private double longitude = Double.NaN;
     
     public MediaFile(File file) {
         this.filePath = file.toPath();
         this.fileName = file.getName();
         this.fileSize = file.length();
+        this.lastModifiedMillis = file.lastModified();
         this.lastModified = LocalDateTime.ofInstant(
-            java.time.Instant.ofEpochMilli(file.lastModified()), 
+            java.time.Instant.ofEpochMilli(lastModifiedMillis), 
             java.time.ZoneId.systemDefault()
         );
         this.extension = getFileExtension(file);
@@ -197,6 +210,10 @@ public class MediaFile {
         return lastModified;
     }
     
+    public long getLastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+    
     public boolean isFavorite() {
         return isFavorite;
     }
@@ -219,6 +236,78 @@ public class MediaFile {
         tags.remove(tag);
     }
     
+    public int getImageWidth() {
+        return imageWidth;
+    }
+    
+    public int getImageHeight() {
+        return imageHeight;
+    }
+    
+    public int getBitDepth() {
+        return bitDepth;
+    }
+    
+    public String getImageFormat() {
+        return imageFormat;
+    }
+    
+    public void setImageInfo(int width, int height, int bitDepth, String format) {
+        this.imageWidth = width;
+        this.imageHeight = height;
+        this.bitDepth = bitDepth;
+        this.imageFormat = format;
+    }
+    
+    /**
+     * Capture time from the photo's metadata, 0 if unknown.
+     */
+    public long getCaptureTimeMillis() {
+        return captureTimeMillis;
+    }
+    
+    /**
+     * When the photo was taken if known, otherwise when the file was last modified.
+     */
+    public long getDateTakenMillis() {
+        return captureTimeMillis > 0 ? captureTimeMillis : lastModifiedMillis;
+    }
+    
+    public LocalDateTime getDateTaken() {
+        if (captureTimeMillis <= 0) {
+            return lastModified;
+        }
+        return LocalDateTime.ofInstant(
+            java.time.Instant.ofEpochMilli(captureTimeMillis), 
+            java.time.ZoneId.systemDefault()
+        );
+    }
+    
+    public String getCameraModel() {
+        return cameraModel;
+    }
+    
+    public int getOrientation() {
+        return orientation;
+    }
+    
+    public double getLatitude() {
+        return latitude;
+    }
+    
+    public double getLongitude() {
+        return longitude;
+    }
+    
+    public void setCaptureInfo(long captureTimeMillis, String cameraModel, int orientation,
+                               double latitude, double longitude) {
+        this.captureTimeMillis = captureTimeMillis;
+        this.cameraModel = cameraModel;
+        this.orientation = orientation;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+    
     public Map<String, String> getMetadata() {
         return new HashMap<>(metadata);
     }
@@ -0,0 +1,705 @@
+package com.mediaviewer.utils;
+
+import com.mediaviewer.model.MediaFile;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Organizes a whole folder at once.
+ *
+ * The run is planned before anything moves: the target of every file, the
+ * directories to create and the names that collide, with each target
+ * directory listed once by NameReservations. Each directory is then
+ * created once, and the moves run on a pool of worker threads. Moves within
+ * one file store are renames, which only update directory entries and run
+ * well in parallel; moves to another file store go through FileTransfer,
+ * which copies resumably with byte-level progress, one file at a time after
+ * the renames.
+ *
+ * Runs given an OrganizeJournal are recorded in it as they go, so a run a
+ * crash interrupted can be finished or rolled back, and a finished run can
+ * be undone.
+ *
+ * The worker count defaults to twice the cores, at most 16, and can be set
+ * with the mediaviewer.organize.threads system property.
+ */
+public class BulkOrganizer {
+    private static final Logger LOGGER = Logger.getLogger(BulkOrganizer.class.getName());
+
+    // Progress is reported every this many files
+    private static final int PROGRESS_INTERVAL = 250;
+
+    /**
+     * Receives progress updates, from the worker threads.
+     */
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    public enum Status {
+        MOVED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final int threadCount;
+    private final FileTransfer transfer;
+    private volatile boolean cancelled;
+    // Copying across stores, interrupted to cancel a long copy
+    private Thread copyThread;
+
+    public BulkOrganizer() {
+        this(Integer.getInteger("mediaviewer.organize.threads",
+                                Math.min(16, 2 * Runtime.getRuntime().availableProcessors())));
+    }
+
+    public BulkOrganizer(int threadCount) {
+        this(threadCount, new FileTransfer());
+    }
+
+    public BulkOrganizer(int threadCount, FileTransfer transfer) {
+        this.threadCount = Math.max(1, threadCount);
+        this.transfer = transfer;
+    }
+
+    /**
+     * Work out where every file goes. Nothing is moved or created.
+     * @param directory the folder the layout's subdirectories are created in
+     */
+    public Plan plan(Path directory, Collection<MediaFile> files, FileOrganizer.Layout layout) {
+        // Sorted, so parents come before their children
+        Set<Path> directories = new TreeSet<>();
+        NameReservations names = new NameReservations();
+        List<Move> moves = new ArrayList<>(files.size());
+        List<Path> skipped = new ArrayList<>();
+        int collisions = 0;
+
+        for (MediaFile file : files) {
+            Path source = file.getFilePath();
+            Path targetDirectory = directory.resolve(layout.directoryFor(file)).normalize();
+            // Already in place, a folder that would end up inside itself, or an unfinished copy
+            if (targetDirectory.equals(source.getParent()) || targetDirectory.startsWith(source)
+                    || source.getFileName().toString().endsWith(FileTransfer.PART_SUFFIX)) {
+                skipped.add(source);
+                continue;
+            }
+            directories.add(targetDirectory);
+            Path target = names.reserve(targetDirectory, source.getFileName().toString());
+            if (!target.getFileName().equals(source.getFileName())) {
+                collisions++;
+            }
+            moves.add(new Move(source, target, file.getFileSize()));
+        }
+        return new Plan(new ArrayList<>(directories), moves, skipped, collisions);
+    }
+
+    /**
+     * Carry out a plan. Blocks until every move has been tried or the run is cancelled.
+     * @param listener receives progress from the worker threads, may be null
+     */
+    public Result execute(Plan plan, ProgressListener listener) {
+        return run(plan, listener, index -> { }, created -> { });
+    }
+
+    /**
+     * Carry out a plan, recording it in a journal created for it, so it can be recovered or undone.
+     */
+    public Result execute(Plan plan, ProgressListener listener, OrganizeJournal journal) {
+        Result result = run(plan, listener, journal::recordDone, created -> recordCreated(journal, created));
+        commit(journal);
+        return result;
+    }
+
+    /**
+     * Finish a run a crash interrupted. Moves the crash left half done are completed;
+     * interrupted copies resume from their ".part" files.
+     */
+    public Result rollForward(OrganizeJournal journal, ProgressListener listener) {
+        if (journal.getState() != OrganizeJournal.State.IN_PROGRESS) {
+            throw new IllegalStateException("Journal is " + journal.getState());
+        }
+        List<Move> moves = journal.getMoves();
+        List<Move> remaining = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < moves.size(); i++) {
+            if (journal.isDone(i)) {
+                continue;
+            }
+            Move move = moves.get(i);
+            if (Files.exists(move.getSource())) {
+                remaining.add(move);
+                indexes.add(i);
+            } else if (Files.exists(move.getTarget())) {
+                // Moved, but the mark was in the group the crash lost
+                journal.recordDone(i);
+            }
+        }
+        Plan plan = new Plan(new ArrayList<>(journal.getDirectories()), remaining, new ArrayList<>(), 0);
+        Result result = run(plan, listener, k -> journal.recordDone(indexes.get(k)),
+                            created -> recordCreated(journal, created));
+        commit(journal);
+        return result;
+    }
+
+    /**
+     * Move the files of a journaled run back where they came from, in parallel, and remove the
+     * directories it created once they are empty. Also rolls back a run a crash interrupted,
+     * and finishes an interrupted undo.
+     */
+    public Result undo(OrganizeJournal journal, ProgressListener listener) throws IOException {
+        // Marks of the last group before a crash may be missing, then the disk has the answer
+        boolean doneMarksComplete = journal.isCommitted();
+        boolean undoneMarksComplete = journal.getState() != OrganizeJournal.State.UNDOING;
+
+        List<Move> moves = journal.getMoves();
+        Set<Path> directories = new TreeSet<>();
+        List<Move> reversed = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < moves.size(); i++) {
+            if (journal.isUndone(i)) {
+                continue;
+            }
+            Move move = moves.get(i);
+            boolean moved;
+            if (undoneMarksComplete && (journal.isDone(i) || doneMarksComplete)) {
+                moved = journal.isDone(i);
+            } else {
+                moved = wasMoved(move);
+            }
+            if (moved) {
+                reversed.add(new Move(move.getTarget(), move.getSource(), move.getSize()));
+                indexes.add(i);
+                directories.add(move.getSource().getParent());
+            }
+        }
+
+        journal.markUndoing();
+        Plan plan = new Plan(new ArrayList<>(directories), reversed, new ArrayList<>(), 0);
+        Result result = run(plan, listener, k -> journal.recordUndone(indexes.get(k)), created -> { });
+        removeEmptyDirectories(journal.getCreatedDirectories());
+        if (result.getMovedCount() == reversed.size()) {
+            journal.markRolledBack();
+        }
+        return result;
+    }
+
+    // For moves whose mark may have been lost: also cleans up what an interrupted copy left
+    private static boolean wasMoved(Move move) throws IOException {
+        boolean source = Files.exists(move.getSource());
+        boolean target = Files.exists(move.getTarget());
+        if (source) {
+            Files.deleteIfExists(FileTransfer.partFile(move.getTarget()));
+            if (!target) {
+                return false;
+            }
+            if (Files.size(move.getTarget()) == Files.size(move.getSource())
+                    && FileTransfer.checksum(move.getTarget()) == FileTransfer.checksum(move.getSource())) {
+                // A verified copy renamed into place before the source was deleted; the name was reserved for it
+                Files.delete(move.getTarget());
+                return false;
+            }
+            // The file was moved and another one has since appeared at the source. Both are kept:
+            // moving it back fails on the existing source, which reports the conflict.
+            LOGGER.warning("Both " + move.getSource() + " and " + move.getTarget() + " exist with different contents");
+            return true;
+        }
+        return target;
+    }
+
+    private static void recordCreated(OrganizeJournal journal, List<Path> created) {
+        try {
+            journal.recordCreatedDirectories(created);
+        } catch (IOException e) {
+            // Undo then leaves them in place, empty
+            LOGGER.log(Level.WARNING, "Failed to journal created directories", e);
+        }
+    }
+
+    private static void commit(OrganizeJournal journal) {
+        try {
+            journal.markCommitted();
+        } catch (IOException e) {
+            // Recovery checks the disk for the moves it cannot confirm
+            LOGGER.log(Level.WARNING, "Failed to commit organize journal " + journal.getFile(), e);
+        }
+    }
+
+    // Children before parents; directories something else was put in stay
+    private static void removeEmptyDirectories(List<Path> created) {
+        for (int i = created.size() - 1; i >= 0; i--) {
+            try {
+                Files.deleteIfExists(created.get(i));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Keeping " + created.get(i), e);
+            }
+        }
+    }
+
+    private Result run(Plan plan, ProgressListener listener, IntConsumer onMoved, Consumer<List<Path>> onCreated) {
+        List<Move> moves = plan.getMoves();
+        Tracker tracker = new Tracker(moves.size(), listener);
+        FileResult[] results = new FileResult[moves.size()];
+
+        List<Path> created = new ArrayList<>();
+        Map<Path, IOException> directoryErrors = createDirectories(plan.getDirectories(), created);
+        // Journaled before any file can move into them
+        onCreated.accept(created);
+
+        Map<Path, FileStore> stores = new HashMap<>();
+        List<Integer> renames = new ArrayList<>();
+        List<Integer> copies = new ArrayList<>();
+        for (int i = 0; i < moves.size(); i++) {
+            Move move = moves.get(i);
+            IOException directoryError = directoryErrors.get(move.getTarget().getParent());
+            if (directoryError != null) {
+                results[i] = new FileResult(move, Status.FAILED, directoryError);
+                tracker.failed();
+            } else if (sameStore(move.getSource().getParent(), move.getTarget().getParent(), stores)) {
+                renames.add(i);
+            } else {
+                copies.add(i);
+            }
+        }
+
+        runInParallel(renames, moves, results, tracker, onMoved);
+        // Copies compete for the same disks, so more threads would not speed them up
+        synchronized (this) {
+            copyThread = Thread.currentThread();
+        }
+        try {
+            for (int i : copies) {
+                results[i] = copy(moves.get(i), tracker);
+                if (results[i].getStatus() == Status.MOVED) {
+                    onMoved.accept(i);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                copyThread = null;
+            }
+            if (cancelled) {
+                // Clear an interrupt meant for the copy
+                Thread.interrupted();
+            }
+        }
+
+        Result result = new Result(Arrays.asList(results), tracker.elapsedNanos(), tracker.bytes.get());
+        tracker.report(true);
+        LOGGER.info(String.format("Organized %d files (%d failed, %d cancelled) in %.1f s, %.0f files/s",
+            result.getMovedCount(), result.getFailedCount(), result.getCancelledCount(),
+            result.getElapsedNanos() / 1e9, result.getFilesPerSecond()));
+        return result;
+    }
+
+    /**
+     * Stop a running execute(). Moves already done stay done; the rest are reported as cancelled.
+     * Also stops a run that has not started yet, an organizer cannot be used again once cancelled.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (copyThread != null) {
+            // A cancelled copy keeps its ".part" file, the next run resumes it
+            copyThread.interrupt();
+        }
+    }
+
+    // Fills created with the directories that did not exist yet, parents first
+    private Map<Path, IOException> createDirectories(List<Path> directories, List<Path> created) {
+        Map<Path, IOException> errors = new HashMap<>();
+        for (Path directory : directories) {
+            List<Path> missing = new ArrayList<>();
+            for (Path p = directory; p != null && !Files.exists(p); p = p.getParent()) {
+                missing.add(0, p);
+            }
+            try {
+                Files.createDirectories(directory);
+                created.addAll(missing);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to create " + directory, e);
+                errors.put(directory, e);
+            }
+        }
+        return errors;
+    }
+
+    // Unknown stores count as different, Files.move copies across stores anyway
+    private static boolean sameStore(Path sourceDirectory, Path targetDirectory, Map<Path, FileStore> stores) {
+        FileStore source = storeOf(sourceDirectory, stores);
+        return source != null && source.equals(storeOf(targetDirectory, stores));
+    }
+
+    private static FileStore storeOf(Path directory, Map<Path, FileStore> stores) {
+        if (directory == null) {
+            return null;
+        }
+        if (!stores.containsKey(directory)) {
+            FileStore store = null;
+            try {
+                store = Files.getFileStore(directory);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot tell the file store of " + directory, e);
+            }
+            stores.put(directory, store);
+        }
+        return stores.get(directory);
+    }
+
+    private void runInParallel(List<Integer> indexes, List<Move> moves, FileResult[] results, Tracker tracker,
+                               IntConsumer onMoved) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, indexes.size()), runnable -> {
+            Thread thread = new Thread(runnable, "organize-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Workers take the next move from a shared cursor rather than one task per file
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            int k;
+            while ((k = next.getAndIncrement()) < indexes.size()) {
+                int i = indexes.get(k);
+                results[i] = move(moves.get(i), tracker);
+                if (results[i].getStatus() == Status.MOVED) {
+                    onMoved.accept(i);
+                }
+            }
+        };
+        for (int t = 0; t < Math.min(threadCount, indexes.size()); t++) {
+            executor.execute(worker);
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            // The workers notice the cancellation after their current move
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException again) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private FileResult move(Move move, Tracker tracker) {
+        if (cancelled) {
+            return new FileResult(move, Status.CANCELLED, null);
+        }
+        try {
+            // No REPLACE_EXISTING: a file that appeared since planning fails the move instead of being lost
+            Files.move(move.getSource(), move.getTarget());
+            tracker.moved(move.getSize());
+            return new FileResult(move, Status.MOVED, null);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to move " + move.getSource() + " to " + move.getTarget(), e);
+            tracker.failed();
+            return new FileResult(move, Status.FAILED, e);
+        }
+    }
+
+    private FileResult copy(Move move, Tracker tracker) {
+        if (cancelled) {
+            return new FileResult(move, Status.CANCELLED, null);
+        }
+        try {
+            transfer.move(move.getSource(), move.getTarget(), (transferred, total) -> tracker.copying(transferred));
+            tracker.moved(move.getSize());
+            return new FileResult(move, Status.MOVED, null);
+        } catch (IOException e) {
+            if (cancelled) {
+                tracker.copying(0);
+                return new FileResult(move, Status.CANCELLED, null);
+            }
+            LOGGER.log(Level.WARNING, "Failed to copy " + move.getSource() + " to " + move.getTarget(), e);
+            tracker.failed();
+            return new FileResult(move, Status.FAILED, e);
+        }
+    }
+
+    private static final class Tracker {
+        private final int total;
+        private final ProgressListener listener;
+        private final long start = System.nanoTime();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        // Copied so far of the file being copied across stores
+        private final AtomicLong copyingBytes = new AtomicLong();
+
+        Tracker(int total, ProgressListener listener) {
+            this.total = total;
+            this.listener = listener;
+        }
+
+        void moved(long size) {
+            copyingBytes.set(0);
+            bytes.addAndGet(size);
+            completed();
+        }
+
+        void copying(long transferred) {
+            copyingBytes.set(transferred);
+            report(false);
+        }
+
+        void failed() {
+            failures.incrementAndGet();
+            completed();
+        }
+
+        private void completed() {
+            if (completed.incrementAndGet() % PROGRESS_INTERVAL == 0) {
+                report(false);
+            }
+        }
+
+        long elapsedNanos() {
+            return System.nanoTime() - start;
+        }
+
+        void report(boolean finished) {
+            if (listener == null) {
+                return;
+            }
+            double seconds = Math.max(1e-9, elapsedNanos() / 1e9);
+            long moved = bytes.get() + copyingBytes.get();
+            listener.onProgress(new Progress(completed.get(), total, failures.get(), moved,
+                                             completed.get() / seconds, moved / seconds, finished));
+        }
+    }
+
+    /**
+     * One planned move.
+     */
+    public static final class Move {
+        private final Path source;
+        private final Path target;
+        private final long size;
+
+        Move(Path source, Path target, long size) {
+            this.source = source;
+            this.target = target;
+            this.size = size;
+        }
+
+        public Path getSource() {
+            return source;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Everything a run will do, worked out before anything moves.
+     */
+    public static final class Plan {
+        private final List<Path> directories;
+        private final List<Move> moves;
+        private final List<Path> skipped;
+        private final int collisionCount;
+
+        Plan(List<Path> directories, List<Move> moves, List<Path> skipped, int collisionCount) {
+            this.directories = Collections.unmodifiableList(directories);
+            this.moves = Collections.unmodifiableList(moves);
+            this.skipped = Collections.unmodifiableList(skipped);
+            this.collisionCount = collisionCount;
+        }
+
+        /**
+         * @return the target directories, parents first
+         */
+        public List<Path> getDirectories() {
+            return directories;
+        }
+
+        public List<Move> getMoves() {
+            return moves;
+        }
+
+        /**
+         * @return files already where the layout puts them
+         */
+        public List<Path> getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return moves that were given a numbered name because theirs was taken
+         */
+        public int getCollisionCount() {
+            return collisionCount;
+        }
+
+        public long getTotalBytes() {
+            long total = 0;
+            for (Move move : moves) {
+                total += move.getSize();
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Outcome of one move.
+     */
+    public static final class FileResult {
+        private final Move move;
+        private final Status status;
+        private final IOException error;
+
+        FileResult(Move move, Status status, IOException error) {
+            this.move = move;
+            this.status = status;
+            this.error = error;
+        }
+
+        public Move getMove() {
+            return move;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return why the move failed, null unless the status is FAILED
+         */
+        public IOException getError() {
+            return error;
+        }
+    }
+
+    public static final class Result {
+        private final List<FileResult> files;
+        private final long elapsedNanos;
+        private final long bytesMoved;
+        private final int[] counts = new int[Status.values().length];
+
+        Result(List<FileResult> files, long elapsedNanos, long bytesMoved) {
+            this.files = Collections.unmodifiableList(files);
+            this.elapsedNanos = elapsedNanos;
+            this.bytesMoved = bytesMoved;
+            for (FileResult file : files) {
+                counts[file.getStatus().ordinal()]++;
+            }
+        }
+
+        /**
+         * @return one result per planned move, in plan order
+         */
+        public List<FileResult> getFiles() {
+            return files;
+        }
+
+        public int getMovedCount() {
+            return counts[Status.MOVED.ordinal()];
+        }
+
+        public int getFailedCount() {
+            return counts[Status.FAILED.ordinal()];
+        }
+
+        public int getCancelledCount() {
+            return counts[Status.CANCELLED.ordinal()];
+        }
+
+        public long getBytesMoved() {
+            return bytesMoved;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getFilesPerSecond() {
+            return getMovedCount() / Math.max(1e-9, elapsedNanos / 1e9);
+        }
+
+        public double getBytesPerSecond() {
+            return bytesMoved / Math.max(1e-9, elapsedNanos / 1e9);
+        }
+    }
+
+    public static final class Progress {
+        private final int completed;
+        private final int total;
+        private final int failed;
+        private final long bytesMoved;
+        private final double filesPerSecond;
+        private final double bytesPerSecond;
+        private final boolean finished;
+
+        public Progress(int completed, int total, int failed, long bytesMoved,
+                        double filesPerSecond, double bytesPerSecond, boolean finished) {
+            this.completed = completed;
+            this.total = total;
+            this.failed = failed;
+            this.bytesMoved = bytesMoved;
+            this.filesPerSecond = filesPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            this.finished = finished;
+        }
+
+        /**
+         * @return moves tried so far, failed ones included
+         */
+        public int getCompleted() {
+            return completed;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getBytesMoved() {
+            return bytesMoved;
+        }
+
+        public double getFilesPerSecond() {
+            return filesPerSecond;
+        }
+
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.mediaviewer.utils;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission control for image decodes, shared by every decoder in the app.
+ *
+ * Each decode estimates the heap its rasters will take from the image
+ * header and acquires that many bytes before it starts. Permits are granted
+ * first come, first served against one byte budget, so a core-count worth
+ * of threads each decoding a huge image queue up instead of running out of
+ * memory together. A request larger than the whole budget runs alone.
+ *
+ * The budget defaults to a third of the max heap and can be set with the
+ * mediaviewer.decode.maxBytes system property.
+ */
+public class DecodeGovernor {
+
+    private static final long MIN_DEFAULT_BYTES = 64L * 1024 * 1024;
+
+    private static final DecodeGovernor SHARED = new DecodeGovernor(Long.getLong("mediaviewer.decode.maxBytes",
+        Math.max(MIN_DEFAULT_BYTES, Runtime.getRuntime().maxMemory() / 3)));
+
+    private final long capacity;
+    private long available;
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    private long admitted;
+    private long queued;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long peakInUse;
+
+    public DecodeGovernor(long capacity) {
+        this.capacity = capacity;
+        this.available = capacity;
+    }
+
+    public static DecodeGovernor getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Heap used by the raster of a decode, from the header the reader has already parsed.
+     * @param subsampling the source subsampling the decode will use
+     */
+    public static long estimateBytes(ImageReader reader, int subsampling) throws IOException {
+        long width = (reader.getWidth(0) + subsampling - 1) / subsampling;
+        long height = (reader.getHeight(0) + subsampling - 1) / subsampling;
+        return width * height * bytesPerPixel(reader);
+    }
+
+    // Stored samples per pixel times their size, ARGB when the reader cannot tell
+    private static int bytesPerPixel(ImageReader reader) throws IOException {
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null) {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            type = types.hasNext() ? types.next() : null;
+        }
+        if (type == null) {
+            return 4;
+        }
+        SampleModel sampleModel = type.getSampleModel();
+        int bits = 0;
+        for (int band = 0; band < sampleModel.getNumBands(); band++) {
+            bits += sampleModel.getSampleSize(band);
+        }
+        // Packed and byte rasters both take whole bytes per sample or a 32-bit word per pixel
+        return Math.max(1, Math.min(8, (bits + 7) / 8));
+    }
+
+    /**
+     * Wait for room to decode. Blocks; never call it on the FX thread.
+     * @return the permit, to close once the decoded rasters are no longer needed
+     */
+    public Permit acquire(long bytes) throws InterruptedException {
+        CompletableFuture<Permit> future = acquireAsync(bytes);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (!future.cancel(false)) {
+                // Granted meanwhile
+                future.join().close();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Reserve room to decode without blocking. Cancelling the future leaves the queue.
+     */
+    public CompletableFuture<Permit> acquireAsync(long bytes) {
+        long weight = Math.max(0, Math.min(bytes, capacity));
+        Waiter waiter = new Waiter(weight);
+        Permit granted = null;
+        synchronized (this) {
+            // Queued requests go first, so large decodes are not starved by a stream of small ones
+            if (waiters.isEmpty() && weight <= available) {
+                granted = grant(waiter);
+            } else {
+                waiters.add(waiter);
+                queued++;
+            }
+        }
+        if (granted != null) {
+            waiter.future.complete(granted);
+        } else {
+            // A cancelled head may have been holding back smaller requests behind it
+            waiter.future.whenComplete((permit, error) -> {
+                if (error != null) {
+                    release(0);
+                }
+            });
+        }
+        return waiter.future;
+    }
+
+    private Permit grant(Waiter waiter) {
+        available -= waiter.bytes;
+        admitted++;
+        long waited = System.nanoTime() - waiter.enqueued;
+        totalWaitNanos += waited;
+        maxWaitNanos = Math.max(maxWaitNanos, waited);
+        peakInUse = Math.max(peakInUse, capacity - available);
+        return new Permit(waiter.bytes);
+    }
+
+    private void release(long bytes) {
+        List<Waiter> grantedWaiters = new ArrayList<>();
+        List<Permit> permits = new ArrayList<>();
+        synchronized (this) {
+            available += bytes;
+            while (!waiters.isEmpty()) {
+                Waiter head = waiters.peek();
+                if (head.future.isDone()) {
+                    // Cancelled while queued
+                    waiters.poll();
+                    continue;
+                }
+                if (head.bytes > available) {
+                    break;
+                }
+                waiters.poll();
+                grantedWaiters.add(head);
+                permits.add(grant(head));
+            }
+        }
+        for (int i = 0; i < grantedWaiters.size(); i++) {
+            if (!grantedWaiters.get(i).future.complete(permits.get(i))) {
+                permits.get(i).close();
+            }
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getInUseBytes() {
+        return capacity - available;
+    }
+
+    public synchronized long getPeakInUseBytes() {
+        return peakInUse;
+    }
+
+    /**
+     * @return decodes waiting for room
+     */
+    public synchronized int getQueueDepth() {
+        int depth = 0;
+        for (Waiter waiter : waiters) {
+            if (!waiter.future.isDone()) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    public synchronized long getAdmittedCount() {
+        return admitted;
+    }
+
+    /**
+     * @return decodes that could not start right away
+     */
+    public synchronized long getQueuedCount() {
+        return queued;
+    }
+
+    public synchronized double getAverageWaitMillis() {
+        return admitted == 0 ? 0 : totalWaitNanos / 1e6 / admitted;
+    }
+
+    public synchronized double getMaxWaitMillis() {
+        return maxWaitNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DecodeGovernor{" +
+                "inUse=" + (capacity - available) + "/" + capacity +
+                ", queueDepth=" + getQueueDepth() +
+                ", admitted=" + admitted +
+                ", queued=" + queued +
+                String.format(", avgWait=%.1fms, maxWait=%.1fms", getAverageWaitMillis(), getMaxWaitMillis()) +
+                '}';
+    }
+
+    private static final class Waiter {
+        private final long bytes;
+        private final long enqueued = System.nanoTime();
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+
+        Waiter(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Bytes reserved for one decode. Closing it more than once is harmless.
+     */
+    public final class Permit implements AutoCloseable {
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(bytes);
+            }
+        }
+    }
+}
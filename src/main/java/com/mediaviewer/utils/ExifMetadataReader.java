@@ -0,0 +1,275 @@
+package com.mediaviewer.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lightweight reader for the capture date, camera, orientation and GPS
+ * position of photos.
+ *
+ * Only metadata is parsed: the APP1 segments ahead of a JPEG's image data
+ * (EXIF and XMP), or the IFDs of a TIFF-based file. That is a few kilobytes
+ * per file and no Tika, so whole archives can be read during a scan. EXIF
+ * values win; XMP fills in what EXIF lacks.
+ */
+public class ExifMetadataReader {
+    private static final Logger LOGGER = Logger.getLogger(ExifMetadataReader.class.getName());
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    private static final byte[] XMP_HEADER = "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.US_ASCII);
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    // XMP properties appear either as attributes (ns:Name="value") or as elements (<ns:Name>value</ns:Name>)
+    private static final String XMP_VALUE = "(?:=\"([^\"]*)\"|>([^<]*)<)";
+    private static final Pattern XMP_DATE = Pattern.compile(
+        "(?:exif:DateTimeOriginal|photoshop:DateCreated|xmp:CreateDate)" + XMP_VALUE);
+    private static final Pattern XMP_MAKE = Pattern.compile("tiff:Make" + XMP_VALUE);
+    private static final Pattern XMP_MODEL = Pattern.compile("tiff:Model" + XMP_VALUE);
+    private static final Pattern XMP_ORIENTATION = Pattern.compile("tiff:Orientation" + XMP_VALUE);
+    private static final Pattern XMP_LATITUDE = Pattern.compile("exif:GPSLatitude" + XMP_VALUE);
+    private static final Pattern XMP_LONGITUDE = Pattern.compile("exif:GPSLongitude" + XMP_VALUE);
+    // XMP GPS coordinates look like "51,30.123N" or "51,30,7.4N"
+    private static final Pattern XMP_COORDINATE = Pattern.compile(
+        "(\\d+(?:\\.\\d+)?)(?:,(\\d+(?:\\.\\d+)?))?(?:,(\\d+(?:\\.\\d+)?))?([NSEW])");
+
+    /**
+     * @return the photo's metadata, or null if the file carries none
+     */
+    public static PhotoMetadata read(File file) {
+        try {
+            PhotoMetadata metadata = new PhotoMetadata();
+            TiffReader tiff = null;
+            String xmp = null;
+
+            List<byte[]> segments = ExifThumbnailExtractor.readJpegApp1(file, false);
+            if (!segments.isEmpty()) {
+                for (byte[] segment : segments) {
+                    if (tiff == null && ExifThumbnailExtractor.startsWith(segment, EXIF_HEADER)) {
+                        tiff = new TiffReader(ByteBuffer.wrap(segment, EXIF_HEADER.length,
+                                                              segment.length - EXIF_HEADER.length).slice());
+                    } else if (xmp == null && ExifThumbnailExtractor.startsWith(segment, XMP_HEADER)) {
+                        xmp = new String(segment, XMP_HEADER.length, segment.length - XMP_HEADER.length,
+                                         StandardCharsets.UTF_8);
+                    }
+                }
+            } else {
+                tiff = ExifThumbnailExtractor.openTiff(file);
+            }
+
+            if (tiff != null) {
+                readExif(tiff, metadata);
+                if (xmp == null) {
+                    TiffReader.Ifd ifd0 = tiff.readIfd(tiff.getFirstIfdOffset());
+                    byte[] packet = ifd0 != null ? ifd0.getBytes(TiffReader.TAG_XMP) : null;
+                    xmp = packet != null ? new String(packet, StandardCharsets.UTF_8) : null;
+                }
+            }
+            if (xmp != null) {
+                readXmp(xmp, metadata);
+            }
+            return metadata.isEmpty() ? null : metadata;
+        } catch (IOException | RuntimeException e) {
+            // Malformed metadata is treated as missing
+            LOGGER.log(Level.FINE, "Could not read metadata of " + file, e);
+            return null;
+        }
+    }
+
+    private static void readExif(TiffReader tiff, PhotoMetadata metadata) {
+        TiffReader.Ifd ifd0 = tiff.readIfd(tiff.getFirstIfdOffset());
+        if (ifd0 == null) {
+            return;
+        }
+        metadata.cameraMake = emptyToNull(ifd0.getString(TiffReader.TAG_MAKE));
+        metadata.cameraModel = emptyToNull(ifd0.getString(TiffReader.TAG_MODEL));
+        metadata.orientation = (int) ifd0.getLong(TiffReader.TAG_ORIENTATION, 0);
+
+        TiffReader.Ifd exif = ifd0.readSubIfd(TiffReader.TAG_EXIF_IFD, 0);
+        if (exif != null) {
+            String offset = exif.getString(TiffReader.TAG_OFFSET_TIME_ORIGINAL);
+            metadata.captureTime = parseExifDate(exif.getString(TiffReader.TAG_DATE_TIME_ORIGINAL), offset);
+            if (metadata.captureTime == 0) {
+                metadata.captureTime = parseExifDate(exif.getString(TiffReader.TAG_DATE_TIME_DIGITIZED), offset);
+            }
+        }
+        if (metadata.captureTime == 0) {
+            // IFD0 DateTime is the last edit in camera, still better than the file system time
+            metadata.captureTime = parseExifDate(ifd0.getString(TiffReader.TAG_DATE_TIME), null);
+        }
+
+        TiffReader.Ifd gps = ifd0.readSubIfd(TiffReader.TAG_GPS_IFD, 0);
+        if (gps != null) {
+            metadata.latitude = gpsCoordinate(gps, TiffReader.TAG_GPS_LATITUDE, TiffReader.TAG_GPS_LATITUDE_REF, "S");
+            metadata.longitude = gpsCoordinate(gps, TiffReader.TAG_GPS_LONGITUDE, TiffReader.TAG_GPS_LONGITUDE_REF, "W");
+        }
+    }
+
+    private static void readXmp(String xmp, PhotoMetadata metadata) {
+        if (metadata.captureTime == 0) {
+            metadata.captureTime = parseXmpDate(xmpValue(XMP_DATE, xmp));
+        }
+        if (metadata.cameraMake == null) {
+            metadata.cameraMake = emptyToNull(xmpValue(XMP_MAKE, xmp));
+        }
+        if (metadata.cameraModel == null) {
+            metadata.cameraModel = emptyToNull(xmpValue(XMP_MODEL, xmp));
+        }
+        if (metadata.orientation == 0) {
+            String orientation = xmpValue(XMP_ORIENTATION, xmp);
+            if (orientation != null && orientation.matches("[1-8]")) {
+                metadata.orientation = Integer.parseInt(orientation);
+            }
+        }
+        if (Double.isNaN(metadata.latitude)) {
+            metadata.latitude = parseXmpCoordinate(xmpValue(XMP_LATITUDE, xmp));
+            metadata.longitude = parseXmpCoordinate(xmpValue(XMP_LONGITUDE, xmp));
+        }
+    }
+
+    private static String xmpValue(Pattern pattern, String xmp) {
+        Matcher matcher = pattern.matcher(xmp);
+        if (!matcher.find()) {
+            return null;
+        }
+        String value = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+        return value.trim();
+    }
+
+    /**
+     * Parse an EXIF "yyyy:MM:dd HH:mm:ss" date. Without an offset it is camera
+     * local time, taken to be the system time zone.
+     * @return epoch millis, or 0 if missing or malformed (cameras write "0000:00:00 00:00:00")
+     */
+    static long parseExifDate(String value, String offset) {
+        if (value == null || value.length() < 19) {
+            return 0;
+        }
+        try {
+            LocalDateTime local = LocalDateTime.parse(value.substring(0, 19), EXIF_DATE);
+            ZoneId zone = ZoneId.systemDefault();
+            if (offset != null && offset.matches("[+-]\\d{2}:\\d{2}")) {
+                zone = ZoneOffset.of(offset);
+            }
+            return local.atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    // XMP dates are ISO 8601, possibly without seconds, fraction or offset
+    static long parseXmpDate(String value) {
+        if (value == null || value.length() < 10) {
+            return 0;
+        }
+        try {
+            if (value.matches(".*([+-]\\d{2}:\\d{2}|Z)$")) {
+                return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+            }
+            if (value.length() == 10) {
+                value += "T00:00:00";
+            }
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    private static double gpsCoordinate(TiffReader.Ifd gps, int tag, int refTag, String negativeRef) {
+        double degrees = gps.getRational(tag, 0);
+        double minutes = gps.getRational(tag, 1);
+        double seconds = gps.getRational(tag, 2);
+        if (Double.isNaN(degrees)) {
+            return Double.NaN;
+        }
+        double value = degrees + (Double.isNaN(minutes) ? 0 : minutes / 60)
+            + (Double.isNaN(seconds) ? 0 : seconds / 3600);
+        return negativeRef.equals(gps.getString(refTag)) ? -value : value;
+    }
+
+    private static double parseXmpCoordinate(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        Matcher matcher = XMP_COORDINATE.matcher(value);
+        if (!matcher.matches()) {
+            return Double.NaN;
+        }
+        double result = Double.parseDouble(matcher.group(1));
+        if (matcher.group(2) != null) {
+            result += Double.parseDouble(matcher.group(2)) / 60;
+        }
+        if (matcher.group(3) != null) {
+            result += Double.parseDouble(matcher.group(3)) / 3600;
+        }
+        String ref = matcher.group(4);
+        return ref.equals("S") || ref.equals("W") ? -result : result;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Metadata of one photo. Missing values are 0, null or NaN.
+     */
+    public static final class PhotoMetadata {
+        private long captureTime;
+        private String cameraMake;
+        private String cameraModel;
+        private int orientation;
+        private double latitude = Double.NaN;
+        private double longitude = Double.NaN;
+
+        /**
+         * @return the capture time in epoch millis, 0 if unknown
+         */
+        public long getCaptureTime() {
+            return captureTime;
+        }
+
+        public String getCameraMake() {
+            return cameraMake;
+        }
+
+        public String getCameraModel() {
+            return cameraModel;
+        }
+
+        /**
+         * @return the EXIF orientation (1-8), 0 if unknown
+         */
+        public int getOrientation() {
+            return orientation;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public boolean hasLocation() {
+            return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        }
+
+        boolean isEmpty() {
+            return captureTime == 0 && cameraMake == null && cameraModel == null
+                && orientation == 0 && !hasLocation();
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.mediaviewer.utils;
+
+import net.coobird.thumbnailator.Thumbnails;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fast thumbnail path that reuses the previews cameras embed in their files
+ * instead of decoding the full image.
+ *
+ * For JPEGs only the marker segments ahead of the image data are read, to
+ * reach the EXIF block and its IFD1 thumbnail (typically 160x120). TIFF-based
+ * RAW files carry one or more JPEG previews in their IFD chain or SubIFDs;
+ * the smallest one that is still large enough for the requested size is used.
+ * Previews with another aspect ratio than the main image are skipped, as they
+ * are padded with black bars.
+ */
+public class ExifThumbnailExtractor {
+    private static final Logger LOGGER = Logger.getLogger(ExifThumbnailExtractor.class.getName());
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    // NewSubfileType flag for reduced-resolution copies of the main image
+    private static final long SUBFILE_REDUCED_RESOLUTION = 1;
+    private static final long COMPRESSION_OLD_JPEG = 6;
+    private static final long COMPRESSION_JPEG = 7;
+
+    // Previews whose aspect ratio is further off than this are padded, e.g. 4:3 with bars for a 3:2 photo
+    private static final double ASPECT_TOLERANCE = 0.03;
+
+    /**
+     * Return a thumbnail built from an embedded preview, or null if the file has
+     * none that covers the requested size without upscaling.
+     */
+    public static BufferedImage extract(File file, int width, int height) {
+        try {
+            TiffReader tiff = openTiff(file);
+            if (tiff == null) {
+                return null;
+            }
+            List<TiffReader.Ifd> chain = tiff.readIfdChain();
+            if (chain.isEmpty()) {
+                return null;
+            }
+            int orientation = (int) chain.get(0).getLong(TiffReader.TAG_ORIENTATION, 1);
+            List<TiffReader.Ifd> directories = withSubIfds(chain);
+            int[] mainSize = mainImageSize(file, chain.get(0), directories);
+
+            for (byte[] preview : findPreviews(directories)) {
+                BufferedImage image = decodePreview(preview);
+                if (image == null) {
+                    continue;
+                }
+                if (mainSize != null && !sameAspect(image.getWidth(), image.getHeight(), mainSize[0], mainSize[1])) {
+                    continue; // Letterboxed, the grid would show its bars
+                }
+                // Previews are stored unrotated, so compare against the box in stored orientation
+                boolean swapped = orientation >= 5;
+                int boxWidth = swapped ? height : width;
+                int boxHeight = swapped ? width : height;
+                if (image.getWidth() < boxWidth && image.getHeight() < boxHeight) {
+                    continue; // Too small, it would have to be upscaled
+                }
+                BufferedImage scaled = Thumbnails.of(image).size(boxWidth, boxHeight).asBufferedImage();
+                return applyOrientation(scaled, orientation);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Malformed metadata just means no fast path
+            LOGGER.log(Level.FINE, "Could not read embedded thumbnail of " + file, e);
+        }
+        return null;
+    }
+
+    // Embedded previews can be full-size JPEGs, so they share the decode budget too
+    private static BufferedImage decodePreview(byte[] preview) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(preview))) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                DecodeGovernor.Permit permit = ScaledImageDecoder.acquire(DecodeGovernor.estimateBytes(reader, 1));
+                try {
+                    return reader.read(0);
+                } finally {
+                    permit.close();
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return the EXIF orientation (1-8) of a JPEG or TIFF-based file, 1 if it has none
+     */
+    public static int readOrientation(File file) {
+        try {
+            TiffReader tiff = openTiff(file);
+            TiffReader.Ifd ifd0 = tiff != null ? tiff.readIfd(tiff.getFirstIfdOffset()) : null;
+            return ifd0 != null ? (int) ifd0.getLong(TiffReader.TAG_ORIENTATION, 1) : 1;
+        } catch (IOException | RuntimeException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Open the TIFF structure of a JPEG's EXIF block or of a TIFF-based file.
+     * @return the reader, or null if the file has neither
+     */
+    public static TiffReader openTiff(File file) throws IOException {
+        byte[] header = new byte[4];
+        try (InputStream input = new FileInputStream(file)) {
+            if (input.readNBytes(header, 0, 4) < 4) {
+                return null;
+            }
+        }
+        if ((header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == MARKER_SOI) {
+            byte[] exif = readJpegExif(file);
+            return exif != null ? new TiffReader(ByteBuffer.wrap(exif)) : null;
+        }
+        if (TiffReader.isTiffHeader(header) && file.length() <= Integer.MAX_VALUE) {
+            // Map rather than read, only the directories and the chosen preview get paged in
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                 FileChannel channel = raf.getChannel()) {
+                return new TiffReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the TIFF stream inside a JPEG's EXIF APP1 segment. Only the marker
+     * segments before the compressed image data are read.
+     * @return the TIFF bytes, or null if the JPEG has no EXIF block
+     */
+    public static byte[] readJpegExif(File file) throws IOException {
+        for (byte[] segment : readJpegApp1(file, true)) {
+            if (startsWith(segment, EXIF_HEADER)) {
+                return Arrays.copyOfRange(segment, EXIF_HEADER.length, segment.length);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the APP1 segments of a JPEG (EXIF and XMP live there), without
+     * touching the compressed image data.
+     * @param exifOnly stop at the first EXIF segment
+     * @return the segment payloads, empty if the file is not a JPEG
+     */
+    public static List<byte[]> readJpegApp1(File file, boolean exifOnly) throws IOException {
+        List<byte[]> segments = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192))) {
+            if (input.readUnsignedByte() != 0xFF || input.readUnsignedByte() != MARKER_SOI) {
+                return segments;
+            }
+            while (true) {
+                int marker = readMarker(input);
+                if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                    return segments; // Image data starts, metadata segments are over
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    continue; // Standalone markers have no length
+                }
+                int length = input.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return segments;
+                }
+                if (marker == MARKER_APP1) {
+                    byte[] segment = new byte[length];
+                    input.readFully(segment);
+                    segments.add(segment);
+                    if (exifOnly && startsWith(segment, EXIF_HEADER)) {
+                        return segments;
+                    }
+                    continue;
+                }
+                input.skipNBytes(length);
+            }
+        } catch (EOFException e) {
+            return segments;
+        }
+    }
+
+    private static int readMarker(DataInputStream input) throws IOException {
+        int value = input.readUnsignedByte();
+        if (value != 0xFF) {
+            throw new IOException("Expected a JPEG marker");
+        }
+        // Any number of 0xFF fill bytes may precede the marker code
+        while (value == 0xFF) {
+            value = input.readUnsignedByte();
+        }
+        return value;
+    }
+
+    // The IFD chain followed by the SubIFDs of its directories
+    private static List<TiffReader.Ifd> withSubIfds(List<TiffReader.Ifd> chain) {
+        List<TiffReader.Ifd> directories = new ArrayList<>(chain);
+        for (TiffReader.Ifd ifd : chain) {
+            for (int i = 0; i < ifd.getCount(TiffReader.TAG_SUB_IFDS); i++) {
+                TiffReader.Ifd sub = ifd.readSubIfd(TiffReader.TAG_SUB_IFDS, i);
+                if (sub != null) {
+                    directories.add(sub);
+                }
+            }
+        }
+        return directories;
+    }
+
+    // Stored width and height of the main image, null if unknown. RAW files keep the sensor data in
+    // the largest directory; JPEGs name it in the EXIF IFD, or else in the frame header.
+    private static int[] mainImageSize(File file, TiffReader.Ifd ifd0, List<TiffReader.Ifd> directories) {
+        long bestArea = 0;
+        int[] best = null;
+        for (TiffReader.Ifd ifd : directories) {
+            if (ifd.has(TiffReader.TAG_JPEG_OFFSET)) {
+                continue; // An embedded thumbnail, not the image
+            }
+            long width = ifd.getLong(TiffReader.TAG_IMAGE_WIDTH, 0);
+            long height = ifd.getLong(TiffReader.TAG_IMAGE_HEIGHT, 0);
+            if (width > 0 && height > 0 && width * height > bestArea) {
+                bestArea = width * height;
+                best = new int[] {(int) width, (int) height};
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        TiffReader.Ifd exif = ifd0.readSubIfd(TiffReader.TAG_EXIF_IFD, 0);
+        if (exif != null) {
+            long width = exif.getLong(TiffReader.TAG_PIXEL_X_DIMENSION, 0);
+            long height = exif.getLong(TiffReader.TAG_PIXEL_Y_DIMENSION, 0);
+            if (width > 0 && height > 0) {
+                return new int[] {(int) width, (int) height};
+            }
+        }
+        ImageHeaderReader.Header header = ImageHeaderReader.read(file);
+        return header != null ? new int[] {header.getWidth(), header.getHeight()} : null;
+    }
+
+    private static boolean sameAspect(int width, int height, int mainWidth, int mainHeight) {
+        double ratio = ((double) width / height) / ((double) mainWidth / mainHeight);
+        return Math.abs(ratio - 1) <= ASPECT_TOLERANCE;
+    }
+
+    // Embedded JPEG previews among the directories, smallest first
+    private static List<byte[]> findPreviews(List<TiffReader.Ifd> directories) {
+        List<byte[]> previews = new ArrayList<>();
+        for (TiffReader.Ifd ifd : directories) {
+            byte[] preview = ifd.readBlock(TiffReader.TAG_JPEG_OFFSET, TiffReader.TAG_JPEG_LENGTH);
+            if (preview == null && isJpegPreviewStrip(ifd)) {
+                preview = ifd.readBlock(TiffReader.TAG_STRIP_OFFSETS, TiffReader.TAG_STRIP_BYTE_COUNTS);
+            }
+            if (preview != null && preview.length > 2
+                    && (preview[0] & 0xFF) == 0xFF && (preview[1] & 0xFF) == MARKER_SOI) {
+                previews.add(preview);
+            }
+        }
+        previews.sort(Comparator.comparingInt(preview -> preview.length));
+        return previews;
+    }
+
+    // DNG-style preview: a reduced-resolution, JPEG-compressed image in a single strip
+    private static boolean isJpegPreviewStrip(TiffReader.Ifd ifd) {
+        long compression = ifd.getLong(TiffReader.TAG_COMPRESSION, 0);
+        return (ifd.getLong(TiffReader.TAG_NEW_SUBFILE_TYPE, 0) & SUBFILE_REDUCED_RESOLUTION) != 0
+            && (compression == COMPRESSION_JPEG || compression == COMPRESSION_OLD_JPEG)
+            && ifd.getCount(TiffReader.TAG_STRIP_OFFSETS) == 1;
+    }
+
+    /**
+     * Rotate or flip an image according to its EXIF orientation (1-8).
+     */
+    public static BufferedImage applyOrientation(BufferedImage image, int orientation) {
+        if (orientation <= 1 || orientation > 8) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean swapped = orientation >= 5;
+        AffineTransform transform = new AffineTransform();
+        switch (orientation) {
+            case 2: // Mirrored horizontally
+                transform.scale(-1, 1);
+                transform.translate(-width, 0);
+                break;
+            case 3: // Rotated 180
+                transform.translate(width, height);
+                transform.rotate(Math.PI);
+                break;
+            case 4: // Mirrored vertically
+                transform.scale(1, -1);
+                transform.translate(0, -height);
+                break;
+            case 5: // Mirrored horizontally, rotated 270 clockwise
+                transform.rotate(-Math.PI / 2);
+                transform.scale(-1, 1);
+                break;
+            case 6: // Rotated 90 clockwise
+                transform.translate(height, 0);
+                transform.rotate(Math.PI / 2);
+                break;
+            case 7: // Mirrored horizontally, rotated 90 clockwise
+                transform.scale(-1, 1);
+                transform.translate(-height, width);
+                transform.rotate(-Math.PI / 2);
+                break;
+            default: // 8: Rotated 270 clockwise
+                transform.translate(0, width);
+                transform.rotate(-Math.PI / 2);
+                break;
+        }
+
+        int type = image.getType() != BufferedImage.TYPE_CUSTOM ? image.getType() : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage rotated = new BufferedImage(swapped ? height : width, swapped ? width : height, type);
+        Graphics2D graphics = rotated.createGraphics();
+        graphics.drawImage(image, transform, null);
+        graphics.dispose();
+        return rotated;
+    }
+
+    static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
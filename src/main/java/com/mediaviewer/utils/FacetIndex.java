@@ -0,0 +1,344 @@
+package com.mediaviewer.utils;
+
+import com.mediaviewer.model.MediaFile;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bitmap indexes over a MediaCatalog, one compressed bitmap per facet value
+ * (section, extension, tag, favorite flag). A filter combination is an
+ * AND of bitmaps, and each facet's counts are computed against the query with
+ * that facet's own constraint removed, so the UI can show how many results
+ * every alternative would give. Date options are counted straight from the
+ * catalog's sorted date index instead of a bitmap per option.
+ *
+ * Tags and favorites change at runtime; their bitmaps are copied on write so
+ * queries running on background threads always see a consistent snapshot.
+ */
+public class FacetIndex {
+
+    private final MediaCatalog catalog;
+    private final CompressedBitmap all;
+    private final Map<MediaCatalog.Section, CompressedBitmap> bySection;
+    private final Map<String, CompressedBitmap> byExtension;
+
+    private volatile CompressedBitmap favorites;
+    private volatile Map<String, CompressedBitmap> byTag;
+
+    FacetIndex(MediaCatalog catalog) {
+        this.catalog = catalog;
+        this.all = CompressedBitmap.range(0, catalog.size());
+        this.bySection = new EnumMap<>(MediaCatalog.Section.class);
+        this.byExtension = new HashMap<>();
+        this.favorites = new CompressedBitmap();
+        this.byTag = new HashMap<>();
+
+        for (MediaCatalog.Section section : MediaCatalog.Section.values()) {
+            bySection.put(section, CompressedBitmap.range(
+                catalog.getSectionStart(section), catalog.getSectionEnd(section)));
+        }
+
+        for (int id = 0; id < catalog.size(); id++) {
+            MediaFile file = catalog.getFile(id);
+            byExtension.computeIfAbsent(file.getExtension(), k -> new CompressedBitmap()).add(id);
+            if (file.isFavorite()) {
+                favorites.add(id);
+            }
+            for (String tag : file.getTags()) {
+                byTag.computeIfAbsent(tag, k -> new CompressedBitmap()).add(id);
+            }
+        }
+    }
+
+    /**
+     * Re-read the favorite flag and tags of a file after they were edited.
+     */
+    public synchronized void update(MediaFile file) {
+        int id = catalog.idOf(file);
+        if (id < 0) {
+            return;
+        }
+
+        if (file.isFavorite() != favorites.contains(id)) {
+            CompressedBitmap updated = favorites.copy();
+            if (file.isFavorite()) {
+                updated.add(id);
+            } else {
+                updated.remove(id);
+            }
+            favorites = updated;
+        }
+
+        Map<String, CompressedBitmap> updatedTags = new HashMap<>(byTag);
+        boolean changed = false;
+        for (String tag : file.getTags()) {
+            CompressedBitmap bitmap = updatedTags.get(tag);
+            if (bitmap == null || !bitmap.contains(id)) {
+                bitmap = bitmap == null ? new CompressedBitmap() : bitmap.copy();
+                bitmap.add(id);
+                updatedTags.put(tag, bitmap);
+                changed = true;
+            }
+        }
+        for (Map.Entry<String, CompressedBitmap> entry : byTag.entrySet()) {
+            if (entry.getValue().contains(id) && !file.getTags().contains(entry.getKey())) {
+                CompressedBitmap bitmap = entry.getValue().copy();
+                bitmap.remove(id);
+                if (bitmap.isEmpty()) {
+                    updatedTags.remove(entry.getKey());
+                } else {
+                    updatedTags.put(entry.getKey(), bitmap);
+                }
+                changed = true;
+            }
+        }
+        if (changed) {
+            byTag = updatedTags;
+        }
+    }
+
+    public CompressedBitmap getSection(MediaCatalog.Section section) {
+        return bySection.get(section);
+    }
+
+    public CompressedBitmap getExtension(String extension) {
+        return byExtension.getOrDefault(extension, new CompressedBitmap());
+    }
+
+    public CompressedBitmap getTag(String tag) {
+        return byTag.getOrDefault(tag, new CompressedBitmap());
+    }
+
+    public CompressedBitmap getFavorites() {
+        return favorites;
+    }
+
+    /**
+     * Active filter constraints. Unset fields do not constrain the result.
+     */
+    public static class Query {
+        private MediaCatalog.Section section;
+        private Long dateAfter;
+        private long minSize;
+        private String tag;
+        private String extension;
+        private boolean favoritesOnly;
+        private long minPixels;
+        private long maxPixels;
+        private long maxLongSide;
+
+        public MediaCatalog.Section getSection() {
+            return section;
+        }
+
+        public void setSection(MediaCatalog.Section section) {
+            this.section = section;
+        }
+
+        public Long getDateAfter() {
+            return dateAfter;
+        }
+
+        /**
+         * Limit results to files taken (or, without a capture date, modified) after the given time.
+         */
+        public void setDateAfter(Long dateAfter) {
+            this.dateAfter = dateAfter;
+        }
+
+        public long getMinSize() {
+            return minSize;
+        }
+
+        public void setMinSize(long minSize) {
+            this.minSize = minSize;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public void setTag(String tag) {
+            this.tag = tag;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public void setExtension(String extension) {
+            this.extension = extension;
+        }
+
+        public boolean isFavoritesOnly() {
+            return favoritesOnly;
+        }
+
+        public void setFavoritesOnly(boolean favoritesOnly) {
+            this.favoritesOnly = favoritesOnly;
+        }
+
+        public long getMinPixels() {
+            return minPixels;
+        }
+
+        public long getMaxPixels() {
+            return maxPixels;
+        }
+
+        /**
+         * Limit results to images whose pixel count lies in [minPixels, maxPixels];
+         * 0 leaves that end open.
+         */
+        public void setPixelRange(long minPixels, long maxPixels) {
+            this.minPixels = minPixels;
+            this.maxPixels = maxPixels;
+        }
+
+        public long getMaxLongSide() {
+            return maxLongSide;
+        }
+
+        /**
+         * Limit results to images whose longer side is at most this many pixels; 0 for no limit.
+         */
+        public void setMaxLongSide(long maxLongSide) {
+            this.maxLongSide = maxLongSide;
+        }
+
+        boolean hasResolution() {
+            return minPixels > 0 || maxPixels > 0 || maxLongSide > 0;
+        }
+    }
+
+    /**
+     * Matches of a query plus the count of every facet value under the query.
+     */
+    public static class Result {
+        private final CompressedBitmap matches;
+        private final CompressedBitmap dateBase;
+        private final int dateBaseCount;
+        private final MediaCatalog catalog;
+        private final Map<MediaCatalog.Section, Integer> sectionCounts = new EnumMap<>(MediaCatalog.Section.class);
+        private final Map<MediaCatalog.Section, Long> sectionSizes = new EnumMap<>(MediaCatalog.Section.class);
+        private final Map<String, Integer> tagCounts = new TreeMap<>();
+        private int favoriteCount;
+
+        private Result(CompressedBitmap matches, CompressedBitmap dateBase, MediaCatalog catalog) {
+            this.matches = matches;
+            this.dateBase = dateBase;
+            this.dateBaseCount = dateBase.cardinality();
+            this.catalog = catalog;
+        }
+
+        public CompressedBitmap getMatches() {
+            return matches;
+        }
+
+        public int getSectionCount(MediaCatalog.Section section) {
+            return sectionCounts.getOrDefault(section, 0);
+        }
+
+        public long getSectionSize(MediaCatalog.Section section) {
+            return sectionSizes.getOrDefault(section, 0L);
+        }
+
+        public Map<String, Integer> getTagCounts() {
+            return tagCounts;
+        }
+
+        public int getFavoriteCount() {
+            return favoriteCount;
+        }
+
+        /**
+         * Number of results the query would give with its date constraint
+         * replaced by "dated after millis".
+         */
+        public int countDateAfter(long millis) {
+            SortedLongIndex.Range range = catalog.getDateIndex().atLeast(millis + 1);
+            if (dateBaseCount == catalog.size()) {
+                return range.size();
+            }
+            // Walk whichever side is smaller, no bitmap is built for the option
+            int[] count = {0};
+            if (range.size() <= dateBaseCount) {
+                for (int i = 0; i < range.size(); i++) {
+                    if (dateBase.contains(range.idAt(i))) {
+                        count[0]++;
+                    }
+                }
+            } else {
+                dateBase.forEach(id -> {
+                    if (catalog.getDate(id) > millis) {
+                        count[0]++;
+                    }
+                });
+            }
+            return count[0];
+        }
+    }
+
+    public Result evaluate(Query query) {
+        // Snapshot the mutable bitmaps once so every count is consistent
+        CompressedBitmap favoriteSnapshot = favorites;
+        Map<String, CompressedBitmap> tagSnapshot = byTag;
+
+        CompressedBitmap sectionFilter = query.getSection() != null ? bySection.get(query.getSection()) : null;
+        CompressedBitmap dateFilter = query.getDateAfter() != null
+            ? catalog.selectDateAfter(query.getDateAfter()) : null;
+        CompressedBitmap sizeFilter = query.getMinSize() > 0 ? catalog.selectSizeAtLeast(query.getMinSize()) : null;
+        CompressedBitmap tagFilter = query.getTag() != null
+            ? tagSnapshot.getOrDefault(query.getTag(), new CompressedBitmap()) : null;
+        CompressedBitmap extensionFilter = query.getExtension() != null
+            ? byExtension.getOrDefault(query.getExtension(), new CompressedBitmap()) : null;
+        CompressedBitmap favoriteFilter = query.isFavoritesOnly() ? favoriteSnapshot : null;
+        CompressedBitmap resolutionFilter = query.hasResolution() ? selectResolution(query) : null;
+
+        CompressedBitmap[] filters = {sectionFilter, dateFilter, sizeFilter, tagFilter, extensionFilter,
+                                      favoriteFilter, resolutionFilter};
+        CompressedBitmap matches = intersectExcept(filters, -1);
+
+        Result result = new Result(matches, intersectExcept(filters, 1), catalog);
+
+        // Each facet is counted against the query without its own constraint
+        CompressedBitmap sectionBase = intersectExcept(filters, 0);
+        long[] sizes = new long[MediaCatalog.Section.values().length];
+        sectionBase.forEach(id -> sizes[catalog.getSection(id).ordinal()] += catalog.getSize(id));
+        for (MediaCatalog.Section section : MediaCatalog.Section.values()) {
+            result.sectionCounts.put(section, sectionBase.andCardinality(bySection.get(section)));
+            result.sectionSizes.put(section, sizes[section.ordinal()]);
+        }
+
+        CompressedBitmap tagBase = intersectExcept(filters, 3);
+        for (Map.Entry<String, CompressedBitmap> entry : tagSnapshot.entrySet()) {
+            result.tagCounts.put(entry.getKey(), tagBase.andCardinality(entry.getValue()));
+        }
+
+        result.favoriteCount = intersectExcept(filters, 5).andCardinality(favoriteSnapshot);
+        return result;
+    }
+
+    // Files of unknown dimensions never match a resolution constraint
+    private CompressedBitmap selectResolution(Query query) {
+        CompressedBitmap result = catalog.selectPixelCount(
+            query.getMinPixels(), query.getMaxPixels() > 0 ? query.getMaxPixels() : Long.MAX_VALUE);
+        if (query.getMaxLongSide() > 0) {
+            result = result.and(catalog.selectLongSideAtMost(query.getMaxLongSide()));
+        }
+        return result;
+    }
+
+    // AND of every active filter except the one at position skip
+    private CompressedBitmap intersectExcept(CompressedBitmap[] filters, int skip) {
+        CompressedBitmap result = all;
+        for (int i = 0; i < filters.length; i++) {
+            if (i != skip && filters[i] != null) {
+                result = result.and(filters[i]);
+            }
+        }
+        return result;
+    }
+}
@@ -5,49 +5,99 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Moves files into subdirectories by type, date or size, one file at a time.
+ * Whole folders are organized with {@link BulkOrganizer}, which plans every
+ * move up front and runs them in parallel.
+ *
+ * An organizer lists each target directory the first time it moves a file
+ * there and resolves later name clashes in memory, so use one per batch.
+ */
 public class FileOrganizer {
-    
+    private static final Logger LOGGER = Logger.getLogger(FileOrganizer.class.getName());
+
+    private final FileTransfer transfer = new FileTransfer();
+    // Target directories are listed once per organizer, not probed per file
+    private final NameReservations names = new NameReservations();
+    private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * How files are sorted into subdirectories.
+     */
+    public enum Layout {
+        BY_TYPE,
+        BY_DATE,
+        BY_SIZE;
+
+        /**
+         * @return the subdirectory, relative to the organized folder, the file belongs in
+         */
+        public String directoryFor(MediaFile mediaFile) {
+            switch (this) {
+                case BY_DATE:
+                    return getDateDirectoryName(mediaFile);
+                case BY_SIZE:
+                    return getSizeDirectoryName(mediaFile);
+                default:
+                    return getSubdirectoryName(mediaFile);
+            }
+        }
+    }
+
     public void organizeByType(File directory, MediaFile mediaFile) {
+        organize(directory, mediaFile, Layout.BY_TYPE);
+    }
+
+    public void organizeByDate(File directory, MediaFile mediaFile) {
+        organize(directory, mediaFile, Layout.BY_DATE);
+    }
+
+    public void organizeBySize(File directory, MediaFile mediaFile) {
+        organize(directory, mediaFile, Layout.BY_SIZE);
+    }
+
+    private void organize(File directory, MediaFile mediaFile, Layout layout) {
         try {
-            String subDirName = getSubdirectoryName(mediaFile);
-            Path subDir = directory.toPath().resolve(subDirName);
-            
-            // Create subdirectory if it doesn't exist
-            if (!Files.exists(subDir)) {
+            Path subDir = directory.toPath().resolve(layout.directoryFor(mediaFile));
+
+            // Create each subdirectory once
+            if (!createdDirectories.contains(subDir)) {
                 Files.createDirectories(subDir);
+                createdDirectories.add(subDir);
             }
-            
-            // Move file to the appropriate subdirectory
+
+            // Move file to the appropriate subdirectory, adding a number to the name if it is taken
             Path sourcePath = mediaFile.getFilePath();
-            Path targetPath = subDir.resolve(sourcePath.getFileName());
-            
-            // If file already exists, add a number to the filename
-            targetPath = getUniquePath(targetPath);
-            
-            Files.move(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            Path targetPath = names.reserve(subDir, sourcePath.getFileName().toString());
+
+            // Renames within a volume, copies resumably across volumes
+            transfer.move(sourcePath, targetPath, null);
         } catch (IOException e) {
-            e.printStackTrace();
-            // Handle exception appropriately in a real application
+            LOGGER.log(Level.WARNING, "Failed to organize " + mediaFile.getFilePath(), e);
         }
     }
-    
-    private String getSubdirectoryName(MediaFile mediaFile) {
+
+    private static String getSubdirectoryName(MediaFile mediaFile) {
         String fileType = mediaFile.getFileType();
-        
+
         // Handle project types
         if (fileType.endsWith("-project")) {
             // Convert project type to readable format
             return convertProjectTypeToDirectoryName(fileType);
         }
-        
+
         // Handle regular file types
         return fileType;
     }
-    
-    private String convertProjectTypeToDirectoryName(String projectType) {
+
+    private static String convertProjectTypeToDirectoryName(String projectType) {
         switch (projectType) {
             case "java-project":
                 return "Java Projects";
@@ -67,90 +117,41 @@ public class FileOrganizer {
                 return "Coding Projects";
         }
     }
-    
-    public void organizeByDate(File directory, MediaFile mediaFile) {
-        try {
-            // Create subdirectory based on year/month
-            String year = String.valueOf(mediaFile.getLastModified().getYear());
-            String month = mediaFile.getLastModified().format(DateTimeFormatter.ofPattern("MM"));
-            String subDirName = year + "/" + month;
-            
-            Path subDir = directory.toPath().resolve(subDirName);
-            
-            // Create subdirectory if it doesn't exist
-            if (!Files.exists(subDir)) {
-                Files.createDirectories(subDir);
-            }
-            
-            // Move file to the appropriate subdirectory
-            Path sourcePath = mediaFile.getFilePath();
-            Path targetPath = subDir.resolve(sourcePath.getFileName());
-            
-            // If file already exists, add a number to the filename
-            targetPath = getUniquePath(targetPath);
-            
-            Files.move(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            e.printStackTrace();
-            // Handle exception appropriately in a real application
-        }
+
+    // Year/month of the capture date, falling back to the file date
+    private static String getDateDirectoryName(MediaFile mediaFile) {
+        LocalDateTime date = mediaFile.getDateTaken();
+        String year = String.valueOf(date.getYear());
+        String month = date.format(DateTimeFormatter.ofPattern("MM"));
+        return year + "/" + month;
     }
-    
-    public void organizeBySize(File directory, MediaFile mediaFile) {
-        try {
-            String subDirName;
-            long size = mediaFile.getFileSize();
-            
-            // Categorize by size
-            if (size < 1024 * 1024) { // Less than 1MB
-                subDirName = "Small";
-            } else if (size < 10 * 1024 * 1024) { // Less than 10MB
-                subDirName = "Medium";
-            } else { // 10MB or larger
-                subDirName = "Large";
-            }
-            
-            Path subDir = directory.toPath().resolve(subDirName);
-            
-            // Create subdirectory if it doesn't exist
-            if (!Files.exists(subDir)) {
-                Files.createDirectories(subDir);
-            }
-            
-            // Move file to the appropriate subdirectory
-            Path sourcePath = mediaFile.getFilePath();
-            Path targetPath = subDir.resolve(sourcePath.getFileName());
-            
-            // If file already exists, add a number to the filename
-            targetPath = getUniquePath(targetPath);
-            
-            Files.move(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            e.printStackTrace();
-            // Handle exception appropriately in a real application
+
+    private static String getSizeDirectoryName(MediaFile mediaFile) {
+        long size = mediaFile.getFileSize();
+
+        // Categorize by size
+        if (size < 1024 * 1024) { // Less than 1MB
+            return "Small";
+        } else if (size < 10 * 1024 * 1024) { // Less than 10MB
+            return "Medium";
+        } else { // 10MB or larger
+            return "Large";
         }
     }
-    
-    private Path getUniquePath(Path targetPath) {
-        Path uniquePath = targetPath;
-        int counter = 1;
-        
-        while (Files.exists(uniquePath)) {
-            String fileName = targetPath.getFileName().toString();
-            String extension = "";
-            String nameWithoutExtension = fileName;
-            
-            int dotIndex = fileName.lastIndexOf('.');
-            if (dotIndex > 0) {
-                extension = fileName.substring(dotIndex);
-                nameWithoutExtension = fileName.substring(0, dotIndex);
-            }
-            
-            String newName = nameWithoutExtension + "_" + counter + extension;
-            uniquePath = targetPath.getParent().resolve(newName);
-            counter++;
+
+    /**
+     * The name a colliding file is given, such as IMG_0001_2.jpg for the second duplicate.
+     */
+    static String numberedName(String fileName, int counter) {
+        String extension = "";
+        String nameWithoutExtension = fileName;
+
+        int dotIndex = fileName.lastIndexOf('.');
+        if (dotIndex > 0) {
+            extension = fileName.substring(dotIndex);
+            nameWithoutExtension = fileName.substring(0, dotIndex);
         }
-        
-        return uniquePath;
+
+        return nameWithoutExtension + "_" + counter + extension;
     }
-}
\ No newline at end of file
+}
@@ -20,6 +20,7 @@ public class FileScanner {
     private Set<String> projectPaths; // To track already detected project paths
     private String rootDirectoryPath; // To track the root directory
     private AtomicInteger scannedFilesCount;
+    private volatile MediaCatalog catalog; // Indexed snapshot of the last scan
     
     public FileScanner() {
         this.imageFiles = new ArrayList<>();
@@ -29,6 +30,7 @@ public class FileScanner {
         this.normalFolders = new ArrayList<>(); // Initialize normal folders list
         this.projectPaths = new HashSet<>();
         this.scannedFilesCount = new AtomicInteger(0);
+        this.catalog = MediaCatalog.empty();
     }
     
     public void scanDirectory(String directoryPath, Consumer<Integer> progressCallback) {
@@ -50,9 +52,31 @@ public class FileScanner {
         ForkJoinPool forkJoinPool = new ForkJoinPool();
         try {
             forkJoinPool.invoke(new ScanDirectoryAction(directory, progressCallback));
+            forkJoinPool.submit(this::enrichImages).join();
         } finally {
             forkJoinPool.shutdown();
         }
+        
+        // Build the indexed catalog once the scan is complete
+        catalog = MediaCatalog.build(imageFiles, videoFiles, documentFiles, projectFiles, normalFolders);
+    }
+    
+    // Enrichment stage: header-only reads of image dimensions, format and EXIF/XMP metadata,
+    // in parallel on the scan pool
+    private void enrichImages() {
+        imageFiles.parallelStream().forEach(mediaFile -> {
+            File file = mediaFile.getFilePath().toFile();
+            ImageHeaderReader.Header header = ImageHeaderReader.read(file);
+            if (header != null) {
+                mediaFile.setImageInfo(header.getWidth(), header.getHeight(),
+                                       header.getBitDepth(), header.getFormat());
+            }
+            ExifMetadataReader.PhotoMetadata metadata = ExifMetadataReader.read(file);
+            if (metadata != null) {
+                mediaFile.setCaptureInfo(metadata.getCaptureTime(), metadata.getCameraModel(),
+                                         metadata.getOrientation(), metadata.getLatitude(), metadata.getLongitude());
+            }
+        });
     }
     
     private class ScanDirectoryAction extends RecursiveAction {
@@ -150,6 +174,10 @@ public class FileScanner {
         }
     }
     
+    public MediaCatalog getCatalog() {
+        return catalog;
+    }
+    
     public List<MediaFile> getImageFiles() {
         return new ArrayList<>(imageFiles);
     }
@@ -0,0 +1,258 @@
+package com.mediaviewer.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32C;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves files between file stores without losing them halfway.
+ *
+ * Within one file store a move is a rename. Across stores Files.move would
+ * copy and delete with no progress and no way back if it is interrupted, so
+ * here the data goes into a ".part" file next to the target with
+ * FileChannel.transferTo, in large chunks the kernel copies without passing
+ * through the Java heap. The copy is forced to disk and verified before it
+ * is renamed into place, and only then is the source deleted. An interrupted
+ * copy leaves its ".part" file behind, and the next move of the same file
+ * resumes from where it stopped; resumed copies are always checksummed.
+ *
+ * The bandwidth limit defaults to none and can be set with the
+ * mediaviewer.transfer.maxBytesPerSecond system property.
+ */
+public class FileTransfer {
+    private static final Logger LOGGER = Logger.getLogger(FileTransfer.class.getName());
+
+    public static final String PART_SUFFIX = ".part";
+    public static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    // Throttled copies report and sleep at least this often
+    private static final int THROTTLE_SLICES_PER_SECOND = 4;
+    private static final int CHECKSUM_BUFFER_SIZE = 1024 * 1024;
+
+    public enum Verification {
+        /** Compare lengths only */
+        SIZE,
+        /** Also compare CRC32C checksums, reading both files once more */
+        CHECKSUM
+    }
+
+    /**
+     * Receives the bytes copied so far, after every chunk.
+     */
+    public interface ProgressListener {
+        void onProgress(long transferred, long total);
+    }
+
+    private final long chunkSize;
+    private final long maxBytesPerSecond;
+    private final Verification verification;
+
+    public FileTransfer() {
+        this(DEFAULT_CHUNK_SIZE, Long.getLong("mediaviewer.transfer.maxBytesPerSecond", 0), Verification.SIZE);
+    }
+
+    /**
+     * @param maxBytesPerSecond bandwidth limit, 0 for none
+     */
+    public FileTransfer(long chunkSize, long maxBytesPerSecond, Verification verification) {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+        this.verification = verification;
+    }
+
+    /**
+     * @return true if a move between the directories has to copy the data
+     */
+    public static boolean isCrossStore(Path sourceDirectory, Path targetDirectory) throws IOException {
+        FileStore source = Files.getFileStore(sourceDirectory);
+        return !source.equals(Files.getFileStore(targetDirectory));
+    }
+
+    /**
+     * Move a file or folder, renaming within a file store and copying across stores.
+     * Never replaces an existing target.
+     * @param listener told about the bytes copied, may be null
+     */
+    public void move(Path source, Path target, ProgressListener listener) throws IOException {
+        if (!isCrossStore(source.toAbsolutePath().getParent(), target.toAbsolutePath().getParent())) {
+            Files.move(source, target);
+        } else if (Files.isDirectory(source)) {
+            moveTree(source, target, listener);
+        } else {
+            copyAcrossStores(source, target, listener);
+        }
+    }
+
+    /**
+     * Copy a file through a ".part" file, verify it, rename it into place and delete the source.
+     * Resumes a ".part" file left by an interrupted copy. A target that already holds the same
+     * bytes, left by a crash between the rename and the delete, only has its source deleted.
+     */
+    public void copyAcrossStores(Path source, Path target, ProgressListener listener) throws IOException {
+        if (Files.exists(target)) {
+            if (Files.size(target) != Files.size(source) || checksum(target) != checksum(source)) {
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            Files.delete(source);
+            return;
+        }
+        Path part = partFile(target);
+        long size = Files.size(source);
+
+        boolean resumed = copyToPart(source, part, size, listener);
+        if (!verify(source, part, size, resumed)) {
+            if (!resumed) {
+                Files.deleteIfExists(part);
+                throw new IOException("Copy of " + source + " does not match the original");
+            }
+            // The kept prefix was stale, such as a source rewritten since the crash
+            LOGGER.info("Restarting copy of " + source + ", the partial copy did not match");
+            Files.delete(part);
+            copyToPart(source, part, size, listener);
+            if (!verify(source, part, size, false)) {
+                Files.deleteIfExists(part);
+                throw new IOException("Copy of " + source + " does not match the original");
+            }
+        }
+
+        // Like Files.move, keep the modification time
+        Files.setLastModifiedTime(part, Files.getLastModifiedTime(source));
+        Files.move(part, target);
+        Files.delete(source);
+    }
+
+    /**
+     * @return where the copy of a file is written until it is complete
+     */
+    public static Path partFile(Path target) {
+        return target.resolveSibling(target.getFileName() + PART_SUFFIX);
+    }
+
+    // Returns true if an earlier partial copy was continued
+    private boolean copyToPart(Path source, Path part, long size, ProgressListener listener) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = out.size();
+            if (position > size) {
+                // Not a prefix of this source
+                out.truncate(0);
+                position = 0;
+            }
+            boolean resumed = position > 0;
+            if (resumed) {
+                LOGGER.info("Resuming copy of " + source + " at " + position + " of " + size + " bytes");
+            }
+            out.position(position);
+
+            long chunk = maxBytesPerSecond > 0
+                ? Math.max(1, Math.min(chunkSize, maxBytesPerSecond / THROTTLE_SLICES_PER_SECOND))
+                : chunkSize;
+            long start = System.nanoTime();
+            long copied = 0;
+            while (position < size) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The part file stays for the next attempt
+                    throw new InterruptedIOException("Copy of " + source + " interrupted at " + position);
+                }
+                long count = in.transferTo(position, Math.min(chunk, size - position), out);
+                if (count <= 0) {
+                    // The source shrank while copying
+                    break;
+                }
+                position += count;
+                copied += count;
+                if (listener != null) {
+                    listener.onProgress(position, size);
+                }
+                throttle(copied, start);
+            }
+            // On disk before the source can be deleted
+            out.force(true);
+            return resumed;
+        }
+    }
+
+    private void throttle(long copied, long start) throws InterruptedIOException {
+        if (maxBytesPerSecond <= 0) {
+            return;
+        }
+        long dueNanos = copied * 1_000_000_000L / maxBytesPerSecond;
+        long aheadMillis = (dueNanos - (System.nanoTime() - start)) / 1_000_000;
+        if (aheadMillis > 0) {
+            try {
+                Thread.sleep(aheadMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Copy interrupted");
+            }
+        }
+    }
+
+    private boolean verify(Path source, Path part, long size, boolean resumed) throws IOException {
+        if (Files.size(part) != size || Files.size(source) != size) {
+            return false;
+        }
+        // A resumed copy has bytes from an earlier run, its size alone proves nothing
+        if (verification == Verification.CHECKSUM || resumed) {
+            return checksum(source) == checksum(part);
+        }
+        return true;
+    }
+
+    static long checksum(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHECKSUM_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            PixelBufferPool.free(buffer);
+        }
+        return crc.getValue();
+    }
+
+    // Folders such as projects: copy every file, then remove the emptied source folders
+    private void moveTree(Path source, Path target, ProgressListener listener) throws IOException {
+        if (Files.exists(target) && !Files.isDirectory(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                copyAcrossStores(file, target.resolve(source.relativize(file).toString()), listener);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException error) throws IOException {
+                if (error != null) {
+                    throw error;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        LOGGER.log(Level.FINE, "Moved folder {0} to {1}", new Object[] {source, target});
+    }
+}
@@ -0,0 +1,264 @@
+package com.mediaviewer.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Fuzzy filename matching for the search box.
+ *
+ * Each whitespace-separated query token must match the name either as a
+ * subsequence (scored with bonuses for consecutive characters and word starts,
+ * penalties for gaps) or, failing that, within a small edit distance of one of
+ * the name's words. Tokens are matched independently, so their order in the
+ * query does not matter.
+ *
+ * Catalog searches score in parallel chunks that each keep a bounded heap of
+ * their best K matches, so memory stays O(K) no matter how large the catalog is.
+ */
+public class FuzzyMatcher {
+
+    public static final int NO_MATCH = Integer.MIN_VALUE;
+
+    private static final int SCORE_MATCH = 16;
+    private static final int BONUS_CONSECUTIVE = 8;
+    private static final int BONUS_WORD_START = 8;
+    private static final int BONUS_NAME_START = 4;
+    private static final int PENALTY_GAP_START = 3;
+    private static final int PENALTY_GAP_EXTENSION = 1;
+    private static final int PENALTY_TYPO = 20;
+
+    private static final int BONUS_FAVORITE = 12;
+    private static final int MAX_BONUS_RECENT = 6;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Score a query against a name, both already lower-cased.
+     * @return the score, higher is better, or NO_MATCH
+     */
+    public static int score(String query, String name) {
+        int total = 0;
+        int tokens = 0;
+        int start = 0;
+        int length = query.length();
+        while (start < length) {
+            while (start < length && Character.isWhitespace(query.charAt(start))) start++;
+            int end = start;
+            while (end < length && !Character.isWhitespace(query.charAt(end))) end++;
+            if (end > start) {
+                int tokenScore = scoreToken(query, start, end, name);
+                if (tokenScore == NO_MATCH) {
+                    return NO_MATCH;
+                }
+                total += tokenScore;
+                tokens++;
+            }
+            start = end;
+        }
+        return tokens > 0 ? total : NO_MATCH;
+    }
+
+    private static int scoreToken(String query, int from, int to, String name) {
+        int subsequence = scoreSubsequence(query, from, to, name);
+        if (subsequence != NO_MATCH) {
+            return subsequence;
+        }
+        return scoreTypo(query, from, to, name);
+    }
+
+    // fzf-style: find the leftmost match end, then walk back for the tightest window and score it
+    private static int scoreSubsequence(String query, int from, int to, String name) {
+        int q = from;
+        int end = -1;
+        for (int i = 0; i < name.length() && q < to; i++) {
+            if (name.charAt(i) == query.charAt(q)) {
+                q++;
+                if (q == to) {
+                    end = i;
+                }
+            }
+        }
+        if (end < 0) {
+            return NO_MATCH;
+        }
+
+        q = to - 1;
+        int start = end;
+        for (int i = end; i >= 0; i--) {
+            if (name.charAt(i) == query.charAt(q)) {
+                start = i;
+                if (--q < from) {
+                    break;
+                }
+            }
+        }
+
+        int score = 0;
+        int previous = -2;
+        boolean inGap = false;
+        q = from;
+        for (int i = start; i <= end && q < to; i++) {
+            if (name.charAt(i) == query.charAt(q)) {
+                score += SCORE_MATCH;
+                if (previous == i - 1) {
+                    score += BONUS_CONSECUTIVE;
+                }
+                if (isWordStart(name, i)) {
+                    score += BONUS_WORD_START;
+                    if (i == 0) {
+                        score += BONUS_NAME_START;
+                    }
+                }
+                previous = i;
+                inGap = false;
+                q++;
+            } else {
+                score -= inGap ? PENALTY_GAP_EXTENSION : PENALTY_GAP_START;
+                inGap = true;
+            }
+        }
+        return score;
+    }
+
+    // Bounded Levenshtein distance against each word of the name
+    private static int scoreTypo(String query, int from, int to, String name) {
+        int tokenLength = to - from;
+        if (tokenLength < 3) {
+            return NO_MATCH; // Too short for a typo to be meaningful
+        }
+        int maxDistance = tokenLength <= 5 ? 1 : 2;
+        int best = Integer.MAX_VALUE;
+
+        int[] previousRow = new int[tokenLength + 1];
+        int[] currentRow = new int[tokenLength + 1];
+        int wordStart = 0;
+        while (wordStart < name.length()) {
+            while (wordStart < name.length() && !Character.isLetterOrDigit(name.charAt(wordStart))) wordStart++;
+            int wordEnd = wordStart;
+            while (wordEnd < name.length() && Character.isLetterOrDigit(name.charAt(wordEnd))) wordEnd++;
+            if (wordEnd > wordStart && Math.abs((wordEnd - wordStart) - tokenLength) <= maxDistance) {
+                int distance = boundedDistance(query, from, to, name, wordStart, wordEnd,
+                                               maxDistance, previousRow, currentRow);
+                best = Math.min(best, distance);
+            }
+            wordStart = wordEnd;
+        }
+
+        if (best > maxDistance) {
+            return NO_MATCH;
+        }
+        return tokenLength * SCORE_MATCH - best * PENALTY_TYPO;
+    }
+
+    private static int boundedDistance(String a, int aFrom, int aTo, String b, int bFrom, int bTo,
+                                       int maxDistance, int[] previousRow, int[] currentRow) {
+        int aLength = aTo - aFrom;
+        for (int i = 0; i <= aLength; i++) {
+            previousRow[i] = i;
+        }
+        for (int j = 1; j <= bTo - bFrom; j++) {
+            currentRow[0] = j;
+            int rowMin = currentRow[0];
+            char bChar = b.charAt(bFrom + j - 1);
+            for (int i = 1; i <= aLength; i++) {
+                int cost = a.charAt(aFrom + i - 1) == bChar ? 0 : 1;
+                currentRow[i] = Math.min(Math.min(currentRow[i - 1] + 1, previousRow[i] + 1),
+                                         previousRow[i - 1] + cost);
+                rowMin = Math.min(rowMin, currentRow[i]);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1; // Every alignment is already too far
+            }
+            int[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+        return previousRow[aLength];
+    }
+
+    private static boolean isWordStart(String name, int index) {
+        if (index == 0) {
+            return true;
+        }
+        char previous = name.charAt(index - 1);
+        char current = name.charAt(index);
+        return !Character.isLetterOrDigit(previous)
+            || (Character.isDigit(current) != Character.isDigit(previous));
+    }
+
+    /**
+     * Search a catalog and return the IDs of the best k matches, best first.
+     * Favorites, recently modified files and shorter paths get a small boost,
+     * and equal scores are ordered by ID so the ranking is stable.
+     */
+    public static int[] search(MediaCatalog catalog, String query, int k) {
+        String normalized = query.toLowerCase().trim();
+        if (normalized.isEmpty() || k <= 0) {
+            return new int[0];
+        }
+        long now = System.currentTimeMillis();
+        int chunks = (catalog.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        List<Match> candidates = IntStream.range(0, chunks).parallel()
+            .mapToObj(chunk -> searchChunk(catalog, normalized, k, now,
+                                           chunk * CHUNK_SIZE,
+                                           Math.min(catalog.size(), (chunk + 1) * CHUNK_SIZE)))
+            .collect(ArrayList::new, List::addAll, List::addAll);
+
+        candidates.sort(BEST_FIRST);
+        int count = Math.min(k, candidates.size());
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = candidates.get(i).id;
+        }
+        return result;
+    }
+
+    private static List<Match> searchChunk(MediaCatalog catalog, String query, int k, long now,
+                                           int from, int to) {
+        // Min-heap of the best k so far, its head is the weakest match kept
+        PriorityQueue<Match> heap = new PriorityQueue<>(k + 1, BEST_FIRST.reversed());
+        for (int id = from; id < to; id++) {
+            int score = score(query, catalog.getLowerCaseName(id));
+            if (score == NO_MATCH) {
+                continue;
+            }
+            score += rankingBonus(catalog, id, now);
+            if (heap.size() < k) {
+                heap.add(new Match(id, score));
+            } else if (score > heap.peek().score) {
+                heap.poll();
+                heap.add(new Match(id, score));
+            }
+        }
+        return new ArrayList<>(heap);
+    }
+
+    private static int rankingBonus(MediaCatalog catalog, int id, long now) {
+        int bonus = catalog.getFile(id).isFavorite() ? BONUS_FAVORITE : 0;
+        long ageDays = Math.max(0, (now - catalog.getModifiedTime(id)) / DAY_MILLIS);
+        // Full bonus for today, fading out over about two months
+        bonus += Math.max(0, MAX_BONUS_RECENT - (63 - Long.numberOfLeadingZeros(ageDays + 1)));
+        bonus -= catalog.getPathLength(id) / 32;
+        return bonus;
+    }
+
+    private static final Comparator<Match> BEST_FIRST = (a, b) -> {
+        int result = Integer.compare(b.score, a.score);
+        return result != 0 ? result : Integer.compare(a.id, b.id);
+    };
+
+    private static final class Match {
+        private final int id;
+        private final int score;
+
+        Match(int id, int score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.mediaviewer.utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads image dimensions, bit depth and format from the file header.
+ *
+ * ImageIO readers answer getWidth/getHeight and the raw image type from the
+ * header alone, so no pixels are decoded and only the first few kilobytes
+ * of the file are read. Covers every format ImageIO can read, which includes
+ * JPEG, PNG, GIF, BMP and TIFF.
+ */
+public class ImageHeaderReader {
+    private static final Logger LOGGER = Logger.getLogger(ImageHeaderReader.class.getName());
+
+    /**
+     * @return the header of the first image in the file, or null if no ImageIO reader understands it
+     */
+    public static Header read(File file) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Header(reader.getWidth(0), reader.getHeight(0), bitDepth(reader),
+                                  formatName(reader.getFormatName()));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Truncated or unusual files can make readers throw anything
+            LOGGER.log(Level.FINE, "Failed to read image header of " + file, e);
+            return null;
+        }
+    }
+
+    // Readers report aliases ("JPEG", "jpg", "tif"), so settle on one name per format
+    private static String formatName(String readerFormat) {
+        String format = readerFormat.toLowerCase(Locale.ROOT);
+        switch (format) {
+            case "jpg":
+                return "jpeg";
+            case "tif":
+                return "tiff";
+            default:
+                return format;
+        }
+    }
+
+    // Bits per sample of the stored image, 0 if the reader cannot tell without decoding
+    private static int bitDepth(ImageReader reader) throws IOException {
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null) {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            type = types.hasNext() ? types.next() : null;
+        }
+        if (type == null) {
+            return 0;
+        }
+        ColorModel colorModel = type.getColorModel();
+        return colorModel != null ? colorModel.getComponentSize(0) : type.getSampleModel().getSampleSize(0);
+    }
+
+    /**
+     * Dimensions and format of an image, as stored (before any EXIF rotation).
+     */
+    public static final class Header {
+        private final int width;
+        private final int height;
+        private final int bitDepth;
+        private final String format;
+
+        public Header(int width, int height, int bitDepth, String format) {
+            this.width = width;
+            this.height = height;
+            this.bitDepth = bitDepth;
+            this.format = format;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getBitDepth() {
+            return bitDepth;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public long getPixelCount() {
+            return (long) width * height;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.mediaviewer.utils;
+
+import javafx.scene.image.Image;
+import java.util.Objects;
+
+/**
+ * Shared in-memory cache of decoded images, bounded by their pixel memory
+ * (width x height x 4 bytes). All tabs and the image viewer go through the
+ * same instance so the budget covers every decoded image in the app.
+ *
+ * The budget defaults to a quarter of the max heap (at most 512 MB) and can
+ * be set with the mediaviewer.imageCache.maxBytes system property.
+ */
+public class ImageMemoryCache {
+
+    private static final long MAX_DEFAULT_BYTES = 512L * 1024 * 1024;
+
+    private static final WeightedLruCache<Key, Image> SHARED = new WeightedLruCache<>(
+        Long.getLong("mediaviewer.imageCache.maxBytes",
+                     Math.min(MAX_DEFAULT_BYTES, Runtime.getRuntime().maxMemory() / 4)),
+        ImageMemoryCache::weigh
+    );
+
+    private ImageMemoryCache() {
+    }
+
+    public static WeightedLruCache<Key, Image> getShared() {
+        return SHARED;
+    }
+
+    public static long weigh(Image image) {
+        // Images still loading in the background report 0x0, weigh them by their requested size
+        double width = image.getWidth() > 0 ? image.getWidth() : image.getRequestedWidth();
+        double height = image.getHeight() > 0 ? image.getHeight() : image.getRequestedHeight();
+        return (long) width * (long) height * 4;
+    }
+
+    /**
+     * Identifies a decoded image: its source (usually a Path) and the size it was decoded at.
+     */
+    public static final class Key {
+        private final Object source;
+        private final int width;
+        private final int height;
+        private final int hash;
+
+        public Key(Object source, int width, int height) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+            this.hash = Objects.hash(source, width, height);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && width == other.width && height == other.height
+                && source.equals(other.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return source + "@" + width + "x" + height;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.mediaviewer.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decodes the images around the one being viewed ahead of time, so stepping
+ * to the next or previous image is served from memory.
+ *
+ * Decoded images are kept in a byte-bounded LRU cache. Each time the viewer
+ * moves, the nearest neighbours are queued, as many as fit in the budget
+ * next to the current image, favouring the direction of travel. Loads for
+ * images that fell out of the window, such as after a jump, are cancelled.
+ *
+ * Images may own resources, such as the pooled buffer of an OffHeapImage.
+ * The cache then holds one reference per image and releases it on
+ * eviction, and every image handed out by load() is retained for the
+ * caller, who releases it when done.
+ *
+ * @param <T> the decoded image type
+ */
+public class ImagePrefetcher<T> {
+
+    private final int radius;
+    private final long estimatedBytes;
+    private final Loader<T> loader;
+    private final UnaryOperator<T> retain;
+    private final Consumer<T> release;
+    private final WeightedLruCache<File, T> cache;
+    private final Map<File, Load<T>> loads = new HashMap<>();
+    private int lastIndex = -1;
+
+    /**
+     * @param radius how many images to prefetch on each side of the current one
+     * @param maxBytes memory budget for decoded images, the current one included
+     * @param estimatedBytes expected size of one decoded image, used to size the window before decoding
+     * @param loader starts decoding a file
+     * @param weigher memory used by a decoded image
+     */
+    public ImagePrefetcher(int radius, long maxBytes, long estimatedBytes,
+                           Loader<T> loader,
+                           ToLongFunction<T> weigher) {
+        this(radius, maxBytes, estimatedBytes, loader, weigher, image -> image, image -> { });
+    }
+
+    /**
+     * @param retain takes another reference to an image, returning null if it was already released
+     * @param release drops a reference
+     */
+    public ImagePrefetcher(int radius, long maxBytes, long estimatedBytes,
+                           Loader<T> loader,
+                           ToLongFunction<T> weigher, UnaryOperator<T> retain, Consumer<T> release) {
+        this.radius = radius;
+        this.estimatedBytes = Math.max(1, estimatedBytes);
+        this.loader = loader;
+        this.retain = retain;
+        this.release = release;
+        this.cache = new WeightedLruCache<>(maxBytes, weigher, (file, image) -> release.accept(image));
+    }
+
+    /**
+     * @return the cached image, still owned by the cache, or null if it is not in memory
+     */
+    public T getCached(File file) {
+        return cache.get(file);
+    }
+
+    /**
+     * Get an image, joining a prefetch already in flight. The image is retained for the caller.
+     * @param progressListener receives the loaded fraction, also for a prefetch that was already running
+     */
+    public CompletableFuture<T> load(File file, DoubleConsumer progressListener) {
+        return load(file, progressListener, release);
+    }
+
+    /**
+     * Get an image, also receiving partial renders of it while it decodes.
+     * @param partialListener takes ownership of each partial image
+     */
+    public synchronized CompletableFuture<T> load(File file, DoubleConsumer progressListener,
+                                                  Consumer<T> partialListener) {
+        T cached = cache.get(file);
+        T retained = cached != null ? retain.apply(cached) : null;
+        if (retained != null) {
+            progressListener.accept(1.0);
+            return CompletableFuture.completedFuture(retained);
+        }
+        Load<T> load = loads.get(file);
+        if (load == null) {
+            load = start(file);
+        }
+        load.progressListener = progressListener;
+        load.partialListener = partialListener;
+        CompletableFuture<T> waiter = new CompletableFuture<>();
+        load.waiters.add(waiter);
+        return waiter;
+    }
+
+    /**
+     * Move the window to files[index]: queue its neighbours and cancel loads outside the window.
+     */
+    public synchronized void prefetch(List<File> files, int index) {
+        List<File> wanted = window(files, index);
+        Set<File> keep = new HashSet<>(wanted);
+        keep.add(files.get(index));
+
+        Iterator<Map.Entry<File, Load<T>>> iterator = loads.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, Load<T>> entry = iterator.next();
+            if (!keep.contains(entry.getKey())) {
+                iterator.remove();
+                entry.getValue().future.cancel(false);
+            }
+        }
+        for (File file : wanted) {
+            if (!loads.containsKey(file) && !cache.containsKey(file)) {
+                start(file);
+            }
+        }
+        lastIndex = index;
+    }
+
+    /**
+     * Neighbours of files[index] to keep decoded, nearest first, limited by the radius and the budget.
+     */
+    synchronized List<File> window(List<File> files, int index) {
+        // The current image takes one slot of the budget
+        long slots = cache.getMaxWeight() / estimatedBytes - 1;
+        int limit = (int) Math.max(0, Math.min(2L * radius, slots));
+        // Moving backwards prefetches backwards first
+        int direction = index < lastIndex ? -1 : 1;
+
+        List<File> result = new ArrayList<>();
+        for (int distance = 1; distance <= radius && result.size() < limit; distance++) {
+            int ahead = index + direction * distance;
+            int behind = index - direction * distance;
+            if (ahead >= 0 && ahead < files.size()) {
+                result.add(files.get(ahead));
+            }
+            if (behind >= 0 && behind < files.size() && result.size() < limit) {
+                result.add(files.get(behind));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Cancel every load in flight. Decoded images stay cached.
+     */
+    public synchronized void cancelAll() {
+        for (Load<T> load : new ArrayList<>(loads.values())) {
+            load.future.cancel(false);
+        }
+        loads.clear();
+    }
+
+    public synchronized int getLoadingCount() {
+        return loads.size();
+    }
+
+    public WeightedLruCache<File, T> getCache() {
+        return cache;
+    }
+
+    private Load<T> start(File file) {
+        Load<T> load = new Load<>();
+        // Partial renders nobody is waiting for are dropped
+        load.partialListener = release;
+        loads.put(file, load);
+        load.future = loader.load(file, progress -> load.progressListener.accept(progress),
+                                  partial -> load.partialListener.accept(partial));
+        // Loads may complete on any thread
+        load.future.whenComplete((image, error) -> finish(file, load, image, error));
+        return load;
+    }
+
+    private void finish(File file, Load<T> load, T image, Throwable error) {
+        List<CompletableFuture<T>> waiters;
+        synchronized (this) {
+            if (loads.get(file) == load) {
+                loads.remove(file);
+            }
+            waiters = new ArrayList<>(load.waiters);
+            load.waiters.clear();
+        }
+        for (CompletableFuture<T> waiter : waiters) {
+            if (error != null) {
+                waiter.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            } else if (image != null) {
+                // Each waiter gets its own reference, taken before the cache can drop the image
+                T retained = retain.apply(image);
+                if (!waiter.complete(retained) && retained != null) {
+                    release.accept(retained);
+                }
+            } else {
+                waiter.complete(null);
+            }
+        }
+        if (image != null) {
+            // The loader's reference goes to the cache
+            cache.put(file, image);
+        }
+    }
+
+    /**
+     * Starts decoding a file.
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        /**
+         * @param progressListener receives the decoded fraction
+         * @param partialListener takes ownership of partial renders, such as progressive JPEG passes
+         */
+        CompletableFuture<T> load(File file, DoubleConsumer progressListener, Consumer<T> partialListener);
+    }
+
+    private static final class Load<T> {
+        private CompletableFuture<T> future;
+        private final List<CompletableFuture<T>> waiters = new ArrayList<>();
+        private volatile DoubleConsumer progressListener = progress -> { };
+        private volatile Consumer<T> partialListener;
+    }
+}
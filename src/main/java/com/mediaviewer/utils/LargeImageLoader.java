@@ -1,20 +1,57 @@
 package com.mediaviewer.utils;
 
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
 import javafx.scene.image.Image;
-import javafx.concurrent.Task;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+/**
+ * Loads large images scaled to a maximum size.
+ *
+ * Asynchronous loads use JavaFX background loading and complete their future
+ * from the image's progress and error listeners, so no thread waits on a
+ * load and any number of them can be in flight. Cancelling the future stops
+ * the decode.
+ *
+ * Every decode first waits for room in the shared DecodeGovernor. JavaFX
+ * decodes the whole source before scaling it, so its loads are admitted
+ * against the full-size image read from the header.
+ *
+ * Off-heap loads decode with ImageIO on a worker thread and copy the pixels
+ * into a pooled direct buffer, so the long-lived image holds no pixels on
+ * the heap and its buffer is reused as soon as it is closed.
+ */
 public class LargeImageLoader {
     private static final Logger LOGGER = Logger.getLogger(LargeImageLoader.class.getName());
-    
-    // Thread pool specifically for loading large images
-    private static final ExecutorService imageLoadExecutor = Executors.newFixedThreadPool(2);
-    
+
+    // Loads in flight, cancelled on shutdown
+    private static final Set<CompletableFuture<?>> activeLoads = ConcurrentHashMap.newKeySet();
+
+    // Worker threads for off-heap decodes
+    private static final AtomicInteger decodeThreads = new AtomicInteger();
+    private static final ExecutorService decodeExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "large-image-" + decodeThreads.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Load a large image asynchronously with proper scaling
      * @param imageFile The image file to load
@@ -23,51 +60,299 @@ public class LargeImageLoader {
      * @return CompletableFuture with the loaded Image
      */
     public static CompletableFuture<Image> loadLargeImageAsync(File imageFile, double maxWidth, double maxHeight) {
-        return CompletableFuture.supplyAsync(() -> {
+        return loadLargeImageAsync(imageFile, maxWidth, maxHeight, progress -> { });
+    }
+
+    /**
+     * Load a large image asynchronously with proper scaling, reporting progress.
+     * @param imageFile The image file to load
+     * @param maxWidth Maximum width for the image
+     * @param maxHeight Maximum height for the image
+     * @param progressListener Receives the loaded fraction (0 to 1) on the FX application thread
+     * @return CompletableFuture with the loaded Image, failed if the image cannot be decoded.
+     *         Cancelling it cancels the load.
+     */
+    public static CompletableFuture<Image> loadLargeImageAsync(File imageFile, double maxWidth, double maxHeight,
+                                                               DoubleConsumer progressListener) {
+        CompletableFuture<Image> future = new CompletableFuture<>();
+        activeLoads.add(future);
+        future.whenComplete((image, error) -> activeLoads.remove(future));
+
+        decodeExecutor.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            CompletableFuture<DecodeGovernor.Permit> permit =
+                DecodeGovernor.getShared().acquireAsync(estimateBytes(imageFile, maxWidth, maxHeight));
+            // The permit is held until the load completes, fails or is cancelled
+            future.whenComplete((image, error) -> {
+                if (!permit.cancel(false)) {
+                    permit.join().close();
+                }
+            });
+            // Image properties are updated on the FX thread, so listeners are attached there too
+            permit.thenRun(() -> Platform.runLater(
+                () -> startLoad(imageFile, maxWidth, maxHeight, progressListener, future)));
+        });
+        return future;
+    }
+
+    // Full-size raster JavaFX decodes into, plus the scaled result
+    private static long estimateBytes(File imageFile, double maxWidth, double maxHeight) {
+        long scaled = 4L * (long) Math.max(1, maxWidth) * (long) Math.max(1, maxHeight);
+        ImageHeaderReader.Header header = ImageHeaderReader.read(imageFile);
+        if (header == null) {
+            return scaled;
+        }
+        return 4L * header.getWidth() * header.getHeight() + scaled;
+    }
+
+    private static void startLoad(File imageFile, double maxWidth, double maxHeight,
+                                  DoubleConsumer progressListener, CompletableFuture<Image> future) {
+        if (future.isDone()) {
+            return;
+        }
+        LOGGER.info("Loading large image: " + imageFile.getName() +
+                   " (Size: " + formatFileSize(imageFile.length()) + ")");
+
+        Image image = new Image(
+            imageFile.toURI().toString(),
+            maxWidth,     // requested width
+            maxHeight,    // requested height
+            true,         // preserveRatio
+            true,         // smooth
+            true          // backgroundLoading
+        );
+
+        ChangeListener<Number> progress = (obs, oldValue, newValue) -> {
+            progressListener.accept(newValue.doubleValue());
+            if (newValue.doubleValue() >= 1.0 && !image.isError()) {
+                LOGGER.info("Successfully loaded image: " + imageFile.getName() +
+                           " (Dimensions: " + (int)image.getWidth() + "x" + (int)image.getHeight() + ")");
+                future.complete(image);
+            }
+        };
+        ChangeListener<Boolean> error = (obs, oldValue, failed) -> {
+            if (failed) {
+                LOGGER.log(Level.WARNING, "Error loading image: " + imageFile.getName(), image.getException());
+                future.completeExceptionally(image.getException() != null
+                    ? image.getException()
+                    : new IOException("Cannot decode " + imageFile.getName()));
+            }
+        };
+        image.progressProperty().addListener(progress);
+        image.errorProperty().addListener(error);
+
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) {
+                image.cancel();
+            }
+            Runnable detach = () -> {
+                image.progressProperty().removeListener(progress);
+                image.errorProperty().removeListener(error);
+            };
+            if (Platform.isFxApplicationThread()) {
+                detach.run();
+            } else {
+                Platform.runLater(detach);
+            }
+        });
+
+        // Small or cached images can already be done by the time the listeners are attached
+        if (image.isError()) {
+            error.changed(image.errorProperty(), false, true);
+        } else if (image.getProgress() >= 1.0) {
+            progress.changed(image.progressProperty(), 0, 1.0);
+        }
+    }
+
+    /**
+     * Decode an image scaled to fit a box into a pooled off-heap buffer.
+     * @param progressListener Receives the decoded fraction (0 to 1) on the FX application thread
+     * @return CompletableFuture with the image, owned by the caller who must close it.
+     *         Cancelling it aborts the decode.
+     */
+    public static CompletableFuture<OffHeapImage> loadOffHeapAsync(File imageFile, int maxWidth, int maxHeight,
+                                                                   DoubleConsumer progressListener) {
+        return loadOffHeapAsync(imageFile, maxWidth, maxHeight, progressListener, OffHeapImage::close);
+    }
+
+    /**
+     * Decode as {@link #loadOffHeapAsync(File, int, int, DoubleConsumer)}, rendering the
+     * intermediate passes of progressive JPEGs and interlaced PNGs as they arrive.
+     * @param passListener Takes ownership of each intermediate render, on the FX application thread
+     */
+    public static CompletableFuture<OffHeapImage> loadOffHeapAsync(File imageFile, int maxWidth, int maxHeight,
+                                                                   DoubleConsumer progressListener,
+                                                                   Consumer<OffHeapImage> passListener) {
+        CompletableFuture<OffHeapImage> future = new CompletableFuture<>();
+        activeLoads.add(future);
+        future.whenComplete((image, error) -> activeLoads.remove(future));
+
+        decodeExecutor.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
             try {
-                LOGGER.info("Loading large image: " + imageFile.getName() + 
+                LOGGER.info("Decoding large image off-heap: " + imageFile.getName() +
                            " (Size: " + formatFileSize(imageFile.length()) + ")");
-                
-                // Load image with background loading and proper scaling
-                // Using a Task to allow for progress monitoring if needed
-                Image image = new Image(
-                    imageFile.toURI().toString(),
-                    maxWidth,     // requested width
-                    maxHeight,    // requested height
-                    true,         // preserveRatio
-                    true,         // smooth
-                    true          // backgroundLoading
-                );
-                
-                // Wait for loading to complete (but in background thread)
-                // This is necessary because backgroundLoading is asynchronous
-                int attempts = 0;
-                while (image.getProgress() < 1.0 && attempts < 50) { // Wait up to 5 seconds
-                    try {
-                        Thread.sleep(100);
-                        attempts++;
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
+                BufferedImage decoded = ScaledImageDecoder.decodeStored(imageFile, maxWidth, maxHeight,
+                    new ProgressForwarder(future, progressListener),
+                    new PassForwarder(future, maxWidth, maxHeight, passListener));
+                if (future.isDone()) {
+                    return;
                 }
-                
-                if (image.isError()) {
-                    LOGGER.warning("Error loading image: " + imageFile.getName());
-                    return null;
+                if (decoded == null) {
+                    future.completeExceptionally(new IOException("No decoder for " + imageFile.getName()));
+                    return;
                 }
-                
-                LOGGER.info("Successfully loaded image: " + imageFile.getName() + 
-                           " (Dimensions: " + (int)image.getWidth() + "x" + (int)image.getHeight() + ")");
-                return image;
-                
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, "Failed to load large image: " + imageFile.getName(), e);
-                return null;
+                OffHeapImage image = OffHeapImage.copyOf(decoded, PixelBufferPool.getShared());
+                if (!future.complete(image)) {
+                    // Cancelled while copying
+                    image.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Error loading image: " + imageFile.getName(), e);
+                future.completeExceptionally(e);
             }
-        }, imageLoadExecutor);
+        });
+        return future;
     }
-    
+
+    /**
+     * Forwards decode progress to the FX thread and aborts the decode once the load is cancelled.
+     */
+    private static final class ProgressForwarder implements IIOReadProgressListener {
+        private final CompletableFuture<?> future;
+        private final DoubleConsumer progressListener;
+        private int reportedPercent = -1;
+
+        ProgressForwarder(CompletableFuture<?> future, DoubleConsumer progressListener) {
+            this.future = future;
+            this.progressListener = progressListener;
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (future.isCancelled()) {
+                source.abort();
+                return;
+            }
+            // Readers call this per row; only whole percents reach the UI
+            int percent = (int) percentageDone;
+            if (percent != reportedPercent) {
+                reportedPercent = percent;
+                Platform.runLater(() -> progressListener.accept(percent / 100.0));
+            }
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+            Platform.runLater(() -> progressListener.accept(1.0));
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+
+    /**
+     * Turns the passes of progressive images into previews scaled to the box.
+     */
+    private static final class PassForwarder implements IIOReadUpdateListener {
+        // Passes arriving faster than this are skipped, rendering each would slow the decode
+        private static final long MIN_PASS_INTERVAL_NANOS = 150_000_000L;
+
+        private final CompletableFuture<?> future;
+        private final int width;
+        private final int height;
+        private final Consumer<OffHeapImage> passListener;
+        private boolean progressive;
+        private long lastPass = System.nanoTime();
+
+        PassForwarder(CompletableFuture<?> future, int width, int height, Consumer<OffHeapImage> passListener) {
+            this.future = future;
+            this.width = width;
+            this.height = height;
+            this.passListener = passListener;
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+            // Baseline images have a single pass, which is the final image anyway
+            progressive = maxPass > minPass;
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+            long now = System.nanoTime();
+            if (!progressive || future.isDone() || now - lastPass < MIN_PASS_INTERVAL_NANOS) {
+                return;
+            }
+            lastPass = now;
+            OffHeapImage preview = OffHeapImage.copyOf(fit(theImage), PixelBufferPool.getShared());
+            Platform.runLater(() -> passListener.accept(preview));
+        }
+
+        // Quick bilinear reduction; the final image gets the smooth resize
+        private BufferedImage fit(BufferedImage image) {
+            double scale = Math.min(1.0, Math.min((double) width / image.getWidth(), (double) height / image.getHeight()));
+            int fittedWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+            int fittedHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+            int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB;
+            BufferedImage fitted = new BufferedImage(fittedWidth, fittedHeight, type);
+            Graphics2D g = fitted.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, fittedWidth, fittedHeight, null);
+            g.dispose();
+            return fitted;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width,
+                                int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width,
+                                    int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+    }
+
     /**
      * Load a large image synchronously with proper scaling
      * @param imageFile The image file to load
@@ -77,55 +362,57 @@ public class LargeImageLoader {
      */
     public static Image loadLargeImage(File imageFile, double maxWidth, double maxHeight) {
         try {
-            LOGGER.info("Loading large image synchronously: " + imageFile.getName() + 
+            LOGGER.info("Loading large image synchronously: " + imageFile.getName() +
                        " (Size: " + formatFileSize(imageFile.length()) + ")");
-            
-            // Load image with background loading and proper scaling
-            Image image = new Image(
-                imageFile.toURI().toString(),
-                maxWidth,     // requested width
-                maxHeight,    // requested height
-                true,         // preserveRatio
-                true,         // smooth
-                true          // backgroundLoading
-            );
-            
-            // Wait for loading to complete
-            int attempts = 0;
-            while (image.getProgress() < 1.0 && attempts < 50) { // Wait up to 5 seconds
-                try {
-                    Thread.sleep(100);
-                    attempts++;
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
+
+            // Without background loading the constructor decodes on the calling thread
+            Image image;
+            DecodeGovernor.Permit permit =
+                DecodeGovernor.getShared().acquire(estimateBytes(imageFile, maxWidth, maxHeight));
+            try {
+                image = new Image(
+                    imageFile.toURI().toString(),
+                    maxWidth,     // requested width
+                    maxHeight,    // requested height
+                    true,         // preserveRatio
+                    true,         // smooth
+                    false         // backgroundLoading
+                );
+            } finally {
+                permit.close();
             }
-            
+
             if (image.isError()) {
                 LOGGER.warning("Error loading image: " + imageFile.getName());
                 return null;
             }
-            
-            LOGGER.info("Successfully loaded image: " + imageFile.getName() + 
+
+            LOGGER.info("Successfully loaded image: " + imageFile.getName() +
                        " (Dimensions: " + (int)image.getWidth() + "x" + (int)image.getHeight() + ")");
             return image;
-            
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Failed to load large image: " + imageFile.getName(), e);
             return null;
         }
     }
-    
+
     private static String formatFileSize(long size) {
         if (size < 1024) return size + " B";
         if (size < 1024 * 1024) return String.format("%.1f KB", size / 1024.0);
         if (size < 1024 * 1024 * 1024) return String.format("%.1f MB", size / (1024.0 * 1024));
         return String.format("%.1f GB", size / (1024.0 * 1024 * 1024));
     }
-    
+
     // Shutdown method for cleanup
     public static void shutdown() {
-        imageLoadExecutor.shutdown();
+        for (CompletableFuture<?> load : activeLoads) {
+            load.cancel(false);
+        }
+        decodeExecutor.shutdown();
+        PixelBufferPool.getShared().trim();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,315 @@
+package com.mediaviewer.utils;
+
+import com.mediaviewer.model.MediaFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of a scan. Every file gets a dense integer ID and its
+ * sortable attributes are stored as primitive columns with sorted secondary
+ * indexes, so filters are answered by binary search instead of by walking
+ * every MediaFile.
+ *
+ * IDs are assigned section by section (images first, then videos, ...), so
+ * each section is a contiguous block of IDs.
+ */
+public class MediaCatalog {
+
+    public enum Section {
+        IMAGES, VIDEOS, DOCUMENTS, PROJECTS, FOLDERS
+    }
+
+    public enum SortOrder {
+        SCAN_ORDER, LARGEST, MOST_RECENT, HIGHEST_RESOLUTION
+    }
+
+    private final MediaFile[] files;
+    private final Map<MediaFile, Integer> idsByFile;
+    private final int[] sectionStart; // sectionStart[s] .. sectionStart[s + 1] are the IDs of section s
+
+    // Primitive columns indexed by ID
+    private final long[] sizes;
+    private final long[] modifiedTimes;
+    private final long[] dates; // Capture date when the metadata has one, modification time otherwise
+    private final String[] lowerCaseNames; // Precomputed for search
+    private final int[] pathLengths;
+    // From image headers, 0 and null for files whose dimensions are unknown
+    private final int[] widths;
+    private final int[] heights;
+    private final int[] bitDepths;
+    private final String[] formats;
+    private final long[] pixelCounts;
+    private final long[] longSides;
+
+    private final SortedLongIndex sizeIndex;
+    private final SortedLongIndex modifiedIndex;
+    private final SortedLongIndex dateIndex;
+    private final SortedLongIndex pixelIndex;
+    private final SortedLongIndex longSideIndex;
+    private final FacetIndex facets;
+
+    private MediaCatalog(Map<Section, List<MediaFile>> sections) {
+        Section[] all = Section.values();
+        this.sectionStart = new int[all.length + 1];
+        int total = 0;
+        for (Section section : all) {
+            sectionStart[section.ordinal()] = total;
+            total += sections.getOrDefault(section, Collections.emptyList()).size();
+        }
+        sectionStart[all.length] = total;
+
+        this.files = new MediaFile[total];
+        this.sizes = new long[total];
+        this.modifiedTimes = new long[total];
+        this.dates = new long[total];
+        this.lowerCaseNames = new String[total];
+        this.pathLengths = new int[total];
+        this.widths = new int[total];
+        this.heights = new int[total];
+        this.bitDepths = new int[total];
+        this.formats = new String[total];
+        this.pixelCounts = new long[total];
+        this.longSides = new long[total];
+        this.idsByFile = new IdentityHashMap<>(total);
+
+        int id = 0;
+        for (Section section : all) {
+            for (MediaFile file : sections.getOrDefault(section, Collections.emptyList())) {
+                files[id] = file;
+                idsByFile.put(file, id);
+                sizes[id] = file.getFileSize();
+                modifiedTimes[id] = file.getLastModifiedMillis();
+                dates[id] = file.getDateTakenMillis();
+                lowerCaseNames[id] = file.getFileName().toLowerCase();
+                pathLengths[id] = file.getFilePath().toString().length();
+                widths[id] = file.getImageWidth();
+                heights[id] = file.getImageHeight();
+                bitDepths[id] = file.getBitDepth();
+                formats[id] = file.getImageFormat();
+                pixelCounts[id] = (long) widths[id] * heights[id];
+                longSides[id] = Math.max(widths[id], heights[id]);
+                id++;
+            }
+        }
+
+        this.sizeIndex = new SortedLongIndex(sizes);
+        this.modifiedIndex = new SortedLongIndex(modifiedTimes);
+        this.dateIndex = new SortedLongIndex(dates);
+        this.pixelIndex = new SortedLongIndex(pixelCounts);
+        this.longSideIndex = new SortedLongIndex(longSides);
+        this.facets = new FacetIndex(this);
+    }
+
+    public static MediaCatalog build(List<MediaFile> images, List<MediaFile> videos,
+                                     List<MediaFile> documents, List<MediaFile> projects,
+                                     List<MediaFile> folders) {
+        Map<Section, List<MediaFile>> sections = new EnumMap<>(Section.class);
+        sections.put(Section.IMAGES, images);
+        sections.put(Section.VIDEOS, videos);
+        sections.put(Section.DOCUMENTS, documents);
+        sections.put(Section.PROJECTS, projects);
+        sections.put(Section.FOLDERS, folders);
+        return new MediaCatalog(sections);
+    }
+
+    public static MediaCatalog empty() {
+        return new MediaCatalog(new EnumMap<>(Section.class));
+    }
+
+    public int size() {
+        return files.length;
+    }
+
+    public MediaFile getFile(int id) {
+        return files[id];
+    }
+
+    /**
+     * Catalog ID of a file, or -1 if the file is not part of this catalog.
+     */
+    public int idOf(MediaFile file) {
+        Integer id = idsByFile.get(file);
+        return id != null ? id : -1;
+    }
+
+    public long getSize(int id) {
+        return sizes[id];
+    }
+
+    public long getModifiedTime(int id) {
+        return modifiedTimes[id];
+    }
+
+    /**
+     * Capture date from the file's metadata, or its modification time if it has none.
+     */
+    public long getDate(int id) {
+        return dates[id];
+    }
+
+    public String getLowerCaseName(int id) {
+        return lowerCaseNames[id];
+    }
+
+    public int getPathLength(int id) {
+        return pathLengths[id];
+    }
+
+    public int getWidth(int id) {
+        return widths[id];
+    }
+
+    public int getHeight(int id) {
+        return heights[id];
+    }
+
+    public int getBitDepth(int id) {
+        return bitDepths[id];
+    }
+
+    /**
+     * Image format from the header (e.g. "jpeg", "png"), or null if unknown.
+     */
+    public String getFormat(int id) {
+        return formats[id];
+    }
+
+    public long getPixelCount(int id) {
+        return pixelCounts[id];
+    }
+
+    public Section getSection(int id) {
+        for (Section section : Section.values()) {
+            if (id < sectionStart[section.ordinal() + 1]) {
+                return section;
+            }
+        }
+        throw new IndexOutOfBoundsException("No catalog entry with ID " + id);
+    }
+
+    public int getSectionStart(Section section) {
+        return sectionStart[section.ordinal()];
+    }
+
+    public int getSectionEnd(Section section) {
+        return sectionStart[section.ordinal() + 1];
+    }
+
+    public SortedLongIndex getSizeIndex() {
+        return sizeIndex;
+    }
+
+    public SortedLongIndex getModifiedIndex() {
+        return modifiedIndex;
+    }
+
+    public SortedLongIndex getDateIndex() {
+        return dateIndex;
+    }
+
+    public SortedLongIndex getPixelIndex() {
+        return pixelIndex;
+    }
+
+    public SortedLongIndex getLongSideIndex() {
+        return longSideIndex;
+    }
+
+    public FacetIndex getFacets() {
+        return facets;
+    }
+
+    public CompressedBitmap selectSizeAtLeast(long minSize) {
+        return toBitmap(sizeIndex.atLeast(minSize));
+    }
+
+    public CompressedBitmap selectModifiedAfter(long millis) {
+        return toBitmap(modifiedIndex.atLeast(millis + 1));
+    }
+
+    /**
+     * Files whose date (capture date, else modification time) is after the given time.
+     */
+    public CompressedBitmap selectDateAfter(long millis) {
+        return toBitmap(dateIndex.atLeast(millis + 1));
+    }
+
+    /**
+     * Files of known dimensions with a pixel count in [minPixels, maxPixels].
+     */
+    public CompressedBitmap selectPixelCount(long minPixels, long maxPixels) {
+        return toBitmap(pixelIndex.range(Math.max(1, minPixels), maxPixels));
+    }
+
+    /**
+     * Files of known dimensions whose longer side is at most maxPixels.
+     */
+    public CompressedBitmap selectLongSideAtMost(long maxPixels) {
+        return toBitmap(longSideIndex.range(1, maxPixels));
+    }
+
+    private CompressedBitmap toBitmap(SortedLongIndex.Range range) {
+        // Index ranges are in value order, the bitmap is cheapest to fill in ID order
+        int[] ids = range.ids();
+        Arrays.sort(ids);
+        CompressedBitmap selection = new CompressedBitmap();
+        for (int id : ids) {
+            selection.add(id);
+        }
+        return selection;
+    }
+
+    /**
+     * Resolve a selection to MediaFiles per section.
+     * LARGEST, MOST_RECENT and HIGHEST_RESOLUTION walk the sorted indexes
+     * from the top, so the results come out ordered without sorting.
+     * MOST_RECENT orders by date, like the date filter.
+     */
+    public Map<Section, List<MediaFile>> resolve(CompressedBitmap selection, SortOrder order) {
+        Map<Section, List<MediaFile>> result = new EnumMap<>(Section.class);
+        for (Section section : Section.values()) {
+            result.put(section, new ArrayList<>());
+        }
+
+        if (order != SortOrder.SCAN_ORDER) {
+            SortedLongIndex index = order == SortOrder.LARGEST ? sizeIndex
+                : order == SortOrder.MOST_RECENT ? dateIndex : pixelIndex;
+            for (int position = index.size() - 1; position >= 0; position--) {
+                int id = index.idAt(position);
+                if (selection.contains(id)) {
+                    result.get(getSection(id)).add(files[id]);
+                }
+            }
+        } else {
+            selection.forEach(id -> result.get(getSection(id)).add(files[id]));
+        }
+        return result;
+    }
+
+    /**
+     * The n largest files in the catalog, largest first.
+     */
+    public List<MediaFile> largest(int n) {
+        return toFiles(sizeIndex.largest(n));
+    }
+
+    /**
+     * The n newest files in the catalog by date (capture date, else modification time), newest first.
+     */
+    public List<MediaFile> mostRecent(int n) {
+        return toFiles(dateIndex.largest(n));
+    }
+
+    private List<MediaFile> toFiles(int[] ids) {
+        List<MediaFile> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(files[id]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+package com.mediaviewer.utils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out free file names in target directories for a bulk move.
+ *
+ * Each directory is listed once, the first time a name in it is wanted, and
+ * from then on collisions are resolved against the names in memory: no file
+ * is checked on disk per candidate. Numbered names continue from a counter
+ * kept per original name, so the thousandth IMG_0001.jpg goes straight to
+ * IMG_0001_1000.jpg instead of trying the 999 names before it. Reserving is
+ * atomic per directory, so parallel workers never get the same name.
+ *
+ * The listing is a snapshot: files created in a directory afterwards by
+ * anything but this run are not seen. Moves therefore never replace an
+ * existing file, so a stale snapshot fails a move instead of losing data.
+ */
+public class NameReservations {
+    private static final Logger LOGGER = Logger.getLogger(NameReservations.class.getName());
+
+    private final boolean caseInsensitive;
+    private final Map<Path, DirectoryNames> directories = new ConcurrentHashMap<>();
+
+    /**
+     * Compares names the way the platform's usual file systems do: ignoring case on Windows and macOS.
+     */
+    public NameReservations() {
+        this(isCaseInsensitivePlatform());
+    }
+
+    public NameReservations(boolean caseInsensitive) {
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    private static boolean isCaseInsensitivePlatform() {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        return os.startsWith("windows") || os.startsWith("mac");
+    }
+
+    /**
+     * Reserve a name in a directory: the file's own name if it is free, otherwise a numbered one.
+     * @return the reserved path, which nothing else in this run will be given
+     */
+    public Path reserve(Path directory, String fileName) {
+        return directory.resolve(directories.computeIfAbsent(directory, DirectoryNames::new).reserve(fileName));
+    }
+
+    /**
+     * @return how many directories were listed so far
+     */
+    public int getListedDirectoryCount() {
+        return directories.size();
+    }
+
+    private final class DirectoryNames {
+        private final Path directory;
+        private Set<String> taken;
+        // Next number to try for each original name
+        private final Map<String, Integer> nextNumber = new HashMap<>();
+
+        DirectoryNames(Path directory) {
+            this.directory = directory;
+        }
+
+        synchronized String reserve(String fileName) {
+            if (taken == null) {
+                // Listed on first use, outside the map's lock
+                taken = list();
+            }
+            if (taken.add(key(fileName))) {
+                return fileName;
+            }
+            int number = nextNumber.getOrDefault(key(fileName), 1);
+            String candidate = FileOrganizer.numberedName(fileName, number);
+            while (!taken.add(key(candidate))) {
+                candidate = FileOrganizer.numberedName(fileName, ++number);
+            }
+            nextNumber.put(key(fileName), number + 1);
+            return candidate;
+        }
+
+        private Set<String> list() {
+            Set<String> names = new HashSet<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    names.add(key(entry.getFileName().toString()));
+                }
+            } catch (NoSuchFileException e) {
+                // Created by the run, so it starts empty
+            } catch (IOException e) {
+                // Moves into it will fail on their own rather than replace anything
+                LOGGER.log(Level.WARNING, "Cannot list " + directory, e);
+            }
+            return names;
+        }
+
+        private String key(String fileName) {
+            return caseInsensitive ? fileName.toLowerCase(Locale.ROOT) : fileName;
+        }
+    }
+}
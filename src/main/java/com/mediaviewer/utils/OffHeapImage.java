@@ -0,0 +1,179 @@
+package com.mediaviewer.utils;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decoded pixels in a direct buffer, shown by JavaFX without a heap copy.
+ *
+ * The pixels are premultiplied BGRA, the layout PixelBuffer shares with the
+ * renderer, so the JavaFX image wraps the buffer instead of copying it like
+ * SwingFXUtils does. The BufferedImage the pixels came from is garbage as
+ * soon as they are copied, leaving nothing pixel-sized on the heap.
+ *
+ * Instances are reference counted. Every holder that keeps the image past
+ * a method call retains it and closes it when done; the last close returns
+ * the buffer to its pool.
+ */
+public final class OffHeapImage implements AutoCloseable {
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer pixels;
+    private final PixelBufferPool pool;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private WritableImage image;
+
+    private OffHeapImage(int width, int height, ByteBuffer pixels, PixelBufferPool pool) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.pool = pool;
+    }
+
+    /**
+     * Copy an image into a buffer from the pool. Without a pool the buffer is
+     * left to the garbage collector, for images shared too widely to track.
+     */
+    public static OffHeapImage copyOf(BufferedImage source, PixelBufferPool pool) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int bytes = Math.multiplyExact(Math.multiplyExact(width, height), 4);
+        ByteBuffer buffer = pool != null
+            ? pool.acquire(bytes)
+            : ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        copyPixels(source, buffer);
+        return new OffHeapImage(width, height, buffer, pool);
+    }
+
+    /**
+     * Write an image into a buffer as premultiplied BGRA, row by row.
+     */
+    public static void copyPixels(BufferedImage source, ByteBuffer target) {
+        int width = source.getWidth();
+        // A little-endian int view turns ARGB ints into B, G, R, A bytes
+        IntBuffer out = target.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        int[] row = new int[width];
+        int type = source.getType();
+        for (int y = 0; y < source.getHeight(); y++) {
+            if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+                    || type == BufferedImage.TYPE_INT_ARGB_PRE) {
+                // Packed int rasters are read without per-pixel colour model calls
+                source.getRaster().getDataElements(0, y, width, 1, row);
+                if (type == BufferedImage.TYPE_INT_RGB) {
+                    for (int x = 0; x < width; x++) {
+                        row[x] |= 0xFF000000;
+                    }
+                } else if (type == BufferedImage.TYPE_INT_ARGB) {
+                    premultiply(row);
+                }
+            } else {
+                source.getRGB(0, y, width, 1, row, 0, width);
+                premultiply(row);
+            }
+            out.put(row);
+        }
+    }
+
+    private static void premultiply(int[] row) {
+        for (int x = 0; x < row.length; x++) {
+            int argb = row[x];
+            int alpha = argb >>> 24;
+            if (alpha == 255) {
+                continue;
+            }
+            if (alpha == 0) {
+                row[x] = 0;
+                continue;
+            }
+            int red = ((argb >> 16 & 0xFF) * alpha + 127) / 255;
+            int green = ((argb >> 8 & 0xFF) * alpha + 127) / 255;
+            int blue = ((argb & 0xFF) * alpha + 127) / 255;
+            row[x] = alpha << 24 | red << 16 | green << 8 | blue;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getByteCount() {
+        return pixels.capacity();
+    }
+
+    /**
+     * Read-only view of the premultiplied BGRA pixels.
+     */
+    public ByteBuffer getPixels() {
+        return pixels.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * The JavaFX image over the buffer, created on first use. Valid while this image is retained.
+     */
+    public synchronized Image getImage() {
+        if (image == null) {
+            PixelBuffer<ByteBuffer> buffer = new PixelBuffer<>(width, height, pixels,
+                                                               PixelFormat.getByteBgraPreInstance());
+            image = new WritableImage(buffer);
+        }
+        return image;
+    }
+
+    /**
+     * Take another reference.
+     * @return this image, or null if it was already released
+     */
+    public OffHeapImage retain() {
+        while (true) {
+            int count = references.get();
+            if (count == 0) {
+                return null;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Drop a reference. The last one hands the buffer back to the pool.
+     */
+    @Override
+    public void close() {
+        int count = references.decrementAndGet();
+        if (count < 0) {
+            throw new IllegalStateException("OffHeapImage released twice");
+        }
+        if (count > 0 || pool == null) {
+            return;
+        }
+        boolean shown;
+        synchronized (this) {
+            shown = image != null;
+        }
+        if (shown) {
+            // The renderer may still be reading the pixels for a frame in flight
+            Platform.runLater(() -> pool.release(pixels));
+        } else {
+            pool.release(pixels);
+        }
+    }
+
+    public boolean isReleased() {
+        return references.get() == 0;
+    }
+}
@@ -0,0 +1,465 @@
+package com.mediaviewer.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-ahead journal of one organize run, used to recover from a crash and to undo the run.
+ *
+ * Before anything moves, every intended move and every directory the run
+ * may create are written and forced to disk together. Completed moves are
+ * then appended in group commits, forced once per few hundred files or a
+ * fraction of a second rather than once per file, and the run ends with a
+ * commit marker. A crash can only lose the marks of the last group, so
+ * recovery checks the disk for unmarked moves of an uncommitted run and
+ * trusts the marks for the rest.
+ *
+ * Journals are kept under ~/.mediaviewer/journal, the newest few of them,
+ * so the last organize can be undone after a restart.
+ */
+public class OrganizeJournal implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(OrganizeJournal.class.getName());
+
+    private static final String HEADER = "MVJ1";
+    private static final String SUFFIX = ".journal";
+    // Finished journals kept for undo
+    private static final int KEEP_JOURNALS = 10;
+    // Group commit: marks are forced once this many are pending or this much time has passed
+    private static final int GROUP_COMMIT_RECORDS = 512;
+    private static final long GROUP_COMMIT_NANOS = 200_000_000L;
+
+    public enum State {
+        /** Moving, or interrupted while moving */
+        IN_PROGRESS,
+        /** Every move was tried */
+        COMMITTED,
+        /** Undoing, or interrupted while undoing */
+        UNDOING,
+        /** Undone */
+        ROLLED_BACK
+    }
+
+    private final Path file;
+    private final List<Path> directories;
+    private final List<BulkOrganizer.Move> moves;
+    private final BitSet done;
+    private final BitSet undone;
+    private final List<Path> createdDirectories;
+    private State state;
+    private boolean committed;
+
+    private FileChannel channel;
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingRecords;
+    private long lastForce = System.nanoTime();
+    private boolean writeFailed;
+
+    private OrganizeJournal(Path file, List<Path> directories, List<BulkOrganizer.Move> moves,
+                            BitSet done, BitSet undone, List<Path> createdDirectories,
+                            State state, boolean committed) {
+        this.file = file;
+        this.directories = Collections.unmodifiableList(directories);
+        this.moves = Collections.unmodifiableList(moves);
+        this.done = done;
+        this.undone = undone;
+        this.createdDirectories = createdDirectories;
+        this.state = state;
+        this.committed = committed;
+    }
+
+    public static Path getDefaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".mediaviewer", "journal");
+    }
+
+    /**
+     * Write the intents of a run and force them to disk, before any file is moved.
+     */
+    public static OrganizeJournal create(Path directory, BulkOrganizer.Plan plan) throws IOException {
+        Files.createDirectories(directory);
+        prune(directory);
+        Path file = directory.resolve("organize-" + System.currentTimeMillis() + SUFFIX);
+        for (int n = 1; Files.exists(file); n++) {
+            file = directory.resolve("organize-" + System.currentTimeMillis() + "-" + n + SUFFIX);
+        }
+
+        StringBuilder intents = new StringBuilder(HEADER).append('\n');
+        for (Path target : plan.getDirectories()) {
+            intents.append("P\t").append(escape(target.toString())).append('\n');
+        }
+        for (BulkOrganizer.Move move : plan.getMoves()) {
+            intents.append("M\t").append(move.getSize())
+                   .append('\t').append(escape(move.getSource().toString()))
+                   .append('\t').append(escape(move.getTarget().toString())).append('\n');
+        }
+
+        OrganizeJournal journal = new OrganizeJournal(file, new ArrayList<>(plan.getDirectories()),
+                                                      new ArrayList<>(plan.getMoves()),
+                                                      new BitSet(), new BitSet(), new ArrayList<>(),
+                                                      State.IN_PROGRESS, false);
+        journal.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        journal.write(intents);
+        journal.channel.force(true);
+        return journal;
+    }
+
+    /**
+     * Read a journal back. A last line torn by a crash is ignored.
+     */
+    public static OrganizeJournal open(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int complete = completeLength(bytes);
+        OrganizeJournal journal = parse(file, new String(bytes, 0, complete, StandardCharsets.UTF_8));
+        journal.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        // Appends go after the last complete line, dropping a torn one
+        journal.channel.truncate(complete);
+        journal.channel.position(complete);
+        return journal;
+    }
+
+    // Up to and including the last newline; a UTF-8 newline byte is never part of another character
+    private static int completeLength(byte[] bytes) {
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        return end;
+    }
+
+    // Read-only, for journals that may be in use
+    private static OrganizeJournal parse(Path file, String content) throws IOException {
+        String[] lines = content.split("\n", -1);
+        if (lines.length == 0 || !HEADER.equals(lines[0])) {
+            throw new IOException("Not an organize journal: " + file);
+        }
+        List<Path> directories = new ArrayList<>();
+        List<BulkOrganizer.Move> moves = new ArrayList<>();
+        BitSet done = new BitSet();
+        BitSet undone = new BitSet();
+        List<Path> created = new ArrayList<>();
+        State state = State.IN_PROGRESS;
+        boolean committed = false;
+        // The last element follows the last newline, so it is empty
+        for (int i = 1; i < lines.length - 1; i++) {
+            String[] fields = lines[i].split("\t", -1);
+            try {
+                switch (fields[0]) {
+                    case "P":
+                        directories.add(Paths.get(unescape(fields[1])));
+                        break;
+                    case "M":
+                        moves.add(new BulkOrganizer.Move(Paths.get(unescape(fields[2])),
+                                                         Paths.get(unescape(fields[3])),
+                                                         Long.parseLong(fields[1])));
+                        break;
+                    case "N":
+                        created.add(Paths.get(unescape(fields[1])));
+                        break;
+                    case "D":
+                        done.set(Integer.parseInt(fields[1]));
+                        break;
+                    case "U":
+                        undone.set(Integer.parseInt(fields[1]));
+                        break;
+                    case "C":
+                        state = State.COMMITTED;
+                        committed = true;
+                        break;
+                    case "X":
+                        state = State.UNDOING;
+                        break;
+                    case "R":
+                        state = State.ROLLED_BACK;
+                        break;
+                    default:
+                        LOGGER.warning("Skipping unknown journal record in " + file + ": " + lines[i]);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Skipping damaged journal record in " + file, e);
+            }
+        }
+        return new OrganizeJournal(file, directories, moves, done, undone, created, state, committed);
+    }
+
+    /**
+     * Runs a crash left moving or undoing, oldest first. Each must be rolled forward or back.
+     */
+    public static List<Path> findInterrupted(Path directory) {
+        List<Path> interrupted = new ArrayList<>();
+        for (Path file : list(directory)) {
+            State state = readState(file);
+            if (state == State.IN_PROGRESS || state == State.UNDOING) {
+                interrupted.add(file);
+            }
+        }
+        return interrupted;
+    }
+
+    /**
+     * @return the newest finished run that has not been undone, or null
+     */
+    public static Path findLastCommitted(Path directory) {
+        List<Path> files = list(directory);
+        for (int i = files.size() - 1; i >= 0; i--) {
+            State state = readState(files.get(i));
+            if (state == State.COMMITTED) {
+                return files.get(i);
+            }
+            if (state != State.ROLLED_BACK) {
+                // An interrupted run has to be recovered first
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // Journals oldest first, by name
+    private static List<Path> list(Path directory) {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : entries) {
+                files.add(entry);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to list organize journals in " + directory, e);
+        }
+        files.sort((a, b) -> {
+            long difference = createdMillis(a) - createdMillis(b);
+            return difference != 0 ? Long.signum(difference) : a.compareTo(b);
+        });
+        return files;
+    }
+
+    private static long createdMillis(Path file) {
+        String name = file.getFileName().toString();
+        String stamp = name.substring("organize-".length(), name.length() - SUFFIX.length());
+        int dash = stamp.indexOf('-');
+        try {
+            return Long.parseLong(dash >= 0 ? stamp.substring(0, dash) : stamp);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static State readState(Path file) {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            return parse(file, new String(bytes, 0, completeLength(bytes), StandardCharsets.UTF_8)).getState();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read organize journal " + file, e);
+            return null;
+        }
+    }
+
+    // Finished journals beyond the newest few are no longer offered for undo
+    private static void prune(Path directory) {
+        List<Path> files = list(directory);
+        for (int i = 0; i < files.size() - (KEEP_JOURNALS - 1); i++) {
+            State state = readState(files.get(i));
+            if (state == State.COMMITTED || state == State.ROLLED_BACK) {
+                try {
+                    Files.delete(files.get(i));
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to delete old journal " + files.get(i), e);
+                }
+            }
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the directories the run may have created, parents first
+     */
+    public List<Path> getDirectories() {
+        return directories;
+    }
+
+    public List<BulkOrganizer.Move> getMoves() {
+        return moves;
+    }
+
+    /**
+     * @return true once every move of the run was tried, even if it was undone since
+     */
+    public synchronized boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return the directories the run actually created, parents first
+     */
+    public synchronized List<Path> getCreatedDirectories() {
+        return new ArrayList<>(createdDirectories);
+    }
+
+    /**
+     * Record directories the run created, forced before any file is moved into them.
+     */
+    public synchronized void recordCreatedDirectories(List<Path> created) throws IOException {
+        if (created.isEmpty()) {
+            return;
+        }
+        for (Path directory : created) {
+            pending.append("N\t").append(escape(directory.toString())).append('\n');
+        }
+        createdDirectories.addAll(created);
+        flush();
+    }
+
+    public synchronized boolean isDone(int index) {
+        return done.get(index);
+    }
+
+    public synchronized boolean isUndone(int index) {
+        return undone.get(index);
+    }
+
+    /**
+     * Mark a move as done. Forced with the rest of its group.
+     */
+    public void recordDone(int index) {
+        record("D", index, done);
+    }
+
+    /**
+     * Mark a move as undone. Forced with the rest of its group.
+     */
+    public void recordUndone(int index) {
+        record("U", index, undone);
+    }
+
+    private synchronized void record(String type, int index, BitSet marks) {
+        marks.set(index);
+        pending.append(type).append('\t').append(index).append('\n');
+        pendingRecords++;
+        if (pendingRecords >= GROUP_COMMIT_RECORDS || System.nanoTime() - lastForce >= GROUP_COMMIT_NANOS) {
+            try {
+                flush();
+            } catch (IOException e) {
+                // Recovery falls back to checking the disk for unmarked moves
+                if (!writeFailed) {
+                    LOGGER.log(Level.WARNING, "Failed to write organize journal " + file, e);
+                    writeFailed = true;
+                }
+            }
+        }
+    }
+
+    public void markCommitted() throws IOException {
+        mark("C", State.COMMITTED);
+        synchronized (this) {
+            committed = true;
+        }
+    }
+
+    public void markUndoing() throws IOException {
+        mark("X", State.UNDOING);
+    }
+
+    public void markRolledBack() throws IOException {
+        mark("R", State.ROLLED_BACK);
+    }
+
+    private synchronized void mark(String type, State newState) throws IOException {
+        pending.append(type).append('\n');
+        flush();
+        state = newState;
+    }
+
+    private void flush() throws IOException {
+        if (pending.length() > 0) {
+            write(pending);
+            pending.setLength(0);
+            pendingRecords = 0;
+        }
+        channel.force(false);
+        lastForce = System.nanoTime();
+    }
+
+    private void write(CharSequence records) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(records.toString());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Force pending marks and close the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (pendingRecords > 0) {
+                flush();
+            }
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // Paths may contain any character but NUL, so tabs and newlines are escaped
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String value) {
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                unescaped.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            unescaped.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+        }
+        return unescaped.toString();
+    }
+}
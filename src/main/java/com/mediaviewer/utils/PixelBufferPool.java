@@ -0,0 +1,166 @@
+package com.mediaviewer.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of direct byte buffers holding decoded pixels outside the Java heap.
+ *
+ * Buffers are pooled by exact size, since images from the same camera or
+ * scanner decode to the same dimensions. Idle buffers beyond the pool budget
+ * are freed right away instead of waiting for the garbage collector to find
+ * their owners.
+ *
+ * The budget defaults to 64 MB and can be set with the
+ * mediaviewer.pixelPool.maxBytes system property.
+ */
+public class PixelBufferPool {
+    private static final Logger LOGGER = Logger.getLogger(PixelBufferPool.class.getName());
+
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final PixelBufferPool SHARED =
+        new PixelBufferPool(Long.getLong("mediaviewer.pixelPool.maxBytes", DEFAULT_MAX_BYTES));
+
+    // sun.misc.Unsafe.invokeCleaner releases a direct buffer's memory immediately
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Direct buffers will be freed by the garbage collector", e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final long maxPooledBytes;
+    private final Map<Integer, ArrayDeque<ByteBuffer>> idle = new HashMap<>();
+    private long pooledBytes;
+
+    private long allocations;
+    private long reuses;
+    private long frees;
+
+    public PixelBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    public static PixelBufferPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Get a direct buffer of exactly the given capacity, reusing an idle one if possible.
+     * Reused buffers hold stale pixels.
+     */
+    public synchronized ByteBuffer acquire(int bytes) {
+        ArrayDeque<ByteBuffer> buffers = idle.get(bytes);
+        if (buffers != null && !buffers.isEmpty()) {
+            ByteBuffer buffer = buffers.pop();
+            if (buffers.isEmpty()) {
+                idle.remove(bytes);
+            }
+            pooledBytes -= bytes;
+            reuses++;
+            buffer.clear();
+            return buffer;
+        }
+        allocations++;
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Return a buffer from {@link #acquire}. The caller must not touch it afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        synchronized (this) {
+            if (pooledBytes + buffer.capacity() <= maxPooledBytes) {
+                idle.computeIfAbsent(buffer.capacity(), size -> new ArrayDeque<>()).push(buffer);
+                pooledBytes += buffer.capacity();
+                return;
+            }
+            frees++;
+        }
+        free(buffer);
+    }
+
+    /**
+     * Free every idle buffer.
+     */
+    public void trim() {
+        ArrayDeque<ByteBuffer> released = new ArrayDeque<>();
+        synchronized (this) {
+            for (ArrayDeque<ByteBuffer> buffers : idle.values()) {
+                released.addAll(buffers);
+            }
+            frees += released.size();
+            idle.clear();
+            pooledBytes = 0;
+        }
+        for (ByteBuffer buffer : released) {
+            free(buffer);
+        }
+    }
+
+    /**
+     * Release a direct buffer's memory now. Falls back to the garbage collector
+     * when the JDK does not allow it.
+     */
+    public static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Slices and duplicates cannot be freed, their parent is
+            LOGGER.log(Level.FINE, "Could not free direct buffer", e);
+        }
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    public synchronized long getAllocationCount() {
+        return allocations;
+    }
+
+    public synchronized long getReuseCount() {
+        return reuses;
+    }
+
+    public synchronized long getFreeCount() {
+        return frees;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PixelBufferPool{" +
+                "pooled=" + pooledBytes + "/" + maxPooledBytes +
+                ", allocations=" + allocations +
+                ", reuses=" + reuses +
+                ", frees=" + frees +
+                '}';
+    }
+}
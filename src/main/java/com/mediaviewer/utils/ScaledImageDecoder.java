@@ -0,0 +1,141 @@
+package com.mediaviewer.utils;
+
+import net.coobird.thumbnailator.Thumbnails;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decodes images straight to a size close to the requested one.
+ *
+ * The source dimensions come from the image header, and the ImageIO reader
+ * is told to keep only every n-th pixel of every n-th row while decoding, so
+ * the full-resolution raster is never allocated. Peak memory is proportional
+ * to the output size rather than the source size, which lets even very large
+ * TIFF and PNG files get thumbnails.
+ *
+ * Every decode waits for room in the shared DecodeGovernor before its
+ * rasters are allocated.
+ */
+public class ScaledImageDecoder {
+    private static final Logger LOGGER = Logger.getLogger(ScaledImageDecoder.class.getName());
+
+    // Decode to about twice the target size so the final resize can smooth out subsampling aliasing
+    private static final int OVERSAMPLING = 2;
+
+    /**
+     * Decode an image to fit within the given box, honouring its EXIF orientation.
+     * @return the scaled image, or null if no ImageIO reader can decode the file
+     */
+    public static BufferedImage decode(File file, int width, int height) {
+        try {
+            int orientation = ExifThumbnailExtractor.readOrientation(file);
+
+            // Rotated images are stored sideways, so fit the box in stored orientation
+            boolean swapped = orientation >= 5;
+            BufferedImage scaled = decodeStored(file, swapped ? height : width, swapped ? width : height, null);
+            return scaled != null ? ExifThumbnailExtractor.applyOrientation(scaled, orientation) : null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to decode " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Decode an image to fit within the given box, as stored (no EXIF rotation).
+     * @param progressListener told about decoding progress, may be null. It can
+     *        stop the decode with ImageReader.abort(), the result is then incomplete.
+     * @return the scaled image, or null if no ImageIO reader can decode the file
+     */
+    public static BufferedImage decodeStored(File file, int width, int height,
+                                             IIOReadProgressListener progressListener) throws IOException {
+        return decodeStored(file, width, height, progressListener, null);
+    }
+
+    /**
+     * Decode as {@link #decodeStored(File, int, int, IIOReadProgressListener)}, also
+     * reporting the passes of progressive and interlaced images as they complete.
+     * @param updateListener sees the subsampled destination image after each pass, may be null
+     */
+    public static BufferedImage decodeStored(File file, int width, int height,
+                                             IIOReadProgressListener progressListener,
+                                             IIOReadUpdateListener updateListener) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                if (progressListener != null) {
+                    reader.addIIOReadProgressListener(progressListener);
+                }
+                if (updateListener != null) {
+                    reader.addIIOReadUpdateListener(updateListener);
+                }
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = subsamplingFor(sourceWidth, sourceHeight, width, height);
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                // The subsampled raster, plus the resize's working copy and result
+                long estimate = DecodeGovernor.estimateBytes(reader, subsampling) + 2L * width * height * 4;
+                DecodeGovernor.Permit permit = acquire(estimate);
+                try {
+                    BufferedImage decoded = reader.read(0, param);
+                    if (decoded == null) {
+                        return null;
+                    }
+                    return Thumbnails.of(decoded).size(width, height).asBufferedImage();
+                } finally {
+                    permit.close();
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Wait for room in the shared decode budget, as an IOException if interrupted.
+     */
+    static DecodeGovernor.Permit acquire(long bytes) throws IOException {
+        try {
+            return DecodeGovernor.getShared().acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to decode");
+        }
+    }
+
+    /**
+     * Subsampling factor for decoding a source of the given size into a box,
+     * leaving the decoded image at least twice the size it is shown at.
+     */
+    public static int subsamplingFor(int sourceWidth, int sourceHeight, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return 1;
+        }
+        // The image fits the box along whichever side needs the larger reduction
+        double reduction = Math.max((double) sourceWidth / width, (double) sourceHeight / height);
+        return Math.max(1, (int) (reduction / OVERSAMPLING));
+    }
+}
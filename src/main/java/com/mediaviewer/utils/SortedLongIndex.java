@@ -0,0 +1,213 @@
+package com.mediaviewer.utils;
+
+/**
+ * Secondary index over a primitive long column (file size, modification time, ...).
+ * Catalog IDs are kept sorted by their value so range queries are two binary
+ * searches and "largest N" is a walk from the end of the array.
+ */
+public class SortedLongIndex {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final long[] values; // sorted ascending
+    private final int[] ids;     // catalog ID for each position in values
+
+    /**
+     * Build an index over a column where column[id] is the value for catalog ID id.
+     * @param column The column to index, it is not modified
+     */
+    public SortedLongIndex(long[] column) {
+        this.values = column.clone();
+        this.ids = new int[column.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        sort(0, values.length - 1);
+    }
+
+    /**
+     * Contiguous run of index positions whose values fall inside a queried range.
+     */
+    public class Range {
+        private final int from; // inclusive position
+        private final int to;   // exclusive position
+
+        private Range(int from, int to) {
+            this.from = from;
+            this.to = Math.max(from, to);
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        public boolean isEmpty() {
+            return to == from;
+        }
+
+        public int idAt(int i) {
+            return ids[from + i];
+        }
+
+        public int[] ids() {
+            int[] result = new int[size()];
+            System.arraycopy(ids, from, result, 0, result.length);
+            return result;
+        }
+    }
+
+    /**
+     * All IDs whose value lies in [min, max], in ascending value order.
+     */
+    public Range range(long min, long max) {
+        if (min > max) {
+            return new Range(0, 0);
+        }
+        return new Range(lowerBound(min), upperBound(max));
+    }
+
+    public Range atLeast(long min) {
+        return new Range(lowerBound(min), values.length);
+    }
+
+    public Range atMost(long max) {
+        return new Range(0, upperBound(max));
+    }
+
+    /**
+     * The n IDs with the largest values, largest first. No sorting is performed.
+     */
+    public int[] largest(int n) {
+        int count = Math.min(Math.max(n, 0), ids.length);
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = ids[ids.length - 1 - i];
+        }
+        return result;
+    }
+
+    /**
+     * The n IDs with the smallest values, smallest first.
+     */
+    public int[] smallest(int n) {
+        int count = Math.min(Math.max(n, 0), ids.length);
+        int[] result = new int[count];
+        System.arraycopy(ids, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * ID at a position of the sorted order, position 0 being the smallest value.
+     */
+    public int idAt(int position) {
+        return ids[position];
+    }
+
+    public long valueAt(int position) {
+        return values[position];
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public long min() {
+        return values.length == 0 ? 0 : values[0];
+    }
+
+    public long max() {
+        return values.length == 0 ? 0 : values[values.length - 1];
+    }
+
+    // First position with value >= key
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First position with value > key
+    private int upperBound(long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Quicksort of the parallel arrays; ties are broken by ID so the order is stable
+    private void sort(int left, int right) {
+        while (right - left > INSERTION_SORT_THRESHOLD) {
+            int mid = (left + right) >>> 1;
+            if (less(mid, left)) swap(mid, left);
+            if (less(right, left)) swap(right, left);
+            if (less(right, mid)) swap(right, mid);
+            long pivotValue = values[mid];
+            int pivotId = ids[mid];
+
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (compare(values[i], ids[i], pivotValue, pivotId) < 0) i++;
+                while (compare(values[j], ids[j], pivotValue, pivotId) > 0) j--;
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half to bound stack depth
+            if (j - left < right - i) {
+                sort(left, j);
+                left = i;
+            } else {
+                sort(i, right);
+                right = j;
+            }
+        }
+        for (int i = left + 1; i <= right; i++) {
+            long value = values[i];
+            int id = ids[i];
+            int j = i - 1;
+            while (j >= left && compare(values[j], ids[j], value, id) > 0) {
+                values[j + 1] = values[j];
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            values[j + 1] = value;
+            ids[j + 1] = id;
+        }
+    }
+
+    private boolean less(int a, int b) {
+        return compare(values[a], ids[a], values[b], ids[b]) < 0;
+    }
+
+    private static int compare(long valueA, int idA, long valueB, int idB) {
+        int result = Long.compare(valueA, valueB);
+        return result != 0 ? result : Integer.compare(idA, idB);
+    }
+
+    private void swap(int a, int b) {
+        long value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+    }
+}
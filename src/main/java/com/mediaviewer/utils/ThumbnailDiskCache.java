@@ -0,0 +1,163 @@
+package com.mediaviewer.utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent thumbnail cache.
+ *
+ * Entries are keyed by a hash of the source's absolute path, size, modification
+ * time and the requested dimensions, so an edited or replaced source simply
+ * misses and its stale entry ages out. Blobs are stored as small JPEGs (PNG when
+ * the thumbnail has transparency) in a {@link ThumbnailPackStore}, a handful of
+ * memory-mapped pack files rather than one file per thumbnail.
+ *
+ * Total size is capped; least recently used entries are evicted first and the
+ * pack store reclaims their space by compaction.
+ */
+public class ThumbnailDiskCache {
+    private static final Logger LOGGER = Logger.getLogger(ThumbnailDiskCache.class.getName());
+
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private static ThumbnailDiskCache defaultCache;
+
+    private final long maxBytes;
+    private final ThumbnailPackStore store;
+
+    public ThumbnailDiskCache(Path directory, long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.store = new ThumbnailPackStore(directory);
+    }
+
+    /**
+     * Shared cache under ~/.mediaviewer/thumbnails. The size cap can be set with
+     * the mediaviewer.thumbnailCache.maxBytes system property.
+     */
+    public static synchronized ThumbnailDiskCache getDefault() {
+        if (defaultCache == null) {
+            Path directory = Paths.get(System.getProperty("user.home"), ".mediaviewer", "thumbnails");
+            long maxBytes = Long.getLong("mediaviewer.thumbnailCache.maxBytes", DEFAULT_MAX_BYTES);
+            defaultCache = new ThumbnailDiskCache(directory, maxBytes);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Cache key for a thumbnail of the given source file at the requested size.
+     */
+    public static String keyFor(File source, int width, int height) {
+        return keyFor(source, width + "x" + height);
+    }
+    
+    /**
+     * Cache key for a variant (e.g. a size or a multi-size pyramid) of the given source file.
+     */
+    public static String keyFor(File source, String variant) {
+        String identity = source.getAbsolutePath() + '\0' + source.length() + '\0'
+            + source.lastModified() + '\0' + variant;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Read a cached blob.
+     * @return the encoded thumbnail, or null on a miss
+     */
+    public byte[] get(String key) {
+        return store.get(key);
+    }
+
+    public boolean contains(String key) {
+        return store.contains(key);
+    }
+
+    /**
+     * Store a blob, evicting least recently used entries if the cap is exceeded.
+     */
+    public void put(String key, byte[] data) {
+        if (data == null || data.length > maxBytes) {
+            return;
+        }
+        synchronized (store) {
+            try {
+                store.put(key, data);
+                while (store.getLiveBytes() > maxBytes) {
+                    String eldest = store.eldestKey();
+                    if (eldest == null || eldest.equals(key)) {
+                        break;
+                    }
+                    store.remove(eldest);
+                }
+                store.compactIfNeeded();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to cache thumbnail " + key, e);
+            }
+        }
+    }
+
+    public long getTotalBytes() {
+        return store.getLiveBytes();
+    }
+
+    public int getEntryCount() {
+        return store.size();
+    }
+
+    /**
+     * Save the pack index, so the next start does not have to recover recent entries.
+     */
+    public void flush() {
+        store.flush();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Encode a thumbnail as a compact blob: JPEG, or PNG when it has transparency.
+     */
+    public static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+        if (image.getColorModel().hasAlpha()) {
+            ImageIO.write(image, "png", output);
+            return output.toByteArray();
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+}
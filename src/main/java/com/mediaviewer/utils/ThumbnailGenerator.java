@@ -1,94 +1,45 @@
 package com.mediaviewer.utils;
 
 import javafx.scene.image.Image;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
-import net.coobird.thumbnailator.Thumbnails;
 import javafx.embed.swing.SwingFXUtils;
+import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
+/**
+ * JavaFX adapter over {@link ThumbnailPipeline}.
+ */
 public class ThumbnailGenerator {
     
-    // Thread pool for thumbnail generation to prevent blocking UI
-    private static final ExecutorService thumbnailExecutor = Executors.newFixedThreadPool(
-        Runtime.getRuntime().availableProcessors()
-    );
-    
+    // Runs on the shared scheduler so UI requests for the same thumbnail are coalesced
     public static CompletableFuture<Image> generateThumbnailAsync(File imageFile, int width, int height) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // For very large files, we need to be more careful about memory usage
-                long fileSize = imageFile.length();
-                
-                // If file is larger than 100MB, use more aggressive compression
-                double quality = fileSize > 100 * 1024 * 1024 ? 0.5 : 0.7;
-                
-                // Use Thumbnailator library for better thumbnail generation
-                BufferedImage thumbnail = Thumbnails.of(imageFile)
-                    .size(width, height)
-                    .outputQuality(quality) // Adjust quality based on file size
-                    .useExifOrientation(true) // Handle image orientation
-                    .asBufferedImage();
-                
-                return SwingFXUtils.toFXImage(thumbnail, null);
-            } catch (IOException e) {
-                // Return null if thumbnail generation fails
-                return null;
-            } catch (OutOfMemoryError e) {
-                // If we run out of memory, try with even lower quality
-                try {
-                    BufferedImage thumbnail = Thumbnails.of(imageFile)
-                        .size(width, height)
-                        .outputQuality(0.3) // Very low quality to prevent OOM
-                        .useExifOrientation(true)
-                        .asBufferedImage();
-                    
-                    return SwingFXUtils.toFXImage(thumbnail, null);
-                } catch (Exception ex) {
-                    return null;
-                }
-            }
-        }, thumbnailExecutor);
+        return ThumbnailScheduler.getShared().submit(
+            new ImageMemoryCache.Key(imageFile.toPath(), width, height),
+            () -> generateThumbnail(imageFile, width, height));
     }
     
+    /**
+     * Thumbnail for display in a box of the given size. It is served from the
+     * pyramid level that covers the box, so it may be somewhat larger.
+     */
     public static Image generateThumbnail(File imageFile, int width, int height) {
-        try {
-            // For very large files, we need to be more careful about memory usage
-            long fileSize = imageFile.length();
-            
-            // If file is larger than 100MB, use more aggressive compression
-            double quality = fileSize > 100 * 1024 * 1024 ? 0.5 : 0.7;
-            
-            // Use Thumbnailator library for better thumbnail generation
-            BufferedImage thumbnail = Thumbnails.of(imageFile)
-                .size(width, height)
-                .outputQuality(quality) // Adjust quality based on file size
-                .useExifOrientation(true) // Handle image orientation
-                .asBufferedImage();
-            
-            return SwingFXUtils.toFXImage(thumbnail, null);
-        } catch (IOException e) {
-            // Return null if thumbnail generation fails
-            return null;
-        } catch (OutOfMemoryError e) {
-            // If we run out of memory, try with even lower quality
-            try {
-                BufferedImage thumbnail = Thumbnails.of(imageFile)
-                    .size(width, height)
-                    .outputQuality(0.3) // Very low quality to prevent OOM
-                    .useExifOrientation(true)
-                    .asBufferedImage();
-                
-                return SwingFXUtils.toFXImage(thumbnail, null);
-            } catch (Exception ex) {
-                return null;
+        ThumbnailPipeline pipeline = ThumbnailPipeline.getDefault();
+        int size = Math.max(width, height);
+        
+        // Cached levels go straight to the FX decoder, no BufferedImage round trip
+        byte[] cached = pipeline.getCached(imageFile, size);
+        if (cached != null) {
+            Image image = new Image(new ByteArrayInputStream(cached));
+            if (!image.isError()) {
+                return image;
             }
         }
+        
+        // Generated pixels move to a direct buffer; the BufferedImage is garbage right after
+        BufferedImage thumbnail = pipeline.generate(imageFile, size);
+        return thumbnail != null ? OffHeapImage.copyOf(thumbnail, null).getImage() : null;
     }
     
     // Method to load full-size image with proper scaling for display
@@ -106,8 +57,9 @@ public class ThumbnailGenerator {
     }
     
     public static CompletableFuture<Image> generateVideoThumbnailAsync(int width, int height) {
-        return CompletableFuture.supplyAsync(() -> createDefaultIcon(width, height, Color.RED), 
-                                           thumbnailExecutor);
+        return ThumbnailScheduler.getShared().submit(
+            new ImageMemoryCache.Key("video-icon", width, height),
+            () -> generateVideoThumbnail(width, height));
     }
     
     public static Image generateVideoThumbnail(int width, int height) {
@@ -120,15 +72,14 @@ public class ThumbnailGenerator {
         return createDefaultIcon(width, height, Color.ORANGE);
     }
     
+    // Drawn off the FX thread with Java2D, so no scene graph snapshot is needed
     private static Image createDefaultIcon(int width, int height, Color color) {
-        // Create a simple colored rectangle as placeholder
-        Rectangle rect = new Rectangle(width, height);
-        rect.setFill(color);
-        return rect.snapshot(null, null);
+        return SwingFXUtils.toFXImage(ThumbnailPipeline.createIcon(width, height, color), null);
     }
     
     // Shutdown method for cleanup
     public static void shutdown() {
-        thumbnailExecutor.shutdown();
+        ThumbnailScheduler.getShared().shutdown();
+        ThumbnailDiskCache.getDefault().flush();
     }
-}
\ No newline at end of file
+}
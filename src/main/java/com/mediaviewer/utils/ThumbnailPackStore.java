@@ -0,0 +1,586 @@
+package com.mediaviewer.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Key-value store for small blobs, packed into a few large files.
+ *
+ * Blobs are appended to segment files (segment-NNNNNN.pack) and located
+ * through an in-memory index of key to (segment, offset, length). Segments
+ * are read through memory mappings, so a lookup costs a page fault rather
+ * than a file open. Every record carries its key and a CRC of its data:
+ * records appended after the index was last saved, or all of them if the
+ * index is lost or corrupt, are recovered by scanning the segments, and a
+ * torn record at the end of a segment is cut off. Removing a blob appends a
+ * tombstone record (data length -1), so a scan does not bring it back.
+ *
+ * Removed and replaced blobs leave dead space behind; once it outweighs the
+ * live data the live records are copied into fresh segments. Readers may still
+ * hold mappings of the old segments, and a mapped file cannot be deleted on
+ * every platform, so an old segment that resists deletion is retired: it is
+ * retried at the next compaction and the next open, skipped when the store
+ * is scanned, and its number is never handed out again.
+ *
+ * The index is kept in access order, least recently used first, and that
+ * order is saved with it.
+ */
+public class ThumbnailPackStore {
+    private static final Logger LOGGER = Logger.getLogger(ThumbnailPackStore.class.getName());
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final int RECORD_MAGIC = 0x4D565452; // "MVTR"
+    private static final int INDEX_MAGIC = 0x4D565449; // "MVTI"
+    private static final int INDEX_VERSION = 1;
+    private static final String INDEX_FILE = "index.dat";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".pack";
+    // Record header: magic, key length, data length, data CRC; the key follows, then the data
+    private static final int HEADER_BYTES = 4 + 2 + 4 + 4;
+    // Data length of a record that removes its key
+    private static final int TOMBSTONE_LENGTH = -1;
+    // Save the index after this many writes, recovery covers anything newer
+    private static final int SAVE_INTERVAL = 256;
+    // Compact once dead space exceeds both the live data and this much
+    private static final long MIN_COMPACTION_BYTES = 8L * 1024 * 1024;
+
+    private final Path directory;
+    private final long segmentBytes;
+
+    // Access-ordered: iteration starts at the least recently used key
+    private final LinkedHashMap<String, Location> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private final TreeMap<Integer, Long> segmentLengths = new TreeMap<>();
+    private final Map<Integer, MappedByteBuffer> mappings = new LinkedHashMap<>();
+    // Compacted away, but not deleted yet
+    private final TreeSet<Integer> retiredSegments = new TreeSet<>();
+    private FileChannel activeChannel;
+    private int activeSegment;
+    private long liveBytes;
+    private long deadBytes;
+    private int unsavedWrites;
+    private boolean loaded;
+
+    public ThumbnailPackStore(Path directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public ThumbnailPackStore(Path directory, long segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * @return a copy of the blob, or null if the key is not stored
+     */
+    public byte[] get(String key) {
+        ByteBuffer mapping;
+        Location location;
+        synchronized (this) {
+            ensureLoaded();
+            location = index.get(key); // Also marks the key as most recently used
+            if (location == null) {
+                return null;
+            }
+            try {
+                mapping = mapping(location.segment, location.dataOffset + location.length);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to map thumbnail segment " + location.segment, e);
+                return null;
+            }
+        }
+        // Copy outside the lock; the mapping stays valid even if compaction deletes the segment
+        byte[] data = new byte[location.length];
+        mapping.position((int) location.dataOffset);
+        mapping.get(data);
+        return data;
+    }
+
+    public synchronized boolean contains(String key) {
+        ensureLoaded();
+        return index.containsKey(key);
+    }
+
+    /**
+     * Append a blob, replacing any previous blob stored under the key.
+     */
+    public synchronized void put(String key, byte[] data) throws IOException {
+        ensureLoaded();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long offset = append(keyBytes, data);
+
+        Location previous = index.put(key, new Location(activeSegment, offset,
+                                                        offset + HEADER_BYTES + keyBytes.length, data.length));
+        if (previous != null) {
+            removed(previous);
+        }
+        liveBytes += data.length;
+
+        if (++unsavedWrites >= SAVE_INTERVAL) {
+            saveIndex();
+        }
+    }
+
+    /**
+     * @return true if the key was stored
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        ensureLoaded();
+        if (!index.containsKey(key)) {
+            return false;
+        }
+        // The tombstone goes first, so a failed write leaves the blob stored rather than half removed
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        append(keyBytes, null);
+        deadBytes += HEADER_BYTES + keyBytes.length;
+
+        removed(index.remove(key));
+        if (++unsavedWrites >= SAVE_INTERVAL) {
+            saveIndex();
+        }
+        return true;
+    }
+
+    /**
+     * @return the least recently used key, or null if the store is empty
+     */
+    public synchronized String eldestKey() {
+        ensureLoaded();
+        Iterator<String> keys = index.keySet().iterator();
+        return keys.hasNext() ? keys.next() : null;
+    }
+
+    /**
+     * Copy the live records into fresh segments if dead space outweighs them.
+     */
+    public synchronized void compactIfNeeded() throws IOException {
+        ensureLoaded();
+        if (deadBytes > MIN_COMPACTION_BYTES && deadBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Copy every live record, in recency order, into new segments and delete the old ones.
+     */
+    public synchronized void compact() throws IOException {
+        ensureLoaded();
+        deleteRetiredSegments();
+        List<Integer> oldSegments = new ArrayList<>(segmentLengths.keySet());
+        List<Map.Entry<String, Location>> live = new ArrayList<>(index.entrySet());
+
+        closeActiveChannel();
+        int firstNewSegment = nextSegment();
+        startSegment(firstNewSegment);
+
+        // Copy record by record; the index is only switched over once everything is written
+        Map<String, Location> relocated = new LinkedHashMap<>();
+        for (Map.Entry<String, Location> entry : live) {
+            Location location = entry.getValue();
+            long recordBytes = location.dataOffset - location.recordOffset + location.length;
+            ByteBuffer record = mapping(location.segment, location.recordOffset + recordBytes).duplicate();
+            record.position((int) location.recordOffset).limit((int) (location.recordOffset + recordBytes));
+
+            FileChannel channel = activeChannel(recordBytes);
+            long offset = segmentLengths.get(activeSegment);
+            while (record.hasRemaining()) {
+                channel.write(record, offset + record.position() - location.recordOffset);
+            }
+            segmentLengths.put(activeSegment, offset + recordBytes);
+            relocated.put(entry.getKey(), new Location(activeSegment, offset,
+                                                       offset + (location.dataOffset - location.recordOffset),
+                                                       location.length));
+        }
+        activeChannel.force(false);
+
+        index.clear();
+        index.putAll(relocated);
+        for (Integer segment : oldSegments) {
+            segmentLengths.remove(segment);
+        }
+        deadBytes = 0;
+        saveIndex();
+
+        // The new index no longer refers to the old segments, so they can go once nothing maps them
+        for (Integer segment : oldSegments) {
+            mappings.remove(segment);
+            retiredSegments.add(segment);
+        }
+        deleteRetiredSegments();
+        LOGGER.log(Level.FINE, "Compacted thumbnail packs into segments from " + firstNewSegment);
+    }
+
+    /**
+     * Persist the index and recency order.
+     */
+    public synchronized void flush() {
+        if (loaded && unsavedWrites > 0) {
+            saveIndex();
+        }
+    }
+
+    public synchronized void close() {
+        flush();
+        closeActiveChannel();
+        mappings.clear();
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return index.size();
+    }
+
+    /**
+     * Total size of the stored blobs, without record headers or dead space.
+     */
+    public synchronized long getLiveBytes() {
+        ensureLoaded();
+        return liveBytes;
+    }
+
+    public synchronized long getDeadBytes() {
+        ensureLoaded();
+        return deadBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        ensureLoaded();
+        return segmentLengths.size();
+    }
+
+    // Append a record to the active segment, a tombstone if data is null, and return its offset
+    private long append(byte[] keyBytes, byte[] data) throws IOException {
+        int length = data != null ? data.length : 0;
+        long recordBytes = HEADER_BYTES + keyBytes.length + (long) length;
+        FileChannel channel = activeChannel(recordBytes);
+
+        CRC32 crc = new CRC32();
+        if (data != null) {
+            crc.update(data);
+        }
+        ByteBuffer record = ByteBuffer.allocate((int) recordBytes);
+        record.putInt(RECORD_MAGIC).putShort((short) keyBytes.length)
+              .putInt(data != null ? length : TOMBSTONE_LENGTH).putInt((int) crc.getValue()).put(keyBytes);
+        if (data != null) {
+            record.put(data);
+        }
+        record.flip();
+
+        long offset = segmentLengths.get(activeSegment);
+        while (record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+        segmentLengths.put(activeSegment, offset + recordBytes);
+        return offset;
+    }
+
+    private void removed(Location location) {
+        liveBytes -= location.length;
+        deadBytes += location.dataOffset - location.recordOffset + location.length;
+    }
+
+    private FileChannel activeChannel(long recordBytes) throws IOException {
+        if (activeChannel == null || !activeChannel.isOpen()) {
+            if (segmentLengths.isEmpty()) {
+                startSegment(nextSegment());
+            } else {
+                activeSegment = segmentLengths.lastKey();
+                activeChannel = FileChannel.open(segmentPath(activeSegment),
+                                                 StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+        }
+        long length = segmentLengths.get(activeSegment);
+        if (length > 0 && length + recordBytes > segmentBytes) {
+            closeActiveChannel();
+            startSegment(nextSegment());
+        }
+        return activeChannel;
+    }
+
+    // Above every segment in use or retired, so a file that may still be mapped is never truncated
+    private int nextSegment() {
+        int last = segmentLengths.isEmpty() ? 0 : segmentLengths.lastKey();
+        return Math.max(last, retiredSegments.isEmpty() ? 0 : retiredSegments.last()) + 1;
+    }
+
+    private void deleteRetiredSegments() {
+        Iterator<Integer> segments = retiredSegments.iterator();
+        while (segments.hasNext()) {
+            Path path = segmentPath(segments.next());
+            try {
+                Files.deleteIfExists(path);
+                segments.remove();
+            } catch (IOException e) {
+                // Typically still mapped by a reader on Windows; the mapping goes with the next GC
+                LOGGER.log(Level.FINE, "Cannot delete retired thumbnail segment " + path + " yet", e);
+            }
+        }
+    }
+
+    private void startSegment(int segment) throws IOException {
+        Files.createDirectories(directory);
+        activeSegment = segment;
+        activeChannel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        segmentLengths.put(segment, 0L);
+    }
+
+    private void closeActiveChannel() {
+        if (activeChannel != null) {
+            try {
+                activeChannel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close thumbnail segment", e);
+            }
+            activeChannel = null;
+        }
+    }
+
+    // Map a segment, re-mapping the active one when the record lies past the current mapping
+    private ByteBuffer mapping(int segment, long end) throws IOException {
+        MappedByteBuffer mapping = mappings.get(segment);
+        if (mapping == null || mapping.capacity() < end) {
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mappings.put(segment, mapping);
+        }
+        return mapping.duplicate();
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        Map<Integer, Long> indexedLengths = loadIndex();
+        // New segments are numbered above the indexed ones, so a lower one missing from the index was compacted away
+        int highestIndexed = indexedLengths.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+        long totalSegmentBytes = 0;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            TreeMap<Integer, Path> found = new TreeMap<>();
+            for (Path segment : segments) {
+                String name = segment.getFileName().toString();
+                try {
+                    found.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                                                              name.length() - SEGMENT_SUFFIX.length())), segment);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+            for (Map.Entry<Integer, Path> segment : found.entrySet()) {
+                if (segment.getKey() < highestIndexed && !indexedLengths.containsKey(segment.getKey())) {
+                    retiredSegments.add(segment.getKey());
+                    continue;
+                }
+                // Records past what the index covers were written after it was saved
+                long from = indexedLengths.getOrDefault(segment.getKey(), 0L);
+                long length = recover(segment.getKey(), segment.getValue(), from);
+                segmentLengths.put(segment.getKey(), length);
+                totalSegmentBytes += length;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to open thumbnail packs in " + directory, e);
+        }
+        deleteRetiredSegments();
+
+        // Drop index entries whose segment is gone
+        long recordBytes = 0;
+        Iterator<Location> locations = index.values().iterator();
+        while (locations.hasNext()) {
+            Location location = locations.next();
+            if (!segmentLengths.containsKey(location.segment)
+                    || location.dataOffset + location.length > segmentLengths.get(location.segment)) {
+                locations.remove();
+                continue;
+            }
+            liveBytes += location.length;
+            recordBytes += location.dataOffset - location.recordOffset + location.length;
+        }
+        deadBytes = Math.max(0, totalSegmentBytes - recordBytes);
+    }
+
+    // Scan a segment from the given offset, indexing every intact record and cutting off a torn tail
+    private long recover(int segment, Path path, long from) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (from > size) {
+                from = 0; // The index is ahead of the file, trust only what is on disk
+            }
+            if (from == size) {
+                return size;
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long offset = from;
+            CRC32 crc = new CRC32();
+            while (offset + HEADER_BYTES <= size) {
+                data.position((int) offset);
+                if (data.getInt() != RECORD_MAGIC) {
+                    break;
+                }
+                int keyLength = data.getShort() & 0xFFFF;
+                int length = data.getInt();
+                int expectedCrc = data.getInt();
+                long dataOffset = offset + HEADER_BYTES + keyLength;
+                if (length == TOMBSTONE_LENGTH && dataOffset <= size) {
+                    byte[] key = new byte[keyLength];
+                    data.get(key);
+                    index.remove(new String(key, StandardCharsets.UTF_8));
+                    offset = dataOffset;
+                    continue;
+                }
+                if (length < 0 || dataOffset + length > size) {
+                    break;
+                }
+                byte[] key = new byte[keyLength];
+                data.get(key);
+                ByteBuffer payload = data.duplicate();
+                payload.limit((int) (dataOffset + length));
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != expectedCrc) {
+                    break;
+                }
+                // Later records win, so a replaced blob ends up pointing at its newest copy
+                index.put(new String(key, StandardCharsets.UTF_8), new Location(segment, offset, dataOffset, length));
+                offset = dataOffset + length;
+            }
+            if (offset < size) {
+                LOGGER.log(Level.WARNING, "Truncating damaged thumbnail segment " + path + " at " + offset);
+                channel.truncate(offset);
+            }
+            return offset;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    // Read the saved index; on any inconsistency start empty so every segment gets scanned
+    private Map<Integer, Long> loadIndex() {
+        Map<Integer, Long> indexedLengths = new LinkedHashMap<>();
+        Path indexPath = directory.resolve(INDEX_FILE);
+        if (!Files.exists(indexPath)) {
+            return indexedLengths;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(indexPath);
+            if (bytes.length < 4) {
+                throw new IOException("Index too short");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 4);
+            if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+                throw new IOException("Index checksum mismatch");
+            }
+            try (InputStream stream = new java.io.ByteArrayInputStream(bytes, 0, bytes.length - 4);
+                 DataInputStream input = new DataInputStream(new BufferedInputStream(stream))) {
+                if (input.readInt() != INDEX_MAGIC || input.readInt() != INDEX_VERSION) {
+                    throw new IOException("Unknown index format");
+                }
+                int segments = input.readInt();
+                for (int i = 0; i < segments; i++) {
+                    indexedLengths.put(input.readInt(), input.readLong());
+                }
+                int entries = input.readInt();
+                for (int i = 0; i < entries; i++) {
+                    String key = input.readUTF();
+                    index.put(key, new Location(input.readInt(), input.readLong(), input.readLong(), input.readInt()));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Rebuilding thumbnail pack index: " + e.getMessage());
+            index.clear();
+            indexedLengths.clear();
+        }
+        return indexedLengths;
+    }
+
+    private void saveIndex() {
+        try {
+            Files.createDirectories(directory);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + index.size() * 64);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(bytes))) {
+                output.writeInt(INDEX_MAGIC);
+                output.writeInt(INDEX_VERSION);
+                output.writeInt(segmentLengths.size());
+                for (Map.Entry<Integer, Long> segment : segmentLengths.entrySet()) {
+                    output.writeInt(segment.getKey());
+                    output.writeLong(segment.getValue());
+                }
+                output.writeInt(index.size());
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    output.writeUTF(entry.getKey());
+                    output.writeInt(location.segment);
+                    output.writeLong(location.recordOffset);
+                    output.writeLong(location.dataOffset);
+                    output.writeInt(location.length);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            byte[] checksum = ByteBuffer.allocate(4).putInt((int) crc.getValue()).array();
+            bytes.write(checksum);
+
+            // Segment data must be on disk before an index that points at it
+            if (activeChannel != null && activeChannel.isOpen()) {
+                activeChannel.force(false);
+            }
+            Path temp = Files.createTempFile(directory, INDEX_FILE, ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, directory.resolve(INDEX_FILE),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            unsavedWrites = 0;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save thumbnail pack index", e);
+        }
+    }
+
+    private static final class Location {
+        private final int segment;
+        private final long recordOffset;
+        private final long dataOffset;
+        private final int length;
+
+        Location(int segment, long recordOffset, long dataOffset, int length) {
+            this.segment = segment;
+            this.recordOffset = recordOffset;
+            this.dataOffset = dataOffset;
+            this.length = length;
+        }
+    }
+}
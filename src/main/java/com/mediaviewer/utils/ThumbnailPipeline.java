@@ -0,0 +1,162 @@
+package com.mediaviewer.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thumbnail generation without JavaFX.
+ *
+ * Produces thumbnails as BufferedImages or encoded bytes, so it works in
+ * tests, batch jobs and anywhere the FX toolkit is not running.
+ * {@link ThumbnailGenerator} adapts the results for display.
+ *
+ * Thumbnails are served from the cached pyramid level that covers the
+ * requested size, so they may be somewhat larger than asked for.
+ */
+public class ThumbnailPipeline {
+    private static final Logger LOGGER = Logger.getLogger(ThumbnailPipeline.class.getName());
+
+    private static final String PYRAMID_VARIANT = "pyramid";
+
+    private static ThumbnailPipeline defaultPipeline;
+
+    private final ThumbnailDiskCache diskCache;
+
+    public ThumbnailPipeline(ThumbnailDiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * Pipeline backed by the shared disk cache.
+     */
+    public static synchronized ThumbnailPipeline getDefault() {
+        if (defaultPipeline == null) {
+            defaultPipeline = new ThumbnailPipeline(ThumbnailDiskCache.getDefault());
+        }
+        return defaultPipeline;
+    }
+
+    public ThumbnailDiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * @return the encoded thumbnail covering the given size if this version of the file is cached, else null
+     */
+    public byte[] getCached(File imageFile, int size) {
+        return ThumbnailPyramid.level(diskCache.get(cacheKey(imageFile)), ThumbnailPyramid.levelFor(size));
+    }
+
+    /**
+     * Decode the source, cache its pyramid and return the level covering the given size.
+     * @return the thumbnail, or null if the file could not be decoded
+     */
+    public BufferedImage generate(File imageFile, int size) {
+        int level = ThumbnailPyramid.levelFor(size);
+        Map<Integer, BufferedImage> levels = createPyramid(imageFile, level);
+        return levels != null ? levels.get(level) : null;
+    }
+
+    /**
+     * Thumbnail covering the given size, from the cache or freshly generated.
+     */
+    public BufferedImage thumbnail(File imageFile, int size) {
+        byte[] cached = getCached(imageFile, size);
+        if (cached != null) {
+            try {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(cached));
+                if (image != null) {
+                    return image;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to decode cached thumbnail of " + imageFile, e);
+            }
+        }
+        return generate(imageFile, size);
+    }
+
+    /**
+     * Encoded (JPEG or PNG) thumbnail covering the given size, from the cache or freshly generated.
+     */
+    public byte[] thumbnailBytes(File imageFile, int size) throws IOException {
+        byte[] cached = getCached(imageFile, size);
+        if (cached != null) {
+            return cached;
+        }
+        BufferedImage image = generate(imageFile, size);
+        return image != null ? ThumbnailDiskCache.encode(image) : null;
+    }
+
+    /**
+     * Generate a thumbnail pyramid straight into the disk cache.
+     * @return true if it was generated, false if it was already cached or could not be made
+     */
+    public boolean pregenerate(File imageFile, int size) {
+        if (getCached(imageFile, size) != null) {
+            return false;
+        }
+        return createPyramid(imageFile, ThumbnailPyramid.levelFor(size)) != null;
+    }
+
+    /**
+     * Plain placeholder icon of the given colour.
+     */
+    public static BufferedImage createIcon(int width, int height, Color color) {
+        BufferedImage icon = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = icon.createGraphics();
+        try {
+            graphics.setColor(color);
+            graphics.fillRect(0, 0, width, height);
+        } finally {
+            graphics.dispose();
+        }
+        return icon;
+    }
+
+    private static String cacheKey(File imageFile) {
+        return ThumbnailDiskCache.keyFor(imageFile, PYRAMID_VARIANT);
+    }
+
+    // Decode once, build every level the decode covers and cache them together
+    private Map<Integer, BufferedImage> createPyramid(File imageFile, int level) {
+        int largest = ThumbnailPyramid.largestLevel();
+        int maxLevel = largest;
+
+        // Camera JPEGs and RAW files usually embed a preview, far cheaper than a full decode.
+        // A preview too small for the whole pyramid still serves the requested level.
+        BufferedImage source = ExifThumbnailExtractor.extract(imageFile, largest, largest);
+        if (source == null && level < largest) {
+            source = ExifThumbnailExtractor.extract(imageFile, level, level);
+            maxLevel = level;
+        }
+        if (source == null) {
+            // Subsampled decode, memory stays proportional to the thumbnail size
+            source = ScaledImageDecoder.decode(imageFile, largest, largest);
+            maxLevel = largest;
+        }
+        if (source == null) {
+            return null;
+        }
+
+        try {
+            Map<Integer, BufferedImage> levels = ThumbnailPyramid.build(source, maxLevel);
+            try {
+                diskCache.put(cacheKey(imageFile), ThumbnailPyramid.encode(levels));
+            } catch (IOException e) {
+                // Caching is best effort, the thumbnails are still usable
+            }
+            return levels;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to build thumbnails of " + imageFile, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.mediaviewer.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+
+/**
+ * Optional background job that fills the thumbnail cache after a scan, so
+ * the first browse of a folder finds its thumbnails ready.
+ *
+ * The job stays out of the way: it runs on a few low-priority threads, rests
+ * between files to stay within a CPU duty cycle and a read-bandwidth budget,
+ * and pauses while the user is interacting or on-screen thumbnails are
+ * queued. The file list and a cursor are kept on disk, so an unfinished job
+ * resumes where it left off after a restart.
+ */
+public class ThumbnailPregenerator {
+    private static final Logger LOGGER = Logger.getLogger(ThumbnailPregenerator.class.getName());
+
+    public static final int THUMBNAIL_SIZE = 150;
+    public static final long DEFAULT_MAX_BYTES_PER_SECOND = 32L * 1024 * 1024;
+
+    private static final String ENABLED_KEY = "pregenerateThumbnails";
+    private static final String QUEUE_FILE = "queue.txt";
+    private static final String CURSOR_FILE = "cursor.txt";
+
+    // Wait this long after the last user input before working again
+    private static final long IDLE_DELAY_MILLIS = 2000;
+    private static final long POLL_MILLIS = 250;
+    // Fraction of each worker's time spent generating, the rest is rest
+    private static final double CPU_DUTY_CYCLE = 0.5;
+    private static final int CURSOR_SAVE_INTERVAL = 50;
+
+    private static ThumbnailPregenerator defaultInstance;
+
+    /**
+     * Receives progress updates from the worker threads.
+     */
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    private final Path stateDirectory;
+    private final Predicate<File> task;
+    private final BooleanSupplier busy;
+    private final int workerCount;
+    private final long maxBytesPerSecond;
+
+    private volatile long lastActivity;
+    private volatile ProgressListener listener;
+    private Job currentJob;
+
+    /**
+     * @param stateDirectory Where the queue and cursor files are kept
+     * @param task Generates and caches one thumbnail, returns false if there was nothing to do
+     * @param busy Returns true while foreground thumbnail work is pending
+     * @param workerCount Number of worker threads
+     * @param maxBytesPerSecond Read budget across all workers, based on source file sizes
+     */
+    public ThumbnailPregenerator(Path stateDirectory, Predicate<File> task, BooleanSupplier busy,
+                                 int workerCount, long maxBytesPerSecond) {
+        this.stateDirectory = stateDirectory;
+        this.task = task;
+        this.busy = busy;
+        this.workerCount = Math.max(1, workerCount);
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Job under ~/.mediaviewer/pregeneration using a quarter of the cores. The read
+     * budget can be set with the mediaviewer.pregeneration.maxBytesPerSecond property.
+     */
+    public static synchronized ThumbnailPregenerator getDefault() {
+        if (defaultInstance == null) {
+            Path directory = Paths.get(System.getProperty("user.home"), ".mediaviewer", "pregeneration");
+            defaultInstance = new ThumbnailPregenerator(
+                directory,
+                file -> ThumbnailPipeline.getDefault().pregenerate(file, THUMBNAIL_SIZE),
+                () -> ThumbnailScheduler.getShared().getQueuedCount() > 0,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+                Long.getLong("mediaviewer.pregeneration.maxBytesPerSecond", DEFAULT_MAX_BYTES_PER_SECOND));
+        }
+        return defaultInstance;
+    }
+
+    public static boolean isEnabled() {
+        return Preferences.userNodeForPackage(ThumbnailPregenerator.class).getBoolean(ENABLED_KEY, false);
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Preferences.userNodeForPackage(ThumbnailPregenerator.class).putBoolean(ENABLED_KEY, enabled);
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Pause the job until the user has been idle for a moment.
+     */
+    public void noteUserActivity() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Start a new job for the given files, replacing any unfinished one.
+     */
+    public synchronized void start(List<Path> files) {
+        stop();
+        List<String> lines = new ArrayList<>(files.size());
+        for (Path file : files) {
+            lines.add(file.toString());
+        }
+        try {
+            Files.createDirectories(stateDirectory);
+            Files.write(stateDirectory.resolve(QUEUE_FILE), lines, StandardCharsets.UTF_8);
+            Files.writeString(stateDirectory.resolve(CURSOR_FILE), "0");
+        } catch (IOException e) {
+            // The job still runs, it just cannot resume after a restart
+            LOGGER.log(Level.WARNING, "Failed to save thumbnail pre-generation queue", e);
+        }
+        currentJob = new Job(lines, 0);
+        currentJob.start();
+    }
+
+    /**
+     * Resume the job left unfinished by a previous run.
+     * @return true if there was one
+     */
+    public synchronized boolean resume() {
+        if (currentJob != null && !currentJob.stopped) {
+            return true;
+        }
+        Path queueFile = stateDirectory.resolve(QUEUE_FILE);
+        if (!Files.exists(queueFile)) {
+            return false;
+        }
+        try {
+            List<String> lines = Files.readAllLines(queueFile, StandardCharsets.UTF_8);
+            int cursor = 0;
+            Path cursorFile = stateDirectory.resolve(CURSOR_FILE);
+            if (Files.exists(cursorFile)) {
+                cursor = Integer.parseInt(Files.readString(cursorFile).trim());
+            }
+            currentJob = new Job(lines, Math.min(Math.max(0, cursor), lines.size()));
+            currentJob.start();
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Failed to resume thumbnail pre-generation", e);
+            return false;
+        }
+    }
+
+    /**
+     * Stop the running job. Its state stays on disk so it can be resumed later.
+     */
+    public synchronized void stop() {
+        if (currentJob != null) {
+            currentJob.stopped = true;
+            currentJob.saveCursor();
+            currentJob = null;
+        }
+    }
+
+    /**
+     * Stop the running job and forget it.
+     */
+    public synchronized void cancel() {
+        stop();
+        deleteState();
+    }
+
+    public synchronized boolean isRunning() {
+        return currentJob != null && !currentJob.stopped;
+    }
+
+    private void deleteState() {
+        try {
+            Files.deleteIfExists(stateDirectory.resolve(QUEUE_FILE));
+            Files.deleteIfExists(stateDirectory.resolve(CURSOR_FILE));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to delete thumbnail pre-generation state", e);
+        }
+    }
+
+    private synchronized void finished(Job job) {
+        if (currentJob == job) {
+            currentJob = null;
+            deleteState();
+        }
+    }
+
+    private final class Job {
+        private final List<String> files;
+        private final int startIndex;
+        private final AtomicInteger next;
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger generated = new AtomicInteger();
+        private final AtomicInteger activeWorkers = new AtomicInteger();
+        private final AtomicLong activeNanos = new AtomicLong();
+        private volatile boolean stopped;
+        private volatile boolean paused;
+
+        Job(List<String> files, int startIndex) {
+            this.files = files;
+            this.startIndex = startIndex;
+            this.next = new AtomicInteger(startIndex);
+        }
+
+        void start() {
+            activeWorkers.set(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                Thread worker = new Thread(this::run, "thumbnail-pregeneration-" + i);
+                worker.setDaemon(true);
+                worker.setPriority(Thread.MIN_PRIORITY);
+                worker.start();
+            }
+            report(false);
+        }
+
+        private void run() {
+            try {
+                while (!stopped) {
+                    waitUntilIdle();
+                    if (stopped) {
+                        return;
+                    }
+                    int index = next.getAndIncrement();
+                    if (index >= files.size()) {
+                        break;
+                    }
+                    process(new File(files.get(index)));
+                    if (processed.incrementAndGet() % CURSOR_SAVE_INTERVAL == 0 && !stopped) {
+                        saveCursor();
+                    }
+                    report(false);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                if (activeWorkers.decrementAndGet() == 0 && !stopped) {
+                    finished(this);
+                    report(true);
+                }
+            }
+        }
+
+        private void process(File file) throws InterruptedException {
+            long start = System.nanoTime();
+            boolean didWork;
+            try {
+                didWork = task.test(file);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to pre-generate thumbnail for " + file, e);
+                didWork = true;
+            }
+            long elapsed = System.nanoTime() - start;
+            activeNanos.addAndGet(elapsed);
+            if (didWork) {
+                generated.incrementAndGet();
+                throttle(elapsed, file.length());
+            }
+        }
+
+        // Rest long enough to honour both the CPU duty cycle and this worker's share of the read budget
+        private void throttle(long elapsedNanos, long bytesRead) throws InterruptedException {
+            long cpuRest = (long) (elapsedNanos * (1 - CPU_DUTY_CYCLE) / CPU_DUTY_CYCLE);
+            long ioRest = 0;
+            if (maxBytesPerSecond > 0) {
+                long budgetNanos = TimeUnit.SECONDS.toNanos(1) * bytesRead / Math.max(1, maxBytesPerSecond / workerCount);
+                ioRest = budgetNanos - elapsedNanos;
+            }
+            long rest = Math.max(cpuRest, ioRest);
+            if (rest > 0) {
+                TimeUnit.NANOSECONDS.sleep(rest);
+            }
+        }
+
+        private void waitUntilIdle() throws InterruptedException {
+            while (!stopped) {
+                boolean userActive = System.currentTimeMillis() - lastActivity < IDLE_DELAY_MILLIS;
+                if (!userActive && !busy.getAsBoolean()) {
+                    if (paused) {
+                        paused = false;
+                        report(false);
+                    }
+                    return;
+                }
+                if (!paused) {
+                    paused = true;
+                    report(false);
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+        }
+
+        // Files before the cursor are done; in-flight ones are simply re-checked on resume
+        void saveCursor() {
+            int cursor = Math.max(startIndex, Math.min(files.size(), next.get() - workerCount));
+            try {
+                if (Files.isDirectory(stateDirectory)) {
+                    Files.writeString(stateDirectory.resolve(CURSOR_FILE), String.valueOf(cursor));
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to save thumbnail pre-generation cursor", e);
+            }
+        }
+
+        private void report(boolean done) {
+            ProgressListener current = listener;
+            if (current == null) {
+                return;
+            }
+            int completed = Math.min(files.size(), startIndex + processed.get());
+            // Throughput over the time spent working, so pauses do not drag it down
+            double seconds = activeNanos.get() / (double) TimeUnit.SECONDS.toNanos(1);
+            double perSecond = seconds > 0 ? generated.get() * workerCount / seconds : 0;
+            current.onProgress(new Progress(completed, files.size(), generated.get(), perSecond, paused, done));
+        }
+    }
+
+    /**
+     * Snapshot of a job's progress.
+     */
+    public static final class Progress {
+        private final int completed;
+        private final int total;
+        private final int generated;
+        private final double filesPerSecond;
+        private final boolean paused;
+        private final boolean finished;
+
+        public Progress(int completed, int total, int generated, double filesPerSecond,
+                        boolean paused, boolean finished) {
+            this.completed = completed;
+            this.total = total;
+            this.generated = generated;
+            this.filesPerSecond = filesPerSecond;
+            this.paused = paused;
+            this.finished = finished;
+        }
+
+        public int getCompleted() {
+            return completed;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Number of thumbnails actually generated, files already cached are not counted.
+         */
+        public int getGenerated() {
+            return generated;
+        }
+
+        public double getFilesPerSecond() {
+            return filesPerSecond;
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+}
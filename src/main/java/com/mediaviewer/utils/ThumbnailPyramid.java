@@ -0,0 +1,117 @@
+package com.mediaviewer.utils;
+
+import net.coobird.thumbnailator.Thumbnails;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thumbnails of one image at several sizes, made from a single decode and
+ * cached together as one blob.
+ *
+ * The largest level is scaled from the decoded source and every smaller
+ * level from the one above it, so switching the grid's zoom only needs the
+ * blob, never the source file. A pyramid built from a small embedded
+ * preview only holds the levels that preview covers.
+ *
+ * Blob layout: "MVTP", level count, then per level its size, the length of
+ * its encoded image and the encoded image (JPEG or PNG).
+ */
+public class ThumbnailPyramid {
+
+    public static final int[] LEVELS = {64, 160, 320};
+
+    private static final int MAGIC = 0x4D565450; // "MVTP"
+
+    /**
+     * @return the smallest level at least as large as the given display size,
+     *         or the largest level for bigger sizes
+     */
+    public static int levelFor(int displaySize) {
+        for (int level : LEVELS) {
+            if (level >= displaySize) {
+                return level;
+            }
+        }
+        return LEVELS[LEVELS.length - 1];
+    }
+
+    public static int largestLevel() {
+        return LEVELS[LEVELS.length - 1];
+    }
+
+    /**
+     * Build the levels up to maxLevel from a decoded image. Levels larger than
+     * the image hold the image at its own size; nothing is upscaled.
+     * @return images by level size, largest first
+     */
+    public static Map<Integer, BufferedImage> build(BufferedImage source, int maxLevel) throws IOException {
+        Map<Integer, BufferedImage> levels = new LinkedHashMap<>();
+        BufferedImage previous = source;
+        for (int i = LEVELS.length - 1; i >= 0; i--) {
+            int level = LEVELS[i];
+            if (level > maxLevel) {
+                continue;
+            }
+            BufferedImage image = Math.max(previous.getWidth(), previous.getHeight()) > level
+                ? Thumbnails.of(previous).size(level, level).asBufferedImage()
+                : previous;
+            levels.put(level, image);
+            previous = image; // Each level is downsampled from the one above it
+        }
+        return levels;
+    }
+
+    /**
+     * Encode the levels into a single blob.
+     */
+    public static byte[] encode(Map<Integer, BufferedImage> levels) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 * 1024);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeByte(levels.size());
+        for (Map.Entry<Integer, BufferedImage> level : levels.entrySet()) {
+            byte[] encoded = ThumbnailDiskCache.encode(level.getValue());
+            output.writeShort(level.getKey());
+            output.writeInt(encoded.length);
+            output.write(encoded);
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the encoded image of the given level, or null if the blob does not have it
+     */
+    public static byte[] level(byte[] blob, int level) {
+        ByteBuffer buffer = open(blob);
+        int count = buffer != null ? buffer.get() & 0xFF : 0;
+        for (int i = 0; i < count && buffer.remaining() >= 6; i++) {
+            int size = buffer.getShort() & 0xFFFF;
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                return null;
+            }
+            if (size == level) {
+                byte[] encoded = new byte[length];
+                buffer.get(encoded);
+                return encoded;
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return null;
+    }
+
+    private static ByteBuffer open(byte[] blob) {
+        if (blob == null || blob.length < 5) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(blob);
+        return buffer.getInt() == MAGIC ? buffer : null;
+    }
+}
@@ -0,0 +1,316 @@
+package com.mediaviewer.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared worker pool for thumbnail work, ordered by distance from what the
+ * user is looking at.
+ *
+ * Each grid gets a {@link Client} and tells it which item indexes are on
+ * screen. Queued requests closest to a client's viewport run first, the
+ * queue is re-prioritized whenever a viewport moves, and requests that end
+ * up far off-screen are cancelled before they start. Requests for a key
+ * that is already queued or running share the existing future.
+ */
+public class ThumbnailScheduler {
+    private static final Logger LOGGER = Logger.getLogger(ThumbnailScheduler.class.getName());
+
+    // Requests within this many items of the viewport are never cancelled
+    private static final int MIN_KEEP_DISTANCE = 64;
+
+    private static ThumbnailScheduler shared;
+
+    private final Object lock = new Object();
+    private final PriorityQueue<Request<?>> queue = new PriorityQueue<>(BY_PRIORITY);
+    private final Map<Object, Request<?>> queued = new HashMap<>();
+    private final Map<Object, Request<?>> running = new HashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private long sequence;
+    private boolean shutdown;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public ThumbnailScheduler(int threads) {
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::runWorker, "thumbnail-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Scheduler shared by the thumbnail generator and all grids, one worker per core.
+     */
+    public static synchronized ThumbnailScheduler getShared() {
+        if (shared == null) {
+            shared = new ThumbnailScheduler(Runtime.getRuntime().availableProcessors());
+        }
+        return shared;
+    }
+
+    public Client newClient() {
+        return new Client();
+    }
+
+    /**
+     * Queue work that is not tied to a viewport. It runs with the same
+     * priority as on-screen requests.
+     */
+    public <T> CompletableFuture<T> submit(Object key, Supplier<T> task) {
+        return enqueue(null, key, 0, task);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> enqueue(Client client, Object key, int index, Supplier<T> task) {
+        synchronized (lock) {
+            if (shutdown) {
+                CompletableFuture<T> rejected = new CompletableFuture<>();
+                rejected.cancel(false);
+                return rejected;
+            }
+
+            Request<?> existing = running.get(key);
+            if (existing != null) {
+                coalesced.incrementAndGet();
+                return (CompletableFuture<T>) existing.future;
+            }
+            existing = queued.get(key);
+            if (existing != null) {
+                coalesced.incrementAndGet();
+                // The card most recently bound to this key decides where it sits in the queue
+                int distance = client != null ? client.distance(index) : 0;
+                if (client == existing.client || distance < existing.distance) {
+                    queue.remove(existing);
+                    existing.client = client;
+                    existing.index = index;
+                    existing.distance = distance;
+                    queue.add(existing);
+                }
+                return (CompletableFuture<T>) existing.future;
+            }
+
+            Request<T> request = new Request<>(client, key, index, task, sequence++);
+            request.distance = client != null ? client.distance(index) : 0;
+            queued.put(key, request);
+            queue.add(request);
+            lock.notify();
+            return request.future;
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            Request<?> request;
+            synchronized (lock) {
+                while (queue.isEmpty() && !shutdown) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (shutdown) {
+                    return;
+                }
+                request = queue.poll();
+                queued.remove(request.key);
+                if (request.future.isDone()) {
+                    continue; // Cancelled by its caller while queued
+                }
+                running.put(request.key, request);
+            }
+
+            try {
+                request.run();
+                completed.incrementAndGet();
+            } finally {
+                synchronized (lock) {
+                    running.remove(request.key);
+                }
+            }
+        }
+    }
+
+    // Recompute the distances of a client's queued requests and drop the ones far off-screen
+    private void reprioritize(Client client) {
+        int keepDistance = Math.max(MIN_KEEP_DISTANCE, 2 * (client.last - client.first + 1));
+        List<Request<?>> kept = new ArrayList<>(queue.size());
+        for (Request<?> request : queue) {
+            if (request.client == client) {
+                request.distance = client.distance(request.index);
+                if (request.distance > keepDistance) {
+                    cancel(request);
+                    continue;
+                }
+            }
+            kept.add(request);
+        }
+        queue.clear();
+        queue.addAll(kept);
+    }
+
+    private void cancel(Request<?> request) {
+        queued.remove(request.key);
+        request.future.cancel(false);
+        cancelled.incrementAndGet();
+    }
+
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Cancel everything still queued and stop the workers once their current task finishes.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            for (Request<?> request : queue) {
+                cancel(request);
+            }
+            queue.clear();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * One scrolling view, e.g. a grid. Requests are prioritized by their item
+     * index's distance from the client's visible range.
+     */
+    public final class Client {
+        // Guarded by the scheduler lock; an empty range means nothing is laid out yet
+        private int first = 0;
+        private int last = -1;
+
+        private Client() {
+        }
+
+        /**
+         * Queue a task for the item at the given index, or join the request
+         * already pending for the same key.
+         */
+        public <T> CompletableFuture<T> request(Object key, int index, Supplier<T> task) {
+            return enqueue(this, key, index, task);
+        }
+
+        /**
+         * Report the visible item range (inclusive). Queued requests are
+         * re-ordered and the ones that fell far off-screen are cancelled.
+         */
+        public void updateViewport(int firstIndex, int lastIndex) {
+            synchronized (lock) {
+                if (firstIndex == first && lastIndex == last) {
+                    return;
+                }
+                first = firstIndex;
+                last = lastIndex;
+                reprioritize(this);
+            }
+        }
+
+        /**
+         * Cancel this client's queued request for a key, e.g. a tile that left the view.
+         * A request that is already running is left to finish.
+         */
+        public void cancel(Object key) {
+            synchronized (lock) {
+                Request<?> request = queued.get(key);
+                if (request != null && request.client == this) {
+                    queue.remove(request);
+                    ThumbnailScheduler.this.cancel(request);
+                }
+            }
+        }
+
+        /**
+         * Cancel this client's queued requests, e.g. when its content is replaced.
+         */
+        public void cancelAll() {
+            synchronized (lock) {
+                List<Request<?>> kept = new ArrayList<>(queue.size());
+                for (Request<?> request : queue) {
+                    if (request.client == this) {
+                        ThumbnailScheduler.this.cancel(request);
+                    } else {
+                        kept.add(request);
+                    }
+                }
+                queue.clear();
+                queue.addAll(kept);
+                first = 0;
+                last = -1;
+            }
+        }
+
+        private int distance(int index) {
+            if (last < first) {
+                return index; // No viewport yet, fall back to list order
+            }
+            if (index < first) {
+                return first - index;
+            }
+            return index > last ? index - last : 0;
+        }
+    }
+
+    private static final class Request<T> {
+        private final Object key;
+        private final Supplier<T> task;
+        private final long sequence;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private Client client;
+        private int index;
+        private int distance;
+
+        Request(Client client, Object key, int index, Supplier<T> task, long sequence) {
+            this.client = client;
+            this.key = key;
+            this.index = index;
+            this.task = task;
+            this.sequence = sequence;
+        }
+
+        void run() {
+            try {
+                future.complete(task.get());
+            } catch (Throwable t) {
+                // Keep the worker alive, callers see the failure through the future
+                LOGGER.log(Level.WARNING, "Thumbnail task failed for " + key, t);
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static final Comparator<Request<?>> BY_PRIORITY = (a, b) -> {
+        int result = Integer.compare(a.distance, b.distance);
+        return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+    };
+}
@@ -0,0 +1,335 @@
+package com.mediaviewer.utils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal reader for TIFF-structured data: TIFF files, TIFF-based camera RAW
+ * formats (CR2, NEF, ARW, DNG, ...) and the EXIF block of a JPEG, which is a
+ * TIFF stream of its own.
+ *
+ * It only walks image file directories (IFDs) and reads tag values; pixel
+ * data is never touched. Offsets are relative to the start of the TIFF header.
+ */
+public class TiffReader {
+
+    // IFD0 / IFD1 tags
+    public static final int TAG_NEW_SUBFILE_TYPE = 0x00FE;
+    public static final int TAG_IMAGE_WIDTH = 0x0100;
+    public static final int TAG_IMAGE_HEIGHT = 0x0101;
+    public static final int TAG_BITS_PER_SAMPLE = 0x0102;
+    public static final int TAG_COMPRESSION = 0x0103;
+    public static final int TAG_MAKE = 0x010F;
+    public static final int TAG_MODEL = 0x0110;
+    public static final int TAG_STRIP_OFFSETS = 0x0111;
+    public static final int TAG_ORIENTATION = 0x0112;
+    public static final int TAG_STRIP_BYTE_COUNTS = 0x0117;
+    public static final int TAG_DATE_TIME = 0x0132;
+    public static final int TAG_SUB_IFDS = 0x014A;
+    public static final int TAG_JPEG_OFFSET = 0x0201;
+    public static final int TAG_JPEG_LENGTH = 0x0202;
+    public static final int TAG_XMP = 0x02BC;
+    public static final int TAG_EXIF_IFD = 0x8769;
+    public static final int TAG_GPS_IFD = 0x8825;
+
+    // EXIF IFD tags
+    public static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    public static final int TAG_DATE_TIME_DIGITIZED = 0x9004;
+    public static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+    public static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+    public static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+
+    // GPS IFD tags
+    public static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    public static final int TAG_GPS_LATITUDE = 0x0002;
+    public static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    public static final int TAG_GPS_LONGITUDE = 0x0004;
+
+    private static final int TYPE_BYTE = 1;
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+    private static final int TYPE_UNDEFINED = 7;
+    private static final int TYPE_SLONG = 9;
+    private static final int TYPE_SRATIONAL = 10;
+    private static final int TYPE_IFD = 13;
+
+    // Guards against corrupt files with huge or looping directories
+    private static final int MAX_ENTRIES = 1000;
+    private static final int MAX_IFDS = 32;
+
+    private final ByteBuffer data;
+
+    /**
+     * @param tiff Buffer whose position 0 is the TIFF header ("II*\0" or "MM\0*")
+     */
+    public TiffReader(ByteBuffer tiff) {
+        this.data = tiff.duplicate();
+        this.data.position(0);
+        if (data.remaining() < 8) {
+            throw new IllegalArgumentException("Too short for a TIFF header");
+        }
+        byte first = data.get(0);
+        byte second = data.get(1);
+        if (first == 'I' && second == 'I') {
+            data.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (first == 'M' && second == 'M') {
+            data.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IllegalArgumentException("Not a TIFF header");
+        }
+    }
+
+    /**
+     * @return true if the bytes start with a TIFF header (either byte order)
+     */
+    public static boolean isTiffHeader(byte[] header) {
+        return header.length >= 4
+            && ((header[0] == 'I' && header[1] == 'I' && header[2] == 42 && header[3] == 0)
+                || (header[0] == 'M' && header[1] == 'M' && header[2] == 0 && header[3] == 42));
+    }
+
+    public ByteBuffer getData() {
+        return data.duplicate().order(data.order());
+    }
+
+    /**
+     * Offset of the first IFD (IFD0).
+     */
+    public long getFirstIfdOffset() {
+        return unsignedInt(4);
+    }
+
+    /**
+     * Read the IFD at the given offset.
+     * @return the directory, or null if the offset is out of range or the IFD is corrupt
+     */
+    public Ifd readIfd(long offset) {
+        if (offset <= 0 || offset + 2 > data.limit()) {
+            return null;
+        }
+        try {
+            int count = unsignedShort((int) offset);
+            if (count > MAX_ENTRIES || offset + 2 + count * 12L + 4 > data.limit()) {
+                return null;
+            }
+            Ifd ifd = new Ifd();
+            for (int i = 0; i < count; i++) {
+                int entry = (int) offset + 2 + i * 12;
+                int tag = unsignedShort(entry);
+                int type = unsignedShort(entry + 2);
+                long valueCount = unsignedInt(entry + 4);
+                long size = valueCount * typeSize(type);
+                // Values of up to four bytes are stored inline in the entry
+                long valueOffset = size <= 4 ? entry + 8 : unsignedInt(entry + 8);
+                ifd.entries.put(tag, new Entry(type, valueCount, valueOffset));
+            }
+            ifd.nextOffset = unsignedInt((int) offset + 2 + count * 12);
+            return ifd;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Follow the chain of top-level IFDs starting at IFD0.
+     */
+    public List<Ifd> readIfdChain() {
+        List<Ifd> chain = new ArrayList<>();
+        long offset = getFirstIfdOffset();
+        while (offset > 0 && chain.size() < MAX_IFDS) {
+            Ifd ifd = readIfd(offset);
+            if (ifd == null) {
+                break;
+            }
+            chain.add(ifd);
+            offset = ifd.nextOffset;
+        }
+        return chain;
+    }
+
+    private int unsignedShort(int offset) {
+        return data.getShort(offset) & 0xFFFF;
+    }
+
+    private long unsignedInt(int offset) {
+        return data.getInt(offset) & 0xFFFFFFFFL;
+    }
+
+    private static int typeSize(int type) {
+        switch (type) {
+            case TYPE_SHORT:
+                return 2;
+            case TYPE_LONG:
+            case TYPE_SLONG:
+            case TYPE_IFD:
+            case 11: // FLOAT
+                return 4;
+            case TYPE_RATIONAL:
+            case TYPE_SRATIONAL:
+            case 12: // DOUBLE
+                return 8;
+            case 8: // SSHORT
+                return 2;
+            default:
+                return 1; // BYTE, ASCII, SBYTE, UNDEFINED
+        }
+    }
+
+    /**
+     * One image file directory: its tag entries and the offset of the next IFD.
+     */
+    public final class Ifd {
+        private final Map<Integer, Entry> entries = new LinkedHashMap<>();
+        private long nextOffset;
+
+        public boolean has(int tag) {
+            return entries.containsKey(tag);
+        }
+
+        public long getNextOffset() {
+            return nextOffset;
+        }
+
+        /**
+         * @return the first value of an integer tag, or the default if missing
+         */
+        public long getLong(int tag, long defaultValue) {
+            return getLong(tag, 0, defaultValue);
+        }
+
+        /**
+         * @return the value at the given position of an integer tag, or the default
+         */
+        public long getLong(int tag, int index, long defaultValue) {
+            Entry entry = entries.get(tag);
+            if (entry == null || index >= entry.count) {
+                return defaultValue;
+            }
+            int position = (int) (entry.valueOffset + (long) index * typeSize(entry.type));
+            if (position < 0 || position + typeSize(entry.type) > data.limit()) {
+                return defaultValue;
+            }
+            switch (entry.type) {
+                case TYPE_BYTE:
+                case TYPE_UNDEFINED:
+                    return data.get(position) & 0xFF;
+                case TYPE_SHORT:
+                    return unsignedShort(position);
+                case TYPE_LONG:
+                case TYPE_IFD:
+                    return unsignedInt(position);
+                case TYPE_SLONG:
+                    return data.getInt(position);
+                default:
+                    return defaultValue;
+            }
+        }
+
+        public int getCount(int tag) {
+            Entry entry = entries.get(tag);
+            return entry != null ? (int) Math.min(Integer.MAX_VALUE, entry.count) : 0;
+        }
+
+        /**
+         * @return an ASCII tag without its trailing NULs, or null if missing
+         */
+        public String getString(int tag) {
+            Entry entry = entries.get(tag);
+            if (entry == null || entry.type != TYPE_ASCII
+                    || entry.valueOffset + entry.count > data.limit()) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) entry.count];
+            ByteBuffer view = data.duplicate();
+            view.position((int) entry.valueOffset);
+            view.get(bytes);
+            int length = bytes.length;
+            while (length > 0 && bytes[length - 1] == 0) {
+                length--;
+            }
+            return new String(bytes, 0, length, StandardCharsets.US_ASCII).trim();
+        }
+
+        /**
+         * @return a copy of a tag's raw value bytes (e.g. an XMP packet), or null if missing
+         */
+        public byte[] getBytes(int tag) {
+            Entry entry = entries.get(tag);
+            if (entry == null) {
+                return null;
+            }
+            long length = entry.count * typeSize(entry.type);
+            if (length > Integer.MAX_VALUE || entry.valueOffset + length > data.limit()) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) length];
+            ByteBuffer view = data.duplicate();
+            view.position((int) entry.valueOffset);
+            view.get(bytes);
+            return bytes;
+        }
+
+        /**
+         * @return the rational at the given position as a double, or NaN if missing
+         */
+        public double getRational(int tag, int index) {
+            Entry entry = entries.get(tag);
+            if (entry == null || index >= entry.count
+                    || (entry.type != TYPE_RATIONAL && entry.type != TYPE_SRATIONAL)) {
+                return Double.NaN;
+            }
+            int position = (int) (entry.valueOffset + index * 8L);
+            if (position + 8 > data.limit()) {
+                return Double.NaN;
+            }
+            long numerator = entry.type == TYPE_RATIONAL ? unsignedInt(position) : data.getInt(position);
+            long denominator = entry.type == TYPE_RATIONAL ? unsignedInt(position + 4) : data.getInt(position + 4);
+            return denominator == 0 ? Double.NaN : (double) numerator / denominator;
+        }
+
+        /**
+         * Read the sub-directory an offset tag points to (EXIF, GPS, SubIFDs).
+         */
+        public Ifd readSubIfd(int tag, int index) {
+            long offset = getLong(tag, index, 0);
+            return offset > 0 ? readIfd(offset) : null;
+        }
+
+        /**
+         * @return a copy of the byte range described by an offset and a length tag,
+         *         or null if either is missing or out of range
+         */
+        public byte[] readBlock(int offsetTag, int lengthTag) {
+            long offset = getLong(offsetTag, -1);
+            long length = getLong(lengthTag, -1);
+            if (offset <= 0 || length <= 0 || offset + length > data.limit() || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            byte[] block = new byte[(int) length];
+            ByteBuffer view = data.duplicate();
+            view.position((int) offset);
+            view.get(block);
+            return block;
+        }
+    }
+
+    private static final class Entry {
+        private final int type;
+        private final long count;
+        private final long valueOffset;
+
+        Entry(int type, long count, long valueOffset) {
+            this.type = type;
+            this.count = count;
+            this.valueOffset = valueOffset;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.mediaviewer.utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * Decodes an image as a pyramid of fixed-size tiles for deep zoom.
+ *
+ * Level 0 is full resolution and every level above halves it. A tile of
+ * level n covers TILE_SIZE * 2^n source pixels per side and is decoded with
+ * a source region plus 2^n subsampling, so each tile costs about the same
+ * memory whatever the zoom and the source size. Only the header is read up
+ * front.
+ *
+ * Instances are thread-safe: every decode uses its own reader and stream,
+ * so tiles can be decoded in parallel.
+ */
+public class TiledImageSource {
+
+    public static final int TILE_SIZE = 512;
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int maxLevel;
+
+    private TiledImageSource(File file, int width, int height) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        int level = 0;
+        while (Math.max(width, height) >> level > TILE_SIZE) {
+            level++;
+        }
+        this.maxLevel = level;
+    }
+
+    /**
+     * Read the image header.
+     * @return the source, or null if no ImageIO reader understands the file
+     */
+    public static TiledImageSource open(File file) {
+        ImageHeaderReader.Header header = ImageHeaderReader.read(file);
+        if (header == null || header.getWidth() <= 0 || header.getHeight() <= 0) {
+            return null;
+        }
+        return new TiledImageSource(file, header.getWidth(), header.getHeight());
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Coarsest level, where the whole image fits in one tile.
+     */
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * Coarsest level that still has at least one source pixel per screen pixel at the given zoom
+     * (screen pixels per source pixel).
+     */
+    public int levelFor(double zoom) {
+        if (zoom >= 1) {
+            return 0;
+        }
+        int level = (int) Math.floor(Math.log(1 / zoom) / Math.log(2));
+        return Math.max(0, Math.min(maxLevel, level));
+    }
+
+    /**
+     * Source pixels covered by one tile side at the given level.
+     */
+    public int tileSpan(int level) {
+        return TILE_SIZE << level;
+    }
+
+    public int getColumns(int level) {
+        return (width + tileSpan(level) - 1) / tileSpan(level);
+    }
+
+    public int getRows(int level) {
+        return (height + tileSpan(level) - 1) / tileSpan(level);
+    }
+
+    /**
+     * Region of the source image a tile covers, clipped to the image.
+     */
+    public Rectangle tileRegion(int level, int column, int row) {
+        int span = tileSpan(level);
+        int x = column * span;
+        int y = row * span;
+        return new Rectangle(x, y, Math.min(span, width - x), Math.min(span, height - y));
+    }
+
+    /**
+     * Decode one tile. Blocks; call it from a worker thread.
+     * @return the tile, at most TILE_SIZE pixels per side, or null if decoding failed
+     */
+    public BufferedImage decodeTile(int level, int column, int row) throws IOException {
+        Rectangle region = tileRegion(level, column, row);
+        if (region.width <= 0 || region.height <= 0) {
+            return null;
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                int subsampling = 1 << level;
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                // Only the region is decoded, at most TILE_SIZE pixels per side
+                long tileWidth = (region.width + subsampling - 1) / subsampling;
+                long tileHeight = (region.height + subsampling - 1) / subsampling;
+                DecodeGovernor.Permit permit = ScaledImageDecoder.acquire(tileWidth * tileHeight * 4);
+                try {
+                    return reader.read(0, param);
+                } finally {
+                    permit.close();
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Identifies a tile across sources, for caching.
+     */
+    public Tile tile(int level, int column, int row) {
+        return new Tile(file.getAbsolutePath(), level, column, row);
+    }
+
+    public static final class Tile {
+        private final String path;
+        private final int level;
+        private final int column;
+        private final int row;
+
+        Tile(String path, int level, int column, int row) {
+            this.path = path;
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Tile)) {
+                return false;
+            }
+            Tile other = (Tile) obj;
+            return level == other.level && column == other.column && row == other.row && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, level, column, row);
+        }
+
+        @Override
+        public String toString() {
+            return path + "@" + level + "/" + column + "," + row;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.mediaviewer.utils;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe LRU cache bounded by the total weight of its values rather
+ * than by entry count. Values heavier than the whole budget are not cached.
+ *
+ * An optional removal listener is told about every value the cache drops on
+ * its own (evicted, replaced, rejected as too heavy or cleared), outside the
+ * lock, so values owning resources can be released. Values taken out with
+ * remove() are handed to the caller instead.
+ *
+ * Each value is weighed once, when it is put. The weight it was added with is
+ * the one taken off again, so values whose weight changes while cached (an
+ * image that finishes loading in the background) cannot skew the total.
+ */
+public class WeightedLruCache<K, V> {
+
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final BiConsumer<K, V> removalListener;
+
+    // Access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<K, Weighted<V>> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public WeightedLruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this(maxWeight, weigher, (key, value) -> { });
+    }
+
+    public WeightedLruCache(long maxWeight, ToLongFunction<V> weigher, BiConsumer<K, V> removalListener) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * @return the cached value, or null on a miss
+     */
+    public V get(K key) {
+        V value;
+        synchronized (this) {
+            Weighted<V> entry = entries.get(key);
+            value = entry != null ? entry.value : null;
+        }
+        (value != null ? hits : misses).incrementAndGet();
+        return value;
+    }
+
+    public void put(K key, V value) {
+        long weight = weigher.applyAsLong(value);
+        List<Map.Entry<K, V>> dropped = new ArrayList<>();
+        synchronized (this) {
+            if (weight > maxWeight) {
+                V previous = remove(key);
+                if (previous != null && previous != value) {
+                    dropped.add(new AbstractMap.SimpleImmutableEntry<>(key, previous));
+                }
+                dropped.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+            } else {
+                Weighted<V> previous = entries.put(key, new Weighted<>(value, weight));
+                if (previous != null) {
+                    totalWeight -= previous.weight;
+                    if (previous.value != value) {
+                        dropped.add(new AbstractMap.SimpleImmutableEntry<>(key, previous.value));
+                    }
+                }
+                totalWeight += weight;
+
+                Iterator<Map.Entry<K, Weighted<V>>> iterator = entries.entrySet().iterator();
+                while (totalWeight > maxWeight && iterator.hasNext()) {
+                    Map.Entry<K, Weighted<V>> eldest = iterator.next();
+                    if (eldest.getKey().equals(key)) {
+                        continue;
+                    }
+                    totalWeight -= eldest.getValue().weight;
+                    dropped.add(new AbstractMap.SimpleImmutableEntry<>(eldest.getKey(), eldest.getValue().value));
+                    iterator.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        notifyRemoved(dropped);
+    }
+
+    private void notifyRemoved(List<Map.Entry<K, V>> dropped) {
+        for (Map.Entry<K, V> entry : dropped) {
+            removalListener.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public synchronized V remove(K key) {
+        Weighted<V> removed = entries.remove(key);
+        if (removed == null) {
+            return null;
+        }
+        totalWeight -= removed.weight;
+        return removed.value;
+    }
+
+    public synchronized boolean containsKey(K key) {
+        return entries.containsKey(key);
+    }
+
+    public void clear() {
+        List<Map.Entry<K, V>> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<>(entries.size());
+            for (Map.Entry<K, Weighted<V>> entry : entries.entrySet()) {
+                dropped.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value));
+            }
+            entries.clear();
+            totalWeight = 0;
+        }
+        notifyRemoved(dropped);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    // A value with the weight it was added with
+    private static final class Weighted<V> {
+        private final V value;
+        private final long weight;
+
+        Weighted(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WeightedLruCache{" +
+                "entries=" + size() +
+                ", weight=" + getTotalWeight() + "/" + maxWeight +
+                ", hits=" + hits.get() +
+                ", misses=" + misses.get() +
+                ", evictions=" + evictions.get() +
+                '}';
+    }
+}
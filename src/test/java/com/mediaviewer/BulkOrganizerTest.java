@@ -0,0 +1,125 @@
+package com.mediaviewer;
+
+import com.mediaviewer.model.MediaFile;
+import com.mediaviewer.utils.BulkOrganizer;
+import com.mediaviewer.utils.FileOrganizer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BulkOrganizerTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("organizeTest");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testPlanResolvesCollisionsUpFront() throws IOException {
+        MediaFile first = createMediaFile("a", "IMG_0001.jpg");
+        MediaFile second = createMediaFile("b", "IMG_0001.jpg");
+        MediaFile other = createMediaFile("b", "IMG_0002.jpg");
+        // Already where the layout puts it
+        MediaFile inPlace = createMediaFile("Small", "IMG_0003.jpg");
+        // Taken on disk by a file outside the run
+        Files.createFile(tempDir.resolve("Small").resolve("IMG_0002.jpg"));
+
+        BulkOrganizer.Plan plan = new BulkOrganizer().plan(tempDir,
+            Arrays.asList(first, second, other, inPlace), FileOrganizer.Layout.BY_SIZE);
+
+        assertEquals(Arrays.asList(tempDir.resolve("Small")), plan.getDirectories());
+        assertEquals(Arrays.asList(inPlace.getFilePath()), plan.getSkipped());
+        assertEquals(3, plan.getMoves().size());
+        assertEquals(2, plan.getCollisionCount());
+        assertEquals("IMG_0001.jpg", plan.getMoves().get(0).getTarget().getFileName().toString());
+        assertEquals("IMG_0001_1.jpg", plan.getMoves().get(1).getTarget().getFileName().toString());
+        assertEquals("IMG_0002_1.jpg", plan.getMoves().get(2).getTarget().getFileName().toString());
+        // Planning moves nothing
+        assertTrue(Files.exists(first.getFilePath()));
+    }
+
+    @Test
+    public void testExecuteMovesInParallelAndReportsEachFile() throws IOException {
+        List<MediaFile> files = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            files.add(createMediaFile("in" + (i % 4), "photo" + (i / 4) + ".jpg"));
+        }
+        MediaFile vanished = createMediaFile("gone", "vanished.jpg");
+        files.add(vanished);
+
+        BulkOrganizer organizer = new BulkOrganizer(4);
+        BulkOrganizer.Plan plan = organizer.plan(tempDir, files, FileOrganizer.Layout.BY_SIZE);
+        Files.delete(vanished.getFilePath());
+
+        List<BulkOrganizer.Progress> reports = new ArrayList<>();
+        BulkOrganizer.Result result = organizer.execute(plan, progress -> {
+            synchronized (reports) {
+                reports.add(progress);
+            }
+        });
+
+        assertEquals(40, result.getMovedCount());
+        assertEquals(1, result.getFailedCount());
+        assertEquals(41, result.getFiles().size());
+        BulkOrganizer.FileResult failed = result.getFiles().get(40);
+        assertEquals(BulkOrganizer.Status.FAILED, failed.getStatus());
+        assertNotNull(failed.getError());
+
+        File[] organized = tempDir.resolve("Small").toFile().listFiles();
+        assertNotNull(organized);
+        assertEquals(40, organized.length);
+        for (BulkOrganizer.FileResult file : result.getFiles().subList(0, 40)) {
+            assertEquals(BulkOrganizer.Status.MOVED, file.getStatus());
+            assertFalse(Files.exists(file.getMove().getSource()));
+            assertTrue(Files.exists(file.getMove().getTarget()));
+        }
+
+        BulkOrganizer.Progress last = reports.get(reports.size() - 1);
+        assertTrue(last.isFinished());
+        assertEquals(41, last.getCompleted());
+        assertEquals(1, last.getFailed());
+    }
+
+    @Test
+    public void testCancelBeforeExecuteIsKept() throws IOException {
+        MediaFile file = createMediaFile("a", "IMG_0001.jpg");
+        BulkOrganizer organizer = new BulkOrganizer();
+        BulkOrganizer.Plan plan = organizer.plan(tempDir, Arrays.asList(file), FileOrganizer.Layout.BY_SIZE);
+        // E.g. the user cancelled while the confirmation was showing
+        organizer.cancel();
+
+        BulkOrganizer.Result result = organizer.execute(plan, null);
+        assertEquals(1, result.getCancelledCount());
+        assertTrue(Files.exists(file.getFilePath()));
+    }
+
+    private MediaFile createMediaFile(String directory, String fileName) throws IOException {
+        Path parent = Files.createDirectories(tempDir.resolve(directory));
+        return new MediaFile(Files.createFile(parent.resolve(fileName)).toFile());
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
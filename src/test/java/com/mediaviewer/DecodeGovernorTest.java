@@ -0,0 +1,78 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.DecodeGovernor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.concurrent.CompletableFuture;
+
+public class DecodeGovernorTest {
+
+    @Test
+    public void testAdmitsWithinBudgetAndQueuesBeyondIt() throws Exception {
+        DecodeGovernor governor = new DecodeGovernor(1000);
+        DecodeGovernor.Permit first = governor.acquire(600);
+        assertEquals(600, governor.getInUseBytes());
+
+        CompletableFuture<DecodeGovernor.Permit> second = governor.acquireAsync(600);
+        assertFalse(second.isDone());
+        assertEquals(1, governor.getQueueDepth());
+
+        first.close();
+        assertTrue(second.isDone());
+        assertEquals(600, governor.getInUseBytes());
+        assertEquals(0, governor.getQueueDepth());
+
+        second.join().close();
+        // Closing twice releases once
+        second.join().close();
+        assertEquals(0, governor.getInUseBytes());
+        assertEquals(2, governor.getAdmittedCount());
+        assertEquals(1, governor.getQueuedCount());
+        assertEquals(600, governor.getPeakInUseBytes());
+    }
+
+    @Test
+    public void testWaitersAreServedInOrder() {
+        DecodeGovernor governor = new DecodeGovernor(1000);
+        DecodeGovernor.Permit held = governor.acquireAsync(900).join();
+        CompletableFuture<DecodeGovernor.Permit> large = governor.acquireAsync(800);
+        // Would fit, but may not overtake the queued request
+        CompletableFuture<DecodeGovernor.Permit> small = governor.acquireAsync(100);
+        assertFalse(small.isDone());
+
+        held.close();
+        assertTrue(large.isDone());
+        assertTrue(small.isDone());
+        assertEquals(900, governor.getInUseBytes());
+    }
+
+    @Test
+    public void testOversizedRequestRunsAlone() {
+        DecodeGovernor governor = new DecodeGovernor(1000);
+        DecodeGovernor.Permit huge = governor.acquireAsync(5000).join();
+        assertEquals(1000, huge.getBytes());
+        CompletableFuture<DecodeGovernor.Permit> next = governor.acquireAsync(1);
+        assertFalse(next.isDone());
+        huge.close();
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    public void testCancelledWaiterLeavesTheQueue() {
+        DecodeGovernor governor = new DecodeGovernor(1000);
+        DecodeGovernor.Permit held = governor.acquireAsync(500).join();
+        CompletableFuture<DecodeGovernor.Permit> blocked = governor.acquireAsync(800);
+        CompletableFuture<DecodeGovernor.Permit> behind = governor.acquireAsync(400);
+        assertEquals(2, governor.getQueueDepth());
+
+        // The cancelled head no longer holds back the request behind it
+        blocked.cancel(false);
+        assertTrue(behind.isDone());
+        assertEquals(900, governor.getInUseBytes());
+        assertEquals(0, governor.getQueueDepth());
+
+        held.close();
+        behind.join().close();
+        assertEquals(0, governor.getInUseBytes());
+    }
+}
@@ -0,0 +1,201 @@
+package com.mediaviewer;
+
+import com.mediaviewer.model.MediaFile;
+import com.mediaviewer.utils.ExifMetadataReader;
+import com.mediaviewer.utils.FacetIndex;
+import com.mediaviewer.utils.FileOrganizer;
+import com.mediaviewer.utils.FileScanner;
+import com.mediaviewer.utils.MediaCatalog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+public class ExifMetadataReaderTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("exifMetadataTest");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testReadsExifDateCameraOrientationAndGps() throws IOException {
+        File photo = writeJpeg("photo.jpg", exifSegment("2019:07:14 15:30:45"));
+
+        ExifMetadataReader.PhotoMetadata metadata = ExifMetadataReader.read(photo);
+        assertNotNull(metadata);
+        assertEquals(millis(LocalDateTime.of(2019, 7, 14, 15, 30, 45)), metadata.getCaptureTime());
+        assertEquals("TestCam X100", metadata.getCameraModel());
+        assertEquals(6, metadata.getOrientation());
+        assertEquals(-33.8667, metadata.getLatitude(), 0.0001);
+        assertEquals(151.2083, metadata.getLongitude(), 0.0001);
+    }
+
+    @Test
+    public void testXmpFillsInMissingValues() throws IOException {
+        String xmp = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"><rdf:RDF><rdf:Description"
+            + " exif:DateTimeOriginal=\"2015-03-02T10:00:00+01:00\" tiff:Make=\"Acme\">"
+            + "<tiff:Model>Phone 7</tiff:Model></rdf:Description></rdf:RDF></x:xmpmeta>";
+        File photo = writeJpeg("edited.jpg", xmpSegment(xmp));
+
+        ExifMetadataReader.PhotoMetadata metadata = ExifMetadataReader.read(photo);
+        assertNotNull(metadata);
+        assertEquals(OffsetDateTime.parse("2015-03-02T10:00:00+01:00").toInstant().toEpochMilli(),
+                     metadata.getCaptureTime());
+        assertEquals("Acme", metadata.getCameraMake());
+        assertEquals("Phone 7", metadata.getCameraModel());
+        assertFalse(metadata.hasLocation());
+    }
+
+    @Test
+    public void testNoMetadata() throws IOException {
+        File plain = writeJpeg("plain.jpg", null);
+        assertNull(ExifMetadataReader.read(plain));
+        Path text = tempDir.resolve("notes.txt");
+        Files.write(text, new byte[] {1, 2, 3});
+        assertNull(ExifMetadataReader.read(text.toFile()));
+    }
+
+    @Test
+    public void testCaptureDateDrivesFilterAndOrganizing() throws IOException {
+        Path photos = Files.createDirectories(tempDir.resolve("photos"));
+        File photo = writeJpeg("photos/photo.jpg", exifSegment("2010:05:20 08:00:00"));
+        // Copying resets the modification time, the capture date is what counts
+        assertTrue(photo.setLastModified(System.currentTimeMillis()));
+
+        FileScanner scanner = new FileScanner();
+        scanner.scanDirectory(photos.toString(), null);
+        MediaCatalog catalog = scanner.getCatalog();
+        MediaFile mediaFile = scanner.getImageFiles().get(0);
+        assertEquals(millis(LocalDateTime.of(2010, 5, 20, 8, 0)), mediaFile.getDateTakenMillis());
+
+        FacetIndex.Query query = new FacetIndex.Query();
+        query.setDateAfter(millis(LocalDateTime.of(2011, 1, 1, 0, 0)));
+        assertTrue(catalog.getFacets().evaluate(query).getMatches().isEmpty());
+        FacetIndex.Result all = catalog.getFacets().evaluate(new FacetIndex.Query());
+        assertEquals(1, all.countDateAfter(millis(LocalDateTime.of(2010, 5, 1, 0, 0))));
+        assertEquals(0, all.countDateAfter(millis(LocalDateTime.of(2010, 6, 1, 0, 0))));
+
+        new FileOrganizer().organizeByDate(photos.toFile(), mediaFile);
+        assertTrue(Files.exists(photos.resolve("2010").resolve("05").resolve("photo.jpg")));
+    }
+
+    @Test
+    public void testMostRecentSortsByCaptureDate() throws IOException {
+        Path photos = Files.createDirectories(tempDir.resolve("photos"));
+        File older = writeJpeg("photos/older.jpg", exifSegment("2010:05:20 08:00:00"));
+        File newer = writeJpeg("photos/newer.jpg", exifSegment("2015:03:01 12:00:00"));
+        // The older shot was copied last, so it has the newer modification time
+        assertTrue(newer.setLastModified(millis(LocalDateTime.of(2016, 1, 1, 0, 0))));
+        assertTrue(older.setLastModified(System.currentTimeMillis()));
+
+        FileScanner scanner = new FileScanner();
+        scanner.scanDirectory(photos.toString(), null);
+        MediaCatalog catalog = scanner.getCatalog();
+
+        List<MediaFile> sorted = catalog.resolve(catalog.getFacets().evaluate(new FacetIndex.Query()).getMatches(),
+                                                 MediaCatalog.SortOrder.MOST_RECENT).get(MediaCatalog.Section.IMAGES);
+        assertEquals("newer.jpg", sorted.get(0).getFileName());
+        assertEquals("older.jpg", sorted.get(1).getFileName());
+        assertEquals("newer.jpg", catalog.mostRecent(1).get(0).getFileName());
+    }
+
+    private long millis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // Big-endian TIFF with IFD0 (model, orientation, EXIF and GPS pointers), an EXIF IFD and a GPS IFD
+    private byte[] exifSegment(String dateTimeOriginal) {
+        byte[] model = "TestCam X100\0".getBytes(StandardCharsets.US_ASCII);
+        byte[] date = (dateTimeOriginal + "\0").getBytes(StandardCharsets.US_ASCII);
+        int ifd0 = 8;
+        int exifIfd = ifd0 + 2 + 4 * 12 + 4;
+        int gpsIfd = exifIfd + 2 + 12 + 4;
+        int modelOffset = gpsIfd + 2 + 4 * 12 + 4;
+        int dateOffset = modelOffset + model.length;
+        int latitudeOffset = dateOffset + date.length;
+        int longitudeOffset = latitudeOffset + 24;
+
+        ByteBuffer tiff = ByteBuffer.allocate(longitudeOffset + 24);
+        tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(ifd0);
+        tiff.putShort((short) 4);
+        tiff.putShort((short) 0x0110).putShort((short) 2).putInt(model.length).putInt(modelOffset);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+        tiff.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(exifIfd);
+        tiff.putShort((short) 0x8825).putShort((short) 4).putInt(1).putInt(gpsIfd);
+        tiff.putInt(0);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x9003).putShort((short) 2).putInt(date.length).putInt(dateOffset);
+        tiff.putInt(0);
+        tiff.putShort((short) 4);
+        tiff.putShort((short) 1).putShort((short) 2).putInt(2).put((byte) 'S').put((byte) 0).putShort((short) 0);
+        tiff.putShort((short) 2).putShort((short) 5).putInt(3).putInt(latitudeOffset);
+        tiff.putShort((short) 3).putShort((short) 2).putInt(2).put((byte) 'E').put((byte) 0).putShort((short) 0);
+        tiff.putShort((short) 4).putShort((short) 5).putInt(3).putInt(longitudeOffset);
+        tiff.putInt(0);
+        tiff.put(model).put(date);
+        tiff.putInt(33).putInt(1).putInt(52).putInt(1).putInt(0).putInt(1);
+        tiff.putInt(151).putInt(1).putInt(25).putInt(2).putInt(0).putInt(1);
+
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        segment.writeBytes(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+        segment.writeBytes(tiff.array());
+        return segment.toByteArray();
+    }
+
+    private byte[] xmpSegment(String xmp) {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        segment.writeBytes("http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.US_ASCII));
+        segment.writeBytes(xmp.getBytes(StandardCharsets.UTF_8));
+        return segment.toByteArray();
+    }
+
+    private File writeJpeg(String name, byte[] app1) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "jpg", encoded);
+        byte[] main = encoded.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(main, 0, 2); // SOI
+        if (app1 != null) {
+            int length = app1.length + 2;
+            out.write(new byte[] {(byte) 0xFF, (byte) 0xE1, (byte) (length >> 8), (byte) length});
+            out.write(app1, 0, app1.length);
+        }
+        out.write(main, 2, main.length - 2);
+
+        Path file = tempDir.resolve(name);
+        Files.write(file, out.toByteArray());
+        return file.toFile();
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
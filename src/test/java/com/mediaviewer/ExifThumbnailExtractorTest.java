@@ -0,0 +1,128 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ExifThumbnailExtractor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ExifThumbnailExtractorTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("exifThumbnailTest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testUsesEmbeddedThumbnail() throws IOException {
+        File photo = writeJpegWithThumbnail("photo.jpg", 160, 120, 1);
+
+        BufferedImage thumbnail = ExifThumbnailExtractor.extract(photo, 150, 150);
+        assertNotNull(thumbnail);
+        assertEquals(150, thumbnail.getWidth());
+        assertEquals(113, thumbnail.getHeight(), 1);
+    }
+
+    @Test
+    public void testAppliesOrientation() throws IOException {
+        File photo = writeJpegWithThumbnail("rotated.jpg", 160, 120, 6);
+
+        BufferedImage thumbnail = ExifThumbnailExtractor.extract(photo, 150, 150);
+        assertNotNull(thumbnail);
+        assertTrue(thumbnail.getHeight() > thumbnail.getWidth());
+    }
+
+    @Test
+    public void testTooSmallThumbnailFallsBack() throws IOException {
+        File photo = writeJpegWithThumbnail("small.jpg", 160, 120, 1);
+        assertNull(ExifThumbnailExtractor.extract(photo, 320, 320));
+    }
+
+    @Test
+    public void testSkipsLetterboxedThumbnail() throws IOException {
+        // A 4:3 thumbnail padded with bars for a 3:2 photo
+        File padded = writeJpegWithThumbnail("padded.jpg", 900, 600, 160, 120, 1);
+        assertNull(ExifThumbnailExtractor.extract(padded, 150, 150));
+
+        File matching = writeJpegWithThumbnail("matching.jpg", 900, 600, 160, 107, 1);
+        assertNotNull(ExifThumbnailExtractor.extract(matching, 150, 150));
+    }
+
+    @Test
+    public void testJpegWithoutExif() throws IOException {
+        File plain = tempDir.resolve("plain.jpg").toFile();
+        ImageIO.write(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), "jpg", plain);
+        assertNull(ExifThumbnailExtractor.readJpegExif(plain));
+        assertNull(ExifThumbnailExtractor.extract(plain, 150, 150));
+    }
+
+    // A JPEG whose APP1 segment holds IFD0 (orientation) and IFD1 pointing at an embedded thumbnail
+    private File writeJpegWithThumbnail(String name, int thumbWidth, int thumbHeight, int orientation)
+            throws IOException {
+        return writeJpegWithThumbnail(name, 800, 600, thumbWidth, thumbHeight, orientation);
+    }
+
+    private File writeJpegWithThumbnail(String name, int width, int height, int thumbWidth, int thumbHeight,
+                                        int orientation) throws IOException {
+        byte[] thumbnail = encodeJpeg(new BufferedImage(thumbWidth, thumbHeight, BufferedImage.TYPE_INT_RGB));
+        byte[] main = encodeJpeg(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+
+        int ifd0 = 8;
+        int ifd1 = ifd0 + 2 + 12 + 4;
+        int data = ifd1 + 2 + 2 * 12 + 4;
+        ByteBuffer tiff = ByteBuffer.allocate(data + thumbnail.length).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(ifd0);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        tiff.putInt(ifd1);
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(data);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        tiff.putInt(0);
+        tiff.put(thumbnail);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(main, 0, 2); // SOI
+        int segmentLength = 2 + 6 + tiff.capacity();
+        out.write(new byte[] {(byte) 0xFF, (byte) 0xE1, (byte) (segmentLength >> 8), (byte) segmentLength});
+        out.write(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+        out.write(tiff.array());
+        out.write(main, 2, main.length - 2);
+
+        Path file = tempDir.resolve(name);
+        Files.write(file, out.toByteArray());
+        return file.toFile();
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,169 @@
+package com.mediaviewer;
+
+import com.mediaviewer.model.MediaFile;
+import com.mediaviewer.utils.CompressedBitmap;
+import com.mediaviewer.utils.FacetIndex;
+import com.mediaviewer.utils.MediaCatalog;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+public class FacetIndexTest {
+
+    @Test
+    public void testBitmapOperationsMatchBitSet() {
+        Random random = new Random(7);
+        // Mix sparse and dense regions so both container kinds are exercised
+        BitSet expectedA = new BitSet();
+        BitSet expectedB = new BitSet();
+        CompressedBitmap a = new CompressedBitmap();
+        CompressedBitmap b = new CompressedBitmap();
+        for (int i = 0; i < 200000; i++) {
+            int id = random.nextInt(300000);
+            if (id < 70000 || random.nextInt(10) == 0) {
+                expectedA.set(id);
+                a.add(id);
+            }
+            int other = random.nextInt(300000);
+            if (other > 50000 && random.nextInt(3) == 0) {
+                expectedB.set(other);
+                b.add(other);
+            }
+        }
+
+        assertEquals(expectedA.cardinality(), a.cardinality());
+
+        BitSet and = (BitSet) expectedA.clone();
+        and.and(expectedB);
+        assertArrayEquals(and.stream().toArray(), a.and(b).toArray());
+        assertEquals(and.cardinality(), a.andCardinality(b));
+
+        BitSet or = (BitSet) expectedA.clone();
+        or.or(expectedB);
+        assertArrayEquals(or.stream().toArray(), a.or(b).toArray());
+
+        BitSet andNot = (BitSet) expectedA.clone();
+        andNot.andNot(expectedB);
+        assertArrayEquals(andNot.stream().toArray(), a.andNot(b).toArray());
+    }
+
+    @Test
+    public void testAddRemoveContains() {
+        CompressedBitmap bitmap = CompressedBitmap.range(0, 10000);
+        assertEquals(10000, bitmap.cardinality());
+        for (int id = 0; id < 10000; id += 2) {
+            bitmap.remove(id);
+        }
+        assertEquals(5000, bitmap.cardinality());
+        assertFalse(bitmap.contains(42));
+        assertTrue(bitmap.contains(43));
+        bitmap.add(70000);
+        assertTrue(bitmap.contains(70000));
+        assertEquals(5001, bitmap.cardinality());
+    }
+
+    @Test
+    public void testFacetCounts() throws IOException {
+        Path tempDir = Files.createTempDirectory("facetTest");
+        try {
+            List<MediaFile> images = new ArrayList<>();
+            images.add(createMediaFile(tempDir, "a.jpg"));
+            images.add(createMediaFile(tempDir, "b.jpg"));
+            images.add(createMediaFile(tempDir, "c.png"));
+            List<MediaFile> videos = new ArrayList<>();
+            videos.add(createMediaFile(tempDir, "d.mp4"));
+
+            MediaCatalog catalog = MediaCatalog.build(images, videos, new ArrayList<>(),
+                new ArrayList<>(), new ArrayList<>());
+            FacetIndex facets = catalog.getFacets();
+
+            images.get(0).setFavorite(true);
+            images.get(0).addTag("holiday");
+            videos.get(0).addTag("holiday");
+            facets.update(images.get(0));
+            facets.update(videos.get(0));
+
+            FacetIndex.Query query = new FacetIndex.Query();
+            query.setSection(MediaCatalog.Section.IMAGES);
+            FacetIndex.Result result = facets.evaluate(query);
+
+            assertEquals(3, result.getMatches().cardinality());
+            // Section counts ignore the section constraint itself
+            assertEquals(3, result.getSectionCount(MediaCatalog.Section.IMAGES));
+            assertEquals(1, result.getSectionCount(MediaCatalog.Section.VIDEOS));
+            assertEquals(1, (int) result.getTagCounts().get("holiday"));
+            assertEquals(1, result.getFavoriteCount());
+
+            query.setTag("holiday");
+            result = facets.evaluate(query);
+            assertEquals(1, result.getMatches().cardinality());
+            assertEquals(1, result.getSectionCount(MediaCatalog.Section.VIDEOS));
+
+            // Removing the favorite flag is reflected without rebuilding the catalog
+            images.get(0).setFavorite(false);
+            facets.update(images.get(0));
+            assertEquals(0, facets.evaluate(new FacetIndex.Query()).getFavoriteCount());
+        } finally {
+            deleteRecursively(tempDir.toFile());
+        }
+    }
+
+    @Test
+    public void testDateCountsUnderOtherFilters() throws IOException {
+        Path tempDir = Files.createTempDirectory("facetTest");
+        try {
+            List<MediaFile> images = new ArrayList<>();
+            images.add(createMediaFile(tempDir, "a.jpg", 1_000_000L));
+            images.add(createMediaFile(tempDir, "b.jpg", 2_000_000L));
+            images.add(createMediaFile(tempDir, "c.png", 3_000_000L));
+            List<MediaFile> videos = new ArrayList<>();
+            videos.add(createMediaFile(tempDir, "d.mp4", 3_000_000L));
+
+            FacetIndex facets = MediaCatalog.build(images, videos, new ArrayList<>(),
+                new ArrayList<>(), new ArrayList<>()).getFacets();
+            assertEquals(3, facets.evaluate(new FacetIndex.Query()).countDateAfter(1_500_000L));
+
+            FacetIndex.Query query = new FacetIndex.Query();
+            query.setSection(MediaCatalog.Section.IMAGES);
+            // Both the date range and the other filters can be the smaller side
+            FacetIndex.Result result = facets.evaluate(query);
+            assertEquals(2, result.countDateAfter(1_500_000L));
+            assertEquals(3, result.countDateAfter(500_000L));
+            assertEquals(0, result.countDateAfter(3_000_000L));
+
+            // The query's own date constraint does not limit the options
+            query.setDateAfter(2_500_000L);
+            assertEquals(3, facets.evaluate(query).countDateAfter(500_000L));
+        } finally {
+            deleteRecursively(tempDir.toFile());
+        }
+    }
+
+    private MediaFile createMediaFile(Path directory, String fileName, long modified) throws IOException {
+        Path file = Files.createFile(directory.resolve(fileName));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return new MediaFile(file.toFile());
+    }
+
+    private MediaFile createMediaFile(Path directory, String fileName) throws IOException {
+        return new MediaFile(Files.createFile(directory.resolve(fileName)).toFile());
+    }
+
+    private void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
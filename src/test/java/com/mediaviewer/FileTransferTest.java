@@ -0,0 +1,118 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.FileTransfer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class FileTransferTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("transferTest");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testCopiesInChunksAndDeletesTheSource() throws IOException {
+        byte[] data = randomBytes(10_000);
+        Path source = Files.write(tempDir.resolve("source.jpg"), data);
+        Files.setLastModifiedTime(source, FileTime.fromMillis(1_500_000_000_000L));
+        Path target = tempDir.resolve("target.jpg");
+
+        List<Long> progress = new ArrayList<>();
+        FileTransfer transfer = new FileTransfer(4096, 0, FileTransfer.Verification.CHECKSUM);
+        transfer.copyAcrossStores(source, target, (transferred, total) -> {
+            assertEquals(10_000, total);
+            progress.add(transferred);
+        });
+
+        assertEquals(Arrays.asList(4096L, 8192L, 10_000L), progress);
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertFalse(Files.exists(source));
+        assertFalse(Files.exists(FileTransfer.partFile(target)));
+        assertEquals(1_500_000_000_000L, Files.getLastModifiedTime(target).toMillis());
+    }
+
+    @Test
+    public void testResumesAPartialCopy() throws IOException {
+        byte[] data = randomBytes(10_000);
+        Path source = Files.write(tempDir.resolve("source.jpg"), data);
+        Path target = tempDir.resolve("target.jpg");
+        // Left by an interrupted run
+        Files.write(FileTransfer.partFile(target), Arrays.copyOf(data, 6000));
+
+        List<Long> progress = new ArrayList<>();
+        new FileTransfer(4096, 0, FileTransfer.Verification.SIZE)
+            .copyAcrossStores(source, target, (transferred, total) -> progress.add(transferred));
+
+        // Only the missing bytes were copied
+        assertEquals(Arrays.asList(10_000L), progress);
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertFalse(Files.exists(source));
+    }
+
+    @Test
+    public void testStalePartialCopyIsRestarted() throws IOException {
+        byte[] data = randomBytes(10_000);
+        Path source = Files.write(tempDir.resolve("source.jpg"), data);
+        Path target = tempDir.resolve("target.jpg");
+        // A prefix of some other file
+        Files.write(FileTransfer.partFile(target), randomBytes(6000));
+
+        new FileTransfer(4096, 0, FileTransfer.Verification.SIZE).copyAcrossStores(source, target, null);
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertFalse(Files.exists(source));
+    }
+
+    @Test
+    public void testNeverReplacesADifferentTarget() throws IOException {
+        Path source = Files.write(tempDir.resolve("source.jpg"), randomBytes(100));
+        Path target = Files.write(tempDir.resolve("target.jpg"), randomBytes(101));
+        try {
+            new FileTransfer().copyAcrossStores(source, target, null);
+            fail("Expected FileAlreadyExistsException");
+        } catch (FileAlreadyExistsException expected) {
+            assertTrue(Files.exists(source));
+        }
+
+        // A copy that was renamed into place before a crash only needs the source deleted
+        Files.write(target, Files.readAllBytes(source));
+        new FileTransfer().copyAcrossStores(source, target, null);
+        assertFalse(Files.exists(source));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,142 @@
+package com.mediaviewer;
+
+import com.mediaviewer.model.MediaFile;
+import com.mediaviewer.utils.FuzzyMatcher;
+import com.mediaviewer.utils.MediaCatalog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FuzzyMatcherTest {
+
+    // More than one search chunk
+    private static final int CATALOG_SIZE = 17000;
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("fuzzyTest");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testSubsequenceMatching() {
+        assertTrue(FuzzyMatcher.score("hol", "holiday_2023.jpg") > 0);
+        assertTrue(FuzzyMatcher.score("hdy", "holiday_2023.jpg") != FuzzyMatcher.NO_MATCH);
+        assertEquals(FuzzyMatcher.NO_MATCH, FuzzyMatcher.score("xyz", "holiday_2023.jpg"));
+    }
+
+    @Test
+    public void testTokensMatchInAnyOrder() {
+        int inOrder = FuzzyMatcher.score("holiday 2023", "holiday_2023.jpg");
+        int reversed = FuzzyMatcher.score("2023 holiday", "holiday_2023.jpg");
+        assertNotEquals(FuzzyMatcher.NO_MATCH, reversed);
+        assertEquals(inOrder, reversed);
+    }
+
+    @Test
+    public void testTyposWithinEditDistance() {
+        assertNotEquals(FuzzyMatcher.NO_MATCH, FuzzyMatcher.score("holdiay", "holiday_2023.jpg"));
+        assertNotEquals(FuzzyMatcher.NO_MATCH, FuzzyMatcher.score("vacaton", "summer vacation.png"));
+        assertEquals(FuzzyMatcher.NO_MATCH, FuzzyMatcher.score("zzzzzz", "summer vacation.png"));
+    }
+
+    @Test
+    public void testTransposedAndSubstitutedLetters() {
+        int exact = FuzzyMatcher.score("vacation", "summer vacation.png");
+        // Neither is a subsequence of the name, only the edit distance matches them
+        int transposed = FuzzyMatcher.score("vacatoin", "summer vacation.png");
+        int substituted = FuzzyMatcher.score("vacetion", "summer vacation.png");
+        assertNotEquals(FuzzyMatcher.NO_MATCH, transposed);
+        assertNotEquals(FuzzyMatcher.NO_MATCH, substituted);
+        assertTrue(exact > substituted);
+        assertTrue(substituted > transposed);
+        // Two edits are too many for a short word
+        assertEquals(FuzzyMatcher.NO_MATCH, FuzzyMatcher.score("smumre", "summer vacation.png"));
+    }
+
+    @Test
+    public void testRankingPrefersTighterMatches() {
+        int prefix = FuzzyMatcher.score("img", "img_0001.jpg");
+        int scattered = FuzzyMatcher.score("img", "invoice_morning.pdf");
+        int exactTypo = FuzzyMatcher.score("imgage", "image.png");
+        assertTrue(prefix > scattered);
+        assertTrue(prefix > 0);
+        assertTrue(exactTypo != FuzzyMatcher.NO_MATCH);
+    }
+
+    @Test
+    public void testSearchKeepsBestMatchesAcrossChunks() {
+        List<MediaFile> images = new ArrayList<>();
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            images.add(mediaFile(String.format("img_%05d.jpg", i)));
+        }
+        images.set(100, mediaFile("beach.jpg"));
+        images.set(5000, mediaFile("beach.gif"));
+        images.set(16500, mediaFile("beach.png"));
+        images.set(16900, mediaFile("beach.bmp"));
+        images.set(16700, mediaFile("summer_vacation.jpg"));
+        images.get(16500).setFavorite(true);
+        MediaCatalog catalog = build(images);
+
+        // The favorite wins, equal scores keep ID order across chunks
+        assertArrayEquals(new int[] {16500, 100, 5000, 16900}, FuzzyMatcher.search(catalog, "Beach", 10));
+        assertArrayEquals(new int[] {16500, 100}, FuzzyMatcher.search(catalog, "beach", 2));
+
+        // Every chunk's heap is full of equally good matches, the lowest IDs win
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, FuzzyMatcher.search(catalog, "img", 5));
+        assertArrayEquals(new int[] {16385}, FuzzyMatcher.search(catalog, "img 16385", 1));
+
+        assertArrayEquals(new int[] {16700}, FuzzyMatcher.search(catalog, "vacatoin", 10));
+        assertEquals(0, FuzzyMatcher.search(catalog, "   ", 10).length);
+        assertEquals(0, FuzzyMatcher.search(catalog, "beach", 0).length);
+    }
+
+    @Test
+    public void testSearchPrefersRecentFiles() throws IOException {
+        List<MediaFile> images = new ArrayList<>();
+        images.add(mediaFile("report_old.pdf", System.currentTimeMillis() - 365L * 24 * 60 * 60 * 1000));
+        images.add(mediaFile("report_new.pdf", System.currentTimeMillis()));
+        MediaCatalog catalog = build(images);
+
+        assertArrayEquals(new int[] {1, 0}, FuzzyMatcher.search(catalog, "report", 10));
+    }
+
+    // Files that are never created, the catalog only needs their names
+    private MediaFile mediaFile(String name) {
+        return new MediaFile(tempDir.resolve(name).toFile());
+    }
+
+    private MediaFile mediaFile(String name, long modified) throws IOException {
+        Path file = Files.createFile(tempDir.resolve(name));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return new MediaFile(file.toFile());
+    }
+
+    private MediaCatalog build(List<MediaFile> images) {
+        return MediaCatalog.build(images, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,97 @@
+package com.mediaviewer;
+
+import com.mediaviewer.model.MediaFile;
+import com.mediaviewer.utils.FacetIndex;
+import com.mediaviewer.utils.FileScanner;
+import com.mediaviewer.utils.ImageHeaderReader;
+import com.mediaviewer.utils.MediaCatalog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class ImageHeaderReaderTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("headerTest");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testReadsHeadersOfCommonFormats() throws IOException {
+        String[] formats = {"jpeg", "png", "gif", "bmp", "tiff"};
+        for (String format : formats) {
+            File file = writeImage("image." + format, format, 300, 200);
+            ImageHeaderReader.Header header = ImageHeaderReader.read(file);
+            assertNotNull(format, header);
+            assertEquals(format, 300, header.getWidth());
+            assertEquals(format, 200, header.getHeight());
+            assertEquals(format, header.getFormat());
+            assertEquals(format, 8, header.getBitDepth());
+        }
+    }
+
+    @Test
+    public void testUnreadableFile() throws IOException {
+        Path file = tempDir.resolve("notes.jpg");
+        Files.write(file, new byte[] {1, 2, 3, 4});
+        assertNull(ImageHeaderReader.read(file.toFile()));
+    }
+
+    @Test
+    public void testScanFiltersAndSortsByResolution() throws IOException {
+        writeImage("small.png", "png", 800, 600);
+        writeImage("medium.png", "png", 2000, 1000);
+        writeImage("large.png", "png", 4000, 3000);
+        Files.write(tempDir.resolve("broken.jpg"), new byte[] {1, 2, 3});
+
+        FileScanner scanner = new FileScanner();
+        scanner.scanDirectory(tempDir.toString(), null);
+        MediaCatalog catalog = scanner.getCatalog();
+
+        FacetIndex.Query query = new FacetIndex.Query();
+        query.setMaxLongSide(1023);
+        assertEquals(List.of("small.png"), names(catalog, query, MediaCatalog.SortOrder.SCAN_ORDER));
+
+        query = new FacetIndex.Query();
+        query.setPixelRange(1_000_000, 0);
+        assertEquals(List.of("large.png", "medium.png"), names(catalog, query, MediaCatalog.SortOrder.HIGHEST_RESOLUTION));
+    }
+
+    private List<String> names(MediaCatalog catalog, FacetIndex.Query query, MediaCatalog.SortOrder order) {
+        return catalog.resolve(catalog.getFacets().evaluate(query).getMatches(), order)
+                      .get(MediaCatalog.Section.IMAGES).stream().map(MediaFile::getFileName)
+                      .collect(java.util.stream.Collectors.toList());
+    }
+
+    private File writeImage(String name, String format, int width, int height) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        int type = format.equals("gif") ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_INT_RGB;
+        assertTrue(ImageIO.write(new BufferedImage(width, height, type), format, file));
+        return file;
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,152 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ImagePrefetcher;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+public class ImagePrefetcherTest {
+
+    private final Map<File, CompletableFuture<String>> started = new HashMap<>();
+    private final List<File> files = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 20; i++) {
+            files.add(new File("image" + i + ".jpg"));
+        }
+    }
+
+    @Test
+    public void testReferencesAreHandedOutAndReleased() {
+        Map<String, Integer> references = new HashMap<>();
+        ImagePrefetcher<String> prefetcher = new ImagePrefetcher<>(1, 20, 10, (file, progress, partial) -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            started.put(file, future);
+            return future;
+        }, value -> 10, value -> {
+            references.merge(value, 1, Integer::sum);
+            return value;
+        }, value -> references.merge(value, -1, Integer::sum));
+
+        AtomicReference<String> shown = new AtomicReference<>();
+        prefetcher.load(files.get(0), progress -> { }).thenAccept(shown::set);
+        references.put("zero", 1);
+        started.get(files.get(0)).complete("zero");
+        // One reference for the caller, one for the cache
+        assertEquals("zero", shown.get());
+        assertEquals(2, (int) references.get("zero"));
+
+        // Filling the budget evicts and releases the cache's reference
+        for (int i = 1; i <= 2; i++) {
+            prefetcher.load(files.get(i), progress -> { });
+            references.put("image" + i, 1);
+            started.get(files.get(i)).complete("image" + i);
+        }
+        assertEquals(1, (int) references.get("zero"));
+    }
+
+    @Test
+    public void testPartialRendersReachTheWaiter() {
+        Map<File, Consumer<String>> partials = new HashMap<>();
+        List<String> released = new ArrayList<>();
+        ImagePrefetcher<String> prefetcher = new ImagePrefetcher<>(1, 1000, 10, (file, progress, partial) -> {
+            partials.put(file, partial);
+            return new CompletableFuture<>();
+        }, value -> 10, value -> value, released::add);
+
+        List<String> shown = new ArrayList<>();
+        prefetcher.load(files.get(0), progress -> { }, shown::add);
+        prefetcher.prefetch(files, 0);
+        partials.get(files.get(0)).accept("pass 1");
+        // Nobody waits for the neighbour, its partial renders are released
+        partials.get(files.get(1)).accept("neighbour pass");
+
+        assertEquals(Collections.singletonList("pass 1"), shown);
+        assertEquals(Collections.singletonList("neighbour pass"), released);
+    }
+
+    private ImagePrefetcher<String> prefetcher(int radius, long maxBytes) {
+        // Loads stay pending until the test completes them; every image weighs 10 bytes
+        return new ImagePrefetcher<>(radius, maxBytes, 10, (file, progress, partial) -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            started.put(file, future);
+            return future;
+        }, value -> 10);
+    }
+
+    @Test
+    public void testPrefetchesNeighboursOnBothSides() {
+        ImagePrefetcher<String> prefetcher = prefetcher(2, 1000);
+        prefetcher.prefetch(files, 5);
+        assertEquals(4, started.size());
+        assertTrue(started.containsKey(files.get(3)));
+        assertTrue(started.containsKey(files.get(4)));
+        assertTrue(started.containsKey(files.get(6)));
+        assertTrue(started.containsKey(files.get(7)));
+    }
+
+    @Test
+    public void testFavoursDirectionOfTravel() {
+        // Room for one neighbour only
+        ImagePrefetcher<String> prefetcher = prefetcher(2, 20);
+        prefetcher.prefetch(files, 5);
+        prefetcher.prefetch(files, 6);
+        assertTrue(started.containsKey(files.get(7)));
+        assertFalse(started.containsKey(files.get(4)));
+
+        // Stepping back looks back first
+        prefetcher.prefetch(files, 5);
+        assertTrue(started.containsKey(files.get(4)));
+        assertTrue(started.get(files.get(7)).isCancelled());
+    }
+
+    @Test
+    public void testWindowIsLimitedByBudget() {
+        // Room for the current image and three neighbours
+        ImagePrefetcher<String> prefetcher = prefetcher(5, 40);
+        prefetcher.prefetch(files, 0);
+        assertEquals(3, started.size());
+        assertTrue(started.containsKey(files.get(1)));
+        assertTrue(started.containsKey(files.get(3)));
+        assertFalse(started.containsKey(files.get(4)));
+    }
+
+    @Test
+    public void testJumpCancelsLoadsOutsideWindow() {
+        ImagePrefetcher<String> prefetcher = prefetcher(1, 1000);
+        prefetcher.prefetch(files, 5);
+        CompletableFuture<String> next = started.get(files.get(6));
+
+        prefetcher.prefetch(files, 15);
+        assertTrue(next.isCancelled());
+        assertEquals(2, prefetcher.getLoadingCount());
+    }
+
+    @Test
+    public void testLoadJoinsPrefetchAndCaches() {
+        ImagePrefetcher<String> prefetcher = prefetcher(1, 1000);
+        prefetcher.prefetch(files, 5);
+        AtomicReference<String> result = new AtomicReference<>();
+        prefetcher.load(files.get(6), progress -> { }).thenAccept(result::set);
+        assertEquals(2, started.size());
+
+        started.get(files.get(6)).complete("six");
+        assertEquals("six", result.get());
+        assertEquals("six", prefetcher.getCached(files.get(6)));
+        assertEquals(1, prefetcher.getLoadingCount());
+
+        // Cached images are not loaded again
+        prefetcher.prefetch(files, 5);
+        assertEquals(2, started.size());
+    }
+}
@@ -0,0 +1,124 @@
+package com.mediaviewer;
+
+import com.mediaviewer.controller.MediaGridView;
+import com.mediaviewer.model.MediaFile;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.util.Callback;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MediaGridViewTest {
+
+    private Path tempDir;
+
+    @BeforeClass
+    public static void startToolkit() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            Platform.startup(started::countDown);
+        } catch (IllegalStateException e) {
+            started.countDown(); // Already running
+        } catch (RuntimeException e) {
+            // No display to show the grid on, e.g. a headless build machine
+            Assume.assumeNoException(e);
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("gridTest");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testRefreshReusesRows() throws Exception {
+        List<MediaFile> files = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            files.add(new MediaFile(tempDir.resolve("img_" + i + ".jpg").toFile()));
+        }
+        AtomicInteger created = new AtomicInteger();
+
+        onFxThread(() -> {
+            MediaGridView grid = new MediaGridView();
+            @SuppressWarnings("unchecked")
+            ListView<Integer> rowList = (ListView<Integer>) grid.getChildren().get(0);
+            Callback<ListView<Integer>, ListCell<Integer>> factory = rowList.getCellFactory();
+            rowList.setCellFactory(listView -> {
+                created.incrementAndGet();
+                return factory.call(listView);
+            });
+            new Scene(grid, 800, 600);
+            grid.setFiles(files);
+            layout(grid);
+            int initial = created.get();
+            assertTrue(initial > 0);
+
+            // Favorite toggles and filter changes both refresh the grid
+            for (int i = 0; i < 100; i++) {
+                grid.refresh();
+                grid.setFiles(i % 2 == 0 ? files : files.subList(0, 250));
+                layout(grid);
+            }
+            // A spare row or two at most, not a new set per refresh
+            assertTrue("Rows created: " + created.get(), created.get() <= initial + 2);
+        });
+    }
+
+    private void layout(MediaGridView grid) {
+        grid.applyCss();
+        grid.layout();
+    }
+
+    private void onFxThread(Runnable action) throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                action.run();
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            }
+        });
+        try {
+            done.get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AssertionError) {
+                throw (AssertionError) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,101 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.NameReservations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class NameReservationsTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("reservationsTest");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testNumbersContinuePerName() throws IOException {
+        Files.createFile(tempDir.resolve("IMG_0001.jpg"));
+        Files.createFile(tempDir.resolve("IMG_0001_1.jpg"));
+        NameReservations names = new NameReservations(false);
+
+        assertEquals("IMG_0001_2.jpg", names.reserve(tempDir, "IMG_0001.jpg").getFileName().toString());
+        assertEquals("IMG_0001_3.jpg", names.reserve(tempDir, "IMG_0001.jpg").getFileName().toString());
+        assertEquals("IMG_0002.jpg", names.reserve(tempDir, "IMG_0002.jpg").getFileName().toString());
+        assertEquals("IMG_0002_1.jpg", names.reserve(tempDir, "IMG_0002.jpg").getFileName().toString());
+        assertEquals("notes", names.reserve(tempDir, "notes").getFileName().toString());
+        assertEquals("notes_1", names.reserve(tempDir, "notes").getFileName().toString());
+    }
+
+    @Test
+    public void testDirectoryIsListedOnce() throws IOException {
+        NameReservations names = new NameReservations(false);
+        assertEquals(tempDir.resolve("a.jpg"), names.reserve(tempDir, "a.jpg"));
+        // Not on disk yet when the directory was listed, so not seen
+        Files.createFile(tempDir.resolve("b.jpg"));
+        assertEquals(tempDir.resolve("b.jpg"), names.reserve(tempDir, "b.jpg"));
+        assertEquals(1, names.getListedDirectoryCount());
+
+        // Directories the run creates start empty
+        Path missing = tempDir.resolve("2024/05");
+        assertEquals(missing.resolve("a.jpg"), names.reserve(missing, "a.jpg"));
+    }
+
+    @Test
+    public void testCaseInsensitiveNamesCollide() throws IOException {
+        Files.createFile(tempDir.resolve("Photo.JPG"));
+        NameReservations names = new NameReservations(true);
+        assertEquals("photo_1.jpg", names.reserve(tempDir, "photo.jpg").getFileName().toString());
+    }
+
+    @Test
+    public void testParallelReservationsAreUnique() throws Exception {
+        NameReservations names = new NameReservations(false);
+        List<Path> reserved = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                List<Path> mine = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    mine.add(names.reserve(tempDir, "IMG_0001.jpg"));
+                }
+                synchronized (reserved) {
+                    reserved.addAll(mine);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Set<Path> unique = new HashSet<>(reserved);
+        assertEquals(4000, unique.size());
+        assertTrue(unique.contains(tempDir.resolve("IMG_0001_3999.jpg")));
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,75 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.OffHeapImage;
+import com.mediaviewer.utils.PixelBufferPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+public class OffHeapImageTest {
+
+    @Test
+    public void testCopiesPixelsAsPremultipliedBgra() {
+        BufferedImage source = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+        source.setRGB(0, 0, 0xFF102030);
+        source.setRGB(1, 0, 0x80FF0000);
+        source.setRGB(2, 0, 0x00FFFFFF);
+
+        try (OffHeapImage image = OffHeapImage.copyOf(source, null)) {
+            assertEquals(3, image.getWidth());
+            assertEquals(2, image.getHeight());
+            assertEquals(24, image.getByteCount());
+
+            ByteBuffer pixels = image.getPixels();
+            assertBgra(pixels, 0, 0x30, 0x20, 0x10, 0xFF);
+            assertBgra(pixels, 1, 0x00, 0x00, 0x80, 0x80);
+            assertBgra(pixels, 2, 0, 0, 0, 0);
+        }
+    }
+
+    @Test
+    public void testOpaqueAndByteImages() {
+        BufferedImage rgb = new BufferedImage(2, 1, BufferedImage.TYPE_INT_RGB);
+        rgb.setRGB(1, 0, 0x123456);
+        BufferedImage bgr = new BufferedImage(2, 1, BufferedImage.TYPE_3BYTE_BGR);
+        bgr.setRGB(1, 0, 0x123456);
+
+        for (BufferedImage source : new BufferedImage[] {rgb, bgr}) {
+            try (OffHeapImage image = OffHeapImage.copyOf(source, null)) {
+                assertBgra(image.getPixels(), 1, 0x56, 0x34, 0x12, 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void testLastReferenceReturnsBufferToPool() {
+        PixelBufferPool pool = new PixelBufferPool(1024);
+        OffHeapImage image = OffHeapImage.copyOf(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), pool);
+        assertSame(image, image.retain());
+
+        image.close();
+        assertFalse(image.isReleased());
+        assertEquals(0, pool.getPooledBytes());
+
+        image.close();
+        assertTrue(image.isReleased());
+        assertEquals(64, pool.getPooledBytes());
+        assertNull(image.retain());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDoubleReleaseFails() {
+        OffHeapImage image = OffHeapImage.copyOf(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), null);
+        image.close();
+        image.close();
+    }
+
+    private void assertBgra(ByteBuffer pixels, int index, int blue, int green, int red, int alpha) {
+        int offset = index * 4;
+        assertEquals(blue, pixels.get(offset) & 0xFF);
+        assertEquals(green, pixels.get(offset + 1) & 0xFF);
+        assertEquals(red, pixels.get(offset + 2) & 0xFF);
+        assertEquals(alpha, pixels.get(offset + 3) & 0xFF);
+    }
+}
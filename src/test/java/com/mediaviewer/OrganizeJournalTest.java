@@ -0,0 +1,162 @@
+package com.mediaviewer;
+
+import com.mediaviewer.model.MediaFile;
+import com.mediaviewer.utils.BulkOrganizer;
+import com.mediaviewer.utils.FileOrganizer;
+import com.mediaviewer.utils.OrganizeJournal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+public class OrganizeJournalTest {
+
+    private Path tempDir;
+    private Path library;
+    private Path journals;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("journalTest");
+        library = Files.createDirectory(tempDir.resolve("library"));
+        journals = tempDir.resolve("journal");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testFinishedRunCanBeUndone() throws IOException {
+        List<MediaFile> files = Arrays.asList(
+            createMediaFile("a", "IMG_0001.jpg"),
+            createMediaFile("b", "IMG_0001.jpg"),
+            // Paths with tabs survive the journal
+            createMediaFile("b", "with\ttab.jpg"));
+
+        BulkOrganizer organizer = new BulkOrganizer(2);
+        BulkOrganizer.Plan plan = organizer.plan(library, files, FileOrganizer.Layout.BY_DATE);
+        try (OrganizeJournal journal = OrganizeJournal.create(journals, plan)) {
+            assertEquals(3, organizer.execute(plan, null, journal).getMovedCount());
+        }
+        assertFalse(Files.exists(library.resolve("a").resolve("IMG_0001.jpg")));
+        assertTrue(OrganizeJournal.findInterrupted(journals).isEmpty());
+
+        Path journalFile = OrganizeJournal.findLastCommitted(journals);
+        assertNotNull(journalFile);
+        try (OrganizeJournal journal = OrganizeJournal.open(journalFile)) {
+            assertEquals(OrganizeJournal.State.COMMITTED, journal.getState());
+            // The year and month directories
+            assertEquals(2, journal.getCreatedDirectories().size());
+            assertEquals(3, organizer.undo(journal, null).getMovedCount());
+        }
+
+        for (MediaFile file : files) {
+            assertTrue(Files.exists(file.getFilePath()));
+        }
+        // Created directories are gone again, the year one included
+        assertEquals(2, library.toFile().list().length);
+        assertNull(OrganizeJournal.findLastCommitted(journals));
+    }
+
+    @Test
+    public void testInterruptedRunIsRolledForward() throws IOException {
+        List<MediaFile> files = Arrays.asList(createMediaFile("a", "one.jpg"), createMediaFile("a", "two.jpg"));
+        BulkOrganizer.Plan plan = new BulkOrganizer().plan(library, files, FileOrganizer.Layout.BY_SIZE);
+        Path journalFile;
+        try (OrganizeJournal journal = OrganizeJournal.create(journals, plan)) {
+            journalFile = journal.getFile();
+            // The first file moved, but its mark was lost with the crash
+            BulkOrganizer.Move first = plan.getMoves().get(0);
+            Files.createDirectories(first.getTarget().getParent());
+            Files.move(first.getSource(), first.getTarget());
+        }
+        // A record torn by the crash
+        Files.write(journalFile, "D\t1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(Arrays.asList(journalFile), OrganizeJournal.findInterrupted(journals));
+        try (OrganizeJournal journal = OrganizeJournal.open(journalFile)) {
+            assertEquals(OrganizeJournal.State.IN_PROGRESS, journal.getState());
+            assertFalse(journal.isDone(1));
+            BulkOrganizer.Result result = new BulkOrganizer().rollForward(journal, null);
+            assertEquals(1, result.getMovedCount());
+            assertEquals(OrganizeJournal.State.COMMITTED, journal.getState());
+        }
+        for (BulkOrganizer.Move move : plan.getMoves()) {
+            assertTrue(Files.exists(move.getTarget()));
+        }
+        assertTrue(OrganizeJournal.findInterrupted(journals).isEmpty());
+    }
+
+    @Test
+    public void testInterruptedRunIsRolledBack() throws IOException {
+        List<MediaFile> files = Arrays.asList(createMediaFile("a", "one.jpg"), createMediaFile("a", "two.jpg"));
+        BulkOrganizer.Plan plan = new BulkOrganizer().plan(library, files, FileOrganizer.Layout.BY_SIZE);
+        Path journalFile;
+        try (OrganizeJournal journal = OrganizeJournal.create(journals, plan)) {
+            journalFile = journal.getFile();
+            BulkOrganizer.Move first = plan.getMoves().get(0);
+            Files.createDirectories(first.getTarget().getParent());
+            Files.move(first.getSource(), first.getTarget());
+            journal.recordDone(0);
+        }
+
+        try (OrganizeJournal journal = OrganizeJournal.open(journalFile)) {
+            assertTrue(journal.isDone(0));
+            assertEquals(1, new BulkOrganizer().undo(journal, null).getMovedCount());
+            assertEquals(OrganizeJournal.State.ROLLED_BACK, journal.getState());
+        }
+        for (MediaFile file : files) {
+            assertTrue(Files.exists(file.getFilePath()));
+        }
+        assertTrue(OrganizeJournal.findInterrupted(journals).isEmpty());
+    }
+
+    @Test
+    public void testRollBackKeepsDifferentFileAtSource() throws IOException {
+        List<MediaFile> files = Arrays.asList(createMediaFile("a", "one.jpg"), createMediaFile("a", "two.jpg"));
+        BulkOrganizer.Plan plan = new BulkOrganizer().plan(library, files, FileOrganizer.Layout.BY_SIZE);
+        BulkOrganizer.Move first = plan.getMoves().get(0);
+        Files.write(first.getSource(), "original".getBytes(StandardCharsets.UTF_8));
+        Path journalFile;
+        try (OrganizeJournal journal = OrganizeJournal.create(journals, plan)) {
+            journalFile = journal.getFile();
+            // Moved without its mark, then a new file of the same size took the old name
+            Files.createDirectories(first.getTarget().getParent());
+            Files.move(first.getSource(), first.getTarget());
+        }
+        Files.write(first.getSource(), "replaced".getBytes(StandardCharsets.UTF_8));
+
+        try (OrganizeJournal journal = OrganizeJournal.open(journalFile)) {
+            BulkOrganizer.Result result = new BulkOrganizer().undo(journal, null);
+            assertEquals(1, result.getFailedCount());
+            assertNotEquals(OrganizeJournal.State.ROLLED_BACK, journal.getState());
+        }
+        assertEquals("replaced", new String(Files.readAllBytes(first.getSource()), StandardCharsets.UTF_8));
+        assertEquals("original", new String(Files.readAllBytes(first.getTarget()), StandardCharsets.UTF_8));
+    }
+
+    private MediaFile createMediaFile(String directory, String fileName) throws IOException {
+        Path parent = Files.createDirectories(library.resolve(directory));
+        return new MediaFile(Files.createFile(parent.resolve(fileName)).toFile());
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
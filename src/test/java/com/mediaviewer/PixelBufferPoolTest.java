@@ -0,0 +1,47 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.PixelBufferPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.nio.ByteBuffer;
+
+public class PixelBufferPoolTest {
+
+    @Test
+    public void testReusesBuffersOfTheSameSize() {
+        PixelBufferPool pool = new PixelBufferPool(1024);
+        ByteBuffer first = pool.acquire(400);
+        assertTrue(first.isDirect());
+        assertEquals(400, first.capacity());
+        pool.release(first);
+        assertEquals(400, pool.getPooledBytes());
+
+        // A different size needs a new buffer
+        ByteBuffer other = pool.acquire(300);
+        assertNotSame(first, other);
+
+        ByteBuffer again = pool.acquire(400);
+        assertSame(first, again);
+        assertEquals(0, again.position());
+        assertEquals(400, again.limit());
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(2, pool.getAllocationCount());
+        assertEquals(1, pool.getReuseCount());
+    }
+
+    @Test
+    public void testBuffersBeyondBudgetAreFreed() {
+        PixelBufferPool pool = new PixelBufferPool(500);
+        ByteBuffer a = pool.acquire(400);
+        ByteBuffer b = pool.acquire(400);
+        pool.release(a);
+        pool.release(b);
+        assertEquals(400, pool.getPooledBytes());
+        assertEquals(1, pool.getFreeCount());
+
+        pool.trim();
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(2, pool.getFreeCount());
+        assertNotSame(a, pool.acquire(400));
+    }
+}
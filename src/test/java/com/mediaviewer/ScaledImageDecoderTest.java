@@ -0,0 +1,102 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ScaledImageDecoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ScaledImageDecoderTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("scaledDecoderTest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testSubsamplingKeepsTwiceTheTargetSize() {
+        assertEquals(1, ScaledImageDecoder.subsamplingFor(200, 200, 150, 150));
+        assertEquals(20, ScaledImageDecoder.subsamplingFor(6000, 4000, 150, 150));
+        // Tall images are limited by their height
+        assertEquals(10, ScaledImageDecoder.subsamplingFor(1000, 3000, 150, 150));
+        assertEquals(1, ScaledImageDecoder.subsamplingFor(100, 100, 0, 0));
+    }
+
+    @Test
+    public void testDecodesToFitTheBox() throws IOException {
+        File png = tempDir.resolve("wide.png").toFile();
+        ImageIO.write(new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB), "png", png);
+
+        BufferedImage thumbnail = ScaledImageDecoder.decode(png, 150, 150);
+        assertNotNull(thumbnail);
+        assertEquals(150, thumbnail.getWidth());
+        assertEquals(75, thumbnail.getHeight());
+    }
+
+    @Test
+    public void testUnreadableFileReturnsNull() throws IOException {
+        Path text = tempDir.resolve("notes.txt");
+        Files.writeString(text, "not an image");
+        assertNull(ScaledImageDecoder.decode(text.toFile(), 150, 150));
+    }
+
+    @Test
+    public void testReportsProgressivePasses() throws IOException {
+        File file = tempDir.resolve("progressive.jpg").toFile();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB), null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        List<int[]> passes = new ArrayList<>();
+        IIOReadUpdateListener listener = (IIOReadUpdateListener) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] {IIOReadUpdateListener.class}, (proxy, method, args) -> {
+                if (method.getName().equals("passStarted")) {
+                    passes.add(new int[] {(int) args[2], (int) args[3], (int) args[4]});
+                }
+                return null;
+            });
+        BufferedImage decoded = ScaledImageDecoder.decodeStored(file, 200, 200, null, listener);
+
+        assertEquals(200, decoded.getWidth());
+        assertTrue(passes.size() > 1);
+        int[] first = passes.get(0);
+        assertTrue("progressive images report a pass range", first[2] > first[1]);
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,57 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.SortedLongIndex;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.Arrays;
+import java.util.Random;
+
+public class SortedLongIndexTest {
+
+    @Test
+    public void testRangeQueries() {
+        long[] sizes = {500, 100, 300, 100, 900, 700};
+        SortedLongIndex index = new SortedLongIndex(sizes);
+
+        // Values in [100, 500] belong to IDs 1, 3, 2, 0 (ties broken by ID)
+        assertArrayEquals(new int[] {1, 3, 2, 0}, index.range(100, 500).ids());
+        assertArrayEquals(new int[] {4}, index.atLeast(800).ids());
+        assertArrayEquals(new int[] {1, 3}, index.atMost(100).ids());
+        assertTrue(index.range(950, 2000).isEmpty());
+        assertTrue(index.range(600, 400).isEmpty());
+
+        assertEquals(100, index.min());
+        assertEquals(900, index.max());
+    }
+
+    @Test
+    public void testLargestAndSmallest() {
+        long[] times = {30, 10, 50, 20, 40};
+        SortedLongIndex index = new SortedLongIndex(times);
+
+        assertArrayEquals(new int[] {2, 4}, index.largest(2));
+        assertArrayEquals(new int[] {1, 3, 0}, index.smallest(3));
+        assertEquals(5, index.largest(100).length);
+    }
+
+    @Test
+    public void testMatchesLinearScanOnRandomData() {
+        Random random = new Random(42);
+        long[] values = new long[5000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(1000);
+        }
+        SortedLongIndex index = new SortedLongIndex(values);
+
+        for (int i = 1; i < index.size(); i++) {
+            assertTrue(index.valueAt(i - 1) <= index.valueAt(i));
+        }
+
+        int[] expected = java.util.stream.IntStream.range(0, values.length)
+            .filter(id -> values[id] >= 250 && values[id] <= 260)
+            .toArray();
+        int[] actual = index.range(250, 260).ids();
+        Arrays.sort(actual);
+        assertArrayEquals(expected, actual);
+    }
+}
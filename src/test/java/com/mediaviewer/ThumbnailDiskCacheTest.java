@@ -0,0 +1,88 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ThumbnailDiskCache;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+
+public class ThumbnailDiskCacheTest {
+
+    @Test
+    public void testPutGetAndPersistence() throws IOException {
+        Path tempDir = Files.createTempDirectory("thumbCacheTest");
+        try {
+            ThumbnailDiskCache cache = new ThumbnailDiskCache(tempDir, 1024 * 1024);
+            byte[] data = {1, 2, 3, 4};
+            cache.put("abcdef", data);
+            assertArrayEquals(data, cache.get("abcdef"));
+            assertNull(cache.get("012345"));
+
+            // A new instance over the same directory sees the stored entry
+            ThumbnailDiskCache reopened = new ThumbnailDiskCache(tempDir, 1024 * 1024);
+            assertArrayEquals(data, reopened.get("abcdef"));
+            assertEquals(1, reopened.getEntryCount());
+            assertEquals(4, reopened.getTotalBytes());
+        } finally {
+            deleteRecursively(tempDir.toFile());
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws IOException {
+        Path tempDir = Files.createTempDirectory("thumbCacheEvictTest");
+        try {
+            ThumbnailDiskCache cache = new ThumbnailDiskCache(tempDir, 250);
+            cache.put("aa0001", new byte[100]);
+            cache.put("bb0002", new byte[100]);
+            cache.get("aa0001"); // aa0001 is now more recent than bb0002
+            cache.put("cc0003", new byte[100]);
+
+            assertNotNull(cache.get("aa0001"));
+            assertNull(cache.get("bb0002"));
+            assertNotNull(cache.get("cc0003"));
+            assertTrue(cache.getTotalBytes() <= 250);
+        } finally {
+            deleteRecursively(tempDir.toFile());
+        }
+    }
+
+    @Test
+    public void testKeyTracksSourceVersionAndSize() throws IOException {
+        Path tempDir = Files.createTempDirectory("thumbCacheKeyTest");
+        try {
+            File source = Files.write(tempDir.resolve("photo.jpg"), new byte[10]).toFile();
+            String key = ThumbnailDiskCache.keyFor(source, 150, 150);
+            assertEquals(key, ThumbnailDiskCache.keyFor(source, 150, 150));
+            assertNotEquals(key, ThumbnailDiskCache.keyFor(source, 320, 320));
+
+            source.setLastModified(source.lastModified() - 60000);
+            assertNotEquals(key, ThumbnailDiskCache.keyFor(source, 150, 150));
+        } finally {
+            deleteRecursively(tempDir.toFile());
+        }
+    }
+
+    @Test
+    public void testEncodeRoundTrip() throws IOException {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(ThumbnailDiskCache.encode(image)));
+        assertEquals(40, decoded.getWidth());
+        assertEquals(30, decoded.getHeight());
+    }
+
+    private void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
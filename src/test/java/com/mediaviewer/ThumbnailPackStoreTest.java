@@ -0,0 +1,168 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ThumbnailPackStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ThumbnailPackStoreTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("packStoreTest");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testPutGetAndReopen() throws IOException {
+        ThumbnailPackStore store = new ThumbnailPackStore(tempDir);
+        store.put("a", new byte[] {1, 2, 3});
+        store.put("b", new byte[] {4, 5});
+        store.put("a", new byte[] {6});
+        assertArrayEquals(new byte[] {6}, store.get("a"));
+        assertNull(store.get("missing"));
+        store.close();
+
+        ThumbnailPackStore reopened = new ThumbnailPackStore(tempDir);
+        assertEquals(2, reopened.size());
+        assertEquals(3, reopened.getLiveBytes());
+        assertArrayEquals(new byte[] {4, 5}, reopened.get("b"));
+        assertEquals("a", reopened.eldestKey());
+    }
+
+    @Test
+    public void testRecoversRecordsWrittenAfterIndex() throws IOException {
+        ThumbnailPackStore store = new ThumbnailPackStore(tempDir);
+        store.put("a", new byte[] {1});
+        store.flush();
+        store.put("b", new byte[] {2});
+
+        // Not closed, as after a crash: "b" is only in the segment
+        ThumbnailPackStore reopened = new ThumbnailPackStore(tempDir);
+        assertArrayEquals(new byte[] {1}, reopened.get("a"));
+        assertArrayEquals(new byte[] {2}, reopened.get("b"));
+    }
+
+    @Test
+    public void testRebuildsFromSegmentsWithoutIndex() throws IOException {
+        ThumbnailPackStore store = new ThumbnailPackStore(tempDir);
+        store.put("a", new byte[] {1, 2});
+        store.put("b", new byte[] {3});
+        store.close();
+        Files.write(tempDir.resolve("index.dat"), new byte[] {9, 9, 9, 9, 9});
+
+        ThumbnailPackStore reopened = new ThumbnailPackStore(tempDir);
+        assertEquals(2, reopened.size());
+        assertArrayEquals(new byte[] {1, 2}, reopened.get("a"));
+    }
+
+    @Test
+    public void testRemovalSurvivesCrashAndLostIndex() throws IOException {
+        ThumbnailPackStore store = new ThumbnailPackStore(tempDir);
+        store.put("a", new byte[] {1});
+        store.put("b", new byte[] {2});
+        store.flush();
+        assertTrue(store.remove("a"));
+
+        // Not closed, as after a crash: only the segment knows "a" is gone
+        ThumbnailPackStore reopened = new ThumbnailPackStore(tempDir);
+        assertNull(reopened.get("a"));
+        assertEquals(1, reopened.size());
+        reopened.close();
+
+        Files.delete(tempDir.resolve("index.dat"));
+        ThumbnailPackStore rebuilt = new ThumbnailPackStore(tempDir);
+        assertNull(rebuilt.get("a"));
+        assertArrayEquals(new byte[] {2}, rebuilt.get("b"));
+        assertEquals(1, rebuilt.getLiveBytes());
+    }
+
+    @Test
+    public void testTruncatesTornRecord() throws IOException {
+        ThumbnailPackStore store = new ThumbnailPackStore(tempDir);
+        store.put("a", new byte[] {1, 2});
+        store.put("b", new byte[100]);
+        store.close();
+        Files.delete(tempDir.resolve("index.dat"));
+        Path segment = tempDir.resolve("segment-000001.pack");
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 10);
+        }
+
+        ThumbnailPackStore reopened = new ThumbnailPackStore(tempDir);
+        assertArrayEquals(new byte[] {1, 2}, reopened.get("a"));
+        assertNull(reopened.get("b"));
+        assertTrue(Files.size(segment) < size - 10);
+
+        reopened.put("c", new byte[] {7});
+        assertArrayEquals(new byte[] {7}, new ThumbnailPackStore(tempDir).get("c"));
+    }
+
+    @Test
+    public void testCompactionDropsDeadRecords() throws IOException {
+        ThumbnailPackStore store = new ThumbnailPackStore(tempDir, 1024);
+        for (int i = 0; i < 20; i++) {
+            store.put("key" + i, new byte[200]);
+        }
+        for (int i = 0; i < 15; i++) {
+            store.remove("key" + i);
+        }
+        assertTrue(store.getSegmentCount() > 2);
+
+        store.compact();
+        assertEquals(0, store.getDeadBytes());
+        assertEquals(5, store.size());
+        assertEquals(2, store.getSegmentCount());
+        assertEquals(200, store.get("key19").length);
+
+        ThumbnailPackStore reopened = new ThumbnailPackStore(tempDir, 1024);
+        assertEquals(5, reopened.size());
+        assertNull(reopened.get("key0"));
+    }
+
+    @Test
+    public void testSkipsOldSegmentLeftByCompaction() throws IOException {
+        // One record per segment
+        ThumbnailPackStore store = new ThumbnailPackStore(tempDir, 20);
+        store.put("a", new byte[] {1, 1, 1, 1});
+        store.put("a", new byte[] {2, 2, 2, 2});
+        Path oldSegment = tempDir.resolve("segment-000001.pack");
+        byte[] oldRecord = Files.readAllBytes(oldSegment);
+        store.compact();
+        store.close();
+
+        // As if the old segment could not be deleted because a reader still had it mapped
+        Files.write(oldSegment, oldRecord);
+
+        ThumbnailPackStore reopened = new ThumbnailPackStore(tempDir, 20);
+        assertArrayEquals(new byte[] {2, 2, 2, 2}, reopened.get("a"));
+        assertEquals(1, reopened.getSegmentCount());
+        assertEquals(0, reopened.getDeadBytes());
+        // Retried on open
+        assertFalse(Files.exists(oldSegment));
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,96 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ThumbnailDiskCache;
+import com.mediaviewer.utils.ThumbnailPipeline;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class ThumbnailPipelineTest {
+
+    private Path tempDir;
+    private ThumbnailPipeline pipeline;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("pipelineTest");
+        pipeline = new ThumbnailPipeline(new ThumbnailDiskCache(tempDir.resolve("cache"), 1024 * 1024));
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testGeneratesAndCachesWithoutJavaFx() throws IOException {
+        File source = writeImage("photo.png", 800, 600);
+
+        assertNull(pipeline.getCached(source, 150));
+        BufferedImage thumbnail = pipeline.thumbnail(source, 150);
+        assertEquals(160, thumbnail.getWidth());
+        assertEquals(120, thumbnail.getHeight());
+
+        byte[] cached = pipeline.getCached(source, 150);
+        assertNotNull(cached);
+        assertEquals(160, ImageIO.read(new ByteArrayInputStream(cached)).getWidth());
+        assertFalse(pipeline.pregenerate(source, 150));
+    }
+
+    @Test
+    public void testUndecodableFile() throws IOException {
+        File source = tempDir.resolve("broken.jpg").toFile();
+        Files.write(source.toPath(), new byte[] {1, 2, 3});
+        assertNull(pipeline.thumbnail(source, 64));
+        assertNull(pipeline.thumbnailBytes(source, 64));
+    }
+
+    @Test
+    public void testIcon() {
+        BufferedImage icon = ThumbnailPipeline.createIcon(20, 10, Color.RED);
+        assertEquals(20, icon.getWidth());
+        assertEquals(Color.RED.getRGB(), icon.getRGB(5, 5));
+    }
+
+    @Test
+    public void testBatchRun() throws Exception {
+        writeImage("a.png", 400, 300);
+        Files.createDirectories(tempDir.resolve("nested"));
+        writeImage("nested/b.jpg", 300, 400);
+        Files.write(tempDir.resolve("notes.txt"), new byte[] {1});
+
+        List<Path> files = ThumbnailBatch.findImages(tempDir);
+        assertEquals(2, files.size());
+        ThumbnailBatch.Result first = ThumbnailBatch.run(pipeline, files, 64, 2);
+        assertEquals(2, first.generated);
+        ThumbnailBatch.Result second = ThumbnailBatch.run(pipeline, files, 64, 2);
+        assertEquals(2, second.skipped);
+    }
+
+    private File writeImage(String name, int width, int height) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ImageIO.write(image, name.endsWith(".png") ? "png" : "jpg", file);
+        return file;
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,105 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ThumbnailPregenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ThumbnailPregeneratorTest {
+
+    private Path tempDir;
+    private final Set<String> processed = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private ThumbnailPregenerator pregenerator;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("pregenerationTest");
+        pregenerator = new ThumbnailPregenerator(tempDir.resolve("state"),
+            file -> processed.add(file.getName()), busy::get, 2, 0);
+        pregenerator.setProgressListener(progress -> {
+            if (progress.isFinished()) {
+                finished.countDown();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pregenerator.stop();
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testProcessesEveryFileAndClearsState() throws Exception {
+        pregenerator.start(files(100));
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(100, processed.size());
+        assertFalse(Files.exists(tempDir.resolve("state").resolve("queue.txt")));
+        assertFalse(pregenerator.isRunning());
+    }
+
+    @Test
+    public void testResumesFromSavedCursor() throws Exception {
+        Path state = Files.createDirectories(tempDir.resolve("state"));
+        List<String> lines = new ArrayList<>();
+        for (Path file : files(10)) {
+            lines.add(file.toString());
+        }
+        Files.write(state.resolve("queue.txt"), lines);
+        Files.writeString(state.resolve("cursor.txt"), "6");
+
+        assertTrue(pregenerator.resume());
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(Set.of("file6.jpg", "file7.jpg", "file8.jpg", "file9.jpg"), processed);
+    }
+
+    @Test
+    public void testPausesWhileForegroundWorkIsPending() throws Exception {
+        busy.set(true);
+        pregenerator.start(files(5));
+        Thread.sleep(500);
+        assertTrue(processed.isEmpty());
+
+        busy.set(false);
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(5, processed.size());
+    }
+
+    @Test
+    public void testNothingToResume() {
+        assertFalse(pregenerator.resume());
+    }
+
+    private List<Path> files(int count) {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            files.add(tempDir.resolve("file" + i + ".jpg"));
+        }
+        return files;
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
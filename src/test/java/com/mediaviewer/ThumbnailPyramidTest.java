@@ -0,0 +1,65 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ThumbnailPyramid;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+public class ThumbnailPyramidTest {
+
+    @Test
+    public void testLevelFor() {
+        assertEquals(64, ThumbnailPyramid.levelFor(40));
+        assertEquals(160, ThumbnailPyramid.levelFor(150));
+        assertEquals(320, ThumbnailPyramid.levelFor(200));
+        assertEquals(320, ThumbnailPyramid.levelFor(1000));
+    }
+
+    @Test
+    public void testBuildsEveryLevelFromOneImage() throws IOException {
+        Map<Integer, BufferedImage> levels = ThumbnailPyramid.build(
+            new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB), 320);
+
+        assertEquals(3, levels.size());
+        assertEquals(320, levels.get(320).getWidth());
+        assertEquals(160, levels.get(320).getHeight());
+        assertEquals(160, levels.get(160).getWidth());
+        assertEquals(64, levels.get(64).getWidth());
+        assertEquals(32, levels.get(64).getHeight());
+    }
+
+    @Test
+    public void testSmallSourcesAreNotUpscaled() throws IOException {
+        Map<Integer, BufferedImage> levels = ThumbnailPyramid.build(
+            new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), 320);
+        assertEquals(100, levels.get(320).getWidth());
+        assertEquals(100, levels.get(160).getWidth());
+        assertEquals(64, levels.get(64).getWidth());
+    }
+
+    @Test
+    public void testPartialPyramidFromSmallPreview() throws IOException {
+        Map<Integer, BufferedImage> levels = ThumbnailPyramid.build(
+            new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB), 160);
+        byte[] blob = ThumbnailPyramid.encode(levels);
+
+        assertNotNull(ThumbnailPyramid.level(blob, 160));
+        assertNotNull(ThumbnailPyramid.level(blob, 64));
+        assertNull(ThumbnailPyramid.level(blob, 320));
+    }
+
+    @Test
+    public void testEncodedLevelsDecode() throws IOException {
+        byte[] blob = ThumbnailPyramid.encode(ThumbnailPyramid.build(
+            new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB), 320));
+
+        BufferedImage level = ImageIO.read(new ByteArrayInputStream(ThumbnailPyramid.level(blob, 160)));
+        assertEquals(160, level.getWidth());
+        assertEquals(120, level.getHeight());
+        assertNull(ThumbnailPyramid.level(new byte[] {1, 2, 3, 4, 5, 6}, 160));
+    }
+}
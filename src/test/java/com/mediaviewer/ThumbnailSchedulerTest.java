@@ -0,0 +1,115 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.ThumbnailScheduler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ThumbnailSchedulerTest {
+
+    private ThumbnailScheduler scheduler;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() throws Exception {
+        // A single worker, held busy so requests pile up in the queue
+        scheduler = new ThumbnailScheduler(1);
+        release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("blocker", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testRunsClosestToViewportFirst() throws Exception {
+        ThumbnailScheduler.Client client = scheduler.newClient();
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[10];
+        for (int i = 0; i < 10; i++) {
+            int index = i;
+            futures[i] = client.request("item-" + i, i, () -> order.add(index));
+        }
+        client.updateViewport(6, 7);
+
+        release.countDown();
+        CompletableFuture.allOf(futures).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(6, 7, 5, 8, 4, 9, 3, 2, 1, 0), order);
+    }
+
+    @Test
+    public void testCancelsRequestsFarOffScreen() throws Exception {
+        ThumbnailScheduler.Client client = scheduler.newClient();
+        CompletableFuture<String> near = client.request("near", 1000, () -> "near");
+        CompletableFuture<String> far = client.request("far", 0, () -> "far");
+        client.updateViewport(990, 1010);
+
+        release.countDown();
+        assertEquals("near", near.get(5, TimeUnit.SECONDS));
+        assertTrue(far.isCancelled());
+        assertEquals(1, scheduler.getCancelledCount());
+    }
+
+    @Test
+    public void testCoalescesDuplicateKeys() throws Exception {
+        ThumbnailScheduler.Client first = scheduler.newClient();
+        ThumbnailScheduler.Client second = scheduler.newClient();
+        CompletableFuture<String> a = first.request("same", 0, () -> "value");
+        CompletableFuture<String> b = second.request("same", 3, () -> "other");
+        assertSame(a, b);
+        assertEquals(1, scheduler.getCoalescedCount());
+
+        release.countDown();
+        assertEquals("value", b.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelsSingleKey() throws Exception {
+        ThumbnailScheduler.Client tiles = scheduler.newClient();
+        ThumbnailScheduler.Client other = scheduler.newClient();
+        CompletableFuture<String> left = tiles.request("left", 0, () -> "left");
+        CompletableFuture<String> stays = tiles.request("stays", 1, () -> "stays");
+        CompletableFuture<String> shared = other.request("shared", 0, () -> "shared");
+        tiles.cancel("left");
+        // Only the client that queued a request can cancel it
+        tiles.cancel("shared");
+
+        release.countDown();
+        assertEquals("stays", stays.get(5, TimeUnit.SECONDS));
+        assertEquals("shared", shared.get(5, TimeUnit.SECONDS));
+        assertTrue(left.isCancelled());
+        assertEquals(1, scheduler.getCancelledCount());
+    }
+
+    @Test
+    public void testCancelAllOnlyAffectsItsClient() throws Exception {
+        ThumbnailScheduler.Client images = scheduler.newClient();
+        ThumbnailScheduler.Client videos = scheduler.newClient();
+        CompletableFuture<String> image = images.request("image", 0, () -> "image");
+        CompletableFuture<String> video = videos.request("video", 0, () -> "video");
+        images.cancelAll();
+
+        release.countDown();
+        assertEquals("video", video.get(5, TimeUnit.SECONDS));
+        assertTrue(image.isCancelled());
+    }
+}
@@ -0,0 +1,117 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.TiledImageSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TiledImageSourceTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("tileTest");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    @Test
+    public void testPyramidGeometry() throws IOException {
+        TiledImageSource source = TiledImageSource.open(writeImage(2000, 1500));
+        assertNotNull(source);
+        assertEquals(2000, source.getWidth());
+        assertEquals(1500, source.getHeight());
+        // 2000 -> 1000 -> 500 fits one tile
+        assertEquals(2, source.getMaxLevel());
+
+        assertEquals(0, source.levelFor(4.0));
+        assertEquals(0, source.levelFor(1.0));
+        assertEquals(1, source.levelFor(0.5));
+        assertEquals(1, source.levelFor(0.3));
+        assertEquals(2, source.levelFor(0.01));
+
+        assertEquals(4, source.getColumns(0));
+        assertEquals(3, source.getRows(0));
+        assertEquals(1, source.getColumns(2));
+        assertEquals(1, source.getRows(2));
+
+        // Edge tiles are clipped to the image
+        assertEquals(new Rectangle(1536, 1024, 464, 476), source.tileRegion(0, 3, 2));
+        assertEquals(new Rectangle(0, 0, 2000, 1500), source.tileRegion(2, 0, 0));
+    }
+
+    @Test
+    public void testDecodeTiles() throws IOException {
+        TiledImageSource source = TiledImageSource.open(writeImage(2000, 1500));
+
+        BufferedImage full = source.decodeTile(0, 1, 1);
+        assertEquals(512, full.getWidth());
+        assertEquals(512, full.getHeight());
+        // Tile (1, 1) starts at (512, 512), inside the red block
+        assertEquals(Color.RED.getRGB(), full.getRGB(10, 10));
+
+        BufferedImage edge = source.decodeTile(0, 3, 2);
+        assertEquals(464, edge.getWidth());
+        assertEquals(476, edge.getHeight());
+
+        // The coarsest level covers the whole image in at most one tile's pixels
+        BufferedImage overview = source.decodeTile(2, 0, 0);
+        assertTrue(overview.getWidth() <= TiledImageSource.TILE_SIZE);
+        assertTrue(overview.getHeight() <= TiledImageSource.TILE_SIZE);
+        assertEquals(500, overview.getWidth());
+
+        assertNull(source.decodeTile(0, 10, 10));
+    }
+
+    @Test
+    public void testTileKeys() throws IOException {
+        TiledImageSource source = TiledImageSource.open(writeImage(600, 600));
+        assertEquals(source.tile(0, 1, 0), source.tile(0, 1, 0));
+        assertEquals(source.tile(0, 1, 0).hashCode(), source.tile(0, 1, 0).hashCode());
+        assertNotEquals(source.tile(0, 1, 0), source.tile(1, 1, 0));
+    }
+
+    @Test
+    public void testUnreadableFile() throws IOException {
+        Path file = tempDir.resolve("broken.png");
+        Files.write(file, new byte[] {1, 2, 3});
+        assertNull(TiledImageSource.open(file.toFile()));
+    }
+
+    private File writeImage(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.RED);
+        g.fillRect(512, 512, Math.min(512, width - 512), Math.min(512, height - 512));
+        g.dispose();
+        File file = tempDir.resolve("image.png").toFile();
+        assertTrue(ImageIO.write(image, "png", file));
+        return file;
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,106 @@
+package com.mediaviewer;
+
+import com.mediaviewer.utils.WeightedLruCache;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class WeightedLruCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByWeight() {
+        WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(100, value -> value.length);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        assertNotNull(cache.get("a")); // "b" becomes the eldest entry
+        cache.put("c", new byte[40]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(80, cache.getTotalWeight());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testOversizedValuesAreNotCached() {
+        WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(100, value -> value.length);
+        cache.put("small", new byte[10]);
+        cache.put("huge", new byte[500]);
+        assertNull(cache.get("huge"));
+        assertNotNull(cache.get("small"));
+    }
+
+    @Test
+    public void testReplacingAValueUpdatesWeight() {
+        WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(100, value -> value.length);
+        cache.put("a", new byte[30]);
+        cache.put("a", new byte[50]);
+        assertEquals(50, cache.getTotalWeight());
+        cache.remove("a");
+        assertEquals(0, cache.getTotalWeight());
+    }
+
+    @Test
+    public void testWeightIsTakenWhenAdded() {
+        // Like an image that reports its real size only once it has loaded
+        long[] currentWeight = {30};
+        WeightedLruCache<String, Object> cache = new WeightedLruCache<>(100, value -> currentWeight[0]);
+        cache.put("a", new Object());
+        cache.put("b", new Object());
+        currentWeight[0] = 50;
+
+        cache.put("a", new Object());   // replaces 30 with 50
+        assertEquals(80, cache.getTotalWeight());
+        cache.put("c", new Object());   // evicts "b", which was added at 30
+        assertNull(cache.get("b"));
+        assertEquals(100, cache.getTotalWeight());
+
+        currentWeight[0] = 5;
+        cache.remove("a");
+        assertEquals(50, cache.getTotalWeight());
+        cache.remove("c");
+        assertEquals(0, cache.getTotalWeight());
+    }
+
+    @Test
+    public void testRemovalListenerSeesDroppedValues() {
+        List<String> dropped = new ArrayList<>();
+        WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(100, value -> value.length,
+                                                                       (key, value) -> dropped.add(key));
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        cache.put("c", new byte[40]);   // evicts "a"
+        cache.put("b", new byte[10]);   // replaces "b"
+        cache.put("huge", new byte[500]);
+        cache.remove("c");              // handed to the caller
+        cache.clear();
+        assertEquals(Arrays.asList("a", "b", "huge", "b"), dropped);
+    }
+
+    @Test
+    public void testConcurrentAccessStaysWithinBudget() throws InterruptedException {
+        WeightedLruCache<Integer, byte[]> cache = new WeightedLruCache<>(10000, value -> value.length);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 1000;
+            executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    cache.put(offset + i, new byte[100]);
+                    cache.get(offset + i / 2);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(cache.getTotalWeight() <= 10000);
+        assertEquals(cache.size() * 100L, cache.getTotalWeight());
+    }
+}